@@ -55,15 +55,18 @@ import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.S
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.RunSessionRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.RunSessionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.SessionFilter;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.stub.SessionStub;
 import com.google.protobuf.Any;
 import com.google.protobuf.FieldMask;
 import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status.Code;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 
@@ -198,19 +201,84 @@ public class AtsSessionStub {
 
     private final SessionId sessionId;
 
+    private SessionStatus sessionStatus = SessionStatus.SESSION_STATUS_UNSPECIFIED;
+
     private GetAtsSessionTask(SessionId sessionId) {
       this.sessionId = sessionId;
     }
 
     @Override
     public AtsSessionPluginOutput call() throws MobileHarnessException, InterruptedException {
-      SessionStatus sessionStatus = SessionStatus.SESSION_STATUS_UNSPECIFIED;
+      // Watches the session until it finishes, or polls it if the server doesn't support watching.
+      Optional<SessionDetail> finalSessionDetail = watchSession();
+      SessionDetail sessionDetail;
+      if (finalSessionDetail.isPresent()) {
+        sessionDetail = finalSessionDetail.get();
+      } else {
+        waitUntilSessionFinished();
+        sessionDetail = getSessionDetail();
+      }
+      logger.atFine().log("Session result: [%s]", shortDebugString(sessionDetail));
+
+      // Gets session plugin output.
+      return getSessionPluginOutput(sessionDetail);
+    }
+
+    /**
+     * Watches the session and returns its final {@link SessionDetail}, or empty if the server
+     * doesn't support watching sessions or the stream completes before the session finishes.
+     */
+    private Optional<SessionDetail> watchSession()
+        throws MobileHarnessException, InterruptedException {
+      AtomicReference<SessionDetail> finalSessionDetail = new AtomicReference<>();
+      try {
+        sessionStub.watchSession(
+            WatchSessionRequest.newBuilder().setSessionId(sessionId).build(),
+            response -> {
+              updateSessionStatus(response.getSessionStatus());
+              if (response.getSessionPluginOutputCount() > 0) {
+                logger.atFine().log(
+                    "Session plugin output updated: %s, session_id=[%s]",
+                    response.getSessionPluginOutputMap().keySet(), shortDebugString(sessionId));
+              }
+              if (response.hasFinalSessionDetail()) {
+                finalSessionDetail.set(response.getFinalSessionDetail());
+              }
+            });
+      } catch (GrpcExceptionWithErrorId e) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException(
+              String.format(
+                  "Interrupted when watching session, session_id=[%s]",
+                  shortDebugString(sessionId)));
+        }
+        if (e.getUnderlyingRpcException().getStatus().getCode().equals(Code.UNIMPLEMENTED)) {
+          logger.atFine().log(
+              "Server doesn't support watching sessions, polling instead, session_id=[%s]",
+              shortDebugString(sessionId));
+          return Optional.empty();
+        }
+        throw new MobileHarnessException(
+            InfraErrorId.ATSC_SESSION_STUB_WATCH_SESSION_ERROR,
+            String.format("Failed to watch session, session_id=[%s]", shortDebugString(sessionId)),
+            e);
+      }
+      if (finalSessionDetail.get() == null) {
+        logger.atWarning().log(
+            "Session watching completed before the session finished, polling instead,"
+                + " session_id=[%s]",
+            shortDebugString(sessionId));
+      }
+      return Optional.ofNullable(finalSessionDetail.get());
+    }
+
+    private void waitUntilSessionFinished() throws MobileHarnessException, InterruptedException {
       try {
         int count = 0;
-        do {
+        while (!sessionStatus.equals(SessionStatus.SESSION_FINISHED)) {
           count++;
           sleeper.sleep(calculateGetSessionStatusInterval(count));
-          SessionStatus newSessionStatus =
+          updateSessionStatus(
               sessionStub
                   .getSession(
                       GetSessionRequest.newBuilder()
@@ -218,14 +286,8 @@ public class AtsSessionStub {
                           .setFieldMask(GET_SESSION_STATUS_FIELD_MASK)
                           .build())
                   .getSessionDetail()
-                  .getSessionStatus();
-          if (!newSessionStatus.equals(sessionStatus)) {
-            sessionStatus = newSessionStatus;
-            logger.atFine().log(
-                "Session status: [%s], session_id=[%s]",
-                sessionStatus, shortDebugString(sessionId));
-          }
-        } while (!sessionStatus.equals(SessionStatus.SESSION_FINISHED));
+                  .getSessionStatus());
+        }
       } catch (GrpcExceptionWithErrorId e) {
         throw new MobileHarnessException(
             InfraErrorId.ATSC_SESSION_STUB_GET_SESSION_STATUS_ERROR,
@@ -233,14 +295,13 @@ public class AtsSessionStub {
                 "Failed to get session status, session_id=[%s]", shortDebugString(sessionId)),
             e);
       }
+    }
 
-      // Gets session detail.
-      SessionDetail sessionDetail;
+    private SessionDetail getSessionDetail() throws MobileHarnessException {
       try {
-        sessionDetail =
-            sessionStub
-                .getSession(GetSessionRequest.newBuilder().setSessionId(sessionId).build())
-                .getSessionDetail();
+        return sessionStub
+            .getSession(GetSessionRequest.newBuilder().setSessionId(sessionId).build())
+            .getSessionDetail();
       } catch (GrpcExceptionWithErrorId e) {
         throw new MobileHarnessException(
             InfraErrorId.ATSC_SESSION_STUB_GET_SESSION_RESULT_ERROR,
@@ -248,10 +309,14 @@ public class AtsSessionStub {
                 "Failed to get session result, session_id=[%s]", shortDebugString(sessionId)),
             e);
       }
-      logger.atFine().log("Session result: [%s]", shortDebugString(sessionDetail));
+    }
 
-      // Gets session plugin output.
-      return getSessionPluginOutput(sessionDetail);
+    private void updateSessionStatus(SessionStatus newSessionStatus) {
+      if (!newSessionStatus.equals(sessionStatus)) {
+        sessionStatus = newSessionStatus;
+        logger.atFine().log(
+            "Session status: [%s], session_id=[%s]", sessionStatus, shortDebugString(sessionId));
+      }
     }
   }
 
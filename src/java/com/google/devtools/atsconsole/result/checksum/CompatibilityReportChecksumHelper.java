@@ -143,7 +143,7 @@ public class CompatibilityReportChecksumHelper {
       CompatibilityReportChecksumHelper reportChecksum =
           new CompatibilityReportChecksumHelper(
               totalCount, DEFAULT_FPP, CURRENT_VERSION, buildFingerprint);
-      reportChecksum.addResults(resultReport.getModuleInfoList());
+      resultReport.getModuleInfoList().forEach(reportChecksum::addModule);
       reportChecksum.addDirectory(dir);
       reportChecksum.saveToFile(dir);
     } catch (Exception e) {
@@ -152,6 +152,36 @@ public class CompatibilityReportChecksumHelper {
     return true;
   }
 
+  /**
+   * Creates a helper to calculate checksum of test results module by module, for reports which are
+   * not held in memory at once. Adds the results by {@link #addModule(Module)} and then writes the
+   * checksum by {@link #tryFinish(File)}.
+   *
+   * @param testCount the number of test results that will be stored
+   * @param buildFingerprint build fingerprint for the device under test
+   */
+  public static CompatibilityReportChecksumHelper createIncremental(
+      int testCount, String buildFingerprint) {
+    return new CompatibilityReportChecksumHelper(
+        testCount, DEFAULT_FPP, CURRENT_VERSION, buildFingerprint);
+  }
+
+  /**
+   * Calculate checksum of files in result directory and write the checksum to disk.
+   *
+   * @param dir test results directory
+   * @return true if successful, false if unable to calculate or store the checksum
+   */
+  public boolean tryFinish(File dir) {
+    try {
+      addDirectory(dir);
+      saveToFile(dir);
+    } catch (Exception e) {
+      return false;
+    }
+    return true;
+  }
+
   private static int countTests(List<Module> modules) {
     int count = 0;
     for (Module module : modules) {
@@ -160,19 +190,18 @@ public class CompatibilityReportChecksumHelper {
     return count;
   }
 
-  private void addResults(List<Module> modules) {
-    for (Module module : modules) {
-      // First the module result signature
-      resultChecksum.put(generateModuleResultSignature(module, buildFingerprint));
-      // Second the module summary signature
-      resultChecksum.put(generateModuleSummarySignature(module, buildFingerprint));
-
-      for (TestCase testCase : module.getTestCaseList()) {
-        for (Test test : testCase.getTestList()) {
-          resultChecksum.put(
-              buildTestResultSignature(
-                  test, module.getName(), testCase.getName(), module.getAbi(), buildFingerprint));
-        }
+  /** Adds the test results of a module. */
+  public void addModule(Module module) {
+    // First the module result signature
+    resultChecksum.put(generateModuleResultSignature(module, buildFingerprint));
+    // Second the module summary signature
+    resultChecksum.put(generateModuleSummarySignature(module, buildFingerprint));
+
+    for (TestCase testCase : module.getTestCaseList()) {
+      for (Test test : testCase.getTestList()) {
+        resultChecksum.put(
+            buildTestResultSignature(
+                test, module.getName(), testCase.getName(), module.getAbi(), buildFingerprint));
       }
     }
   }
@@ -35,6 +35,7 @@ import com.google.devtools.mobileharness.api.model.error.ExtErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.shared.util.error.MoreThrowables;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -71,6 +72,13 @@ public class CompatibilityReportCreator {
   static final ImmutableList<String> RESULT_RESOURCES =
       ImmutableList.of("compatibility_result.css", REPORT_XSL_FILE_NAME, "logo.png");
 
+  /** Source of the modules of a report, which passes the modules to a consumer one by one. */
+  @FunctionalInterface
+  interface ModuleSource {
+
+    void forEachModule(ModuleConsumer consumer) throws MobileHarnessException;
+  }
+
   private final LocalFileUtil localFileUtil;
 
   @Inject
@@ -98,8 +106,44 @@ public class CompatibilityReportCreator {
    * @throws MobileHarnessException if failed to write the report to a XML file
    */
   public void createReport(Result report, Path resultDir) throws MobileHarnessException {
+    createReport(
+        report,
+        report.getModuleInfoList().stream().mapToInt(Module::getTotalTests).sum(),
+        forEachModuleOf(report),
+        resultDir);
+  }
+
+  /**
+   * Creates report and related files like {@link #createReport(Result, Path)}, but gets the modules
+   * of the report one by one from {@code modules} rather than from {@code reportHeader}, so a large
+   * report does not need to be held in memory at once.
+   *
+   * @param reportHeader the result report whose modules are ignored
+   * @param totalTests the sum of total tests of all modules
+   * @param modules the modules of the report
+   * @param resultDir the directory where to store the generated report files
+   * @throws MobileHarnessException if failed to write the report to a XML file
+   */
+  void createReport(Result reportHeader, int totalTests, ModuleSource modules, Path resultDir)
+      throws MobileHarnessException {
+    String buildFingerprint = reportHeader.getBuild().getBuildFingerprint();
+    CompatibilityReportChecksumHelper checksumHelper =
+        buildFingerprint.isEmpty()
+            ? null
+            : CompatibilityReportChecksumHelper.createIncremental(
+                Math.max(totalTests, 0), buildFingerprint);
     try {
-      writeReportToXml(report, resultDir.toFile());
+      writeReportToXml(
+          reportHeader,
+          checksumHelper == null
+              ? modules
+              : consumer ->
+                  modules.forEachModule(
+                      module -> {
+                        consumer.accept(module);
+                        checksumHelper.addModule(module);
+                      }),
+          resultDir.toFile());
     } catch (IOException e) {
       throw new MobileHarnessException(
           ExtErrorId.REPORT_CREATOR_WRITE_REPORT_TO_XML_ERROR,
@@ -107,12 +151,10 @@ public class CompatibilityReportCreator {
           e);
     }
     copyFormattingFiles(resultDir.toFile());
-    if (!report.getBuild().getBuildFingerprint().isEmpty()
-        && !CompatibilityReportChecksumHelper.tryCreateChecksum(
-            resultDir.toFile(), report, report.getBuild().getBuildFingerprint())) {
+    if (checksumHelper != null && !checksumHelper.tryFinish(resultDir.toFile())) {
       logger.atWarning().log(
           "Failed to crete checksum for result dir [%s] and report with build fingerprint [%s]",
-          resultDir, report.getBuild().getBuildFingerprint());
+          resultDir, buildFingerprint);
     }
 
     try {
@@ -136,27 +178,51 @@ public class CompatibilityReportCreator {
    * directory {@code parentDir} with the file name "test_result.xml".
    */
   @VisibleForTesting
-  void writeReportToXml(Result report, File parentDir) throws IOException {
+  void writeReportToXml(Result report, File parentDir) throws IOException, MobileHarnessException {
+    writeReportToXml(report, forEachModuleOf(report), parentDir);
+  }
+
+  /**
+   * Converts the {@code reportHeader} and the {@code modules} to a compatibility test result XML
+   * like {@link #writeReportToXml(Result, File)}, writing the modules one by one.
+   */
+  private void writeReportToXml(Result reportHeader, ModuleSource modules, File parentDir)
+      throws IOException, MobileHarnessException {
     File resultFile = new File(parentDir, TEST_RESULT_FILE_NAME);
-    OutputStream stream = new FileOutputStream(resultFile);
-    XmlSerializer serializer = null;
-    try {
-      serializer = XmlPullParserFactory.newInstance().newSerializer();
-    } catch (XmlPullParserException e) {
+    try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(resultFile))) {
+      XmlSerializer serializer;
       try {
-        stream.close();
-      } catch (IOException e2) {
-        // ignored
+        serializer = XmlPullParserFactory.newInstance().newSerializer();
+      } catch (XmlPullParserException e) {
+        throw new IOException(e);
       }
-      throw new IOException(e);
+      serializer.setOutput(stream, ENCODING);
+      serializer.startDocument(ENCODING, /* standalone= */ false);
+      serializer.setFeature(
+          "http://xmlpull.org/v1/doc/features.html#indent-output", /* state= */ true);
+      serializer.processingInstruction(
+          "xml-stylesheet type=\"text/xsl\" href=\"compatibility_result.xsl\"");
+
+      serializeReportHeader(serializer, reportHeader);
+      modules.forEachModule(
+          module -> {
+            try {
+              serializeModule(serializer, module);
+            } catch (IOException e) {
+              throw new MobileHarnessException(
+                  ExtErrorId.REPORT_CREATOR_WRITE_REPORT_TO_XML_ERROR,
+                  String.format("Failed to write module %s to %s", module.getName(), resultFile),
+                  e);
+            }
+          });
+
+      serializer.endDocument();
     }
-    serializer.setOutput(stream, ENCODING);
-    serializer.startDocument(ENCODING, /* standalone= */ false);
-    serializer.setFeature(
-        "http://xmlpull.org/v1/doc/features.html#indent-output", /* state= */ true);
-    serializer.processingInstruction(
-        "xml-stylesheet type=\"text/xsl\" href=\"compatibility_result.xsl\"");
+  }
 
+  /** Serializes the elements of the report before its modules. */
+  private static void serializeReportHeader(XmlSerializer serializer, Result report)
+      throws IOException {
     serializer.startTag(NS, XmlConstants.RESULT_TAG);
     // Result attributes
     for (Attribute attr : report.getAttributeList()) {
@@ -212,44 +278,48 @@ public class CompatibilityReportCreator {
         XmlConstants.MODULES_TOTAL_ATTR,
         Integer.toString(report.getSummary().getModulesTotal()));
     serializer.endTag(NS, XmlConstants.SUMMARY_TAG);
+  }
 
-    // Modules
-    for (Module module : report.getModuleInfoList()) {
-      serializer.startTag(NS, XmlConstants.MODULE_TAG);
-      serializer.attribute(NS, XmlConstants.NAME_ATTR, module.getName());
-      if (module.hasAbi()) {
-        serializer.attribute(NS, XmlConstants.ABI_ATTR, module.getAbi());
-      }
-      if (module.hasRuntimeMillis()) {
-        serializer.attribute(
-            NS, XmlConstants.RUNTIME_ATTR, Long.toString(module.getRuntimeMillis()));
-      }
-      if (module.hasDone()) {
-        serializer.attribute(NS, XmlConstants.DONE_ATTR, Boolean.toString(module.getDone()));
-      }
-      if (module.hasPassed()) {
-        serializer.attribute(NS, XmlConstants.PASS_ATTR, Integer.toString(module.getPassed()));
-      }
-      if (module.hasTotalTests()) {
-        serializer.attribute(
-            NS, XmlConstants.TOTAL_TESTS_ATTR, Integer.toString(module.getTotalTests()));
-      }
-      if (module.hasReason()) {
-        serializer.startTag(NS, XmlConstants.MODULES_NOT_DONE_REASON);
-        serializer.attribute(
-            NS, XmlConstants.MESSAGE_ATTR, sanitizeXmlContent(module.getReason().getMsg()));
-        if (!module.getReason().getErrorName().isEmpty()
-            && !module.getReason().getErrorCode().isEmpty()) {
-          serializer.attribute(NS, XmlConstants.ERROR_NAME_ATTR, module.getReason().getErrorName());
-          serializer.attribute(NS, XmlConstants.ERROR_CODE_ATTR, module.getReason().getErrorCode());
-        }
-        serializer.endTag(NS, XmlConstants.MODULES_NOT_DONE_REASON);
+  private static void serializeModule(XmlSerializer serializer, Module module) throws IOException {
+    serializer.startTag(NS, XmlConstants.MODULE_TAG);
+    serializer.attribute(NS, XmlConstants.NAME_ATTR, module.getName());
+    if (module.hasAbi()) {
+      serializer.attribute(NS, XmlConstants.ABI_ATTR, module.getAbi());
+    }
+    if (module.hasRuntimeMillis()) {
+      serializer.attribute(NS, XmlConstants.RUNTIME_ATTR, Long.toString(module.getRuntimeMillis()));
+    }
+    if (module.hasDone()) {
+      serializer.attribute(NS, XmlConstants.DONE_ATTR, Boolean.toString(module.getDone()));
+    }
+    if (module.hasPassed()) {
+      serializer.attribute(NS, XmlConstants.PASS_ATTR, Integer.toString(module.getPassed()));
+    }
+    if (module.hasTotalTests()) {
+      serializer.attribute(
+          NS, XmlConstants.TOTAL_TESTS_ATTR, Integer.toString(module.getTotalTests()));
+    }
+    if (module.hasReason()) {
+      serializer.startTag(NS, XmlConstants.MODULES_NOT_DONE_REASON);
+      serializer.attribute(
+          NS, XmlConstants.MESSAGE_ATTR, sanitizeXmlContent(module.getReason().getMsg()));
+      if (!module.getReason().getErrorName().isEmpty()
+          && !module.getReason().getErrorCode().isEmpty()) {
+        serializer.attribute(NS, XmlConstants.ERROR_NAME_ATTR, module.getReason().getErrorName());
+        serializer.attribute(NS, XmlConstants.ERROR_CODE_ATTR, module.getReason().getErrorCode());
       }
-      serializeTestCases(serializer, module.getTestCaseList());
-      serializer.endTag(NS, XmlConstants.MODULE_TAG);
+      serializer.endTag(NS, XmlConstants.MODULES_NOT_DONE_REASON);
     }
+    serializeTestCases(serializer, module.getTestCaseList());
+    serializer.endTag(NS, XmlConstants.MODULE_TAG);
+  }
 
-    serializer.endDocument();
+  private static ModuleSource forEachModuleOf(Result report) {
+    return consumer -> {
+      for (Module module : report.getModuleInfoList()) {
+        consumer.accept(module);
+      }
+    };
   }
 
   private static void serializeTestCases(XmlSerializer serializer, List<TestCase> testCases)
@@ -27,6 +27,9 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
 import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -44,10 +47,18 @@ import com.google.devtools.atsconsole.result.report.MoblyReportParser.MoblyRepor
 import com.google.devtools.atsconsole.result.xml.XmlConstants;
 import com.google.devtools.mobileharness.api.model.error.ExtErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -72,15 +83,18 @@ public class CompatibilityReportMerger {
   private final ListeningExecutorService threadPool;
   private final CompatibilityReportParser reportParser;
   private final MoblyReportParser moblyReportParser;
+  private final CompatibilityReportCreator reportCreator;
 
   @Inject
   CompatibilityReportMerger(
       ListeningExecutorService threadPool,
       CompatibilityReportParser reportParser,
-      MoblyReportParser moblyReportParser) {
+      MoblyReportParser moblyReportParser,
+      CompatibilityReportCreator reportCreator) {
     this.threadPool = threadPool;
     this.reportParser = reportParser;
     this.moblyReportParser = moblyReportParser;
+    this.reportCreator = reportCreator;
   }
 
   /**
@@ -88,12 +102,50 @@ public class CompatibilityReportMerger {
    *
    * <p>Note: the XML report files must have the same device build fingerprint info, otherwise the
    * merge won't proceed.
+   *
+   * <p>The parsed reports and the merged report are all held in memory. Callers which write the
+   * merged report to a result dir should use {@link #mergeXmlReportsToDir(List, Path)} instead.
    */
   public Optional<Result> mergeXmlReports(List<Path> reportXmlFiles)
       throws MobileHarnessException, InterruptedException {
     return mergeParsedReports(parseXmlReports(reportXmlFiles));
   }
 
+  /**
+   * Parses a list of XML report files, merges them and writes the merged report to {@code
+   * resultDir} by {@link CompatibilityReportCreator}, without holding all the reports in memory.
+   *
+   * <p>The XML report files are parsed in parallel, and their modules are spilled to temporary
+   * files while only the name, ABI and offset of each module are kept in memory. Then the modules
+   * with the same name and ABI are merged and written one by one, in the same order as {@link
+   * #mergeXmlReports(List)}.
+   *
+   * <p>Note: the XML report files must have the same device build fingerprint info, otherwise the
+   * merge won't proceed.
+   *
+   * @param resultDir an existing directory where to store the merged report files
+   * @return the merged report without modules, or empty if the reports are not merged
+   */
+  public Optional<Result> mergeXmlReportsToDir(List<Path> reportXmlFiles, Path resultDir)
+      throws MobileHarnessException, InterruptedException {
+    Path spillDir;
+    try {
+      spillDir = Files.createTempDirectory("compatibility_report_merger");
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          ExtErrorId.REPORT_MERGER_SPILL_MODULES_ERROR, "Failed to create spill dir", e);
+    }
+    try {
+      return mergeSpilledReports(spillXmlReports(reportXmlFiles, spillDir), resultDir);
+    } finally {
+      try {
+        MoreFiles.deleteRecursively(spillDir, RecursiveDeleteOption.ALLOW_INSECURE);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to delete spill dir %s", spillDir);
+      }
+    }
+  }
+
   /**
    * Parses a list of Mobly report files and merges them to a single report.
    *
@@ -292,6 +344,114 @@ public class CompatibilityReportMerger {
         /* validateReports= */ false);
   }
 
+  /**
+   * Merges spilled reports like {@link #mergeParsedReports(List)}, and writes the merged report to
+   * {@code resultDir}.
+   */
+  private Optional<Result> mergeSpilledReports(List<SpilledReport> spilledReports, Path resultDir)
+      throws MobileHarnessException {
+    ImmutableList<SpilledReport> usableReports =
+        spilledReports.stream()
+            .filter(
+                spilledReport ->
+                    spilledReport.parseResult().report().isPresent()
+                        && spilledReport.parseResult().report().get().hasBuild()
+                        && !spilledReport
+                            .parseResult()
+                            .report()
+                            .get()
+                            .getBuild()
+                            .getBuildFingerprint()
+                            .isEmpty())
+            .collect(toImmutableList());
+    logger.atInfo().log(
+        "Given reports number: %d, usable spilled reports number: %d",
+        spilledReports.size(), usableReports.size());
+    if (!validateParsedReportsWithSameBuildFingerprint(
+        usableReports.stream().map(SpilledReport::parseResult).collect(toImmutableList()))) {
+      return Optional.empty();
+    }
+    ImmutableList<Result> reportHeaders =
+        usableReports.stream()
+            .map(spilledReport -> spilledReport.parseResult().report().get())
+            .collect(toImmutableList());
+
+    // Groups modules by name and ABI in the order of their first occurrences. Like mergeReports(),
+    // modules of a single report are kept as they are.
+    List<List<SpilledModule>> moduleGroups = new ArrayList<>();
+    if (usableReports.size() == 1) {
+      usableReports.get(0).modules().forEach(module -> moduleGroups.add(ImmutableList.of(module)));
+    } else {
+      LinkedHashMap<ModuleKey, List<SpilledModule>> modulesByKey = new LinkedHashMap<>();
+      for (SpilledReport spilledReport : usableReports) {
+        for (SpilledModule module : spilledReport.modules()) {
+          modulesByKey.computeIfAbsent(module.key(), k -> new ArrayList<>()).add(module);
+        }
+      }
+      moduleGroups.addAll(modulesByKey.values());
+    }
+    int totalTests =
+        usableReports.stream()
+            .flatMap(spilledReport -> spilledReport.modules().stream())
+            .mapToInt(SpilledModule::totalTests)
+            .sum();
+
+    Result mergedReportHeader;
+    if (usableReports.size() == 1) {
+      mergedReportHeader = reportHeaders.get(0);
+    } else {
+      ImmutableList.Builder<Run> runs = ImmutableList.builder();
+      long passedInSummary = 0L;
+      long failedInSummary = 0L;
+      for (Result reportHeader : reportHeaders) {
+        if (reportHeader.hasRunHistory()) {
+          runs.addAll(reportHeader.getRunHistory().getRunList());
+        }
+        passedInSummary += reportHeader.getSummary().getPassed();
+        failedInSummary += reportHeader.getSummary().getFailed();
+      }
+      int modulesDoneInSummary =
+          (int)
+              moduleGroups.stream()
+                  .filter(modules -> modules.stream().allMatch(SpilledModule::done))
+                  .count();
+
+      Result.Builder res = Result.newBuilder();
+      res.setBuild(getNewBuildInfo(reportHeaders))
+          .setSummary(
+              Summary.newBuilder()
+                  .setPassed(passedInSummary)
+                  .setFailed(failedInSummary)
+                  .setModulesDone(modulesDoneInSummary)
+                  .setModulesTotal(moduleGroups.size()))
+          .addAllAttribute(getNewResultAttrs(reportHeaders));
+      if (!runs.build().isEmpty()) {
+        res.setRunHistory(RunHistory.newBuilder().addAllRun(runs.build()));
+      }
+      mergedReportHeader = res.build();
+    }
+
+    try (SpilledModuleReader moduleReader = new SpilledModuleReader()) {
+      reportCreator.createReport(
+          mergedReportHeader,
+          totalTests,
+          consumer -> {
+            for (List<SpilledModule> spilledModules : moduleGroups) {
+              List<Module> modules = new ArrayList<>(spilledModules.size());
+              for (SpilledModule spilledModule : spilledModules) {
+                modules.add(moduleReader.read(spilledModule));
+              }
+              Optional<Module> mergedModule = mergeModulesWithSameNameAndAbi(modules);
+              if (mergedModule.isPresent()) {
+                consumer.accept(mergedModule.get());
+              }
+            }
+          },
+          resultDir);
+    }
+    return Optional.of(mergedReportHeader);
+  }
+
   /** Gets the attributes showed in the <Result> element in the merged report. */
   private static ImmutableList<Attribute> getNewResultAttrs(List<Result> reports) {
     AtomicReference<Long> startTime = new AtomicReference<>(null);
@@ -477,6 +637,77 @@ public class CompatibilityReportMerger {
     return ParseResult.of(reportXmlFile, reportParser.parse(reportXmlFile));
   }
 
+  /** Parses multiple XML reports in parallel and spills their modules to {@code spillDir}. */
+  private List<SpilledReport> spillXmlReports(List<Path> reportXmlFiles, Path spillDir)
+      throws MobileHarnessException, InterruptedException {
+    logger.atInfo().log(
+        "Start to parse report xml files:\n - %s",
+        reportXmlFiles.stream().map(Path::toString).collect(joining(",\n - ")));
+    List<ListenableFuture<SpilledReport>> spillReportFutures = new ArrayList<>();
+    for (int i = 0; i < reportXmlFiles.size(); i++) {
+      Path reportXmlFile = reportXmlFiles.get(i);
+      Path spillFile = spillDir.resolve(String.format("modules_%d.pb", i));
+      spillReportFutures.add(threadPool.submit(() -> spillXmlReport(reportXmlFile, spillFile)));
+    }
+    try {
+      return Futures.allAsList(spillReportFutures).get(PARSE_TIMEOUT_IN_HOUR, HOURS);
+    } catch (TimeoutException e) {
+      throw new MobileHarnessException(
+          ExtErrorId.REPORT_MERGER_PARSE_REPORTS_TIMEOUT_ERROR,
+          "Timeout while parsing report xml files",
+          e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof MobileHarnessException) {
+        throw (MobileHarnessException) e.getCause();
+      } else {
+        throw new MobileHarnessException(
+            ExtErrorId.REPORT_MERGER_PARSE_REPORTS_GENERIC_ERROR,
+            "Failed to parse report xml file",
+            e);
+      }
+    } finally {
+      spillReportFutures.forEach(future -> future.cancel(/* mayInterruptIfRunning= */ true));
+    }
+  }
+
+  /**
+   * Parses one XML report and writes its modules to {@code spillFile} as length-delimited protos.
+   */
+  private SpilledReport spillXmlReport(Path reportXmlFile, Path spillFile)
+      throws MobileHarnessException {
+    ImmutableList.Builder<SpilledModule> spilledModules = ImmutableList.builder();
+    try (CountingOutputStream output =
+        new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)))) {
+      Optional<Result> reportHeader =
+          reportParser.parse(
+              reportXmlFile,
+              module -> {
+                long offset = output.getCount();
+                try {
+                  module.writeDelimitedTo(output);
+                } catch (IOException e) {
+                  throw new MobileHarnessException(
+                      ExtErrorId.REPORT_MERGER_SPILL_MODULES_ERROR,
+                      String.format("Failed to spill module %s to %s", module.getName(), spillFile),
+                      e);
+                }
+                spilledModules.add(
+                    SpilledModule.of(
+                        ModuleKey.of(module.getName(), module.getAbi()),
+                        spillFile,
+                        offset,
+                        module.getDone(),
+                        module.getTotalTests()));
+              });
+      return SpilledReport.of(ParseResult.of(reportXmlFile, reportHeader), spilledModules.build());
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          ExtErrorId.REPORT_MERGER_SPILL_MODULES_ERROR,
+          String.format("Failed to spill modules of %s to %s", reportXmlFile, spillFile),
+          e);
+    }
+  }
+
   /** Parses multiple Mobly reports syncly. */
   @VisibleForTesting
   List<ParseResult> parseMoblyReports(List<MoblyReportInfo> moblyReports)
@@ -542,4 +773,89 @@ public class CompatibilityReportMerger {
     /** The parsed report. */
     public abstract Optional<Result> report();
   }
+
+  /** Name and ABI of a module, which identify the modules to merge. */
+  @AutoValue
+  abstract static class ModuleKey {
+
+    static ModuleKey of(String name, String abi) {
+      return new AutoValue_CompatibilityReportMerger_ModuleKey(name, abi);
+    }
+
+    abstract String name();
+
+    abstract String abi();
+  }
+
+  /** A module which is spilled to a file. */
+  @AutoValue
+  abstract static class SpilledModule {
+
+    static SpilledModule of(
+        ModuleKey key, Path spillFile, long offset, boolean done, int totalTests) {
+      return new AutoValue_CompatibilityReportMerger_SpilledModule(
+          key, spillFile, offset, done, totalTests);
+    }
+
+    abstract ModuleKey key();
+
+    abstract Path spillFile();
+
+    /** Offset of the length-delimited module proto in the spill file. */
+    abstract long offset();
+
+    abstract boolean done();
+
+    abstract int totalTests();
+  }
+
+  /** A parsed report whose modules are spilled to a file. */
+  @AutoValue
+  abstract static class SpilledReport {
+
+    static SpilledReport of(ParseResult parseResult, ImmutableList<SpilledModule> modules) {
+      return new AutoValue_CompatibilityReportMerger_SpilledReport(parseResult, modules);
+    }
+
+    /** The parse result whose report has no modules. */
+    abstract ParseResult parseResult();
+
+    abstract ImmutableList<SpilledModule> modules();
+  }
+
+  /** Reads spilled modules, keeping the spill files open until it is closed. */
+  private static class SpilledModuleReader implements AutoCloseable {
+
+    private final Map<Path, FileChannel> spillFiles = new HashMap<>();
+
+    private Module read(SpilledModule spilledModule) throws MobileHarnessException {
+      try {
+        FileChannel spillFile = spillFiles.get(spilledModule.spillFile());
+        if (spillFile == null) {
+          spillFile = FileChannel.open(spilledModule.spillFile(), StandardOpenOption.READ);
+          spillFiles.put(spilledModule.spillFile(), spillFile);
+        }
+        spillFile.position(spilledModule.offset());
+        return Module.parseDelimitedFrom(Channels.newInputStream(spillFile));
+      } catch (IOException e) {
+        throw new MobileHarnessException(
+            ExtErrorId.REPORT_MERGER_SPILL_MODULES_ERROR,
+            String.format(
+                "Failed to read module %s from %s",
+                spilledModule.key().name(), spilledModule.spillFile()),
+            e);
+      }
+    }
+
+    @Override
+    public void close() {
+      for (Map.Entry<Path, FileChannel> spillFile : spillFiles.entrySet()) {
+        try {
+          spillFile.getValue().close();
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Failed to close spill file %s", spillFile.getKey());
+        }
+      }
+    }
+  }
 }
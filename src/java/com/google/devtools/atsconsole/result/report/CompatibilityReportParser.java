@@ -47,19 +47,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Deque;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Characters;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Parser to parse compatibitly xTS report XML file.
@@ -79,8 +74,6 @@ public class CompatibilityReportParser {
 
   @VisibleForTesting
   CompatibilityReportParser(XMLInputFactory xmlInputFactory, LocalFileUtil localFileUtil) {
-    // So that stack traces that aren't enclosed in CDATA are properly parsed
-    xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
     this.xmlInputFactory = xmlInputFactory;
     this.localFileUtil = localFileUtil;
   }
@@ -91,31 +84,72 @@ public class CompatibilityReportParser {
    * <p>If the given file doesn't exist, returns an empty {@link Optional}.
    */
   public Optional<Result> parse(Path reportXmlFile) throws MobileHarnessException {
+    Result.Builder resultBuilder = Result.newBuilder();
+    return parse(
+        reportXmlFile, resultBuilder, resultBuilder::addModuleInfo, /* summaryOnly= */ false);
+  }
+
+  /**
+   * Parses the compatibility report XML file like {@link #parse(Path)}, but skips the test cases of
+   * modules, which are most of a report.
+   *
+   * <p>It is much faster than {@link #parse(Path)} for large reports when only the result
+   * attributes, the build info, the run history, the summary and the module summaries are needed.
+   */
+  public Optional<Result> parseSummary(Path reportXmlFile) throws MobileHarnessException {
+    Result.Builder resultBuilder = Result.newBuilder();
+    return parse(
+        reportXmlFile, resultBuilder, resultBuilder::addModuleInfo, /* summaryOnly= */ true);
+  }
+
+  /**
+   * Parses the compatibility report XML file like {@link #parse(Path)}, but passes each module to
+   * {@code moduleConsumer} once it is parsed rather than adding it to the returned {@link Result},
+   * so the modules of a large report are not held in memory at once.
+   */
+  Optional<Result> parse(Path reportXmlFile, ModuleConsumer moduleConsumer)
+      throws MobileHarnessException {
+    return parse(reportXmlFile, Result.newBuilder(), moduleConsumer, /* summaryOnly= */ false);
+  }
+
+  private Optional<Result> parse(
+      Path reportXmlFile,
+      Result.Builder resultBuilder,
+      ModuleConsumer moduleConsumer,
+      boolean summaryOnly)
+      throws MobileHarnessException {
     if (!localFileUtil.isFileExist(reportXmlFile)) {
       return Optional.empty();
     }
 
-    Result.Builder resultBuilder = Result.newBuilder();
     try (InputStream reportInputStream =
         new BufferedInputStream(new FileInputStream(reportXmlFile.toFile()))) {
-      Context context = new Context(resultBuilder);
-      XMLEventReader xmlEventReader =
-          xmlInputFactory.createXMLEventReader(reportInputStream, UTF_8.toString());
-      while (xmlEventReader.hasNext()) {
-        XMLEvent event = xmlEventReader.nextEvent();
-
-        switch (event.getEventType()) {
-          case XMLStreamConstants.START_ELEMENT:
-            enteringTag(event.asStartElement(), context);
-            break;
-          case XMLStreamConstants.END_ELEMENT:
-            exitingTag(event.asEndElement(), context);
-            break;
-          case XMLStreamConstants.CHARACTERS:
-            characters(event.asCharacters(), context);
-            break;
-          default: // do nothing
+      Context context = new Context(resultBuilder, moduleConsumer);
+      // The cursor API doesn't allocate an event object for each element and text.
+      XMLStreamReader xmlStreamReader =
+          xmlInputFactory.createXMLStreamReader(reportInputStream, UTF_8.toString());
+      try {
+        while (xmlStreamReader.hasNext()) {
+          switch (xmlStreamReader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+              if (summaryOnly && xmlStreamReader.getLocalName().equals(XmlConstants.CASE_TAG)) {
+                skipElement(xmlStreamReader);
+              } else {
+                enteringTag(xmlStreamReader, context);
+              }
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              exitingTag(xmlStreamReader.getLocalName(), context);
+              break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+              characters(xmlStreamReader, context);
+              break;
+            default: // do nothing
+          }
         }
+      } finally {
+        xmlStreamReader.close();
       }
     } catch (IOException ioe) {
       throw new MobileHarnessException(ExtErrorId.REPORT_PARSER_READ_XML_FILE_ERROR, "", ioe);
@@ -127,9 +161,9 @@ public class CompatibilityReportParser {
     return Optional.of(resultBuilder.build());
   }
 
-  private static void enteringTag(StartElement element, Context context) {
-    context.tagStack.push(element);
-    String elementName = element.getName().getLocalPart();
+  private static void enteringTag(XMLStreamReader element, Context context) {
+    String elementName = element.getLocalName();
+    context.tagStack.push(elementName);
     switch (elementName) {
       case XmlConstants.RESULT_TAG:
         handleResult(element, context);
@@ -198,11 +232,23 @@ public class CompatibilityReportParser {
         break;
       default: // fall out
     }
+    if (hasTextContent(elementName)) {
+      context.textContent.setLength(0);
+    }
   }
 
-  private static void exitingTag(EndElement element, Context context) {
+  private static void exitingTag(String elementName, Context context)
+      throws MobileHarnessException {
     context.tagStack.pop();
-    String elementName = element.getName().getLocalPart();
+    if (hasTextContent(elementName)) {
+      // So that stack traces that aren't enclosed in CDATA or are split into several chunks are
+      // properly parsed.
+      String textContent = context.textContent.toString().trim();
+      context.textContent.setLength(0);
+      if (!textContent.isEmpty()) {
+        handleElementTextContent(elementName, textContent, context);
+      }
+    }
     switch (elementName) {
       case XmlConstants.RUN_HISTORY_TAG:
         handleEndRunHistory(context);
@@ -234,25 +280,44 @@ public class CompatibilityReportParser {
     }
   }
 
-  private static void characters(Characters element, Context context) {
-    if (element.isWhiteSpace()) {
-      return;
+  private static void characters(XMLStreamReader element, Context context) {
+    String tagName = context.tagStack.peek();
+    if (tagName != null && hasTextContent(tagName)) {
+      context.textContent.append(
+          element.getTextCharacters(), element.getTextStart(), element.getTextLength());
     }
-    StartElement tag = context.tagStack.peek();
-    String tagName = tag.getName().getLocalPart();
-    switch (tagName) {
+  }
+
+  private static boolean hasTextContent(String elementName) {
+    switch (elementName) {
       case XmlConstants.STACKTRACE_TAG:
       case XmlConstants.BUGREPORT_TAG:
       case XmlConstants.LOGCAT_TAG:
       case XmlConstants.SCREENSHOT_TAG:
       case XmlConstants.METRIC_TAG:
-        handleElementTextContent(tagName, element, context);
-        break;
-      default: // fall out
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Skips the current element and its descendants, and stops at its end tag. */
+  private static void skipElement(XMLStreamReader element) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (element.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        default: // do nothing
+      }
     }
   }
 
-  private static void handleResult(StartElement result, Context context) {
+  private static void handleResult(XMLStreamReader result, Context context) {
     Map<String, String> attributeMap = getAttributeMap(result);
     ImmutableList.Builder<Attribute> attributes = ImmutableList.builder();
     // Ensures attributes start, end, start_display, end_display are showed at the beginning.
@@ -303,7 +368,7 @@ public class CompatibilityReportParser {
     context.resultBuilder.addAllAttribute(attributes.build());
   }
 
-  private static void handleBuildInfo(StartElement buildInfo, Context context) {
+  private static void handleBuildInfo(XMLStreamReader buildInfo, Context context) {
     // <Build> is a self-closing tag, update the parent when entering this tag.
     BuildInfo.Builder build = BuildInfo.newBuilder();
     Map<String, String> attributeMap = getAttributeMap(buildInfo);
@@ -337,147 +402,150 @@ public class CompatibilityReportParser {
     context.currentRunHistory = RunHistory.newBuilder();
   }
 
-  private static void handleRunInRunHistory(StartElement run, Context context) {
+  private static void handleRunInRunHistory(XMLStreamReader run, Context context) {
     // <Run> is a self-closing tag, update the parent when entering this tag.
     Run.Builder runBuilder = Run.newBuilder();
 
-    Map<String, String> attributeMap = getAttributeMap(run);
-
-    if (attributeMap.containsKey(XmlConstants.START_TIME_ATTR)) {
-      runBuilder.setStartTimeMillis(
-          Long.parseLong(attributeMap.get(XmlConstants.START_TIME_ATTR).trim()));
+    String startTime = getAttribute(run, XmlConstants.START_TIME_ATTR);
+    if (startTime != null) {
+      runBuilder.setStartTimeMillis(Long.parseLong(startTime.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.END_TIME_ATTR)) {
-      runBuilder.setEndTimeMillis(
-          Long.parseLong(attributeMap.get(XmlConstants.END_TIME_ATTR).trim()));
+    String endTime = getAttribute(run, XmlConstants.END_TIME_ATTR);
+    if (endTime != null) {
+      runBuilder.setEndTimeMillis(Long.parseLong(endTime.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.PASS_ATTR)) {
-      runBuilder.setPassedTests(Long.parseLong(attributeMap.get(XmlConstants.PASS_ATTR).trim()));
+    String passed = getAttribute(run, XmlConstants.PASS_ATTR);
+    if (passed != null) {
+      runBuilder.setPassedTests(Long.parseLong(passed.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.FAILED_ATTR)) {
-      runBuilder.setFailedTests(Long.parseLong(attributeMap.get(XmlConstants.FAILED_ATTR).trim()));
+    String failed = getAttribute(run, XmlConstants.FAILED_ATTR);
+    if (failed != null) {
+      runBuilder.setFailedTests(Long.parseLong(failed.trim()));
     }
 
-    if (attributeMap.containsKey(XmlConstants.COMMAND_LINE_ARGS)) {
-      runBuilder.setCommandLineArgs(attributeMap.get(XmlConstants.COMMAND_LINE_ARGS).trim());
+    String commandLineArgs = getAttribute(run, XmlConstants.COMMAND_LINE_ARGS);
+    if (commandLineArgs != null) {
+      runBuilder.setCommandLineArgs(commandLineArgs.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.HOST_NAME_ATTR)) {
-      runBuilder.setHostName(attributeMap.get(XmlConstants.HOST_NAME_ATTR).trim());
+    String hostName = getAttribute(run, XmlConstants.HOST_NAME_ATTR);
+    if (hostName != null) {
+      runBuilder.setHostName(hostName.trim());
     }
 
     context.currentRunHistory.addRun(runBuilder.build());
   }
 
-  private static void handleSummary(StartElement summary, Context context) {
+  private static void handleSummary(XMLStreamReader summary, Context context) {
     // <Summary> is a self-closing tag, update the parent when entering this tag.
     Summary.Builder summaryBuilder = Summary.newBuilder();
 
-    Map<String, String> attributeMap = getAttributeMap(summary);
-
-    if (attributeMap.containsKey(XmlConstants.PASS_ATTR)) {
-      summaryBuilder.setPassed(Integer.parseInt(attributeMap.get(XmlConstants.PASS_ATTR).trim()));
+    String passed = getAttribute(summary, XmlConstants.PASS_ATTR);
+    if (passed != null) {
+      summaryBuilder.setPassed(Integer.parseInt(passed.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.FAILED_ATTR)) {
-      summaryBuilder.setFailed(Integer.parseInt(attributeMap.get(XmlConstants.FAILED_ATTR).trim()));
+    String failed = getAttribute(summary, XmlConstants.FAILED_ATTR);
+    if (failed != null) {
+      summaryBuilder.setFailed(Integer.parseInt(failed.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.MODULES_DONE_ATTR)) {
-      summaryBuilder.setModulesDone(
-          Integer.parseInt(attributeMap.get(XmlConstants.MODULES_DONE_ATTR).trim()));
+    String modulesDone = getAttribute(summary, XmlConstants.MODULES_DONE_ATTR);
+    if (modulesDone != null) {
+      summaryBuilder.setModulesDone(Integer.parseInt(modulesDone.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.MODULES_TOTAL_ATTR)) {
-      summaryBuilder.setModulesTotal(
-          Integer.parseInt(attributeMap.get(XmlConstants.MODULES_TOTAL_ATTR).trim()));
+    String modulesTotal = getAttribute(summary, XmlConstants.MODULES_TOTAL_ATTR);
+    if (modulesTotal != null) {
+      summaryBuilder.setModulesTotal(Integer.parseInt(modulesTotal.trim()));
     }
     context.resultBuilder.setSummary(summaryBuilder.build());
   }
 
-  private static void handleModule(StartElement module, Context context) {
+  private static void handleModule(XMLStreamReader module, Context context) {
     context.currentModule = Module.newBuilder();
 
-    Map<String, String> attributeMap = getAttributeMap(module);
-
-    if (attributeMap.containsKey(XmlConstants.NAME_ATTR)) {
-      context.currentModule.setName(attributeMap.get(XmlConstants.NAME_ATTR).trim());
+    String name = getAttribute(module, XmlConstants.NAME_ATTR);
+    if (name != null) {
+      context.currentModule.setName(name.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.ABI_ATTR)) {
-      context.currentModule.setAbi(attributeMap.get(XmlConstants.ABI_ATTR).trim());
+    String abi = getAttribute(module, XmlConstants.ABI_ATTR);
+    if (abi != null) {
+      context.currentModule.setAbi(abi.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.RUNTIME_ATTR)) {
-      context.currentModule.setRuntimeMillis(
-          Long.parseLong(attributeMap.get(XmlConstants.RUNTIME_ATTR)));
+    String runtime = getAttribute(module, XmlConstants.RUNTIME_ATTR);
+    if (runtime != null) {
+      context.currentModule.setRuntimeMillis(Long.parseLong(runtime));
     }
-    if (attributeMap.containsKey(XmlConstants.DONE_ATTR)) {
-      context.currentModule.setDone(
-          Boolean.parseBoolean(attributeMap.get(XmlConstants.DONE_ATTR).trim()));
+    String done = getAttribute(module, XmlConstants.DONE_ATTR);
+    if (done != null) {
+      context.currentModule.setDone(Boolean.parseBoolean(done.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.PASS_ATTR)) {
-      context.currentModule.setPassed(
-          Integer.parseInt(attributeMap.get(XmlConstants.PASS_ATTR).trim()));
+    String passed = getAttribute(module, XmlConstants.PASS_ATTR);
+    if (passed != null) {
+      context.currentModule.setPassed(Integer.parseInt(passed.trim()));
     }
-    if (attributeMap.containsKey(XmlConstants.TOTAL_TESTS_ATTR)) {
-      context.currentModule.setTotalTests(
-          Integer.parseInt(attributeMap.get(XmlConstants.TOTAL_TESTS_ATTR).trim()));
+    String totalTests = getAttribute(module, XmlConstants.TOTAL_TESTS_ATTR);
+    if (totalTests != null) {
+      context.currentModule.setTotalTests(Integer.parseInt(totalTests.trim()));
     }
   }
 
-  private static void handleModuleReason(StartElement moduleReason, Context context) {
+  private static void handleModuleReason(XMLStreamReader moduleReason, Context context) {
     // <Reason> is a self-closing tag, update the parent when entering this tag.
     Reason.Builder reason = Reason.newBuilder();
 
-    Map<String, String> attributeMap = getAttributeMap(moduleReason);
-
-    if (attributeMap.containsKey(XmlConstants.MESSAGE_ATTR)) {
-      reason.setMsg(attributeMap.get(XmlConstants.MESSAGE_ATTR).trim());
+    String message = getAttribute(moduleReason, XmlConstants.MESSAGE_ATTR);
+    if (message != null) {
+      reason.setMsg(message.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.ERROR_NAME_ATTR)) {
-      reason.setErrorName(attributeMap.get(XmlConstants.ERROR_NAME_ATTR).trim());
+    String errorName = getAttribute(moduleReason, XmlConstants.ERROR_NAME_ATTR);
+    if (errorName != null) {
+      reason.setErrorName(errorName.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.ERROR_CODE_ATTR)) {
-      reason.setErrorCode(attributeMap.get(XmlConstants.ERROR_CODE_ATTR).trim());
+    String errorCode = getAttribute(moduleReason, XmlConstants.ERROR_CODE_ATTR);
+    if (errorCode != null) {
+      reason.setErrorCode(errorCode.trim());
     }
     context.currentModule.setReason(reason.build());
   }
 
-  private static void handleTestCase(StartElement testCase, Context context) {
+  private static void handleTestCase(XMLStreamReader testCase, Context context) {
     context.currentTestCase = TestCase.newBuilder();
 
-    Map<String, String> attributeMap = getAttributeMap(testCase);
-
-    if (attributeMap.containsKey(XmlConstants.NAME_ATTR)) {
-      context.currentTestCase.setName(attributeMap.get(XmlConstants.NAME_ATTR).trim());
+    String name = getAttribute(testCase, XmlConstants.NAME_ATTR);
+    if (name != null) {
+      context.currentTestCase.setName(name.trim());
     }
   }
 
-  private static void handleTest(StartElement test, Context context) {
+  private static void handleTest(XMLStreamReader test, Context context) {
     context.currentTest = Test.newBuilder();
-    Map<String, String> attributeMap = getAttributeMap(test);
 
-    if (attributeMap.containsKey(XmlConstants.RESULT_ATTR)) {
-      context.currentTest.setResult(attributeMap.get(XmlConstants.RESULT_ATTR).trim());
+    String result = getAttribute(test, XmlConstants.RESULT_ATTR);
+    if (result != null) {
+      context.currentTest.setResult(result.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.NAME_ATTR)) {
-      context.currentTest.setName(attributeMap.get(XmlConstants.NAME_ATTR).trim());
+    String name = getAttribute(test, XmlConstants.NAME_ATTR);
+    if (name != null) {
+      context.currentTest.setName(name.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.SKIPPED_ATTR)) {
-      context.currentTest.setSkipped(
-          Boolean.parseBoolean(attributeMap.get(XmlConstants.SKIPPED_ATTR).trim()));
+    String skipped = getAttribute(test, XmlConstants.SKIPPED_ATTR);
+    if (skipped != null) {
+      context.currentTest.setSkipped(Boolean.parseBoolean(skipped.trim()));
     }
   }
 
-  private static void handleTestFailure(StartElement testFailure, Context context) {
+  private static void handleTestFailure(XMLStreamReader testFailure, Context context) {
     context.currentTestFailure = TestFailure.newBuilder();
-    Map<String, String> attributeMap = getAttributeMap(testFailure);
 
-    if (attributeMap.containsKey(XmlConstants.MESSAGE_ATTR)) {
-      context.currentTestFailure.setMsg(attributeMap.get(XmlConstants.MESSAGE_ATTR).trim());
+    String message = getAttribute(testFailure, XmlConstants.MESSAGE_ATTR);
+    if (message != null) {
+      context.currentTestFailure.setMsg(message.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.ERROR_NAME_ATTR)) {
-      context.currentTestFailure.setErrorName(
-          attributeMap.get(XmlConstants.ERROR_NAME_ATTR).trim());
+    String errorName = getAttribute(testFailure, XmlConstants.ERROR_NAME_ATTR);
+    if (errorName != null) {
+      context.currentTestFailure.setErrorName(errorName.trim());
     }
-    if (attributeMap.containsKey(XmlConstants.ERROR_CODE_ATTR)) {
-      context.currentTestFailure.setErrorCode(
-          attributeMap.get(XmlConstants.ERROR_CODE_ATTR).trim());
+    String errorCode = getAttribute(testFailure, XmlConstants.ERROR_CODE_ATTR);
+    if (errorCode != null) {
+      context.currentTestFailure.setErrorCode(errorCode.trim());
     }
   }
 
@@ -485,37 +553,33 @@ public class CompatibilityReportParser {
     context.currentStackTrace = StackTrace.newBuilder();
   }
 
-  private static void handleLoggedFile(StartElement loggedFile, Context context) {
-    Map<String, String> attributeMap = getAttributeMap(loggedFile);
-    String elementName = loggedFile.getName().getLocalPart();
-    if (attributeMap.containsKey(XmlConstants.LOG_FILE_NAME_ATTR)) {
-      switch (elementName) {
+  private static void handleLoggedFile(XMLStreamReader loggedFile, Context context) {
+    String fileName = getAttribute(loggedFile, XmlConstants.LOG_FILE_NAME_ATTR);
+    if (fileName != null) {
+      switch (loggedFile.getLocalName()) {
         case XmlConstants.BUGREPORT_TAG:
           context.currentBugReport = LoggedFile.newBuilder();
-          context.currentBugReport.setFileName(
-              attributeMap.get(XmlConstants.LOG_FILE_NAME_ATTR).trim());
+          context.currentBugReport.setFileName(fileName.trim());
           break;
         case XmlConstants.LOGCAT_TAG:
           context.currentLogcat = LoggedFile.newBuilder();
-          context.currentLogcat.setFileName(
-              attributeMap.get(XmlConstants.LOG_FILE_NAME_ATTR).trim());
+          context.currentLogcat.setFileName(fileName.trim());
           break;
         case XmlConstants.SCREENSHOT_TAG:
           context.currentScreenshot = LoggedFile.newBuilder();
-          context.currentScreenshot.setFileName(
-              attributeMap.get(XmlConstants.LOG_FILE_NAME_ATTR).trim());
+          context.currentScreenshot.setFileName(fileName.trim());
           break;
         default: // fall out
       }
     }
   }
 
-  private static void handleMetric(StartElement metric, Context context) {
+  private static void handleMetric(XMLStreamReader metric, Context context) {
     context.currentMetric = Metric.newBuilder();
-    Map<String, String> attributeMap = getAttributeMap(metric);
 
-    if (attributeMap.containsKey(XmlConstants.METRIC_KEY)) {
-      context.currentMetric.setKey(attributeMap.get(XmlConstants.METRIC_KEY).trim());
+    String key = getAttribute(metric, XmlConstants.METRIC_KEY);
+    if (key != null) {
+      context.currentMetric.setKey(key.trim());
     }
   }
 
@@ -526,9 +590,9 @@ public class CompatibilityReportParser {
     }
   }
 
-  private static void handleEndModule(Context context) {
+  private static void handleEndModule(Context context) throws MobileHarnessException {
     if (context.currentModule != null) {
-      context.resultBuilder.addModuleInfo(context.currentModule.build());
+      context.moduleConsumer.accept(context.currentModule.build());
       context.currentModule = null;
     }
   }
@@ -593,40 +657,49 @@ public class CompatibilityReportParser {
   }
 
   private static void handleElementTextContent(
-      String elementName, Characters content, Context context) {
-    if (content.isWhiteSpace()) {
-      return;
-    }
-    String textContent = content.getData().trim();
+      String elementName, String textContent, Context context) {
     switch (elementName) {
       case XmlConstants.STACKTRACE_TAG:
-        context.currentStackTrace.setContent(textContent);
+        if (context.currentStackTrace != null) {
+          context.currentStackTrace.setContent(textContent);
+        }
         break;
       case XmlConstants.BUGREPORT_TAG:
-        context.currentBugReport.setContent(textContent);
+        if (context.currentBugReport != null) {
+          context.currentBugReport.setContent(textContent);
+        }
         break;
       case XmlConstants.LOGCAT_TAG:
-        context.currentLogcat.setContent(textContent);
+        if (context.currentLogcat != null) {
+          context.currentLogcat.setContent(textContent);
+        }
         break;
       case XmlConstants.SCREENSHOT_TAG:
-        context.currentScreenshot.setContent(textContent);
+        if (context.currentScreenshot != null) {
+          context.currentScreenshot.setContent(textContent);
+        }
         break;
       case XmlConstants.METRIC_TAG:
-        context.currentMetric.setContent(textContent);
+        if (context.currentMetric != null) {
+          context.currentMetric.setContent(textContent);
+        }
         break;
       default: // fall out
     }
   }
 
-  /** Gets the attribute map. */
-  private static Map<String, String> getAttributeMap(StartElement element) {
-    @SuppressWarnings("rawtypes")
-    Iterator attributesIt = element.getAttributes(); // Attributes order is random
-    Map<String, String> attributeMap = Maps.newLinkedHashMap();
-    javax.xml.stream.events.Attribute attribute;
-    while (attributesIt.hasNext()) {
-      attribute = (javax.xml.stream.events.Attribute) attributesIt.next();
-      attributeMap.put(attribute.getName().toString(), attribute.getValue());
+  /** Gets the value of an attribute of the current element, or null if it doesn't exist. */
+  @Nullable
+  private static String getAttribute(XMLStreamReader element, String attributeName) {
+    return element.getAttributeValue(/* namespaceURI= */ null, attributeName);
+  }
+
+  /** Gets the map of all attributes of the current element. */
+  private static Map<String, String> getAttributeMap(XMLStreamReader element) {
+    int attributeCount = element.getAttributeCount();
+    Map<String, String> attributeMap = Maps.newLinkedHashMapWithExpectedSize(attributeCount);
+    for (int i = 0; i < attributeCount; i++) {
+      attributeMap.put(element.getAttributeName(i).toString(), element.getAttributeValue(i));
     }
     return attributeMap;
   }
@@ -638,15 +711,14 @@ public class CompatibilityReportParser {
    * @param parentElementName The name of the expected parent element. Or null if no parent
    *     expected.
    */
-  private static boolean parentIs(Deque<StartElement> stack, @Nullable String parentElementName) {
+  private static boolean parentIs(Deque<String> stack, @Nullable String parentElementName) {
     if (parentElementName == null) {
       return stack.isEmpty();
     }
 
-    StartElement current = stack.poll();
-    StartElement parent = stack.peek();
-    boolean parentMatch =
-        parent != null && parentElementName.equals(parent.getName().getLocalPart());
+    String current = stack.poll();
+    String parent = stack.peek();
+    boolean parentMatch = parentElementName.equals(parent);
     stack.push(current);
     return parentMatch;
   }
@@ -27,15 +27,21 @@ import com.google.devtools.atsconsole.result.proto.ReportProto.TestCase;
 import com.google.devtools.atsconsole.result.proto.ReportProto.TestFailure;
 import java.util.ArrayDeque;
 import java.util.Deque;
-import javax.xml.stream.events.StartElement;
 
 /** A POJO used to track compatibility report parsing state. */
 final class Context {
 
-  final Deque<StartElement> tagStack;
+  /** Local names of the open elements, the innermost first. */
+  final Deque<String> tagStack;
+
+  /** Text content of the innermost open element if it is an element with text content. */
+  final StringBuilder textContent;
 
   final Result.Builder resultBuilder;
 
+  /** Handles a module once it is parsed. */
+  final ModuleConsumer moduleConsumer;
+
   RunHistory.Builder currentRunHistory;
 
   Module.Builder currentModule;
@@ -56,8 +62,10 @@ final class Context {
 
   Metric.Builder currentMetric;
 
-  public Context(Result.Builder resultBuilder) {
+  public Context(Result.Builder resultBuilder, ModuleConsumer moduleConsumer) {
     this.tagStack = new ArrayDeque<>();
+    this.textContent = new StringBuilder();
     this.resultBuilder = resultBuilder;
+    this.moduleConsumer = moduleConsumer;
   }
 }
@@ -16,22 +16,34 @@
 
 package com.google.devtools.atsconsole.util.plan;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.shared.util.error.MoreThrowables;
+import com.google.devtools.mobileharness.shared.util.file.local.FileStamp;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.jar.JarFile;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
-/** Utility to get the entries in the JAR file. */
+/**
+ * Utility to get the entries in the JAR file.
+ *
+ * <p>The entry names of a JAR file are read from its central directory once and cached until the
+ * size or the modification time of the JAR file changes.
+ */
+@Singleton
 public class JarFileUtil {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -55,6 +67,9 @@ public class JarFileUtil {
     String transform(String pathName);
   }
 
+  /** {Absolute path of JAR file, entry names of the JAR file}. */
+  private final Map<Path, JarEntryNames> jarEntryNamesCache = new ConcurrentHashMap<>();
+
   @Inject
   JarFileUtil() {}
 
@@ -81,43 +96,102 @@ public class JarFileUtil {
    */
   private ImmutableMap<String, Path> getEntriesFromJar(Path jar, EntryFilter filter)
       throws IOException {
-    JarFile jarFile = new JarFile(jar.toFile());
     ImmutableMap.Builder<String, Path> entryNames = ImmutableMap.builder();
-    for (Enumeration<? extends ZipEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
-      String entryName = e.nextElement().getName();
+    for (String entryName : getEntryNames(jar)) {
       if (filter.accept(entryName)) {
         entryNames.put(filter.transform(entryName), jar);
       }
-      entryName = null;
     }
-    jarFile.close();
     return entryNames.buildOrThrow();
   }
 
-  /** Gets the zip entry input stream from the {@code jar} file. */
+  /**
+   * Gets the zip entry input stream from the {@code jar} file.
+   *
+   * <p>Closing the returned stream also closes the {@code jar} file.
+   */
   public Optional<InputStream> getZipEntryInputStream(Path jar, String entryName) {
-    JarFile jarFile;
     try {
-      jarFile = new JarFile(jar.toFile());
+      if (!getEntryNames(jar).contains(entryName)) {
+        return Optional.empty();
+      }
     } catch (IOException e) {
       logger.atWarning().log(
           "Failed to open jar file %s: %s", jar, MoreThrowables.shortDebugString(e, 0));
       return Optional.empty();
     }
 
-    Optional<? extends ZipEntry> entry =
-        jarFile.stream().filter(ze -> ze.getName().equals(entryName)).findFirst();
-    if (entry.isEmpty()) {
+    ZipFile zipFile;
+    try {
+      zipFile = new ZipFile(jar.toFile());
+    } catch (IOException e) {
+      logger.atWarning().log(
+          "Failed to open jar file %s: %s", jar, MoreThrowables.shortDebugString(e, 0));
       return Optional.empty();
     }
 
     try {
-      return Optional.of(jarFile.getInputStream(entry.get()));
+      ZipEntry entry = zipFile.getEntry(entryName);
+      if (entry != null) {
+        return Optional.of(
+            new FilterInputStream(zipFile.getInputStream(entry)) {
+              @Override
+              public void close() throws IOException {
+                try {
+                  super.close();
+                } finally {
+                  zipFile.close();
+                }
+              }
+            });
+      }
     } catch (IOException e) {
       logger.atWarning().log(
           "Failed to get input stream for entry %s in jar file %s: %s",
-          entry, jar, MoreThrowables.shortDebugString(e, 0));
+          entryName, jar, MoreThrowables.shortDebugString(e, 0));
+    }
+    try {
+      zipFile.close();
+    } catch (IOException e) {
+      logger.atWarning().log(
+          "Failed to close jar file %s: %s", jar, MoreThrowables.shortDebugString(e, 0));
     }
     return Optional.empty();
   }
+
+  /** Gets the names of all entries in the jar file, from the cache if the jar is unchanged. */
+  private ImmutableSet<String> getEntryNames(Path jar) throws IOException {
+    Path jarPath = jar.toAbsolutePath();
+    FileStamp stamp;
+    try {
+      stamp = FileStamp.read(jarPath);
+    } catch (IOException e) {
+      jarEntryNamesCache.remove(jarPath);
+      throw e;
+    }
+    JarEntryNames cachedEntryNames = jarEntryNamesCache.get(jarPath);
+    if (cachedEntryNames != null && cachedEntryNames.stamp.equals(stamp)) {
+      return cachedEntryNames.entryNames;
+    }
+
+    ImmutableSet<String> entryNames;
+    try (ZipFile zipFile = new ZipFile(jarPath.toFile())) {
+      entryNames = zipFile.stream().map(ZipEntry::getName).collect(toImmutableSet());
+    }
+    jarEntryNamesCache.put(jarPath, new JarEntryNames(entryNames, stamp));
+    return entryNames;
+  }
+
+  private static final class JarEntryNames {
+
+    private final ImmutableSet<String> entryNames;
+
+    /** Stamp of the JAR file when the entry names were read. */
+    private final FileStamp stamp;
+
+    private JarEntryNames(ImmutableSet<String> entryNames, FileStamp stamp) {
+      this.entryNames = entryNames;
+      this.stamp = stamp;
+    }
+  }
 }
@@ -82,7 +82,8 @@ public class ResultLister {
       }
       File resultFile = new File(resultDir, "test_result.xml");
       try {
-        Optional<Result> result = compatibilityReportParser.parse(resultFile.toPath());
+        // Test cases are not listed, so only the summary of the result file is parsed.
+        Optional<Result> result = compatibilityReportParser.parseSummary(resultFile.toPath());
         result.ifPresent(value -> results.put(value, resultDir));
       } catch (MobileHarnessException e) {
         logger.atWarning().withCause(e).log(
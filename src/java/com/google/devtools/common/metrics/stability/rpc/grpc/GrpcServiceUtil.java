@@ -42,6 +42,14 @@ public class GrpcServiceUtil {
     ListenableFuture<ResponseT> executeAsync(RequestT request) throws Exception;
   }
 
+  /**
+   * A generic server streaming gRPC service method, which sends responses to the observer
+   * asynchronously. If it throws an exception, it must not have used the observer.
+   */
+  public interface ServerStreamingGrpcMethod<RequestT, ResponseT> {
+    void execute(RequestT request, StreamObserver<ResponseT> responseObserver) throws Exception;
+  }
+
   private GrpcServiceUtil() {}
 
   public static <RequestT, ResponseT> void invoke(
@@ -77,6 +85,20 @@ public class GrpcServiceUtil {
     }
   }
 
+  public static <RequestT, ResponseT> void invokeServerStreaming(
+      RequestT request,
+      StreamObserver<ResponseT> responseObserver,
+      ServerStreamingGrpcMethod<RequestT, ResponseT> method,
+      ServiceDescriptor serviceDescriptor,
+      MethodDescriptor<RequestT, ResponseT> methodDescriptor) {
+    try {
+      method.execute(request, responseObserver);
+    } catch (Exception | Error e) {
+      handleFailure(
+          e, responseObserver, "server streaming method", serviceDescriptor, methodDescriptor);
+    }
+  }
+
   private static class ResponseFutureCallback<RequestT, ResponseT>
       implements FutureCallback<ResponseT> {
 
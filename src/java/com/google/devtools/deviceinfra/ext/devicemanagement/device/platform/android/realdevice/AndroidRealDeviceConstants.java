@@ -131,6 +131,12 @@ public class AndroidRealDeviceConstants {
   /** Interval of calling google ping command. */
   public static final Duration GOOGLE_PING_INTERVAL = Duration.ofMinutes(30L);
 
+  /**
+   * Interval of checking the slow-changing dimensions, e.g., launchers and ICCIDs, when the health
+   * of the device is probed in batch.
+   */
+  public static final Duration SLOW_CHANGING_DIMENSION_CHECK_INTERVAL = Duration.ofMinutes(30L);
+
   /** The timeout for retrying fast recovery from fastboot mode. */
   public static final Duration AUTO_RECOVERY_TIMEOUT = Duration.ofMinutes(30L);
 
@@ -24,6 +24,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.common.flogger.FluentLogger;
@@ -57,6 +58,7 @@ import com.google.devtools.mobileharness.platform.android.packagemanager.Android
 import com.google.devtools.mobileharness.platform.android.packagemanager.PackageType;
 import com.google.devtools.mobileharness.platform.android.process.AndroidProcessUtil;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidAdbInternalUtil;
+import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidDeviceStateSnapshot;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidAdbUtil;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidProperty;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.DeviceState;
@@ -108,6 +110,9 @@ public abstract class AndroidRealDeviceDelegate {
   /** Last time record for checkPingGoogle method in order to call it every 30 minutes. */
   private Instant lastCheckPingGoogleTime = null;
 
+  /** Last time of checking the slow-changing dimensions when the health probe is batched. */
+  private Instant lastCheckSlowChangingDimensionsTime = null;
+
   /** Last time record for successful setup. */
   private Instant lastSetupTime = null;
 
@@ -144,6 +149,8 @@ public abstract class AndroidRealDeviceDelegate {
   private final DeviceDaemonHelper deviceDaemonHelper;
   private final Fastboot fastboot;
   private final LocalFileUtil fileUtil;
+  private final AndroidDeviceStateSnapshot deviceStateSnapshot;
+  private final AndroidRealDeviceHealthProbe healthProbe;
 
   protected AndroidRealDeviceDelegate(
       AndroidDevice device,
@@ -167,7 +174,9 @@ public abstract class AndroidRealDeviceDelegate {
       SystemStateManager systemStateManager,
       DeviceDaemonHelper deviceDaemonHelper,
       Fastboot fastboot,
-      LocalFileUtil fileUtil) {
+      LocalFileUtil fileUtil,
+      AndroidDeviceStateSnapshot deviceStateSnapshot,
+      AndroidRealDeviceHealthProbe healthProbe) {
     this.device = device;
     this.androidDeviceDelegate = androidDeviceDelegate;
     this.deviceStat = deviceStat;
@@ -190,6 +199,8 @@ public abstract class AndroidRealDeviceDelegate {
     this.deviceDaemonHelper = deviceDaemonHelper;
     this.fastboot = fastboot;
     this.fileUtil = fileUtil;
+    this.deviceStateSnapshot = deviceStateSnapshot;
+    this.healthProbe = healthProbe;
     this.deviceId = device.getDeviceId();
     device.setProperty(
         AndroidRealDeviceConstants.PROPERTY_NAME_REBOOT_TO_STATE, DeviceState.DEVICE.name());
@@ -772,7 +783,7 @@ public abstract class AndroidRealDeviceDelegate {
      Any recovery mode device should not be found when checking device. Reboot it to fastboot
      mode to notify the lab admins.
     */
-    if (androidAdbInternalUtil.getDeviceSerialsByState(DeviceState.RECOVERY).contains(deviceId)) {
+    if (deviceStateSnapshot.getAdbDeviceSerials(DeviceState.RECOVERY).contains(deviceId)) {
       logger.atInfo().log("Checking recovery device %s. Rebooting...", deviceId);
       AndroidRealDeviceDelegateHelper.setRebootToStateProperty(device, DeviceState.FASTBOOT);
       throw new MobileHarnessException(
@@ -780,7 +791,7 @@ public abstract class AndroidRealDeviceDelegate {
     }
 
     // Checks the device which is the fastboot mode.
-    if (fastboot.getDeviceSerials().contains(deviceId)) {
+    if (deviceStateSnapshot.getFastbootDeviceSerials().contains(deviceId)) {
       if (device.getDeviceTypes().contains(AndroidRealDeviceConstants.ANDROID_FASTBOOT_DEVICE)) {
         if (isWipeRecoveryDevice()
             && clock
@@ -836,17 +847,34 @@ public abstract class AndroidRealDeviceDelegate {
     // Device services should be available at this point but need to confirm, otherwise latter adb
     // commands may fail (b/134529577). In this case, try to reboot device to recover it.
     checkOnlineModeDeviceServiceAvailable(deviceId);
+    boolean batchHealthProbe = Flags.instance().androidDeviceBatchHealthProbe.getNonNull();
+    ImmutableMap<AndroidRealDeviceHealthProbe.Section, String> healthProbeOutputs =
+        ImmutableMap.of();
+    if (batchHealthProbe) {
+      // Cleans the internal storage before probing, so the probed free space excludes the
+      // cleaned files.
+      cleanInternalStorage();
+      healthProbeOutputs = probeHealth();
+      checkStorage(/* isExternal= */ false, healthProbeOutputs);
+    }
     isDimensionChanged =
         isDimensionChanged
             | isNetworkChanged
-            | checkBattery()
-            | checkAndCleanInternalStorage()
-            | checkStorage(/* isExternal= */ true)
-            | checkLaunchers()
-            | checkIccids()
+            | checkBattery(healthProbeOutputs)
+            | (!batchHealthProbe && checkAndCleanInternalStorage())
+            | checkStorage(/* isExternal= */ true, healthProbeOutputs)
             | extraChecksForOnlineModeDevice();
+    Instant currentCheckTime = clock.instant();
+    if (!batchHealthProbe
+        || lastCheckSlowChangingDimensionsTime == null
+        || currentCheckTime.isAfter(
+            lastCheckSlowChangingDimensionsTime.plus(
+                AndroidRealDeviceConstants.SLOW_CHANGING_DIMENSION_CHECK_INTERVAL))) {
+      isDimensionChanged = isDimensionChanged | checkLaunchers() | checkIccids();
+      lastCheckSlowChangingDimensionsTime = currentCheckTime;
+    }
     if (!Flags.instance().skipNetwork.getNonNull()) {
-      isDimensionChanged = isDimensionChanged | checkWifiRssi();
+      isDimensionChanged = isDimensionChanged | checkWifiRssi(healthProbeOutputs);
     }
     if (Flags.instance().pingGoogle.getNonNull()) {
       Instant currentTime = clock.instant();
@@ -1332,8 +1360,8 @@ public abstract class AndroidRealDeviceDelegate {
     // Both recovery and fastboot device need more time for setup.
     // This is not necessory for shared lab. Remove this dependency on fastboot.
     if (!DeviceUtil.inSharedLab()
-        && (androidAdbInternalUtil.getDeviceSerialsByState(DeviceState.RECOVERY).contains(deviceId)
-            || fastboot.getDeviceSerials().contains(deviceId))) {
+        && (deviceStateSnapshot.getAdbDeviceSerials(DeviceState.RECOVERY).contains(deviceId)
+            || deviceStateSnapshot.getFastbootDeviceSerials().contains(deviceId))) {
       return Optional.of(Duration.ofHours(1L));
     }
     return Optional.empty();
@@ -1756,15 +1784,21 @@ public abstract class AndroidRealDeviceDelegate {
    *
    * @return whethere there is any dimension changed
    */
-  private boolean checkBattery() throws InterruptedException {
+  private boolean checkBattery(
+      ImmutableMap<AndroidRealDeviceHealthProbe.Section, String> healthProbeOutputs)
+      throws InterruptedException {
     boolean isDimensionChanged = false;
     // Checks battery. Skips battery check if dimension "characteristics" contains "tv".
     if (!device.getDimension("characteristics").contains("tv")) {
+      String batteryOutput = healthProbeOutputs.get(AndroidRealDeviceHealthProbe.Section.BATTERY);
       logger.atInfo().log("Checking device %s battery level...", deviceId);
       int batteryLevel = -1;
       String batteryStatus = "unknown";
       try {
-        batteryLevel = systemSettingUtil.getBatteryLevel(deviceId);
+        batteryLevel =
+            batteryOutput == null
+                ? systemSettingUtil.getBatteryLevel(deviceId)
+                : AndroidSystemSettingUtil.parseBatteryLevel(deviceId, batteryOutput);
         logger.atInfo().log("Device %s battery level: %d", deviceId, batteryLevel);
         if (batteryLevel < 20) {
           batteryStatus = "low";
@@ -1779,7 +1813,10 @@ public abstract class AndroidRealDeviceDelegate {
       logger.atInfo().log("Checking device %s battery temperature...", deviceId);
       int batteryTemperature = 0;
       try {
-        Optional<Integer> temperature = systemSettingUtil.getBatteryTemperature(deviceId);
+        Optional<Integer> temperature =
+            batteryOutput == null
+                ? systemSettingUtil.getBatteryTemperature(deviceId)
+                : AndroidSystemSettingUtil.parseBatteryTemperature(deviceId, batteryOutput);
         if (temperature.isPresent()) {
           batteryTemperature = temperature.get();
           logger.atInfo().log("Device %s battery temperature: %d", deviceId, batteryTemperature);
@@ -1853,6 +1890,20 @@ public abstract class AndroidRealDeviceDelegate {
   @CanIgnoreReturnValue
   @VisibleForTesting
   boolean checkStorage(boolean isExternal) throws InterruptedException, MobileHarnessException {
+    return checkStorage(isExternal, /* healthProbeOutputs= */ ImmutableMap.of());
+  }
+
+  /**
+   * Checks the external or internal storage of the device and updates dimensions, with the storage
+   * information in the health probe outputs if present.
+   *
+   * @return whethere there is any dimension changed
+   */
+  @CanIgnoreReturnValue
+  private boolean checkStorage(
+      boolean isExternal,
+      ImmutableMap<AndroidRealDeviceHealthProbe.Section, String> healthProbeOutputs)
+      throws InterruptedException, MobileHarnessException {
     boolean isDimensionChanged = false;
 
     String storageFreePercentageStr;
@@ -1880,7 +1931,15 @@ public abstract class AndroidRealDeviceDelegate {
 
     try {
       // Gets storage information and updates dimensions.
-      storageInfo = androidFileUtil.getStorageInfo(deviceId, /* isExternal= */ isExternal);
+      String storageOutput =
+          healthProbeOutputs.get(
+              isExternal
+                  ? AndroidRealDeviceHealthProbe.Section.EXTERNAL_STORAGE
+                  : AndroidRealDeviceHealthProbe.Section.INTERNAL_STORAGE);
+      storageInfo =
+          storageOutput == null
+              ? androidFileUtil.getStorageInfo(deviceId, /* isExternal= */ isExternal)
+              : AndroidFileUtil.parseStorageInfo(storageOutput, isExternal);
     } catch (MobileHarnessException e) {
       logger.atWarning().log(
           "Failed to get %s storage info (device_id=%s): %s",
@@ -1927,8 +1986,15 @@ public abstract class AndroidRealDeviceDelegate {
   private boolean checkAndCleanInternalStorage()
       throws InterruptedException, MobileHarnessException {
     boolean isDimensionChanged = false;
+    cleanInternalStorage();
 
-    // Cleans temp apks, checks disk free percentage and sends disk alert if out of space.
+    // Checks internal storage and updates dimensions.
+    checkStorage(/* isExternal= */ false);
+    return isDimensionChanged;
+  }
+
+  /** Cleans up temp apks, smlog files and lost+found files in the internal storage. */
+  private void cleanInternalStorage() throws InterruptedException {
     logger.atInfo().log("Scanning temp apks on device %s...", deviceId);
     try {
       String output = androidFileUtil.listFiles(deviceId, AndroidRealDeviceConstants.TEMP_APK_PATH);
@@ -1981,10 +2047,6 @@ public abstract class AndroidRealDeviceDelegate {
       logger.atInfo().log(
           "Skip cleaning up device %s lost+found files because it is not rooted", deviceId);
     }
-
-    // Checks internal storage and updates dimensions.
-    checkStorage(/* isExternal= */ false);
-    return isDimensionChanged;
   }
 
   /**
@@ -2021,6 +2083,34 @@ public abstract class AndroidRealDeviceDelegate {
     return isDimensionChanged;
   }
 
+  /**
+   * Probes the battery, storage and WIFI of the device with a single adb shell command.
+   *
+   * @return the outputs of the probed sections, or empty if failed to probe, so that each dimension
+   *     is checked by its own command
+   */
+  private ImmutableMap<AndroidRealDeviceHealthProbe.Section, String> probeHealth()
+      throws InterruptedException {
+    List<AndroidRealDeviceHealthProbe.Section> sections = new ArrayList<>();
+    if (!device.getDimension("characteristics").contains("tv")) {
+      sections.add(AndroidRealDeviceHealthProbe.Section.BATTERY);
+    }
+    sections.add(AndroidRealDeviceHealthProbe.Section.EXTERNAL_STORAGE);
+    sections.add(AndroidRealDeviceHealthProbe.Section.INTERNAL_STORAGE);
+    Integer version = device.getSdkVersion();
+    if (!Flags.instance().skipNetwork.getNonNull() && version != null && version >= 19) {
+      sections.add(AndroidRealDeviceHealthProbe.Section.WIFI);
+    }
+    logger.atInfo().log("Probing device %s health: %s", deviceId, sections);
+    try {
+      return healthProbe.probe(deviceId, sections);
+    } catch (MobileHarnessException e) {
+      logger.atWarning().log(
+          "Failed to probe device %s health: %s", deviceId, MoreThrowables.shortDebugString(e, 0));
+      return ImmutableMap.of();
+    }
+  }
+
   /** Checks online mode device services available, otherwise reboot device to recover. */
   private void checkOnlineModeDeviceServiceAvailable(String deviceId)
       throws MobileHarnessException, InterruptedException {
@@ -2046,15 +2136,21 @@ public abstract class AndroidRealDeviceDelegate {
    *
    * @return whether there is any dimension changed
    */
-  private boolean checkWifiRssi() throws InterruptedException {
+  private boolean checkWifiRssi(
+      ImmutableMap<AndroidRealDeviceHealthProbe.Section, String> healthProbeOutputs)
+      throws InterruptedException {
     boolean isDimensionChanged = false;
     Integer version = device.getSdkVersion();
     if (version == null || version < 19) {
       isDimensionChanged |= device.removeDimension(Dimension.Name.WIFI_RSSI);
     } else {
+      String wifiOutput = healthProbeOutputs.get(AndroidRealDeviceHealthProbe.Section.WIFI);
       String wifiRssiValue = null;
       try {
-        wifiRssiValue = connectivityUtil.getWifiRssi(deviceId);
+        wifiRssiValue =
+            wifiOutput == null
+                ? connectivityUtil.getWifiRssi(deviceId)
+                : AndroidConnectivityUtil.parseWifiRssi(wifiOutput);
       } catch (MobileHarnessException e) {
         logger.atWarning().log(
             "Failed to get device %s WIFI RSSI: %s",
@@ -35,6 +35,7 @@ import com.google.devtools.mobileharness.platform.android.packagemanager.Android
 import com.google.devtools.mobileharness.platform.android.process.AndroidProcessUtil;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidAdbInternalUtil;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidAdbUtil;
+import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidDeviceStateSnapshot;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidVersion;
 import com.google.devtools.mobileharness.platform.android.systemsetting.AndroidSystemSettingUtil;
 import com.google.devtools.mobileharness.platform.android.systemspec.AndroidSystemSpecUtil;
@@ -90,7 +91,9 @@ public class AndroidRealDeviceDelegateImpl extends AndroidRealDeviceDelegate {
         new SystemStateManager(),
         new DeviceDaemonHelper(),
         new Fastboot(),
-        new LocalFileUtil());
+        new LocalFileUtil(),
+        AndroidDeviceStateSnapshot.getInstance(),
+        new AndroidRealDeviceHealthProbe());
   }
 
   @VisibleForTesting
@@ -116,7 +119,9 @@ public class AndroidRealDeviceDelegateImpl extends AndroidRealDeviceDelegate {
       SystemStateManager systemStateManager,
       DeviceDaemonHelper deviceDaemonHelper,
       Fastboot fastboot,
-      LocalFileUtil localFileUtil) {
+      LocalFileUtil localFileUtil,
+      AndroidDeviceStateSnapshot deviceStateSnapshot,
+      AndroidRealDeviceHealthProbe healthProbe) {
     super(
         device,
         androidDeviceDelegate,
@@ -139,7 +144,9 @@ public class AndroidRealDeviceDelegateImpl extends AndroidRealDeviceDelegate {
         systemStateManager,
         deviceDaemonHelper,
         fastboot,
-        localFileUtil);
+        localFileUtil,
+        deviceStateSnapshot,
+        healthProbe);
     this.androidAdbInternalUtil = androidAdbInternalUtil;
     this.connectivityUtil = connectivityUtil;
     this.noOpDeviceSandboxController = new NoOpDeviceSandboxController(device);
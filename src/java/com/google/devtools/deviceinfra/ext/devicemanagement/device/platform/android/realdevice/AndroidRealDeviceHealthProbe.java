@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.ext.devicemanagement.device.platform.android.realdevice;
+
+import static java.util.stream.Collectors.joining;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.platform.android.file.AndroidFileUtil;
+import com.google.devtools.mobileharness.platform.android.sdktool.adb.DumpSysType;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Probe of the health dimensions of an Android real device.
+ *
+ * <p>The adb shell commands of all the probed sections run as a single composite command, whose
+ * output is split by section markers and parsed by the same methods as the separate commands.
+ */
+class AndroidRealDeviceHealthProbe {
+
+  /** Sections of the probe, each of which is the output of an adb shell command. */
+  enum Section {
+    BATTERY("dumpsys " + DumpSysType.BATTERY.getTypeValue()),
+    EXTERNAL_STORAGE(AndroidFileUtil.getStorageInfoCommand(/* isExternal= */ true)),
+    INTERNAL_STORAGE(AndroidFileUtil.getStorageInfoCommand(/* isExternal= */ false)),
+    WIFI("dumpsys " + DumpSysType.WIFI.getTypeValue());
+
+    private final String command;
+
+    Section(String command) {
+      this.command = command;
+    }
+  }
+
+  /** Prefix of the line which is printed before the output of each section. */
+  private static final String SECTION_MARKER_PREFIX = "<<mh_health_probe_section:";
+
+  private static final String SECTION_MARKER_SUFFIX = ">>";
+
+  /** Timeout of the composite command. */
+  private static final Duration PROBE_TIMEOUT = Duration.ofMinutes(1L);
+
+  private final Adb adb;
+
+  AndroidRealDeviceHealthProbe() {
+    this(new Adb());
+  }
+
+  @VisibleForTesting
+  AndroidRealDeviceHealthProbe(Adb adb) {
+    this.adb = adb;
+  }
+
+  /**
+   * Probes the given sections of a device with a single adb shell command.
+   *
+   * @return the outputs of the sections, which don't contain the sections whose output is missing
+   * @throws MobileHarnessException if fails to run the command
+   */
+  ImmutableMap<Section, String> probe(String serial, Collection<Section> sections)
+      throws MobileHarnessException, InterruptedException {
+    if (sections.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    return parseOutput(adb.runShell(serial, buildCommand(sections), PROBE_TIMEOUT));
+  }
+
+  @VisibleForTesting
+  static String buildCommand(Collection<Section> sections) {
+    return sections.stream()
+        .map(
+            section ->
+                String.format(
+                    "echo '%s%s%s'; %s",
+                    SECTION_MARKER_PREFIX, section.name(), SECTION_MARKER_SUFFIX, section.command))
+        .collect(joining("; "));
+  }
+
+  @VisibleForTesting
+  static ImmutableMap<Section, String> parseOutput(String output) {
+    Map<Section, String> sectionOutputs = new EnumMap<>(Section.class);
+    Section section = null;
+    StringBuilder sectionOutput = new StringBuilder();
+    for (String line : output.split("\r?\n", -1)) {
+      String trimmedLine = line.trim();
+      if (trimmedLine.startsWith(SECTION_MARKER_PREFIX)
+          && trimmedLine.endsWith(SECTION_MARKER_SUFFIX)) {
+        if (section != null) {
+          sectionOutputs.put(section, sectionOutput.toString());
+        }
+        try {
+          section =
+              Section.valueOf(
+                  trimmedLine.substring(
+                      SECTION_MARKER_PREFIX.length(),
+                      trimmedLine.length() - SECTION_MARKER_SUFFIX.length()));
+        } catch (IllegalArgumentException e) {
+          section = null;
+        }
+        sectionOutput.setLength(0);
+      } else if (section != null) {
+        sectionOutput.append(line).append('\n');
+      }
+    }
+    if (section != null) {
+      sectionOutputs.put(section, sectionOutput.toString());
+    }
+    return ImmutableMap.copyOf(sectionOutputs);
+  }
+}
@@ -43,6 +43,7 @@ import com.google.devtools.mobileharness.infra.controller.device.LocalDeviceMana
 import com.google.devtools.mobileharness.infra.controller.device.LocalDeviceTestRunner;
 import com.google.devtools.mobileharness.infra.controller.device.external.NoopExternalDeviceManager;
 import com.google.devtools.mobileharness.infra.controller.scheduler.Scheduler;
+import com.google.devtools.mobileharness.infra.controller.scheduler.indexed.IndexedScheduler;
 import com.google.devtools.mobileharness.infra.controller.scheduler.simple.SimpleScheduler;
 import com.google.devtools.mobileharness.infra.controller.test.DirectTestRunner;
 import com.google.devtools.mobileharness.infra.controller.test.DirectTestRunnerSetting;
@@ -121,7 +122,10 @@ public class LocalMode implements ExecMode {
           localDeviceManagerFuture.set(localDeviceManager);
 
           // Prepares the global scheduler.
-          localScheduler = new SimpleScheduler(localEnvThreadPool);
+          localScheduler =
+              Flags.instance().enableIndexedScheduler.getNonNull()
+                  ? new IndexedScheduler(localEnvThreadPool)
+                  : new SimpleScheduler(localEnvThreadPool);
           localSchedulerFuture.set(localScheduler);
 
           // Notifies scheduler about device/test change.
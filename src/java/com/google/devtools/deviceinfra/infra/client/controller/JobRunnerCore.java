@@ -89,6 +89,7 @@ import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin.Plug
 import com.google.wireless.qa.mobileharness.shared.model.job.JobInfo;
 import com.google.wireless.qa.mobileharness.shared.model.job.JobSetting;
 import com.google.wireless.qa.mobileharness.shared.model.job.TestInfo;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestInfos;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Result;
 import com.google.wireless.qa.mobileharness.shared.model.job.util.ResultUtil;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
@@ -99,11 +100,10 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import javax.annotation.Nullable;
 
@@ -465,24 +465,33 @@ public class JobRunnerCore implements Runnable {
         Instant nextCheckNewTestTime = clock.instant();
         int countPollAllocation = 0;
         Instant nextPollAllocationTime = getNextPollAllocationTime(countPollAllocation);
-        // Uses this to log allocation start point of retry tests incrementally.
-        Set<String> loggedTests = new HashSet<>();
 
         SuitableDeviceChecker suitableDeviceChecker = new SuitableDeviceChecker();
         // Don't check whether there's potential suitable device for tests in M&M. b/124489785
         if (Value.POOL_SHARED.equals(jobInfo.dimensions().get(Name.POOL))) {
           suitableDeviceChecker.setHasFoundPotentialSuitableDevice();
         }
+        // Logs allocation start point of retry tests incrementally, and ends the wait for tests.
+        AtomicBoolean testsChanged = new AtomicBoolean();
+        TestInfos.Listener testAddedListener =
+            new TestInfos.Listener() {
+              @Override
+              public void onTestAdded(TestInfo testInfo) {
+                jobInfo.log().atInfo().alsoTo(logger).log("Device allocation started");
+                testsChanged.set(true);
+              }
+
+              @Override
+              public void onAllDone() {
+                testsChanged.set(true);
+              }
+            };
+        jobInfo.tests().addListener(testAddedListener);
+        for (int i = 0; i < jobInfo.tests().size(); i++) {
+          jobInfo.log().atInfo().alsoTo(logger).log("Device allocation started");
+        }
         try (MobileHarnessAutoCloseable runAllTestsSpan = getRunAllTestsSpan()) {
           while (true) {
-            for (TestInfo testInfo : jobInfo.tests().getAll().values()) {
-              String testId = testInfo.locator().getId();
-              if (loggedTests.contains(testId)) {
-                continue;
-              }
-              jobInfo.log().atInfo().alsoTo(logger).log("Device allocation started");
-              loggedTests.add(testId);
-            }
             if (jobInfo.tests().allDone() && !testManager.isAnyTestRunning()) {
               jobInfo.log().atInfo().alsoTo(logger).log("Job done");
               break;
@@ -499,8 +508,23 @@ public class JobRunnerCore implements Runnable {
               break;
             }
             Instant beforeSleep = clock.instant();
-            sleeper.sleep(BASE_INTERVAL);
-            if (clock.instant().isAfter(beforeSleep.plus(BASE_INTERVAL.multipliedBy(4)))) {
+            Duration sleepTime;
+            if (jobInfo.tests().allDone()) {
+              // Waits for the running tests to finish.
+              sleepTime = BASE_INTERVAL;
+              sleeper.sleep(sleepTime);
+            } else {
+              // Waits until the next allocation poll, unless a test is added or all tests are done.
+              sleepTime = getWaitTimeForTests(nextPollAllocationTime);
+              waitForTests(sleepTime, testsChanged);
+              // Polls allocations of new tests, e.g., retry tests, without waiting for the long
+              // interval of jobs without new tests.
+              nextPollAllocationTime =
+                  min(nextPollAllocationTime, getNextPollAllocationTime(countPollAllocation));
+            }
+            if (clock
+                .instant()
+                .isAfter(beforeSleep.plus(sleepTime).plus(BASE_INTERVAL.multipliedBy(3)))) {
               logger.atInfo().log(
                   "Sleep too long for %d ms in JobRunner.run. Before: %s, After %s.",
                   Duration.between(beforeSleep, clock.instant()).toMillis(),
@@ -681,6 +705,8 @@ public class JobRunnerCore implements Runnable {
               nextCheckNewTestTime = nextCheckNewTestTime.plus(CHECK_NEW_TESTS_INTERVAL);
             }
           }
+        } finally {
+          jobInfo.tests().removeListener(testAddedListener);
         }
       }
     } catch (JobCancelledException e) {
@@ -1480,6 +1506,34 @@ public class JobRunnerCore implements Runnable {
     return clock.instant().plus(BASE_INTERVAL.multipliedBy(multiplier));
   }
 
+  /** Gets the time to wait for the tests before the next allocation poll or the job expiry. */
+  private Duration getWaitTimeForTests(Instant nextPollAllocationTime) {
+    Duration waitTime = Duration.between(clock.instant(), nextPollAllocationTime);
+    try {
+      waitTime = min(waitTime, jobInfo.timer().remainingTimeJava());
+    } catch (MobileHarnessException e) {
+      // The job has expired, or has not started so it never expires.
+      if (jobInfo.timer().isExpired()) {
+        return Duration.ZERO;
+      }
+    }
+    return waitTime.isNegative() ? Duration.ZERO : waitTime;
+  }
+
+  /**
+   * Sleeps for the given time in {@link #BASE_INTERVAL} slices, and stops early once {@code
+   * testsChanged} is set, i.e., a test is added or all tests are done.
+   */
+  private void waitForTests(Duration waitTime, AtomicBoolean testsChanged)
+      throws InterruptedException {
+    Duration remainingTime = waitTime;
+    while (remainingTime.compareTo(Duration.ZERO) > 0 && !testsChanged.getAndSet(false)) {
+      Duration sleepTime = min(remainingTime, BASE_INTERVAL);
+      sleeper.sleep(sleepTime);
+      remainingTime = remainingTime.minus(sleepTime);
+    }
+  }
+
   /** Generates diagnostic report if no report is generated before. */
   private Optional<Report> diagnose(boolean noPerfectCandidate) throws InterruptedException {
     diagnosticTimes++;
@@ -40,6 +40,8 @@ import com.google.devtools.mobileharness.shared.util.command.CommandStartExcepti
 import com.google.devtools.mobileharness.shared.util.command.CommandTimeoutException;
 import com.google.devtools.mobileharness.shared.util.command.LineCallback;
 import com.google.devtools.mobileharness.shared.util.command.Timeout;
+import com.google.devtools.mobileharness.shared.util.metrics.LatencyHistogram;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.time.Duration;
 import java.util.Optional;
@@ -58,6 +60,14 @@ public class Adb {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Latency of the synchronous adb commands, including the failed ones. */
+  @VisibleForTesting
+  static final LatencyHistogram ADB_COMMAND_LATENCY =
+      MetricRegistry.getInstance()
+          .histogram(
+              "mh_adb_command_latency_seconds",
+              "Latency of the synchronous adb commands, in seconds.");
+
   /** Default timeout of running commands. */
   private static final Duration DEFAULT_ADB_COMMAND_TIMEOUT = Constants.DEFAULT_ADB_COMMAND_TIMEOUT;
 
@@ -77,6 +87,10 @@ public class Adb {
 
   private final Supplier<CommandExecutor> commandExecutorSupplier;
 
+  /** Client talking to the ADB server directly, used if {@link Flags#adbUseSocketClient} is set. */
+  private final Supplier<AdbSocketClient> socketClientSupplier =
+      Suppliers.memoize(() -> new AdbSocketClient(getAdbServerHost(), getAdbServerPort()));
+
   /**
    * The default {@link LineCallback} to use in {@link Adb}'s various run() methods, when one is not
    * provided.
@@ -123,6 +137,11 @@ public class Adb {
     return adbParamSupplier.get().getAdbServerHost();
   }
 
+  /** Gets the client which talks to the ADB server of this Adb via its socket directly. */
+  public AdbSocketClient getSocketClient() {
+    return socketClientSupplier.get();
+  }
+
   public Command getAdbCommand() {
     return Command.of(getAdbPath())
         .timeout(DEFAULT_ADB_COMMAND_TIMEOUT)
@@ -240,6 +259,10 @@ public class Adb {
   public String run(
       String serial, String[] args, @Nullable Duration timeout, @Nullable LineCallback lineCallback)
       throws MobileHarnessException, InterruptedException {
+    if (isSocketShellCommand(args)) {
+      return runShellBySocket(
+          serial, String.join(" ", ArrayUtils.remove(args, 0)), timeout, lineCallback);
+    }
     return run(ArrayUtils.addAll(new String[] {"-s", serial}, args), timeout, lineCallback);
   }
 
@@ -647,6 +670,57 @@ public class Adb {
     return asyncCommand(command);
   }
 
+  /**
+   * Whether the command is a plain "adb shell" command which can be run by the {@link
+   * AdbSocketClient}. Shell options like "-x", "-t" are only supported by the adb binary.
+   */
+  private static boolean isSocketShellCommand(String[] args) {
+    return Flags.instance().adbUseSocketClient.getNonNull()
+        && args.length > 1
+        && args[0].equals("shell")
+        && !args[1].startsWith("-");
+  }
+
+  /** Runs a shell command through the {@link AdbSocketClient} instead of forking adb. */
+  private String runShellBySocket(
+      String serial,
+      String command,
+      @Nullable Duration timeout,
+      @Nullable LineCallback lineCallback)
+      throws MobileHarnessException, InterruptedException {
+    if (lineCallback == null) {
+      lineCallback = defaultOutputCallback;
+    }
+    Duration shellTimeout =
+        (timeout == null ? DEFAULT_ADB_COMMAND_TIMEOUT : timeout)
+            .plus(Flags.instance().extraAdbCommandTimeout.getNonNull());
+    AdbSocketClient.ShellResult result;
+    long startNanos = System.nanoTime();
+    try {
+      result =
+          socketClientSupplier
+              .get()
+              .shell(
+                  serial,
+                  command,
+                  shellTimeout,
+                  lineCallback,
+                  Flags.instance().defaultAdbCommandRedirectStderr.getNonNull());
+    } finally {
+      ADB_COMMAND_LATENCY.record(Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+    if (!result.isStopped() && result.exitCode() != DEFAULT_ADB_SUCCESS_EXIT_CODE) {
+      throw new MobileHarnessException(
+          result.exitCode() == 134
+              ? AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_ASSERTION_FAILURE
+              : AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_FAILURE,
+          String.format(
+              "Failed to run adb shell command [%s] on device %s, code=%d, out=[%s], err=[%s]",
+              command, serial, result.exitCode(), result.stdout(), result.stderr()));
+    }
+    return CommandResult.removeTrailingLineTerminator(result.stdout());
+  }
+
   private CommandResult syncCommand(Command command)
       throws MobileHarnessException, InterruptedException {
     if (command.getStdoutLineCallback().isEmpty() && defaultOutputCallback != null) {
@@ -656,6 +730,7 @@ public class Adb {
     // Adds extra ADB command timeout.
     command = command.timeout(addExtraAdbCommandTimeout(command.getTimeout().orElse(null)));
 
+    long startNanos = System.nanoTime();
     try {
       return commandExecutorSupplier.get().exec(command);
     } catch (CommandException e) {
@@ -681,6 +756,8 @@ public class Adb {
         throw new MobileHarnessException(
             AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_ERROR, e.getMessage(), e);
       }
+    } finally {
+      ADB_COMMAND_LATENCY.record(Duration.ofNanos(System.nanoTime() - startNanos));
     }
   }
 
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import javax.annotation.Nullable;
+
+/**
+ * A single connection to the ADB server which speaks the smart-socket protocol.
+ *
+ * <p>A request is a 4-digit hex length followed by the payload, and the server replies "OKAY", or
+ * "FAIL" followed by a 4-digit hex length and the error message. Once a device service (e.g.,
+ * "shell:", "sync:") is started, the connection is dedicated to that service and is closed with
+ * it, so a connection can not be reused across services.
+ *
+ * <p>All blocking reads are bounded by the deadline of the connection, and check the interrupted
+ * state of the current thread at least once per {@link #POLL_INTERVAL}.
+ */
+public final class AdbConnection implements Closeable {
+
+  private static final int STATUS_LENGTH = 4;
+
+  /** Max time a socket read blocks before it checks the deadline and the interrupted state. */
+  private static final Duration POLL_INTERVAL = Duration.ofSeconds(1L);
+
+  private final Socket socket;
+  private final DataInputStream input;
+  private final OutputStream output;
+
+  /** Deadline of all blocking operations of this connection. */
+  private volatile Instant deadline;
+
+  AdbConnection(Socket socket, Instant deadline) throws IOException {
+    this.socket = socket;
+    this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    this.output = new BufferedOutputStream(socket.getOutputStream());
+    this.deadline = deadline;
+  }
+
+  /** Sets the deadline of all the following blocking operations. */
+  public void setDeadline(Instant deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Sets the deadline of all the following blocking operations to {@code timeout} from now, e.g.,
+   * before waiting for the next message of a long-lived stream.
+   */
+  public void setTimeout(Duration timeout) {
+    setDeadline(Instant.now().plus(timeout));
+  }
+
+  /** Sends a smart-socket request and checks the "OKAY" status replied by the ADB server. */
+  public void sendRequest(String request) throws MobileHarnessException, InterruptedException {
+    byte[] payload = request.getBytes(UTF_8);
+    try {
+      output.write(String.format("%04x", payload.length).getBytes(UTF_8));
+      output.write(payload);
+      output.flush();
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR,
+          String.format("Failed to send request [%s] to adb server", request),
+          e);
+    }
+    readStatus(request);
+  }
+
+  /** Reads a 4-digit hex length and then the string with that length. */
+  public String readHexLengthString() throws MobileHarnessException, InterruptedException {
+    int length = parseHexLength(new String(readBytes(4), UTF_8));
+    return new String(readBytes(length), UTF_8);
+  }
+
+  /**
+   * Reads a 4-digit hex length and then the string with that length, or returns null if the server
+   * closes the connection before the length.
+   */
+  @Nullable
+  public String readHexLengthStringOrEof() throws MobileHarnessException, InterruptedException {
+    byte[] lengthBytes = new byte[4];
+    if (!readFullyOrEof(lengthBytes)) {
+      return null;
+    }
+    int length = parseHexLength(new String(lengthBytes, UTF_8));
+    return new String(readBytes(length), UTF_8);
+  }
+
+  /** Reads exactly {@code length} bytes. */
+  public byte[] readBytes(int length) throws MobileHarnessException, InterruptedException {
+    byte[] bytes = new byte[length];
+    if (!readFullyOrEof(bytes)) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR,
+          "Connection closed by adb server unexpectedly");
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads up to {@code length} bytes into {@code buffer}.
+   *
+   * @return the number of bytes read, or -1 if the server closes the connection
+   */
+  public int read(byte[] buffer, int offset, int length)
+      throws MobileHarnessException, InterruptedException {
+    try {
+      while (true) {
+        updateSocketTimeout();
+        try {
+          return input.read(buffer, offset, length);
+        } catch (SocketTimeoutException e) {
+          // Nothing is read in this poll interval. Checks the deadline and interruption again.
+          if (!Instant.now().isBefore(deadline)) {
+            throw e;
+          }
+        }
+      }
+    } catch (SocketTimeoutException e) {
+      throw timeoutException(e);
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR,
+          "Failed to read from adb server",
+          e);
+    }
+  }
+
+  /** Reads a 32-bit little-endian integer. */
+  public int readIntLe() throws MobileHarnessException, InterruptedException {
+    byte[] bytes = readBytes(4);
+    return (bytes[0] & 0xff)
+        | (bytes[1] & 0xff) << 8
+        | (bytes[2] & 0xff) << 16
+        | (bytes[3] & 0xff) << 24;
+  }
+
+  /** Writes raw bytes to the server without flushing. */
+  public void write(byte[] bytes, int offset, int length) throws MobileHarnessException {
+    try {
+      output.write(bytes, offset, length);
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR, "Failed to write to adb server", e);
+    }
+  }
+
+  /** Writes a 32-bit little-endian integer without flushing. */
+  public void writeIntLe(int value) throws MobileHarnessException {
+    write(
+        new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)},
+        0,
+        4);
+  }
+
+  /** Flushes the written bytes to the server. */
+  public void flush() throws MobileHarnessException {
+    try {
+      output.flush();
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR, "Failed to write to adb server", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Ignores errors when closing the socket.
+    }
+  }
+
+  private void readStatus(String request) throws MobileHarnessException, InterruptedException {
+    String status = new String(readBytes(STATUS_LENGTH), UTF_8);
+    if (status.equals("OKAY")) {
+      return;
+    }
+    if (status.equals("FAIL")) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_REQUEST_FAILED,
+          String.format("adb server rejected request [%s]: %s", request, readHexLengthString()));
+    }
+    throw new MobileHarnessException(
+        AndroidErrorId.ANDROID_ADB_SOCKET_REQUEST_FAILED,
+        String.format("Unexpected status [%s] of request [%s] from adb server", status, request));
+  }
+
+  private boolean readFullyOrEof(byte[] bytes)
+      throws MobileHarnessException, InterruptedException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      int count = read(bytes, offset, bytes.length - offset);
+      if (count < 0) {
+        if (offset == 0) {
+          return false;
+        }
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR,
+            "Connection closed by adb server unexpectedly",
+            new EOFException());
+      }
+      offset += count;
+    }
+    return true;
+  }
+
+  private void updateSocketTimeout() throws IOException, InterruptedException {
+    if (Thread.interrupted()) {
+      close();
+      throw new InterruptedException("Interrupted when talking to adb server");
+    }
+    long remainingMs = Duration.between(Instant.now(), deadline).toMillis();
+    if (remainingMs <= 0) {
+      throw new SocketTimeoutException();
+    }
+    socket.setSoTimeout((int) Math.min(remainingMs, POLL_INTERVAL.toMillis()));
+  }
+
+  private MobileHarnessException timeoutException(SocketTimeoutException cause) {
+    close();
+    return new MobileHarnessException(
+        AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_TIMEOUT,
+        "Timeout when waiting for adb server",
+        cause);
+  }
+
+  private static int parseHexLength(String hex) throws MobileHarnessException {
+    try {
+      return Integer.parseInt(hex, 16);
+    } catch (NumberFormatException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_REQUEST_FAILED,
+          String.format("Invalid length [%s] from adb server", hex),
+          e);
+    }
+  }
+}
@@ -0,0 +1,624 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.command.LineCallback;
+import com.google.devtools.mobileharness.shared.util.command.LineCallbackException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Client which talks to the ADB server with its smart-socket protocol directly, instead of forking
+ * an adb process for every command.
+ *
+ * <p>Supported services are host queries (e.g., "host:version", "host:devices-l"), long-lived host
+ * streams (e.g., "host:track-devices-l"), device shell (shell protocol v2 if the device supports
+ * it, or the legacy raw shell) and the file sync protocol.
+ *
+ * <p>Every device service occupies a dedicated connection until it finishes, so instead of
+ * reusing connections, the client bounds the number of concurrent sessions per device serial.
+ */
+public class AdbSocketClient {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Default max number of the concurrent sessions to the same device. */
+  public static final int DEFAULT_MAX_SESSIONS_PER_DEVICE = 8;
+
+  /** Device feature which indicates the device supports shell protocol v2. */
+  private static final String FEATURE_SHELL_V2 = "shell_v2";
+
+  /** Packet IDs of shell protocol v2. */
+  private static final int SHELL_V2_ID_STDOUT = 1;
+
+  private static final int SHELL_V2_ID_STDERR = 2;
+  private static final int SHELL_V2_ID_EXIT = 3;
+  // Sent by the client, while the packet with the same ID sent by the device is SHELL_V2_ID_EXIT.
+  private static final int SHELL_V2_ID_CLOSE_STDIN = 3;
+
+  /** Max data length of a single packet in the sync protocol. */
+  private static final int SYNC_DATA_MAX = 64 * 1024;
+
+  /** Max data length of a single packet in shell protocol v2, which is MAX_PAYLOAD of adb. */
+  private static final int SHELL_V2_DATA_MAX = 1024 * 1024;
+
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5L);
+
+  private final String host;
+  private final int port;
+  private final int maxSessionsPerDevice;
+
+  /** {Device serial, permits of concurrent sessions to the device}. */
+  private final ConcurrentHashMap<String, Semaphore> sessionPermits = new ConcurrentHashMap<>();
+
+  /** {Device serial, device features}. */
+  private final Cache<String, ImmutableSet<String>> deviceFeatures =
+      CacheBuilder.newBuilder().expireAfterWrite(Duration.ofMinutes(5L)).build();
+
+  public AdbSocketClient(String host, int port) {
+    this(host, port, DEFAULT_MAX_SESSIONS_PER_DEVICE);
+  }
+
+  public AdbSocketClient(String host, int port, int maxSessionsPerDevice) {
+    this.host = host;
+    this.port = port;
+    this.maxSessionsPerDevice = maxSessionsPerDevice;
+  }
+
+  /** Result of a shell command run by {@link #shell}. */
+  @AutoValue
+  public abstract static class ShellResult {
+
+    /** Exit code of the command, which is always 0 if the device doesn't support shell v2. */
+    public abstract int exitCode();
+
+    public abstract String stdout();
+
+    public abstract String stderr();
+
+    /** Whether the command is stopped by the line callback before it finishes. */
+    public abstract boolean isStopped();
+
+    static ShellResult of(int exitCode, String stdout, String stderr, boolean isStopped) {
+      return new AutoValue_AdbSocketClient_ShellResult(exitCode, stdout, stderr, isStopped);
+    }
+  }
+
+  /** Stat of a file on device returned by {@link SyncSession#stat(String)}. */
+  @AutoValue
+  public abstract static class RemoteFileStat {
+
+    /** File mode, or 0 if the file doesn't exist. */
+    public abstract int mode();
+
+    public abstract long size();
+
+    /** Last modified time in seconds since epoch. */
+    public abstract long mtime();
+
+    public boolean exists() {
+      return mode() != 0;
+    }
+
+    static RemoteFileStat of(int mode, long size, long mtime) {
+      return new AutoValue_AdbSocketClient_RemoteFileStat(mode, size, mtime);
+    }
+  }
+
+  /**
+   * Opens a connection to the ADB server.
+   *
+   * @param timeout deadline of all the operations of the connection, or null to use {@link
+   *     Constants#DEFAULT_ADB_COMMAND_TIMEOUT}
+   */
+  public AdbConnection connect(@Nullable Duration timeout) throws MobileHarnessException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host, port), (int) CONNECT_TIMEOUT.toMillis());
+      return new AdbConnection(
+          socket,
+          Instant.now().plus(timeout == null ? Constants.DEFAULT_ADB_COMMAND_TIMEOUT : timeout));
+    } catch (IOException e) {
+      try {
+        socket.close();
+      } catch (IOException closeError) {
+        e.addSuppressed(closeError);
+      }
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR,
+          String.format("Failed to connect to adb server %s:%d", host, port),
+          e);
+    }
+  }
+
+  /**
+   * Runs a host query whose reply is a hex length prefixed string, e.g., "host:version",
+   * "host:devices-l", "host-serial:<serial>:features".
+   */
+  public String queryHost(String service, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    try (AdbConnection connection = connect(timeout)) {
+      connection.sendRequest(service);
+      return connection.readHexLengthString();
+    }
+  }
+
+  /**
+   * Opens a long-lived host stream, e.g., "host:track-devices-l". Each following message of the
+   * stream can be read by {@link AdbConnection#readHexLengthStringOrEof()}. The caller is
+   * responsible for closing the connection.
+   *
+   * @param timeout deadline of opening the stream and reading the first message. The caller should
+   *     extend it by {@link AdbConnection#setTimeout} before waiting for each following message
+   */
+  public AdbConnection openHostStream(String service, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    AdbConnection connection = connect(timeout);
+    try {
+      connection.sendRequest(service);
+      return connection;
+    } catch (MobileHarnessException | InterruptedException | RuntimeException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  /** Gets the features of the device, e.g., "shell_v2", "cmd", "stat_v2". */
+  public ImmutableSet<String> getDeviceFeatures(String serial, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    ImmutableSet<String> features = deviceFeatures.getIfPresent(serial);
+    if (features == null) {
+      features =
+          ImmutableSet.copyOf(
+              Splitter.on(',')
+                  .trimResults()
+                  .omitEmptyStrings()
+                  .split(queryHost("host-serial:" + serial + ":features", timeout)));
+      deviceFeatures.put(serial, features);
+    }
+    return features;
+  }
+
+  /**
+   * Runs a shell command on the device.
+   *
+   * @param serial device serial number
+   * @param command the shell command
+   * @param timeout max execution time
+   * @param lineCallback callback for each line of stdout (and stderr if {@code redirectStderr}),
+   *     or null
+   * @param redirectStderr whether to merge stderr into stdout, like "2>&1" of the adb binary
+   */
+  public ShellResult shell(
+      String serial,
+      String command,
+      Duration timeout,
+      @Nullable LineCallback lineCallback,
+      boolean redirectStderr)
+      throws MobileHarnessException, InterruptedException {
+    Instant deadline = Instant.now().plus(timeout);
+    boolean shellV2 =
+        getDeviceFeatures(serial, Duration.between(Instant.now(), deadline))
+            .contains(FEATURE_SHELL_V2);
+    Semaphore permits = acquireSessionPermit(serial, deadline);
+    try (AdbConnection connection = connectToDevice(serial, deadline)) {
+      connection.sendRequest((shellV2 ? "shell,v2,raw:" : "shell:") + command);
+      if (shellV2) {
+        // Commands reading stdin get EOF at once, like "adb shell <command> < /dev/null".
+        connection.write(new byte[] {SHELL_V2_ID_CLOSE_STDIN}, 0, 1);
+        connection.writeIntLe(0);
+        connection.flush();
+      }
+      ShellOutput stdout = new ShellOutput(lineCallback);
+      ShellOutput stderr = redirectStderr ? stdout : new ShellOutput(/* lineCallback= */ null);
+      return shellV2
+          ? readShellV2(connection, stdout, stderr)
+          : readLegacyShell(connection, stdout);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Opens a sync session to the device. Multiple files can be transferred in the same session.
+   *
+   * @param timeout deadline of all the operations of the session
+   */
+  public SyncSession openSync(String serial, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    Instant deadline = Instant.now().plus(timeout);
+    Semaphore permits = acquireSessionPermit(serial, deadline);
+    try {
+      AdbConnection connection = connectToDevice(serial, deadline);
+      try {
+        connection.sendRequest("sync:");
+      } catch (MobileHarnessException | InterruptedException | RuntimeException e) {
+        connection.close();
+        throw e;
+      }
+      return new SyncSession(serial, connection, permits);
+    } catch (MobileHarnessException | InterruptedException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** A session of the ADB file sync protocol. */
+  public static class SyncSession implements AutoCloseable {
+
+    private final String serial;
+    private final AdbConnection connection;
+    private final Semaphore permits;
+    @Nullable private RateLimiter rateLimiter;
+    private boolean closed;
+
+    private SyncSession(String serial, AdbConnection connection, Semaphore permits) {
+      this.serial = serial;
+      this.connection = connection;
+      this.permits = permits;
+    }
+
+    /**
+     * Sets the limiter of the bytes per second of the file data pushed or pulled in this session,
+     * or null for no limit. The limiter may be shared by multiple sessions.
+     */
+    public void setRateLimiter(@Nullable RateLimiter rateLimiter) {
+      this.rateLimiter = rateLimiter;
+    }
+
+    /** Gets the stat of the file on device. */
+    public RemoteFileStat stat(String remotePath)
+        throws MobileHarnessException, InterruptedException {
+      sendSyncRequest("STAT", remotePath);
+      expectSyncId("STAT", remotePath);
+      int mode = connection.readIntLe();
+      long size = Integer.toUnsignedLong(connection.readIntLe());
+      long mtime = Integer.toUnsignedLong(connection.readIntLe());
+      return RemoteFileStat.of(mode, size, mtime);
+    }
+
+    /**
+     * Pushes a local file to the device.
+     *
+     * @param mode file mode on device, e.g., 0644
+     * @return the number of the bytes pushed
+     */
+    public long push(Path localPath, String remotePath, int mode)
+        throws MobileHarnessException, InterruptedException {
+      sendSyncRequest("SEND", remotePath + "," + mode);
+      long total = 0L;
+      byte[] buffer = new byte[SYNC_DATA_MAX];
+      try (InputStream input = Files.newInputStream(localPath)) {
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+          if (rateLimiter != null) {
+            rateLimiter.acquire(count);
+          }
+          connection.write("DATA".getBytes(UTF_8), 0, 4);
+          connection.writeIntLe(count);
+          connection.write(buffer, 0, count);
+          total += count;
+        }
+        connection.write("DONE".getBytes(UTF_8), 0, 4);
+        connection.writeIntLe(
+            (int) TimeUnit.MILLISECONDS.toSeconds(Files.getLastModifiedTime(localPath).toMillis()));
+        connection.flush();
+      } catch (IOException e) {
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR,
+            String.format("Failed to read local file %s to push to %s", localPath, serial),
+            e);
+      }
+      expectSyncId("OKAY", remotePath);
+      connection.readIntLe();
+      return total;
+    }
+
+    /**
+     * Pulls a file from the device to a local file.
+     *
+     * @return the number of the bytes pulled
+     */
+    public long pull(String remotePath, Path localPath)
+        throws MobileHarnessException, InterruptedException {
+      sendSyncRequest("RECV", remotePath);
+      long total = 0L;
+      // Opens the local file after the first packet, so a failed pull doesn't truncate it.
+      OutputStream output = null;
+      try {
+        while (true) {
+          String id = readSyncId(remotePath);
+          int length = readPacketLength(connection, SYNC_DATA_MAX);
+          if (output == null) {
+            output = Files.newOutputStream(localPath);
+          }
+          if (id.equals("DONE")) {
+            break;
+          }
+          if (!id.equals("DATA")) {
+            throw new MobileHarnessException(
+                AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR,
+                String.format("Unexpected sync packet [%s] when pulling %s", id, remotePath));
+          }
+          if (rateLimiter != null && length > 0) {
+            rateLimiter.acquire(length);
+          }
+          output.write(connection.readBytes(length));
+          total += length;
+        }
+        output.close();
+      } catch (IOException e) {
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR,
+            String.format("Failed to write local file %s pulled from %s", localPath, serial),
+            e);
+      } finally {
+        if (output != null) {
+          try {
+            output.close();
+          } catch (IOException e) {
+            logger.atFine().withCause(e).log("Failed to close local file %s", localPath);
+          }
+        }
+      }
+      return total;
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        connection.write("QUIT".getBytes(UTF_8), 0, 4);
+        connection.writeIntLe(0);
+        connection.flush();
+      } catch (MobileHarnessException e) {
+        logger.atFine().withCause(e).log("Failed to quit sync session of device %s", serial);
+      } finally {
+        connection.close();
+        permits.release();
+      }
+    }
+
+    private void sendSyncRequest(String id, String path) throws MobileHarnessException {
+      byte[] pathBytes = path.getBytes(UTF_8);
+      connection.write(id.getBytes(UTF_8), 0, 4);
+      connection.writeIntLe(pathBytes.length);
+      connection.write(pathBytes, 0, pathBytes.length);
+      connection.flush();
+    }
+
+    private String readSyncId(String path) throws MobileHarnessException, InterruptedException {
+      String id = new String(connection.readBytes(4), UTF_8);
+      if (id.equals("FAIL")) {
+        int length = readPacketLength(connection, SYNC_DATA_MAX);
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR,
+            String.format(
+                "Sync of %s on device %s failed: %s",
+                path, serial, new String(connection.readBytes(length), UTF_8)));
+      }
+      return id;
+    }
+
+    private void expectSyncId(String expectedId, String path)
+        throws MobileHarnessException, InterruptedException {
+      String id = readSyncId(path);
+      if (!id.equals(expectedId)) {
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR,
+            String.format(
+                "Unexpected sync packet [%s] of %s on device %s, expected [%s]",
+                id, path, serial, expectedId));
+      }
+    }
+  }
+
+  private AdbConnection connectToDevice(String serial, Instant deadline)
+      throws MobileHarnessException, InterruptedException {
+    AdbConnection connection = connect(Duration.between(Instant.now(), deadline));
+    try {
+      connection.sendRequest("host:transport:" + serial);
+      return connection;
+    } catch (MobileHarnessException | InterruptedException | RuntimeException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  private Semaphore acquireSessionPermit(String serial, Instant deadline)
+      throws MobileHarnessException, InterruptedException {
+    Semaphore permits =
+        sessionPermits.computeIfAbsent(serial, k -> new Semaphore(maxSessionsPerDevice, true));
+    long waitMs = Math.max(0L, Duration.between(Instant.now(), deadline).toMillis());
+    if (!permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_TIMEOUT,
+          String.format("Timeout when waiting for a free adb session of device %s", serial));
+    }
+    return permits;
+  }
+
+  private static ShellResult readShellV2(
+      AdbConnection connection, ShellOutput stdout, ShellOutput stderr)
+      throws MobileHarnessException, InterruptedException {
+    while (true) {
+      byte[] id = new byte[1];
+      if (connection.read(id, 0, 1) < 0) {
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SOCKET_CONNECTION_ERROR,
+            "Shell connection closed before the command exits");
+      }
+      int length = readPacketLength(connection, SHELL_V2_DATA_MAX);
+      byte[] payload = connection.readBytes(length);
+      switch (id[0]) {
+        case SHELL_V2_ID_STDOUT:
+          if (stdout.append(payload, payload.length)) {
+            return ShellResult.of(0, stdout.finish(), stderrOf(stdout, stderr), true);
+          }
+          break;
+        case SHELL_V2_ID_STDERR:
+          if (stderr.append(payload, payload.length)) {
+            return ShellResult.of(0, stdout.finish(), stderrOf(stdout, stderr), true);
+          }
+          break;
+        case SHELL_V2_ID_EXIT:
+          int exitCode = length > 0 ? payload[0] & 0xff : 0;
+          return ShellResult.of(exitCode, stdout.finish(), stderrOf(stdout, stderr), false);
+        default:
+          // Ignores other packets, e.g., window size change.
+          break;
+      }
+    }
+  }
+
+  private static ShellResult readLegacyShell(AdbConnection connection, ShellOutput stdout)
+      throws MobileHarnessException, InterruptedException {
+    byte[] buffer = new byte[SYNC_DATA_MAX];
+    int count;
+    while ((count = connection.read(buffer, 0, buffer.length)) >= 0) {
+      if (stdout.append(buffer, count)) {
+        return ShellResult.of(0, stdout.finish(), "", true);
+      }
+    }
+    return ShellResult.of(0, stdout.finish(), "", false);
+  }
+
+  /**
+   * Reads the data length of a packet from the device.
+   *
+   * @throws MobileHarnessException if the length is negative or larger than {@code maxLength}, so a
+   *     broken peer can't make the client allocate a huge buffer
+   */
+  private static int readPacketLength(AdbConnection connection, int maxLength)
+      throws MobileHarnessException, InterruptedException {
+    int length = connection.readIntLe();
+    if (length < 0 || length > maxLength) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR,
+          String.format(
+              "Invalid adb packet length %d, expected [0, %d]",
+              Integer.toUnsignedLong(length), maxLength));
+    }
+    return length;
+  }
+
+  private static String stderrOf(ShellOutput stdout, ShellOutput stderr) {
+    return stderr == stdout ? "" : stderr.finish();
+  }
+
+  /** Accumulates shell output and dispatches complete lines to a {@link LineCallback}. */
+  private static class ShellOutput {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+    @Nullable private final LineCallback lineCallback;
+    private boolean stopReadingOutput;
+
+    /** Whether the line callback has asked to stop the command. */
+    private boolean stopped;
+
+    private ShellOutput(@Nullable LineCallback lineCallback) {
+      this.lineCallback = lineCallback;
+    }
+
+    /**
+     * Appends the output.
+     *
+     * @return whether the line callback asks to stop the command
+     */
+    private boolean append(byte[] bytes, int length) {
+      output.write(bytes, 0, length);
+      if (lineCallback == null || stopReadingOutput) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (bytes[i] != '\n') {
+          currentLine.write(bytes[i]);
+          continue;
+        }
+        if (handleCurrentLine()) {
+          return true;
+        }
+        if (stopReadingOutput) {
+          return false;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Sends the current line to the line callback and clears it.
+     *
+     * @return whether the line callback asks to stop the command
+     */
+    private boolean handleCurrentLine() {
+      String line = currentLine.toString(UTF_8);
+      currentLine.reset();
+      if (line.endsWith("\r")) {
+        line = line.substring(0, line.length() - 1);
+      }
+      try {
+        LineCallback.Response response = lineCallback.onLine(line);
+        stopReadingOutput = response.getStopReadingOutput();
+        stopped = response.getStop();
+      } catch (LineCallbackException e) {
+        logger.atWarning().withCause(e).log("Failed to handle adb shell output line");
+        stopReadingOutput = e.getStopReadingOutput();
+        stopped = e.getKillCommand();
+      }
+      return stopped;
+    }
+
+    /**
+     * Returns the whole output, after sending the last line which doesn't end with a line
+     * terminator to the line callback, like the line reader of a forked adb command does.
+     */
+    private String finish() {
+      if (lineCallback != null && !stopReadingOutput && !stopped && currentLine.size() > 0) {
+        handleCurrentLine();
+      }
+      return output.toString(UTF_8);
+    }
+  }
+}
@@ -609,7 +609,7 @@ public class Fastboot {
       throws MobileHarnessException, InterruptedException {
     Lease lease = null;
     if (flashSemaphore) {
-      lease = quotaManager.acquire(QuotaKey.ADB_PUSH_LARGE_FILE, 1);
+      lease = quotaManager.acquire(QuotaKey.FASTBOOT_FLASH_DEVICE, 1);
     }
     try {
       CommandException error = null;
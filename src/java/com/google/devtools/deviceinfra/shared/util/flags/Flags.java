@@ -38,6 +38,17 @@ public class Flags {
       converter = Flag.StringConverter.class)
   public Flag<String> aaptPath = aaptPathDefault;
 
+  private static final Flag<Boolean> aaptParseApkInProcessDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--aapt_parse_apk_in_process",
+      description =
+          "Whether to read the package name, version, min SDK version, permissions and ABIs of APKs"
+              + " in process rather than by running AAPT. AAPT is still used for values which"
+              + " can't be read in process. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> aaptParseApkInProcess = aaptParseApkInProcessDefault;
+
   private static final Flag<Integer> adbCommandRetryAttemptsDefault = Flag.value(2);
 
   @com.beust.jcommander.Parameter(
@@ -92,6 +103,60 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> adbLibusb = adbLibusbDefault;
 
+  private static final Flag<Duration> adbPropertyCacheTtlDefault =
+      DurationFlag.value(Duration.ZERO);
+
+  @com.beust.jcommander.Parameter(
+      names = "--adb_property_cache_ttl",
+      description =
+          "How long the non read-only properties in the per-device property snapshot, which is"
+              + " loaded by a single 'adb shell getprop', can be served without reloading."
+              + " Read-only (ro.*) properties are served until the device reboots. Default is 0,"
+              + " which disables the snapshot and reads each property from device. Example: '30s'.",
+      converter = DurationFlag.DurationConverter.class)
+  public Flag<Duration> adbPropertyCacheTtl = adbPropertyCacheTtlDefault;
+
+  private static final Flag<Integer> adbSyncMaxConcurrentDevicesDefault = Flag.value(4);
+
+  @com.beust.jcommander.Parameter(
+      names = "--adb_sync_max_concurrent_devices",
+      description =
+          "Max number of devices of this host which the same files are pushed to concurrently"
+              + " through adb sync sessions. Default is 4.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> adbSyncMaxConcurrentDevices = adbSyncMaxConcurrentDevicesDefault;
+
+  private static final Flag<Integer> adbSyncMaxHostBandwidthMbpsDefault = Flag.value(0);
+
+  @com.beust.jcommander.Parameter(
+      names = "--adb_sync_max_host_bandwidth_mbps",
+      description =
+          "Max total bandwidth in megabits per second of all the files pushed to or pulled from"
+              + " devices of this host through adb sync sessions. 0 for no limit. Default is 0.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> adbSyncMaxHostBandwidthMbps = adbSyncMaxHostBandwidthMbpsDefault;
+
+  private static final Flag<Boolean> adbTrackDevicesDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--adb_track_devices",
+      description =
+          "Whether to detect adb devices by the long-lived 'host:track-devices-l' stream of the adb"
+              + " server, which reports device changes immediately, instead of polling with 'adb"
+              + " devices'. Falls back to polling when the stream is lost. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> adbTrackDevices = adbTrackDevicesDefault;
+
+  private static final Flag<Boolean> adbUseSocketClientDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--adb_use_socket_client",
+      description =
+          "Whether to run plain adb shell commands by talking to the adb server socket directly,"
+              + " instead of forking an adb process for each command. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> adbUseSocketClient = adbUseSocketClientDefault;
+
   private static final Flag<Boolean> enableDaemonDefault = Flag.value(true);
 
   @com.beust.jcommander.Parameter(
@@ -100,6 +165,64 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> enableDaemon = enableDaemonDefault;
 
+  private static final Flag<Boolean> androidDeviceBatchHealthProbeDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--android_device_batch_health_probe",
+      description =
+          "Whether to probe the battery, storage and WIFI of an online Android real device with a"
+              + " single adb shell command in each device check, and to check the slow-changing"
+              + " dimensions, e.g., launchers and ICCIDs, on a longer interval. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> androidDeviceBatchHealthProbe = androidDeviceBatchHealthProbeDefault;
+
+  private static final Flag<Duration> androidDeviceStateSnapshotIntervalDefault =
+      DurationFlag.value(Duration.ofSeconds(5L));
+
+  @com.beust.jcommander.Parameter(
+      names = "--android_device_state_snapshot_interval",
+      description =
+          "Max age of the host-wide adb and fastboot device lists shared by the checks of all"
+              + " Android real devices. Zero means the lists are loaded for every check. Default is"
+              + " 5 seconds.",
+      converter = DurationFlag.DurationConverter.class)
+  public Flag<Duration> androidDeviceStateSnapshotInterval =
+      androidDeviceStateSnapshotIntervalDefault;
+
+  private static final Flag<Boolean> apkInstallConcurrentlyDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--apk_install_concurrently",
+      description =
+          "Whether to install multiple packages to a device, and the same APKs to multiple"
+              + " devices, concurrently. The concurrency is bounded by"
+              + " --apk_install_max_concurrent_packages and --apk_install_max_concurrent_devices."
+              + " Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> apkInstallConcurrently = apkInstallConcurrentlyDefault;
+
+  private static final Flag<Integer> apkInstallMaxConcurrentDevicesDefault = Flag.value(8);
+
+  @com.beust.jcommander.Parameter(
+      names = "--apk_install_max_concurrent_devices",
+      description =
+          "Max number of devices which APKs are installed to concurrently when installing the same"
+              + " APKs to multiple devices. Only used if --apk_install_concurrently is true."
+              + " Default is 8.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> apkInstallMaxConcurrentDevices = apkInstallMaxConcurrentDevicesDefault;
+
+  private static final Flag<Integer> apkInstallMaxConcurrentPackagesDefault = Flag.value(2);
+
+  @com.beust.jcommander.Parameter(
+      names = "--apk_install_max_concurrent_packages",
+      description =
+          "Max number of packages which are installed to a device concurrently when installing"
+              + " multiple APKs to the device. Only used if --apk_install_concurrently is true."
+              + " Default is 2.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> apkInstallMaxConcurrentPackages = apkInstallMaxConcurrentPackagesDefault;
+
   private static final Flag<Boolean> atsConsoleAlwaysRestartOlcServerDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -126,6 +249,17 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> cacheInstalledApks = cacheInstalledApksDefault;
 
+  private static final Flag<String> checksumIndexFileDefault = Flag.value("");
+
+  @com.beust.jcommander.Parameter(
+      names = "--checksum_index_file",
+      description =
+          "Path of the on-disk index of file fingerprints, keyed by path, size, modification time"
+              + " and inode, so that unchanged files are not hashed again after restarts. Empty to"
+              + " disable the persistent index. Default is empty.",
+      converter = Flag.StringConverter.class)
+  public Flag<String> checksumIndexFile = checksumIndexFileDefault;
+
   private static final Flag<Boolean> clearAndroidDeviceMultiUsersDefault = Flag.value(true);
 
   @com.beust.jcommander.Parameter(
@@ -262,6 +396,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> createFailedDevice = createFailedDeviceDefault;
 
+  private static final Flag<Boolean> enableIndexedSchedulerDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_indexed_scheduler",
+      description =
+          "Whether to use the event-driven scheduler which indexes idle devices by type, instead of"
+              + " the simple polling scheduler, in local mode. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enableIndexedScheduler = enableIndexedSchedulerDefault;
+
   private static final Flag<Boolean> enforceSafeDischargeDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -320,6 +464,73 @@ public class Flags {
       converter = Flag.StringConverter.class)
   public Flag<String> jobConfigsJson = jobConfigsJsonDefault;
 
+  private static final Flag<Integer> jobLogHeapBudgetMbDefault = Flag.value(0);
+
+  @com.beust.jcommander.Parameter(
+      names = "--job_log_heap_budget_mb",
+      description =
+          "Max heap memory in MB of the logs of a job and its tests. Older parts of the logs beyond"
+              + " it are spilled to compressed files in the system temp dir, which are deleted when"
+              + " the logs are garbage collected. Non-positive means no limit and logs are never"
+              + " spilled. Default is 0.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> jobLogHeapBudgetMb = jobLogHeapBudgetMbDefault;
+
+  private static final Flag<String> labMetricsBindAddressDefault = Flag.value("127.0.0.1");
+
+  @com.beust.jcommander.Parameter(
+      names = "--lab_metrics_bind_address",
+      description =
+          "Address which the lab metrics HTTP server binds to. Set it to \"0.0.0.0\" to export the"
+              + " metrics to other hosts. Default is the loopback address \"127.0.0.1\".",
+      converter = Flag.StringConverter.class)
+  public Flag<String> labMetricsBindAddress = labMetricsBindAddressDefault;
+
+  private static final Flag<Integer> labMetricsPortDefault = Flag.value(0);
+
+  @com.beust.jcommander.Parameter(
+      names = "--lab_metrics_port",
+      description =
+          "Port of the local HTTP server which exports the lab metrics in the Prometheus text"
+              + " format at /metrics and as a proto snapshot at /metrics/snapshot. Non-positive"
+              + " means not to start the server. Default is 0.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> labMetricsPort = labMetricsPortDefault;
+
+  private static final Flag<Boolean> localFileUtilUseNioDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--local_file_util_use_nio",
+      description =
+          "Whether LocalFileUtil runs file operations like chmod/chown/du/ln/mv/rm/rsync/head/tail"
+              + "/unzip with Java NIO in process, instead of forking system commands. Default is"
+              + " false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> localFileUtilUseNio = localFileUtilUseNioDefault;
+
+  private static final Flag<Boolean> localQuotaAdaptiveDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--local_quota_adaptive",
+      description =
+          "Whether to adapt the local quotas of large file pushing, large file unzipping and"
+              + " device flashing to the observed throughput and the host load, between 1 and"
+              + " twice of --max_concurrent_adb_push_large_file, --max_concurrent_unzip_large_file"
+              + " and --max_concurrent_flash_device. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> localQuotaAdaptive = localQuotaAdaptiveDefault;
+
+  private static final Flag<Duration> localQuotaAdaptiveIntervalDefault =
+      DurationFlag.value(Duration.ofSeconds(30L));
+
+  @com.beust.jcommander.Parameter(
+      names = "--local_quota_adaptive_interval",
+      description =
+          "Interval of adjusting the adaptive local quotas, if --local_quota_adaptive is true."
+              + " Default is 30 seconds.",
+      converter = DurationFlag.DurationConverter.class)
+  public Flag<Duration> localQuotaAdaptiveInterval = localQuotaAdaptiveIntervalDefault;
+
   private static final Flag<Integer> logFileNumDefault = Flag.value(100);
 
   @com.beust.jcommander.Parameter(
@@ -411,6 +622,16 @@ public class Flags {
       converter = Flag.StringConverter.class)
   public Flag<String> noOpDeviceType = noOpDeviceTypeDefault;
 
+  private static final Flag<Integer> olcServerMaxArchivedSessionsDefault = Flag.value(10000);
+
+  @com.beust.jcommander.Parameter(
+      names = "--olc_server_max_archived_sessions",
+      description =
+          "Max number of archived sessions kept in the OLC server session journal. Default is"
+              + " 10000.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> olcServerMaxArchivedSessions = olcServerMaxArchivedSessionsDefault;
+
   private static final Flag<Integer> olcServerPortDefault = Flag.value(7030);
 
   @com.beust.jcommander.Parameter(
@@ -419,6 +640,18 @@ public class Flags {
       converter = Flag.IntegerConverter.class)
   public Flag<Integer> olcServerPort = olcServerPortDefault;
 
+  private static final Flag<Boolean> olcServerSessionJournalDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--olc_server_session_journal",
+      description =
+          "Whether OLC server persists sessions in a local journal under the public dir, so"
+              + " sessions survive server restarts. When the server restarts, submitted sessions"
+              + " in the journal are started again, and running ones are archived as interrupted."
+              + " Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> olcServerSessionJournal = olcServerSessionJournalDefault;
+
   private static final Flag<String> publicDirDefault = Flag.value("/var/www");
 
   @com.beust.jcommander.Parameter(
@@ -579,6 +812,17 @@ public class Flags {
       converter = Flag.StringConverter.class)
   public Flag<String> tmpDirRoot = tmpDirRootDefault;
 
+  private static final Flag<String> xtsConfigIndexDirDefault = Flag.value("");
+
+  @com.beust.jcommander.Parameter(
+      names = "--xts_config_index_dir",
+      description =
+          "Directory of the on-disk indexes of parsed xTS module configurations, keyed by path,"
+              + " size and modification time, so that unchanged configuration files are not parsed"
+              + " again after restarts. Empty to disable the persistent indexes. Default is empty.",
+      converter = Flag.StringConverter.class)
+  public Flag<String> xtsConfigIndexDir = xtsConfigIndexDirDefault;
+
   private static final Flags INSTANCE = new Flags();
 
   public static Flags instance() {
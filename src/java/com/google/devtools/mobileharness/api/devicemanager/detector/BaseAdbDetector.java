@@ -21,12 +21,14 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
 import com.google.devtools.mobileharness.api.devicemanager.detector.model.DetectionResult;
 import com.google.devtools.mobileharness.api.devicemanager.detector.model.DetectionResult.DetectionType;
 import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.api.testrunner.device.cache.DeviceCacheManager;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidAdbInternalUtil;
+import com.google.devtools.mobileharness.platform.android.sdktool.adb.AndroidDeviceStateSnapshot;
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.DeviceState;
 import com.google.devtools.mobileharness.shared.util.command.CommandFailureException;
 import com.google.devtools.mobileharness.shared.util.system.SystemUtil;
@@ -37,9 +39,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /** Detector for adb. */
-public class BaseAdbDetector implements Detector {
+public class BaseAdbDetector implements StreamingDetector {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   /** The max rounds of detection when adb detects no devices. If reached, will restart the adb. */
@@ -130,10 +133,8 @@ public class BaseAdbDetector implements Detector {
         // The adb detection result have been changed, use the realtime result.
         ids = adbInternalUtil.getDeviceSerialsAsMap();
       }
-      return ids.entrySet().stream()
-          .filter(entry -> needKeepDevice(entry.getKey()))
-          .map(entry -> DetectionResult.of(entry.getKey(), DetectionType.ADB, entry.getValue()))
-          .collect(toImmutableList());
+      AndroidDeviceStateSnapshot.getInstance().updateAdbDevices(ids);
+      return toDetectionResults(ids);
     } catch (MobileHarnessException e) {
       killAllAdbIfNeeded(e);
       throw new MobileHarnessException(
@@ -141,6 +142,32 @@ public class BaseAdbDetector implements Detector {
     }
   }
 
+  @Override
+  public boolean isStreamingEnabled() {
+    return Flags.instance().adbTrackDevices.getNonNull();
+  }
+
+  /**
+   * Watches the adb devices with the "host:track-devices-l" stream of the adb server.
+   *
+   * <p>Note the adb server recovery in {@link #detectDevices()} and {@link #needRedetectDevice} are
+   * only applied in the polling mode, which device manager falls back to when the stream is lost.
+   */
+  @Override
+  public void watchDevices(Consumer<List<DetectionResult>> listener)
+      throws MobileHarnessException, InterruptedException {
+    try {
+      adbInternalUtil.trackDevices(
+          ids -> {
+            AndroidDeviceStateSnapshot.getInstance().updateAdbDevices(ids);
+            listener.accept(toDetectionResults(ids));
+          });
+    } catch (MobileHarnessException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_DM_DETECTOR_ADB_ERROR, "AdbDetector failed to watch devices", e);
+    }
+  }
+
   /** Gets the cached device id from DeviceCache. */
   Set<String> getCachedDevices() {
     Set<String> cachedRealDevices = new HashSet<>();
@@ -167,6 +194,13 @@ public class BaseAdbDetector implements Detector {
     return true;
   }
 
+  private ImmutableList<DetectionResult> toDetectionResults(Map<String, DeviceState> ids) {
+    return ids.entrySet().stream()
+        .filter(entry -> needKeepDevice(entry.getKey()))
+        .map(entry -> DetectionResult.of(entry.getKey(), DetectionType.ADB, entry.getValue()))
+        .collect(toImmutableList());
+  }
+
   private void killAllAdbIfNeeded(MobileHarnessException e) {
     if (!needCheckAdbProcess()) {
       logger.atInfo().log("The devices are not managed by MH, skip killing adb processes.");
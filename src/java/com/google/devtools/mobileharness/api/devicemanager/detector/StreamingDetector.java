@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.api.devicemanager.detector;
+
+import com.google.devtools.mobileharness.api.devicemanager.detector.model.DetectionResult;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Device detector which can push the active devices as soon as they change, instead of being
+ * polled by device manager with the detection interval.
+ *
+ * <p>Device manager falls back to polling {@link #detectDevices()} when the stream is lost, and
+ * then tries to reopen the stream.
+ */
+public interface StreamingDetector extends Detector {
+
+  /** Returns whether the streaming mode is enabled. If not, the detector is only polled. */
+  boolean isStreamingEnabled();
+
+  /**
+   * Watches the active devices, and calls {@code listener} with all the current {@link
+   * DetectionResult}s of the detector once the stream is opened and whenever they change. Blocks
+   * until the stream is lost.
+   *
+   * @throws MobileHarnessException if fails to open the stream or the stream breaks
+   */
+  void watchDevices(Consumer<List<DetectionResult>> listener)
+      throws MobileHarnessException, InterruptedException;
+}
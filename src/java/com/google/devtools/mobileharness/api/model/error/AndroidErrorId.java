@@ -180,6 +180,8 @@ public enum AndroidErrorId implements ErrorId {
   ANDROID_FILE_UTIL_NO_SPACE_TO_MAKE_DIRECTORY_ERROR_IN_SATELLITE_LAB(
       100_876, ErrorType.INFRA_ISSUE),
   ANDROID_FILE_UTIL_CREATE_SYMLINK_ERROR(100_877, ErrorType.INFRA_ISSUE),
+  ANDROID_FILE_UTIL_SYNC_PUSH_ERROR(100_878, ErrorType.INFRA_ISSUE),
+  ANDROID_FILE_UTIL_SYNC_PULL_ERROR(100_879, ErrorType.INFRA_ISSUE),
 
   // AndroidSystemSpecUtil: 101_001 ~ 101_200
   ANDROID_SYSTEM_SPEC_USB_LOCATOR_ADB_INVALID_LINE(101_001, ErrorType.DEPENDENCY_ISSUE),
@@ -323,6 +325,9 @@ public enum AndroidErrorId implements ErrorId {
   ANDROID_ADB_WITHOUT_DEVICE_BLOCK_FEATURE_FOR_SANDBOX(102_609, ErrorType.CUSTOMER_ISSUE),
   ANDROID_ADB_CHECK_DEVICE_SANDBOX_SUPPORT_ERROR(102_610, ErrorType.DEPENDENCY_ISSUE),
   ANDROID_ADB_SYNC_CMD_EXECUTION_ASSERTION_FAILURE(102_611, ErrorType.CUSTOMER_ISSUE),
+  ANDROID_ADB_SOCKET_CONNECTION_ERROR(102_612, ErrorType.INFRA_ISSUE),
+  ANDROID_ADB_SOCKET_REQUEST_FAILED(102_613, ErrorType.UNDETERMINED),
+  ANDROID_ADB_SOCKET_SYNC_ERROR(102_614, ErrorType.UNDETERMINED),
 
   // AndroidAdbInternalUtil: 102_701 ~ 102_900
   ANDROID_ADB_INTERNAL_UTIL_INVALID_ADB_LINE_FORMAT(102_701, ErrorType.DEPENDENCY_ISSUE),
@@ -336,6 +341,7 @@ public enum AndroidErrorId implements ErrorId {
   ANDROID_ADB_INTERNAL_UTIL_DEVICE_DETACH_ERROR(102_709, ErrorType.INFRA_ISSUE),
   ANDROID_ADB_INTERNAL_UTIL_DEVICE_ATTACH_ERROR(102_710, ErrorType.INFRA_ISSUE),
   ANDROID_ADB_INTERNAL_UTIL_GET_HOST_FEATURES_ERROR(102_711, ErrorType.INFRA_ISSUE),
+  ANDROID_ADB_INTERNAL_UTIL_TRACK_DEVICES_ERROR(102_712, ErrorType.INFRA_ISSUE),
 
   /** Android Devices: 110_001 ~ 115_000 */
   // Android Detector: 110_001 ~ 110_200
@@ -390,6 +396,7 @@ public enum AndroidErrorId implements ErrorId {
   ANDROID_APK_INSTALLER_GMS_INCOMPATIBLE(150_003, ErrorType.DEPENDENCY_ISSUE),
   ANDROID_APK_INSTALLER_INVALID_GMS_VERSION(150_004, ErrorType.DEPENDENCY_ISSUE),
   ANDROID_APK_INSTALLER_APPLY_MULTI_PACKAGE_INSTALL_TO_GMS(150_005, ErrorType.CUSTOMER_ISSUE),
+  ANDROID_APK_INSTALLER_INSTALL_APKS_ERROR(150_006, ErrorType.UNDETERMINED),
 
   // SystemStateManager: 150_201 ~ 150_400
   SYSTEM_STATE_MANAGER_REBOOT_DEVICE_ERROR(150_201, ErrorType.INFRA_ISSUE),
@@ -103,6 +103,7 @@ public enum ExtErrorId implements ErrorId {
   REPORT_MERGER_PARSE_REPORTS_GENERIC_ERROR(86_952, ErrorType.INFRA_ISSUE),
   REPORT_MERGER_PARSE_MOBLY_REPORTS_TIMEOUT_ERROR(86_953, ErrorType.INFRA_ISSUE),
   REPORT_MERGER_PARSE_MOBLY_REPORTS_GENERIC_ERROR(86_954, ErrorType.INFRA_ISSUE),
+  REPORT_MERGER_SPILL_MODULES_ERROR(86_955, ErrorType.INFRA_ISSUE),
 
   // CompatibilityReportCreator: 87_001 ~ 87_050
   REPORT_CREATOR_WRITE_REPORT_TO_XML_ERROR(87_001, ErrorType.INFRA_ISSUE),
@@ -235,6 +235,8 @@ public enum InfraErrorId implements ErrorId {
   OLCS_STUB_RUN_SESSION_ERROR(52_211, ErrorType.UNDETERMINED),
   OLCS_STUB_GET_ALL_SESSIONS_ERROR(52_212, ErrorType.UNDETERMINED),
   OLCS_STUB_SET_LOG_LEVEL_ERROR(52_213, ErrorType.UNDETERMINED),
+  OLCS_STUB_WATCH_SESSION_ERROR(52_214, ErrorType.UNDETERMINED),
+  OLCS_SESSION_INTERRUPTED_BY_SERVER_RESTART(52_215, ErrorType.INFRA_ISSUE),
 
   // ATS console: 52_301 ~ 52_400
   ATSC_SERVER_PREPARER_CONNECT_EXISTING_OLC_SERVER_ERROR(52_301, ErrorType.UNDETERMINED),
@@ -254,6 +256,7 @@ public enum InfraErrorId implements ErrorId {
   ATSC_SESSION_STUB_CREATE_SESSION_ERROR(52_315, ErrorType.UNDETERMINED),
   ATSC_SESSION_STUB_RUN_SESSION_ERROR(52_316, ErrorType.UNDETERMINED),
   ATSC_SESSION_STUB_GET_ALL_SESSIONS_ERROR(52_317, ErrorType.INFRA_ISSUE),
+  ATSC_SESSION_STUB_WATCH_SESSION_ERROR(52_318, ErrorType.UNDETERMINED),
 
   // XTS test suite: 52_401 ~ 52_500
   XTS_CONFIG_XML_PARSE_ERROR(52_401, ErrorType.UNDETERMINED),
@@ -29,16 +29,21 @@ import com.google.devtools.deviceinfra.shared.util.flags.Flags;
 import com.google.devtools.deviceinfra.shared.util.path.PathUtil;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.controller.LogManager;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.controller.LogRecorder;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.controller.SessionManager;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.ControlServiceProto.GetLogResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.service.ControlService;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.service.SessionService;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.service.VersionService;
+import com.google.devtools.mobileharness.shared.util.command.CommandExecutor;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricsHttpServer;
 import com.google.inject.Guice;
 import com.google.wireless.qa.mobileharness.shared.MobileHarnessLogger;
 import com.google.wireless.qa.mobileharness.shared.constant.DirCommon;
 import io.grpc.Server;
 import io.grpc.netty.NettyServerBuilder;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
@@ -69,6 +74,7 @@ public class OlcServer {
   private final LocalMode localMode;
   private final EventBus globalInternalEventBus;
   private final LogManager<GetLogResponse> logManager;
+  private final SessionManager sessionManager;
 
   @Inject
   OlcServer(
@@ -78,7 +84,8 @@ public class OlcServer {
       ListeningExecutorService threadPool,
       LocalMode localMode,
       @GlobalInternalEventBus EventBus globalInternalEventBus,
-      LogManager<GetLogResponse> logManager) {
+      LogManager<GetLogResponse> logManager,
+      SessionManager sessionManager) {
     this.sessionService = sessionService;
     this.versionService = versionService;
     this.controlService = controlService;
@@ -86,6 +93,7 @@ public class OlcServer {
     this.localMode = localMode;
     this.globalInternalEventBus = globalInternalEventBus;
     this.logManager = logManager;
+    this.sessionManager = sessionManager;
   }
 
   private void run(List<String> args) throws IOException, InterruptedException {
@@ -100,6 +108,9 @@ public class OlcServer {
     logManager.start();
     LogRecorder.getInstance().initialize(logManager);
 
+    // Recovers sessions from the last run.
+    sessionManager.recoverSessions();
+
     // Starts RPC server.
     int port = Flags.instance().olcServerPort.getNonNull();
     Server server =
@@ -112,6 +123,21 @@ public class OlcServer {
     controlService.setServer(server);
     server.start();
 
+    // Starts metrics HTTP server.
+    int metricsPort = Flags.instance().labMetricsPort.getNonNull();
+    if (metricsPort > 0) {
+      MetricRegistry.getInstance()
+          .gauge(
+              "mh_running_commands",
+              "Number of the running commands started by the process.",
+              CommandExecutor::getRunningCommandCount);
+      new MetricsHttpServer(
+              MetricRegistry.getInstance(),
+              new InetSocketAddress(
+                  Flags.instance().labMetricsBindAddress.getNonNull(), metricsPort))
+          .start();
+    }
+
     // Starts local device manager.
     logger.atInfo().log("Starting local device manager");
     logFailure(
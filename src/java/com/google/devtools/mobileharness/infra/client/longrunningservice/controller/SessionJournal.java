@@ -0,0 +1,511 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.longrunningservice.controller;
+
+import static com.google.protobuf.TextFormat.shortDebugString;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.deviceinfra.shared.util.path.PathUtil;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionStatus;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.wireless.qa.mobileharness.shared.constant.DirCommon;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Append-only local journal of sessions, from which {@link SessionManager} recovers sessions after
+ * the server restarts and reads archived sessions which are not kept in memory.
+ *
+ * <p>Each record is a {@link SessionDetail} of a session when the session is submitted, started or
+ * finished, and the latest record of a session wins. A record is prefixed by its length and CRC32,
+ * so a partially written record at the end of the journal is dropped when recovering.
+ *
+ * <p>Records are not synced to disk when appended, so they survive a crash of the server but may
+ * not survive a crash of the OS. When stale records are more than live ones, the journal is
+ * compacted in the background by writing a snapshot of the live records to a new file and replacing
+ * the journal with it. Only the replacement takes the lock of the journal, so appending is not
+ * blocked by the rewrite.
+ */
+@Singleton
+public class SessionJournal {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String JOURNAL_FILE_NAME = "olc_server_session_journal";
+
+  /** Length and CRC32 of a record. */
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  /** Min number of stale records to compact the journal. */
+  private static final int MIN_STALE_RECORDS_TO_COMPACT = 1000;
+
+  /** Max number of records read by {@link #getArchivedSessions} each time it takes the lock. */
+  private static final int ARCHIVED_SESSION_READ_PAGE_SIZE = 100;
+
+  /** Path of the journal, or {@code null} if the journal is disabled. */
+  @Nullable private final Path journalPath;
+
+  /** Max number of archived sessions kept in the journal. */
+  private final int maxArchivedSessions;
+
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  @Nullable
+  private FileChannel channel;
+
+  /** Offsets of the latest records of unfinished sessions, in order of submission. */
+  @GuardedBy("lock")
+  private final LinkedHashMap<String, Long> unfinishedSessionOffsets = new LinkedHashMap<>();
+
+  /** Records of archived sessions, in order of finish. */
+  @GuardedBy("lock")
+  private final LinkedHashMap<String, ArchivedSessionRecord> archivedSessionRecords =
+      new LinkedHashMap<>();
+
+  @GuardedBy("lock")
+  private long recordCount;
+
+  /** Whether a compaction task has been submitted and not finished. */
+  @GuardedBy("lock")
+  private boolean compacting;
+
+  private final Executor compactionExecutor;
+
+  @Inject
+  SessionJournal(ListeningExecutorService threadPool) {
+    this(
+        Flags.instance().olcServerSessionJournal.getNonNull()
+            ? Path.of(PathUtil.join(DirCommon.getPublicDirRoot(), JOURNAL_FILE_NAME))
+            : null,
+        Flags.instance().olcServerMaxArchivedSessions.getNonNull(),
+        threadPool);
+  }
+
+  @VisibleForTesting
+  SessionJournal(@Nullable Path journalPath, int maxArchivedSessions, Executor compactionExecutor) {
+    this.journalPath = journalPath;
+    this.maxArchivedSessions = maxArchivedSessions;
+    this.compactionExecutor = compactionExecutor;
+  }
+
+  /**
+   * Opens the journal and returns the latest {@link SessionDetail} of all unfinished sessions in
+   * order of submission, followed by the ones of the most recently archived sessions in order of
+   * finish.
+   *
+   * <p>It must be called before other methods. If the journal can not be opened, the journal is
+   * disabled.
+   *
+   * @param recentArchivedSessionCount max number of archived sessions to return
+   */
+  public ImmutableList<SessionDetail> open(int recentArchivedSessionCount) {
+    if (journalPath == null) {
+      return ImmutableList.of();
+    }
+    synchronized (lock) {
+      try {
+        Files.createDirectories(journalPath.getParent());
+        channel =
+            FileChannel.open(
+                journalPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long validSize = loadIndex(/* offset= */ 0L);
+        if (validSize < channel.size()) {
+          logger.atWarning().log(
+              "Drop %s bytes of corrupted records at the end of session journal %s",
+              channel.size() - validSize, journalPath);
+          channel.truncate(validSize);
+        }
+        channel.position(validSize);
+
+        ImmutableList.Builder<SessionDetail> result = ImmutableList.builder();
+        for (long offset : unfinishedSessionOffsets.values()) {
+          result.add(readRecord(offset));
+        }
+        long skippedArchivedSessionCount =
+            Math.max(0L, archivedSessionRecords.size() - (long) recentArchivedSessionCount);
+        Iterator<ArchivedSessionRecord> archivedRecords =
+            archivedSessionRecords.values().iterator();
+        for (long i = 0L; archivedRecords.hasNext(); i++) {
+          ArchivedSessionRecord archivedRecord = archivedRecords.next();
+          if (i >= skippedArchivedSessionCount) {
+            result.add(readRecord(archivedRecord.offset));
+          }
+        }
+        logger.atInfo().log(
+            "Opened session journal %s, unfinished_sessions=%s, archived_sessions=%s",
+            journalPath, unfinishedSessionOffsets.size(), archivedSessionRecords.size());
+        return result.build();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to open session journal %s, disable it", journalPath);
+        closeQuietly();
+        return ImmutableList.of();
+      }
+    }
+  }
+
+  /**
+   * Appends the latest {@link SessionDetail} of a session.
+   *
+   * <p>If the journal needs to be compacted, the compaction is submitted to the executor after the
+   * record is appended, so the caller doesn't wait for it.
+   */
+  public void append(SessionDetail sessionDetail) {
+    boolean startCompaction = false;
+    synchronized (lock) {
+      if (channel == null) {
+        return;
+      }
+      try {
+        long offset = channel.position();
+        writeRecord(channel, sessionDetail.toByteArray());
+        index(sessionDetail, offset);
+        recordCount++;
+        startCompaction = !compacting && needsCompaction();
+        compacting |= startCompaction;
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to append session %s to session journal %s, disable it",
+            shortDebugString(sessionDetail.getSessionId()), journalPath);
+        closeQuietly();
+      }
+    }
+    if (startCompaction) {
+      compactionExecutor.execute(this::compact);
+    }
+  }
+
+  /** Reads an archived session from the journal. */
+  public Optional<SessionDetail> getArchivedSession(String sessionId) {
+    synchronized (lock) {
+      ArchivedSessionRecord archivedRecord = archivedSessionRecords.get(sessionId);
+      if (channel == null || archivedRecord == null) {
+        return Optional.empty();
+      }
+      try {
+        return Optional.of(readRecord(archivedRecord.offset));
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to read session %s from session journal %s", sessionId, journalPath);
+        return Optional.empty();
+      }
+    }
+  }
+
+  /**
+   * Reads archived sessions from the journal in order of finish.
+   *
+   * <p>Sessions are filtered by their names in memory, and only the matched ones are read. Records
+   * are read in pages, and the lock of the journal is released between pages, so reading many
+   * archived sessions doesn't block appending. A session which is dropped from the journal while
+   * reading is skipped.
+   *
+   * @param excludedSessionIds IDs of sessions which are not read, e.g., the ones kept in memory
+   * @param sessionNameFilter filter of the names of the sessions to return
+   */
+  public ImmutableList<SessionDetail> getArchivedSessions(
+      Set<String> excludedSessionIds, Predicate<String> sessionNameFilter) {
+    List<String> sessionIds = new ArrayList<>();
+    synchronized (lock) {
+      if (channel == null) {
+        return ImmutableList.of();
+      }
+      for (Map.Entry<String, ArchivedSessionRecord> entry : archivedSessionRecords.entrySet()) {
+        if (!excludedSessionIds.contains(entry.getKey())
+            && sessionNameFilter.test(entry.getValue().sessionName)) {
+          sessionIds.add(entry.getKey());
+        }
+      }
+    }
+    ImmutableList.Builder<SessionDetail> result = ImmutableList.builder();
+    for (List<String> page : Lists.partition(sessionIds, ARCHIVED_SESSION_READ_PAGE_SIZE)) {
+      synchronized (lock) {
+        if (channel == null) {
+          break;
+        }
+        for (String sessionId : page) {
+          // Reads the offset again since the journal may have been compacted.
+          ArchivedSessionRecord archivedRecord = archivedSessionRecords.get(sessionId);
+          if (archivedRecord == null) {
+            continue;
+          }
+          try {
+            result.add(readRecord(archivedRecord.offset));
+          } catch (IOException e) {
+            logger.atWarning().withCause(e).log(
+                "Failed to read session %s from session journal %s", sessionId, journalPath);
+          }
+        }
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Reads the records from the given offset to the end of the journal and adds them to the index.
+   * Returns the end offset of the valid records.
+   */
+  @GuardedBy("lock")
+  private long loadIndex(long offset) throws IOException {
+    long size = channel.size();
+    while (offset + RECORD_HEADER_SIZE <= size) {
+      SessionDetail sessionDetail;
+      try {
+        sessionDetail = readRecord(offset);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Invalid record at offset %s of session journal %s", offset, journalPath);
+        break;
+      }
+      index(sessionDetail, offset);
+      recordCount++;
+      offset += RECORD_HEADER_SIZE + sessionDetail.getSerializedSize();
+    }
+    return offset;
+  }
+
+  @GuardedBy("lock")
+  private void index(SessionDetail sessionDetail, long offset) {
+    String sessionId = sessionDetail.getSessionId().getId();
+    if (sessionDetail.getSessionStatus().equals(SessionStatus.SESSION_FINISHED)) {
+      unfinishedSessionOffsets.remove(sessionId);
+      archivedSessionRecords.remove(sessionId);
+      if (!sessionDetail.getSessionConfig().getRemoveAfterFinish()) {
+        archivedSessionRecords.put(
+            sessionId,
+            new ArchivedSessionRecord(offset, sessionDetail.getSessionConfig().getSessionName()));
+      }
+    } else {
+      unfinishedSessionOffsets.put(sessionId, offset);
+    }
+  }
+
+  /**
+   * Returns whether stale records are more than live records, or archived sessions are too many.
+   */
+  @GuardedBy("lock")
+  private boolean needsCompaction() {
+    long liveRecordCount = unfinishedSessionOffsets.size() + archivedSessionRecords.size();
+    long staleRecordCount = recordCount - liveRecordCount;
+    return (staleRecordCount >= MIN_STALE_RECORDS_TO_COMPACT && staleRecordCount >= liveRecordCount)
+        || archivedSessionRecords.size() > maxArchivedSessions + MIN_STALE_RECORDS_TO_COMPACT;
+  }
+
+  /**
+   * Compacts the journal, and drops the oldest archived sessions over the limit.
+   *
+   * <p>Live records are read, written to a new file and synced without holding the lock. Then,
+   * under the lock, the records appended in the meantime are copied to the new file, and the new
+   * file replaces the journal. If the compaction fails, the journal is disabled.
+   */
+  private void compact() {
+    Path tmpPath = journalPath.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+    FileChannel oldChannel = null;
+    boolean replacing = false;
+    try {
+      // Takes a snapshot of the live records.
+      long snapshotSize;
+      List<Long> liveRecordOffsets = new ArrayList<>();
+      synchronized (lock) {
+        if (channel == null) {
+          return;
+        }
+        oldChannel = channel;
+        snapshotSize = channel.position();
+        liveRecordOffsets.addAll(unfinishedSessionOffsets.values());
+        int droppedArchivedSessionCount =
+            Math.max(0, archivedSessionRecords.size() - maxArchivedSessions);
+        archivedSessionRecords.values().stream()
+            .skip(droppedArchivedSessionCount)
+            .forEach(archivedRecord -> liveRecordOffsets.add(archivedRecord.offset));
+      }
+
+      try (FileChannel tmpChannel =
+          FileChannel.open(
+              tmpPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)) {
+        // Writes the live records to the new file. Records are never changed once written, so
+        // they can be read while new records are appended.
+        List<SessionDetail> liveRecords = new ArrayList<>(liveRecordOffsets.size());
+        for (long offset : liveRecordOffsets) {
+          liveRecords.add(readRecord(oldChannel, offset));
+        }
+        for (SessionDetail sessionDetail : liveRecords) {
+          writeRecord(tmpChannel, sessionDetail.toByteArray());
+        }
+        tmpChannel.force(/* metaData= */ true);
+
+        synchronized (lock) {
+          if (channel != oldChannel) {
+            return;
+          }
+
+          // Copies the records appended since the snapshot.
+          long liveRecordsSize = tmpChannel.position();
+          long size = channel.position();
+          for (long position = snapshotSize; position < size; ) {
+            position += channel.transferTo(position, size - position, tmpChannel);
+          }
+
+          // Replaces the journal with the new file.
+          replacing = true;
+          channel.close();
+          channel = null;
+          Files.move(
+              tmpPath,
+              journalPath,
+              StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+          channel =
+              FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+          channel.position(channel.size());
+
+          // Rebuilds the index.
+          long oldRecordCount = recordCount;
+          unfinishedSessionOffsets.clear();
+          archivedSessionRecords.clear();
+          recordCount = 0L;
+          long offset = 0L;
+          for (SessionDetail sessionDetail : liveRecords) {
+            index(sessionDetail, offset);
+            recordCount++;
+            offset += RECORD_HEADER_SIZE + sessionDetail.getSerializedSize();
+          }
+          loadIndex(liveRecordsSize);
+          logger.atInfo().log(
+              "Compacted session journal %s, dropped_records=%s, live_records=%s",
+              journalPath, oldRecordCount - recordCount, recordCount);
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to compact session journal %s, disable it", journalPath);
+      synchronized (lock) {
+        if (replacing || channel == oldChannel) {
+          closeQuietly();
+        }
+      }
+    } finally {
+      synchronized (lock) {
+        compacting = false;
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private SessionDetail readRecord(long offset) throws IOException {
+    return readRecord(channel, offset);
+  }
+
+  private static SessionDetail readRecord(FileChannel channel, long offset) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    readFully(channel, header, offset);
+    header.flip();
+    int length = header.getInt();
+    int checksum = header.getInt();
+    if (length < 0 || offset + RECORD_HEADER_SIZE + length > channel.size()) {
+      throw new IOException(String.format("Invalid record length %s", length));
+    }
+    ByteBuffer content = ByteBuffer.allocate(length);
+    readFully(channel, content, offset + RECORD_HEADER_SIZE);
+    CRC32 crc32 = new CRC32();
+    crc32.update(content.array());
+    if ((int) crc32.getValue() != checksum) {
+      throw new IOException("Record checksum mismatch");
+    }
+    try {
+      return SessionDetail.parseFrom(content.array());
+    } catch (InvalidProtocolBufferException e) {
+      throw new IOException("Invalid record content", e);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long offset)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of session journal");
+      }
+    }
+  }
+
+  private static void writeRecord(FileChannel channel, byte[] content) throws IOException {
+    CRC32 crc32 = new CRC32();
+    crc32.update(content);
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + content.length);
+    buffer.putInt(content.length).putInt((int) crc32.getValue()).put(content).flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void closeQuietly() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to close session journal %s", journalPath);
+      }
+      channel = null;
+    }
+  }
+
+  /** Location and summary of the record of an archived session. */
+  private static class ArchivedSessionRecord {
+
+    private final long offset;
+
+    private final String sessionName;
+
+    private ArchivedSessionRecord(long offset, String sessionName) {
+      this.offset = offset;
+      this.sessionName = sessionName;
+    }
+  }
+}
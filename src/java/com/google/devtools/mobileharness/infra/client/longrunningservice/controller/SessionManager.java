@@ -24,8 +24,12 @@ import static com.google.protobuf.TextFormat.shortDebugString;
 import static java.lang.Math.min;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Streams;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -35,6 +39,7 @@ import com.google.devtools.common.metrics.stability.converter.ErrorModelConverte
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessExceptions;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.model.SessionDetailHolder.SessionPluginOutputListener;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionConfig;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionStatus;
@@ -44,12 +49,13 @@ import com.google.protobuf.FieldMask;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
@@ -59,6 +65,21 @@ import javax.inject.Singleton;
 @Singleton
 public class SessionManager {
 
+  /** Watcher of updates of a submitted or running session. */
+  public interface SessionWatcher extends SessionPluginOutputListener {
+
+    /**
+     * Called when the session starts running.
+     *
+     * <p>It is called while the session manager is locked. It must not block or call back into the
+     * session manager.
+     */
+    void onSessionRunning();
+
+    /** Called once when the session finishes, after which the watcher is removed. */
+    void onSessionFinished(SessionDetail finalSessionDetail);
+  }
+
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   /** Queue capacity for submitted and non-started sessions. */
@@ -67,12 +88,13 @@ public class SessionManager {
   /** Capacity for concurrently running sessions. */
   private static final int RUNNING_SESSION_CAPACITY = 30;
 
-  /** Capacity for archived sessions. */
+  /** Capacity for archived sessions in memory. Older ones are read from the session journal. */
   private static final int ARCHIVED_SESSION_CAPACITY = 500;
 
   private final SessionDetailCreator sessionDetailCreator;
   private final SessionRunner.Factory sessionRunnerFactory;
   private final ListeningExecutorService threadPool;
+  private final SessionJournal sessionJournal;
 
   private final Object lock = new Object();
 
@@ -85,6 +107,10 @@ public class SessionManager {
   @GuardedBy("lock")
   private final Map<String, SessionRunnerAndFinalResultFuture> sessionRunners = new HashMap<>();
 
+  /** Watchers of submitted and running sessions, by session IDs. */
+  @GuardedBy("lock")
+  private final ListMultimap<String, SessionWatcher> sessionWatchers = ArrayListMultimap.create();
+
   /** Archived sessions. */
   @SuppressWarnings("Convert2Diamond")
   @GuardedBy("lock")
@@ -96,14 +122,69 @@ public class SessionManager {
         }
       };
 
+  /**
+   * Snapshot of the sessions above for reading them without locking, or {@code null} if the
+   * sessions have changed since the last snapshot. It is rebuilt when it is read.
+   */
+  @Nullable private volatile SessionIndex sessionIndex;
+
   @Inject
   SessionManager(
       SessionDetailCreator sessionDetailCreator,
       SessionRunner.Factory sessionRunnerFactory,
-      ListeningExecutorService threadPool) {
+      ListeningExecutorService threadPool,
+      SessionJournal sessionJournal) {
     this.sessionDetailCreator = sessionDetailCreator;
     this.sessionRunnerFactory = sessionRunnerFactory;
     this.threadPool = threadPool;
+    this.sessionJournal = sessionJournal;
+  }
+
+  /**
+   * Recovers sessions from the session journal. It should be called once before the server starts
+   * serving.
+   *
+   * <p>Submitted sessions are put back to the session queue. Sessions which were running when the
+   * server stopped can not be resumed, so they are archived as finished with an error.
+   */
+  public void recoverSessions() {
+    ImmutableList<SessionDetail> sessions = sessionJournal.open(ARCHIVED_SESSION_CAPACITY);
+    synchronized (lock) {
+      for (SessionDetail sessionDetail : sessions) {
+        if (sessionDetail.getSessionStatus().equals(SessionStatus.SESSION_FINISHED)) {
+          archivedSessions.put(sessionDetail.getSessionId().getId(), sessionDetail);
+        }
+      }
+      for (SessionDetail sessionDetail : sessions) {
+        String sessionId = sessionDetail.getSessionId().getId();
+        if (sessionDetail.getSessionStatus().equals(SessionStatus.SESSION_RUNNING)) {
+          SessionDetail finalSessionDetail =
+              sessionDetail.toBuilder()
+                  .setSessionStatus(SessionStatus.SESSION_FINISHED)
+                  .setSessionRunnerError(
+                      ErrorModelConverter.toExceptionDetail(
+                          new MobileHarnessException(
+                              InfraErrorId.OLCS_SESSION_INTERRUPTED_BY_SERVER_RESTART,
+                              "Session was interrupted because the server restarted")))
+                  .build();
+          sessionJournal.append(finalSessionDetail);
+          if (!finalSessionDetail.getSessionConfig().getRemoveAfterFinish()) {
+            archivedSessions.put(sessionId, finalSessionDetail);
+          }
+        } else if (!sessionDetail.getSessionStatus().equals(SessionStatus.SESSION_FINISHED)) {
+          sessionQueue.put(
+              sessionId,
+              SessionDetailAndFinalResultFuture.of(sessionDetail, SettableFuture.create()));
+        }
+      }
+      logger.atInfo().log(
+          "Recovered sessions, submitted=%s, archived=%s",
+          sessionQueue.size(), archivedSessions.size());
+
+      // Tries to start recovered sessions.
+      startSessions();
+      invalidateSessionIndex();
+    }
   }
 
   /**
@@ -126,9 +207,11 @@ public class SessionManager {
                   "Session queue is full(%s), failed to add session [%s]",
                   SESSION_QUEUE_CAPACITY, shortDebugString(sessionDetail)));
       sessionQueue.put(sessionDetail.getSessionId().getId(), sessionDetailAndFinalResultFuture);
+      sessionJournal.append(sessionDetail);
 
       // Tries to start new sessions.
       startSessions();
+      invalidateSessionIndex();
     }
     return SessionAddingResult.of(sessionDetailAndFinalResultFuture);
   }
@@ -144,23 +227,21 @@ public class SessionManager {
    */
   public SessionDetail getSession(String sessionId, @Nullable FieldMask fieldMask)
       throws MobileHarnessException {
-    SessionDetail sessionDetail;
-    // Checks the session from 3 places.
-    synchronized (lock) {
-      sessionDetail = archivedSessions.get(sessionId);
-      if (sessionDetail == null) {
-        SessionRunnerAndFinalResultFuture runningSession = sessionRunners.get(sessionId);
-        if (runningSession != null) {
-          sessionDetail = runningSession.sessionRunner().getSession(fieldMask);
-        }
-      }
-      if (sessionDetail == null) {
-        SessionDetailAndFinalResultFuture pendingSession = sessionQueue.get(sessionId);
-        if (pendingSession != null) {
-          sessionDetail = pendingSession.sessionDetail();
-        }
+    SessionIndex index = getSessionIndex();
+    // Checks the session from 4 places.
+    SessionDetail sessionDetail = index.archivedSessions().get(sessionId);
+    if (sessionDetail == null) {
+      SessionRunner runningSession = index.runningSessions().get(sessionId);
+      if (runningSession != null) {
+        sessionDetail = runningSession.getSession(fieldMask);
       }
     }
+    if (sessionDetail == null) {
+      sessionDetail = index.pendingSessions().get(sessionId);
+    }
+    if (sessionDetail == null) {
+      sessionDetail = sessionJournal.getArchivedSession(sessionId).orElse(null);
+    }
     MobileHarnessExceptions.check(
         sessionDetail != null,
         InfraErrorId.OLCS_GET_SESSION_SESSION_NOT_FOUND,
@@ -180,37 +261,108 @@ public class SessionManager {
   public ImmutableList<SessionDetail> getAllSessions(
       @Nullable FieldMask fieldMask, @Nullable SessionFilter sessionFilter) {
     Predicate<SessionStatus> sessionStatusFilter = getSessionStatusFilter(sessionFilter);
-    Predicate<SessionConfig> sessionConfigFilter = getSessionConfigFilter(sessionFilter);
-    synchronized (lock) {
-      return Streams.concat(
-              sessionStatusFilter.test(SessionStatus.SESSION_SUBMITTED)
-                  ? sessionQueue.values().stream()
-                      .map(SessionDetailAndFinalResultFuture::sessionDetail)
-                      .filter(
-                          sessionDetail ->
-                              sessionConfigFilter.test(sessionDetail.getSessionConfig()))
-                  : Stream.empty(),
-              sessionStatusFilter.test(SessionStatus.SESSION_RUNNING)
-                  ? sessionRunners.values().stream()
-                      .map(SessionRunnerAndFinalResultFuture::sessionRunner)
-                      .filter(
-                          sessionRunner ->
-                              sessionConfigFilter.test(sessionRunner.getSessionConfig()))
-                      .map(sessionRunner -> sessionRunner.getSession(fieldMask))
-                  : Stream.empty(),
-              sessionStatusFilter.test(SessionStatus.SESSION_FINISHED)
-                  ? archivedSessions.values().stream()
-                      .filter(
-                          sessionDetail ->
-                              sessionConfigFilter.test(sessionDetail.getSessionConfig()))
-                  : Stream.empty())
-          .collect(toImmutableList());
+    Predicate<String> sessionNameFilter = getSessionNameFilter(sessionFilter);
+    Predicate<SessionConfig> sessionConfigFilter =
+        sessionConfig -> sessionNameFilter.test(sessionConfig.getSessionName());
+    SessionIndex index = getSessionIndex();
+
+    // Sessions are keyed by their IDs, so a session which finishes after the index is built and is
+    // also read from the session journal is only returned once.
+    Map<String, SessionDetail> sessions = new LinkedHashMap<>();
+    if (sessionStatusFilter.test(SessionStatus.SESSION_SUBMITTED)) {
+      index
+          .pendingSessions()
+          .forEach(
+              (sessionId, sessionDetail) -> {
+                if (sessionConfigFilter.test(sessionDetail.getSessionConfig())) {
+                  sessions.put(sessionId, sessionDetail);
+                }
+              });
+    }
+    if (sessionStatusFilter.test(SessionStatus.SESSION_RUNNING)) {
+      index
+          .runningSessions()
+          .forEach(
+              (sessionId, sessionRunner) -> {
+                if (sessionConfigFilter.test(sessionRunner.getSessionConfig())) {
+                  sessions.put(sessionId, sessionRunner.getSession(fieldMask));
+                }
+              });
+    }
+    if (sessionStatusFilter.test(SessionStatus.SESSION_FINISHED)) {
+      for (SessionDetail sessionDetail :
+          sessionJournal.getArchivedSessions(index.getAllSessionIds(), sessionNameFilter)) {
+        sessions.putIfAbsent(sessionDetail.getSessionId().getId(), sessionDetail);
+      }
+      index
+          .archivedSessions()
+          .forEach(
+              (sessionId, sessionDetail) -> {
+                if (sessionConfigFilter.test(sessionDetail.getSessionConfig())) {
+                  sessions.putIfAbsent(sessionId, sessionDetail);
+                }
+              });
     }
+    return ImmutableList.copyOf(sessions.values());
   }
 
   public boolean hasUnarchivedSessions() {
+    SessionIndex index = getSessionIndex();
+    return !index.runningSessions().isEmpty() || !index.pendingSessions().isEmpty();
+  }
+
+  /**
+   * Adds a watcher to a session and returns the current {@link SessionDetail} of the session.
+   *
+   * <p>If the session has finished, the watcher is not added and the returned {@link
+   * SessionDetail} is the final one. Otherwise, the watcher receives updates of the session until
+   * the session finishes or {@link #unwatchSession} is called. Updates which happen right before
+   * the returned {@link SessionDetail} is built may also be received.
+   *
+   * @throws MobileHarnessException if the session is not found (un-submitted or has been removed
+   *     from archived sessions)
+   */
+  public SessionDetail watchSession(String sessionId, SessionWatcher watcher)
+      throws MobileHarnessException {
+    SessionDetail sessionDetail;
+    synchronized (lock) {
+      sessionDetail = archivedSessions.get(sessionId);
+      if (sessionDetail == null) {
+        SessionRunnerAndFinalResultFuture runningSession = sessionRunners.get(sessionId);
+        if (runningSession != null) {
+          // Adds the listener before building SessionDetail so no update is missed.
+          runningSession.sessionRunner().addSessionPluginOutputListener(watcher);
+          sessionWatchers.put(sessionId, watcher);
+          sessionDetail = runningSession.sessionRunner().getSession(/* fieldMask= */ null);
+        }
+      }
+      if (sessionDetail == null) {
+        SessionDetailAndFinalResultFuture pendingSession = sessionQueue.get(sessionId);
+        if (pendingSession != null) {
+          sessionWatchers.put(sessionId, watcher);
+          sessionDetail = pendingSession.sessionDetail();
+        }
+      }
+    }
+    if (sessionDetail == null) {
+      sessionDetail = sessionJournal.getArchivedSession(sessionId).orElse(null);
+    }
+    MobileHarnessExceptions.check(
+        sessionDetail != null,
+        InfraErrorId.OLCS_GET_SESSION_SESSION_NOT_FOUND,
+        () -> String.format("Session not found, id=[%s]", sessionId));
+    return sessionDetail;
+  }
+
+  /** Removes a watcher added by {@link #watchSession}, if the session has not finished. */
+  public void unwatchSession(String sessionId, SessionWatcher watcher) {
     synchronized (lock) {
-      return !sessionRunners.isEmpty() || !sessionQueue.isEmpty();
+      if (sessionWatchers.remove(sessionId, watcher)) {
+        SessionRunnerAndFinalResultFuture runningSession = sessionRunners.get(sessionId);
+        if (runningSession != null) {
+          runningSession.sessionRunner().removeSessionPluginOutputListener(watcher);
+        }
+      }
     }
   }
 
@@ -239,6 +391,11 @@ public class SessionManager {
       logger.atInfo().log("Start session: %s", shortDebugString(sessionDetail));
       String sessionId = sessionDetail.getSessionId().getId();
       sessionRunners.put(sessionId, sessionRunner);
+      sessionJournal.append(sessionDetail);
+      for (SessionWatcher watcher : sessionWatchers.get(sessionId)) {
+        sessionRunner.sessionRunner().addSessionPluginOutputListener(watcher);
+        watcher.onSessionRunning();
+      }
       addCallback(
           threadPool.submit(
               threadRenaming(sessionRunner.sessionRunner(), () -> "session-runner-" + sessionId)),
@@ -247,6 +404,38 @@ public class SessionManager {
     }
   }
 
+  @GuardedBy("lock")
+  private void invalidateSessionIndex() {
+    sessionIndex = null;
+  }
+
+  /**
+   * Returns the snapshot of the sessions. The snapshot is only rebuilt when it is read after the
+   * sessions change, so adding, starting and finishing sessions don't copy the sessions.
+   */
+  private SessionIndex getSessionIndex() {
+    SessionIndex index = sessionIndex;
+    if (index != null) {
+      return index;
+    }
+    synchronized (lock) {
+      index = sessionIndex;
+      if (index == null) {
+        index =
+            SessionIndex.of(
+                ImmutableMap.copyOf(
+                    Maps.transformValues(
+                        sessionQueue, SessionDetailAndFinalResultFuture::sessionDetail)),
+                ImmutableMap.copyOf(
+                    Maps.transformValues(
+                        sessionRunners, SessionRunnerAndFinalResultFuture::sessionRunner)),
+                ImmutableMap.copyOf(archivedSessions));
+        sessionIndex = index;
+      }
+      return index;
+    }
+  }
+
   /** Polls as many as sessions from the session queue. */
   @GuardedBy("lock")
   private ImmutableList<SessionDetailAndFinalResultFuture> pollSessions() {
@@ -301,18 +490,27 @@ public class SessionManager {
 
       // Archives the session.
       String sessionId = finalSessionDetail.getSessionId().getId();
+      List<SessionWatcher> watchers;
       synchronized (lock) {
         sessionRunners.remove(sessionId);
+        watchers = sessionWatchers.removeAll(sessionId);
+        sessionJournal.append(finalSessionDetail);
         if (!finalSessionDetail.getSessionConfig().getRemoveAfterFinish()) {
           archivedSessions.put(sessionId, finalSessionDetail);
         }
 
         // Tries to start new sessions if any.
         startSessions();
+        invalidateSessionIndex();
       }
 
       // Completes the final result future.
       sessionRunner.finalResultFuture().set(finalSessionDetail);
+
+      // Notifies session watchers.
+      for (SessionWatcher watcher : watchers) {
+        watcher.onSessionFinished(finalSessionDetail);
+      }
     }
   }
 
@@ -333,22 +531,20 @@ public class SessionManager {
     return sessionStatus -> true;
   }
 
-  private static Predicate<SessionConfig> getSessionConfigFilter(
-      @Nullable SessionFilter sessionFilter) {
+  private static Predicate<String> getSessionNameFilter(@Nullable SessionFilter sessionFilter) {
     if (sessionFilter != null) {
       String sessionNameRegexString = sessionFilter.getSessionNameRegex();
       if (!sessionNameRegexString.isEmpty()) {
         try {
           Pattern sessionNameRegex = Pattern.compile(sessionNameRegexString);
-          return sessionConfig ->
-              sessionNameRegex.matcher(sessionConfig.getSessionName()).matches();
+          return sessionName -> sessionNameRegex.matcher(sessionName).matches();
         } catch (PatternSyntaxException e) {
           logger.atWarning().withCause(e).log(
               "Invalid session name regex [%s]", sessionNameRegexString);
         }
       }
     }
-    return sessionConfig -> true;
+    return sessionName -> true;
   }
 
   /** {@link SessionDetail} and the future of the final result of the session. */
@@ -398,4 +594,29 @@ public class SessionManager {
           sessionRunner, finalResultFuture);
     }
   }
+
+  /** Immutable snapshot of the sessions in memory. */
+  @AutoValue
+  abstract static class SessionIndex {
+
+    abstract ImmutableMap<String, SessionDetail> pendingSessions();
+
+    abstract ImmutableMap<String, SessionRunner> runningSessions();
+
+    abstract ImmutableMap<String, SessionDetail> archivedSessions();
+
+    private Set<String> getAllSessionIds() {
+      return Sets.union(
+          Sets.union(pendingSessions().keySet(), runningSessions().keySet()),
+          archivedSessions().keySet());
+    }
+
+    private static SessionIndex of(
+        ImmutableMap<String, SessionDetail> pendingSessions,
+        ImmutableMap<String, SessionRunner> runningSessions,
+        ImmutableMap<String, SessionDetail> archivedSessions) {
+      return new AutoValue_SessionManager_SessionIndex(
+          pendingSessions, runningSessions, archivedSessions);
+    }
+  }
 }
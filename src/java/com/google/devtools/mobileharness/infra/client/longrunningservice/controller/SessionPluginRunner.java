@@ -64,30 +64,28 @@ public class SessionPluginRunner {
     for (SessionPlugin sessionPlugin : sessionPlugins) {
       T event = eventGenerator.apply(sessionPlugin.sessionInfo());
       for (SubscriberMethod subscriberMethod :
-          sessionPlugin.subscriberMethodSearchResult().subscriberMethods()) {
-        if (subscriberMethod.canReceiveEvent(eventClass)) {
-          logger.atInfo().log("Posting %s to subscriber [%s]", event, subscriberMethod);
-          try {
-            subscriberMethod.receiveEvent(event);
-            logger.atInfo().log("Subscriber [%s] handled %s", subscriberMethod, event);
-          } catch (Throwable e) {
-            logger.atWarning().withCause(e).log(
-                "Error from subscriber [%s] during %s", subscriberMethod, event);
+          sessionPlugin.subscriberMethodSearchResult().subscriberMethods(eventClass)) {
+        logger.atInfo().log("Posting %s to subscriber [%s]", event, subscriberMethod);
+        try {
+          subscriberMethod.receiveEvent(event);
+          logger.atInfo().log("Subscriber [%s] handled %s", subscriberMethod, event);
+        } catch (Throwable e) {
+          logger.atWarning().withCause(e).log(
+              "Error from subscriber [%s] during %s", subscriberMethod, event);
 
-            sessionDetailHolder.addSessionPluginError(
-                SessionPluginError.newBuilder()
-                    .setPluginLabel(sessionPlugin.sessionInfo().getSessionPluginLabel())
-                    .setPluginClassName(subscriberMethod.clazz().getName())
-                    .setMethodName(subscriberMethod.method().getName())
-                    .setEventClassName(event.getClass().getName())
-                    .setPluginIdentityHashCode(
-                        System.identityHashCode(subscriberMethod.subscriberObject()))
-                    .setError(ErrorModelConverter.toExceptionDetail(e))
-                    .build());
+          sessionDetailHolder.addSessionPluginError(
+              SessionPluginError.newBuilder()
+                  .setPluginLabel(sessionPlugin.sessionInfo().getSessionPluginLabel())
+                  .setPluginClassName(subscriberMethod.clazz().getName())
+                  .setMethodName(subscriberMethod.method().getName())
+                  .setEventClassName(event.getClass().getName())
+                  .setPluginIdentityHashCode(
+                      System.identityHashCode(subscriberMethod.subscriberObject()))
+                  .setError(ErrorModelConverter.toExceptionDetail(e))
+                  .build());
 
-            if (e instanceof InterruptedException) {
-              Thread.currentThread().interrupt();
-            }
+          if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
           }
         }
       }
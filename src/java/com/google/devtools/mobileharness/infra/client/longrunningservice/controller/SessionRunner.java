@@ -21,6 +21,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.model.SessionDetailHolder;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.model.SessionDetailHolder.SessionPluginOutputListener;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.model.SessionPlugin;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionConfig;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
@@ -103,4 +104,12 @@ public class SessionRunner implements Callable<Void> {
   public SessionConfig getSessionConfig() {
     return sessionDetailHolder.getSessionConfig();
   }
+
+  public void addSessionPluginOutputListener(SessionPluginOutputListener listener) {
+    sessionDetailHolder.addSessionPluginOutputListener(listener);
+  }
+
+  public void removeSessionPluginOutputListener(SessionPluginOutputListener listener) {
+    sessionDetailHolder.removeSessionPluginOutputListener(listener);
+  }
 }
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.UnaryOperator;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -43,6 +44,18 @@ import javax.annotation.concurrent.GuardedBy;
 /** Internal data model for managing states of a running session. */
 public class SessionDetailHolder {
 
+  /** Listener of {@link SessionOutput#getSessionPluginOutputMap()}. */
+  public interface SessionPluginOutputListener {
+
+    /**
+     * Called when the output of a session plugin is set.
+     *
+     * <p>It is called while the session detail is locked so calls for a session are in order. It
+     * must not block or call back into the holder.
+     */
+    void onSessionPluginOutputSet(String sessionPluginLabel, SessionPluginOutput output);
+  }
+
   private final Object sessionDetailLock = new Object();
 
   @GuardedBy("itself")
@@ -68,6 +81,9 @@ public class SessionDetailHolder {
   @GuardedBy("sessionDetailLock")
   private final Map<String, SessionPluginOutput> sessionPluginOutputs = new HashMap<>();
 
+  private final List<SessionPluginOutputListener> sessionPluginOutputListeners =
+      new CopyOnWriteArrayList<>();
+
   /**
    * Constructor with an initial {@link SessionDetail}. {@link
    * SessionOutput#getSessionPropertyMap()} will be copied from {@link
@@ -169,12 +185,26 @@ public class SessionDetailHolder {
       SessionPluginLabel sessionPluginLabel,
       UnaryOperator<SessionPluginOutput> outputComputingFunction) {
     synchronized (sessionDetailLock) {
-      sessionPluginOutputs.compute(
-          sessionPluginLabel.getLabel(),
-          (key, oldValue) -> outputComputingFunction.apply(oldValue));
+      SessionPluginOutput output =
+          sessionPluginOutputs.compute(
+              sessionPluginLabel.getLabel(),
+              (key, oldValue) -> outputComputingFunction.apply(oldValue));
+      if (output != null) {
+        for (SessionPluginOutputListener listener : sessionPluginOutputListeners) {
+          listener.onSessionPluginOutputSet(sessionPluginLabel.getLabel(), output);
+        }
+      }
     }
   }
 
+  public void addSessionPluginOutputListener(SessionPluginOutputListener listener) {
+    sessionPluginOutputListeners.add(listener);
+  }
+
+  public void removeSessionPluginOutputListener(SessionPluginOutputListener listener) {
+    sessionPluginOutputListeners.remove(listener);
+  }
+
   public Optional<SessionPluginOutput> getSessionPluginOutput(
       SessionPluginLabel sessionPluginLabel) {
     synchronized (sessionDetailLock) {
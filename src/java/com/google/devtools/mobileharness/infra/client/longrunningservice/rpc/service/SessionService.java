@@ -25,7 +25,10 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.common.metrics.stability.rpc.grpc.GrpcServiceUtil;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.controller.SessionManager;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.controller.SessionManager.SessionWatcher;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionPluginOutput;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionStatus;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceGrpc;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.CreateSessionRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.CreateSessionResponse;
@@ -35,10 +38,17 @@ import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.S
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetSessionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.RunSessionRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.RunSessionResponse;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionRequest;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionResponse;
 import com.google.devtools.mobileharness.shared.util.message.FieldMaskUtils;
 import com.google.protobuf.FieldMask;
 import com.google.protobuf.util.FieldMaskUtil;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 
 /** Implementation of {@link SessionServiceGrpc}. */
@@ -96,6 +106,17 @@ public class SessionService extends SessionServiceGrpc.SessionServiceImplBase {
         SessionServiceGrpc.getGetAllSessionsMethod());
   }
 
+  @Override
+  public void watchSession(
+      WatchSessionRequest request, StreamObserver<WatchSessionResponse> responseObserver) {
+    GrpcServiceUtil.invokeServerStreaming(
+        request,
+        responseObserver,
+        this::doWatchSession,
+        SessionServiceGrpc.getServiceDescriptor(),
+        SessionServiceGrpc.getWatchSessionMethod());
+  }
+
   private CreateSessionResponse doCreateSession(CreateSessionRequest request)
       throws MobileHarnessException {
     SessionDetail sessionDetail =
@@ -155,7 +176,135 @@ public class SessionService extends SessionServiceGrpc.SessionServiceImplBase {
     return GetAllSessionsResponse.newBuilder().addAllSessionDetail(sessions).build();
   }
 
+  private void doWatchSession(
+      WatchSessionRequest request, StreamObserver<WatchSessionResponse> responseObserver)
+      throws MobileHarnessException {
+    String sessionId = request.getSessionId().getId();
+    SessionUpdateStreamer streamer = new SessionUpdateStreamer(responseObserver);
+    ((ServerCallStreamObserver<WatchSessionResponse>) responseObserver)
+        .setOnCancelHandler(() -> sessionManager.unwatchSession(sessionId, streamer));
+    streamer.start(sessionManager.watchSession(sessionId, streamer));
+  }
+
   private static RunSessionResponse createRunSessionResponse(SessionDetail finalResult) {
     return RunSessionResponse.newBuilder().setSessionDetail(finalResult).build();
   }
+
+  /**
+   * Streams updates of a session to a WatchSession call.
+   *
+   * <p>Updates received before {@link #start} are merged into the first response.
+   */
+  private static class SessionUpdateStreamer implements SessionWatcher {
+
+    private final StreamObserver<WatchSessionResponse> responseObserver;
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private boolean started;
+
+    @GuardedBy("lock")
+    private boolean finished;
+
+    @GuardedBy("lock")
+    private SessionStatus sessionStatus = SessionStatus.SESSION_STATUS_UNSPECIFIED;
+
+    /** Session plugin outputs set before {@link #start}. */
+    @GuardedBy("lock")
+    private final Map<String, SessionPluginOutput> pendingSessionPluginOutputs =
+        new LinkedHashMap<>();
+
+    /** The final {@link SessionDetail} if the session finished before {@link #start}. */
+    @GuardedBy("lock")
+    @Nullable
+    private SessionDetail pendingFinalSessionDetail;
+
+    private SessionUpdateStreamer(StreamObserver<WatchSessionResponse> responseObserver) {
+      this.responseObserver = responseObserver;
+    }
+
+    /** Sends the first response based on the {@link SessionDetail} when the watch starts. */
+    private void start(SessionDetail sessionDetail) {
+      synchronized (lock) {
+        started = true;
+        if (sessionDetail.getSessionStatus().equals(SessionStatus.SESSION_FINISHED)) {
+          finish(sessionDetail);
+          return;
+        }
+        // A running notification received before the start is newer than the SessionDetail.
+        if (!sessionStatus.equals(SessionStatus.SESSION_RUNNING)) {
+          sessionStatus = sessionDetail.getSessionStatus();
+        }
+        responseObserver.onNext(
+            WatchSessionResponse.newBuilder()
+                .setSessionStatus(sessionStatus)
+                .putAllSessionPluginOutput(
+                    sessionDetail.getSessionOutput().getSessionPluginOutputMap())
+                .putAllSessionPluginOutput(pendingSessionPluginOutputs)
+                .build());
+        pendingSessionPluginOutputs.clear();
+        if (pendingFinalSessionDetail != null) {
+          finish(pendingFinalSessionDetail);
+        }
+      }
+    }
+
+    @Override
+    public void onSessionRunning() {
+      synchronized (lock) {
+        if (finished || sessionStatus.equals(SessionStatus.SESSION_RUNNING)) {
+          return;
+        }
+        sessionStatus = SessionStatus.SESSION_RUNNING;
+        if (started) {
+          responseObserver.onNext(
+              WatchSessionResponse.newBuilder().setSessionStatus(sessionStatus).build());
+        }
+      }
+    }
+
+    @Override
+    public void onSessionPluginOutputSet(String sessionPluginLabel, SessionPluginOutput output) {
+      synchronized (lock) {
+        if (finished) {
+          return;
+        }
+        if (started) {
+          responseObserver.onNext(
+              WatchSessionResponse.newBuilder()
+                  .setSessionStatus(sessionStatus)
+                  .putSessionPluginOutput(sessionPluginLabel, output)
+                  .build());
+        } else {
+          pendingSessionPluginOutputs.put(sessionPluginLabel, output);
+        }
+      }
+    }
+
+    @Override
+    public void onSessionFinished(SessionDetail finalSessionDetail) {
+      synchronized (lock) {
+        if (started) {
+          finish(finalSessionDetail);
+        } else {
+          pendingFinalSessionDetail = finalSessionDetail;
+        }
+      }
+    }
+
+    @GuardedBy("lock")
+    private void finish(SessionDetail finalSessionDetail) {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      responseObserver.onNext(
+          WatchSessionResponse.newBuilder()
+              .setSessionStatus(SessionStatus.SESSION_FINISHED)
+              .setFinalSessionDetail(finalSessionDetail)
+              .build());
+      responseObserver.onCompleted();
+    }
+  }
 }
@@ -29,7 +29,10 @@ import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.S
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetSessionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.RunSessionRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.RunSessionResponse;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionRequest;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionResponse;
 import io.grpc.Channel;
+import java.util.function.Consumer;
 
 /** Stub of {@link SessionServiceGrpc}. */
 public class SessionStub {
@@ -73,4 +76,21 @@ public class SessionStub {
         InfraErrorId.OLCS_STUB_GET_ALL_SESSIONS_ERROR,
         "Failed to get all sessions");
   }
+
+  /**
+   * Watches a session and passes each response to the consumer, until the server completes the
+   * stream.
+   */
+  public void watchSession(
+      WatchSessionRequest request, Consumer<WatchSessionResponse> responseConsumer)
+      throws GrpcExceptionWithErrorId {
+    GrpcStubUtil.invoke(
+        watchSessionRequest -> {
+          sessionServiceStub.watchSession(watchSessionRequest).forEachRemaining(responseConsumer);
+          return null;
+        },
+        request,
+        InfraErrorId.OLCS_STUB_WATCH_SESSION_ERROR,
+        "Failed to watch session");
+  }
 }
@@ -533,6 +533,7 @@ public class LocalDeviceLifecycleAndTestRunner extends LocalDeviceRunner {
               this.test.getTestRunner().getTestExecutionUnit().locator(),
               test.getTestRunner().getTestExecutionUnit().locator()));
     }
+    deviceStat.onAllocated();
     logger.atInfo().log(
         "Reserved to test %s", test.getTestRunner().getTestExecutionUnit().locator());
     notifyAll();
@@ -555,7 +556,9 @@ public class LocalDeviceLifecycleAndTestRunner extends LocalDeviceRunner {
         externalDeviceManager.reserveDevice(
             device.getDeviceId(), Duration.ofDays(1).minusMinutes(1))) {
       extendExpireTime(device.getSetupTimeout());
+      Instant setupStartTime = clock.instant();
       device.setUp();
+      deviceStat.onSetUp(Duration.between(setupStartTime, clock.instant()));
     } catch (MobileHarnessException e) {
       initialized = false;
       postDeviceErrorEvent(e);
@@ -682,7 +685,8 @@ public class LocalDeviceLifecycleAndTestRunner extends LocalDeviceRunner {
       return false;
     }
     logger.atInfo().log("Start periodical check");
-    lastCheckDeviceTime = clock.instant();
+    Instant checkStartTime = clock.instant();
+    lastCheckDeviceTime = checkStartTime;
     try {
       return device.checkDevice();
     } catch (MobileHarnessException e) {
@@ -690,6 +694,7 @@ public class LocalDeviceLifecycleAndTestRunner extends LocalDeviceRunner {
       throw new MobileHarnessException(
           e.getErrorCode(), "Error occurs when checking device: " + e.getMessage());
     } finally {
+      deviceStat.onCheckDevice(Duration.between(checkStartTime, clock.instant()));
       logger.atInfo().log("Finish periodical check");
     }
   }
@@ -749,6 +754,7 @@ public class LocalDeviceLifecycleAndTestRunner extends LocalDeviceRunner {
    * it with the test start time to calculate the allocation latency. See b/71722259.
    */
   private void recordBecomeIdleTime() {
+    deviceStat.onIdle();
     Instant now = clock.instant();
     logger.atInfo().atMostEvery(10, TimeUnit.MINUTES).log(
         "Update device %s last IDLE time: %s", device.getDeviceId(), now);
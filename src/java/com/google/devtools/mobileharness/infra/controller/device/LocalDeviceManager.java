@@ -19,6 +19,7 @@ package com.google.devtools.mobileharness.infra.controller.device;
 import static com.google.devtools.deviceinfra.shared.util.concurrent.Callables.threadRenaming;
 import static com.google.devtools.mobileharness.shared.util.concurrent.MoreFutures.logFailure;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
@@ -28,6 +29,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.deviceinfra.shared.util.time.Sleeper;
 import com.google.devtools.mobileharness.api.devicemanager.detector.Detector;
+import com.google.devtools.mobileharness.api.devicemanager.detector.StreamingDetector;
 import com.google.devtools.mobileharness.api.devicemanager.detector.model.DetectionResult;
 import com.google.devtools.mobileharness.api.devicemanager.detector.model.DetectionResults;
 import com.google.devtools.mobileharness.api.devicemanager.dispatcher.Dispatcher;
@@ -41,10 +43,10 @@ import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import javax.annotation.Nullable;
@@ -83,6 +85,9 @@ public class LocalDeviceManager extends BaseDeviceStatusProvider
 
   private final AtomicBoolean inDrainingMode = new AtomicBoolean(false);
 
+  /** Signal to dispatch devices immediately when a streaming detector reports device changes. */
+  private final Semaphore dispatchSignal = new Semaphore(0);
+
   /**
    * Creates a LocalDeviceManager to detect and manage devices.
    *
@@ -136,64 +141,18 @@ public class LocalDeviceManager extends BaseDeviceStatusProvider
           logFailure(
               detectorThreadPool.submit(
                   threadRenaming(
-                      () -> {
-                        Duration detectDeviceInterval =
-                            Duration.ofSeconds(DETECT_DEVICE_INTERVAL_SEC);
-                        // Use the detector's detection interval if specified, otherwise, use the
-                        // global interval instead.
-                        Optional<Duration> detectionIntervalPerDetector =
-                            detector.getDetectionInterval();
-                        if (detectionIntervalPerDetector.isPresent()) {
-                          detectDeviceInterval = detectionIntervalPerDetector.get();
-                        }
-                        while (!Thread.currentThread().isInterrupted()) {
-                          try {
-                            Sleeper.defaultSleeper().sleep(detectDeviceInterval);
-                            detectionResultCache.put(detectorName, detector.detectDevices());
-                            deviceDetectionConsecutiveFailureRounds.put(detectorName, 0);
-                          } catch (MobileHarnessException e) {
-                            int consecutiveFailureRounds =
-                                deviceDetectionConsecutiveFailureRounds.getOrDefault(
-                                        detectorName, 0)
-                                    + 1;
-                            deviceDetectionConsecutiveFailureRounds.put(
-                                detectorName, consecutiveFailureRounds);
-                            if (consecutiveFailureRounds
-                                    % MAX_DEVICE_DETECTION_CONSECUTIVE_FAILURE_ROUNDS
-                                == 0) {
-                              detectionResultCache.remove(detectorName);
-                              logger.atSevere().withCause(e).log(
-                                  "The %s failed to detect device for %s consecutive rounds",
-                                  detectorName, consecutiveFailureRounds);
-                            } else {
-                              logger.atSevere().atMostEvery(1, MINUTES).withCause(e).log(
-                                  "The %s failed to detect devices", detectorName);
-                            }
-                          } catch (InterruptedException e) {
-                            logger.atInfo().log("Interrupted: %s", e.getMessage());
-                            break;
-                          } catch (
-                              @SuppressWarnings("CatchingUnchecked")
-                              RuntimeException e) {
-                            // Catches all exception to make sure this detector thread won't
-                            // be stopped.
-                            // Otherwise, no device can be detected.
-                            logger.atSevere().withCause(e).log("FATAL ERROR");
-                            if (!keepGoing) {
-                              break;
-                            }
-                          }
-                        }
-                        logger.atWarning().log(
-                            "Current thread for %s is interrupted.", detectorName);
-                      },
+                      () -> runDetector(detector, detectorName),
                       () -> "detector-thread-" + detectorName)),
               Level.SEVERE,
               "Fatal error in detector");
         });
     while (!Thread.currentThread().isInterrupted()) {
       try {
-        Sleeper.defaultSleeper().sleep(Duration.ofSeconds(DISPATCH_DEVICE_INTERVAL_SEC));
+        // Dispatches devices with the interval, or immediately if a streaming detector reports
+        // device changes.
+        if (dispatchSignal.tryAcquire(DISPATCH_DEVICE_INTERVAL_SEC, SECONDS)) {
+          dispatchSignal.drainPermits();
+        }
         DetectionResults detectionResults = getCachedDetectionResults();
         localDeviceDispatch.dispatchDevices(detectionResults);
       } catch (InterruptedException e) {
@@ -208,9 +167,92 @@ public class LocalDeviceManager extends BaseDeviceStatusProvider
         }
       }
     }
+    // Stops the detector threads, e.g., the ones blocked on device streams.
+    detectorThreadPool.shutdownNow();
     logger.atFine().log("Stopped!");
   }
 
+  /** Runs the detector until the current thread is interrupted. */
+  private void runDetector(Detector detector, String detectorName) {
+    // Use the detector's detection interval if specified, otherwise, use the global interval
+    // instead.
+    Duration detectDeviceInterval =
+        detector.getDetectionInterval().orElse(Duration.ofSeconds(DETECT_DEVICE_INTERVAL_SEC));
+    boolean streaming =
+        detector instanceof StreamingDetector
+            && ((StreamingDetector) detector).isStreamingEnabled();
+    while (!Thread.currentThread().isInterrupted()) {
+      if (streaming) {
+        try {
+          ((StreamingDetector) detector)
+              .watchDevices(
+                  detectionResults -> {
+                    detectionResultCache.put(detectorName, detectionResults);
+                    deviceDetectionConsecutiveFailureRounds.put(detectorName, 0);
+                    dispatchSignal.release();
+                  });
+          logger.atWarning().log(
+              "The %s lost device stream, fall back to polling for a round", detectorName);
+        } catch (MobileHarnessException e) {
+          logger.atWarning().atMostEvery(1, MINUTES).withCause(e).log(
+              "The %s failed to watch devices, fall back to polling for a round", detectorName);
+        } catch (InterruptedException e) {
+          logger.atInfo().log("Interrupted: %s", e.getMessage());
+          break;
+        } catch (
+            @SuppressWarnings("CatchingUnchecked")
+            RuntimeException e) {
+          logger.atSevere().withCause(e).log("FATAL ERROR");
+          if (!keepGoing) {
+            break;
+          }
+        }
+      }
+      if (!runDetectionRound(detector, detectorName, detectDeviceInterval)) {
+        break;
+      }
+    }
+    logger.atWarning().log("Current thread for %s is interrupted.", detectorName);
+  }
+
+  /**
+   * Polls the detector for a round after the detection interval.
+   *
+   * @return whether the detector thread should keep running
+   */
+  private boolean runDetectionRound(
+      Detector detector, String detectorName, Duration detectDeviceInterval) {
+    try {
+      Sleeper.defaultSleeper().sleep(detectDeviceInterval);
+      detectionResultCache.put(detectorName, detector.detectDevices());
+      deviceDetectionConsecutiveFailureRounds.put(detectorName, 0);
+    } catch (MobileHarnessException e) {
+      int consecutiveFailureRounds =
+          deviceDetectionConsecutiveFailureRounds.getOrDefault(detectorName, 0) + 1;
+      deviceDetectionConsecutiveFailureRounds.put(detectorName, consecutiveFailureRounds);
+      if (consecutiveFailureRounds % MAX_DEVICE_DETECTION_CONSECUTIVE_FAILURE_ROUNDS == 0) {
+        detectionResultCache.remove(detectorName);
+        logger.atSevere().withCause(e).log(
+            "The %s failed to detect device for %s consecutive rounds",
+            detectorName, consecutiveFailureRounds);
+      } else {
+        logger.atSevere().atMostEvery(1, MINUTES).withCause(e).log(
+            "The %s failed to detect devices", detectorName);
+      }
+    } catch (InterruptedException e) {
+      logger.atInfo().log("Interrupted: %s", e.getMessage());
+      return false;
+    } catch (
+        @SuppressWarnings("CatchingUnchecked")
+        RuntimeException e) {
+      // Catches all exception to make sure this detector thread won't be stopped. Otherwise, no
+      // device can be detected.
+      logger.atSevere().withCause(e).log("FATAL ERROR");
+      return keepGoing;
+    }
+    return true;
+  }
+
   /** Checks whether the device type is supported. */
   public boolean isDeviceTypeSupported(Class<? extends Device> deviceType) {
     return localDeviceDispatch.isDeviceTypeSupported(deviceType);
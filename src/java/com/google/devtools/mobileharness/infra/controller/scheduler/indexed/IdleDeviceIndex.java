@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.scheduler.indexed;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.mobileharness.api.model.lab.DeviceLocator;
+import com.google.devtools.mobileharness.api.model.lab.DeviceScheduleUnit;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the idle devices for {@link IndexedScheduler} only, keyed by the supported device types.
+ *
+ * <p>The index is a hint rather than the source of truth: a device may be allocated right after it
+ * is returned from the index, so the caller should always claim the device atomically.
+ */
+class IdleDeviceIndex {
+
+  /** {{@link DeviceLocator#universalId()}, {@link DeviceScheduleUnit}} mapping. */
+  private final ConcurrentHashMap<String, DeviceScheduleUnit> devices = new ConcurrentHashMap<>();
+
+  /** {Device type, Universal IDs of the idle devices supporting the type}. */
+  private final ConcurrentHashMap<String, Set<String>> idleDevicesByType =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Adds/updates the device.
+   *
+   * @param idle whether to put the device in the idle index
+   * @return the previous device with the same universal ID, or null if not exist
+   */
+  @Nullable
+  public DeviceScheduleUnit upsertDevice(DeviceScheduleUnit device, boolean idle) {
+    String deviceId = device.locator().universalId();
+    DeviceScheduleUnit exDevice = devices.put(deviceId, device);
+    if (exDevice != null) {
+      removeFromTypes(deviceId, exDevice.types().getAll());
+    }
+    if (idle) {
+      markIdle(deviceId);
+    }
+    return exDevice;
+  }
+
+  /** Removes the device, or returns null if the device doesn't exist. */
+  @Nullable
+  public DeviceScheduleUnit removeDevice(String deviceId) {
+    DeviceScheduleUnit device = devices.remove(deviceId);
+    if (device != null) {
+      removeFromTypes(deviceId, device.types().getAll());
+    }
+    return device;
+  }
+
+  /** Gets the device, or null if the device doesn't exist. */
+  @Nullable
+  public DeviceScheduleUnit getDevice(String deviceId) {
+    return devices.get(deviceId);
+  }
+
+  /** Puts the device back to the idle index if it still exists. */
+  public void markIdle(String deviceId) {
+    DeviceScheduleUnit device = devices.get(deviceId);
+    if (device == null) {
+      return;
+    }
+    for (String type : device.types().getAll()) {
+      idleDevicesByType.computeIfAbsent(type, k -> ConcurrentHashMap.newKeySet()).add(deviceId);
+    }
+  }
+
+  /** Removes the device from the idle index, e.g., after it is allocated. */
+  public void markBusy(String deviceId) {
+    DeviceScheduleUnit device = devices.get(deviceId);
+    if (device != null) {
+      removeFromTypes(deviceId, device.types().getAll());
+    }
+  }
+
+  /** Gets the idle devices which support the given device type. */
+  public ImmutableList<DeviceScheduleUnit> getIdleDevices(String type) {
+    Set<String> deviceIds = idleDevicesByType.get(type);
+    if (deviceIds == null) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<DeviceScheduleUnit> result = ImmutableList.builder();
+    for (String deviceId : deviceIds) {
+      DeviceScheduleUnit device = devices.get(deviceId);
+      if (device != null) {
+        result.add(device);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Gets the idle devices which support any of the given device types, deduplicated and grouped by
+   * lab IP.
+   */
+  public Map<String, Map<String, DeviceScheduleUnit>> getIdleDevicesByLab(
+      Collection<String> types) {
+    Map<String, Map<String, DeviceScheduleUnit>> result = new LinkedHashMap<>();
+    for (String type : types) {
+      for (DeviceScheduleUnit device : getIdleDevices(type)) {
+        result
+            .computeIfAbsent(device.locator().labLocator().ip(), k -> new LinkedHashMap<>())
+            .put(device.locator().universalId(), device);
+      }
+    }
+    return result;
+  }
+
+  private void removeFromTypes(String deviceId, Collection<String> types) {
+    for (String type : types) {
+      Set<String> deviceIds = idleDevicesByType.get(type);
+      if (deviceIds != null) {
+        deviceIds.remove(deviceId);
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.scheduler.indexed;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.wireless.qa.mobileharness.shared.MobileHarnessException;
+import com.google.wireless.qa.mobileharness.shared.constant.ErrorCode;
+import com.google.wireless.qa.mobileharness.shared.model.job.JobScheduleUnit;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestLocator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nullable;
+
+/** Job data model for {@link IndexedScheduler} only. */
+class IndexedJobInfo {
+
+  /** Basic job information. */
+  private final JobScheduleUnit jobUnit;
+
+  /** {TestId, TestLocator} mapping of the tests in this job. */
+  private final ConcurrentHashMap<String, TestLocator> tests = new ConcurrentHashMap<>();
+
+  /**
+   * Tests waiting for devices. A test may be left in the queue after it is removed or allocated,
+   * so the consumer should double check it with {@link #containsTest(String)}.
+   */
+  private final ConcurrentLinkedQueue<TestLocator> pendingTests = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The device generation of the scheduler when the last allocation attempt of this job failed.
+   * The job won't be retried until the device generation changes.
+   */
+  private volatile long failedDeviceGeneration = -1L;
+
+  IndexedJobInfo(JobScheduleUnit jobUnit) {
+    this.jobUnit = jobUnit;
+  }
+
+  /** Gets the job information related to scheduling. */
+  public JobScheduleUnit getScheduleUnit() {
+    return jobUnit;
+  }
+
+  /**
+   * Adds the given test to the job and queues it for allocation.
+   *
+   * @throws MobileHarnessException if there is already a test with the same id in this job
+   */
+  public void addTest(TestLocator test) throws MobileHarnessException {
+    String testId = test.getId();
+    if (tests.putIfAbsent(testId, test) != null) {
+      throw new MobileHarnessException(
+          ErrorCode.TEST_DUPLICATED,
+          "Test " + testId + " already exists in job " + jobUnit.locator());
+    }
+    pendingTests.add(test);
+  }
+
+  /** Queues the existing test for allocation again, e.g., after its allocation is undone. */
+  public void requeueTest(String testId) {
+    TestLocator test = tests.get(testId);
+    if (test != null) {
+      pendingTests.add(test);
+    }
+  }
+
+  /** Check whether the test exists in this job. */
+  public boolean containsTest(String testId) {
+    return tests.containsKey(testId);
+  }
+
+  /** Removes the test from the job. */
+  @Nullable
+  public TestLocator removeTest(String testId) {
+    return tests.remove(testId);
+  }
+
+  /** Gets the {TestId, TestLocator} mapping of all the tests. */
+  public Map<String, TestLocator> getTests() {
+    return ImmutableMap.copyOf(tests);
+  }
+
+  /** Gets the next waiting test without removing it, or null if no test is waiting. */
+  @Nullable
+  public TestLocator peekPendingTest() {
+    return pendingTests.peek();
+  }
+
+  /** Removes the head of the waiting tests. */
+  public void pollPendingTest() {
+    pendingTests.poll();
+  }
+
+  /** Whether the job should be skipped because the devices have not changed since last failure. */
+  public boolean isBlocked(long deviceGeneration) {
+    return failedDeviceGeneration == deviceGeneration;
+  }
+
+  /** Marks the job failed to get devices at the given device generation. */
+  public void markBlocked(long deviceGeneration) {
+    failedDeviceGeneration = deviceGeneration;
+  }
+}
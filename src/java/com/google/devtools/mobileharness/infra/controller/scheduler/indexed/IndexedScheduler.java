@@ -0,0 +1,527 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.scheduler.indexed;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.api.model.allocation.Allocation;
+import com.google.devtools.mobileharness.api.model.lab.DeviceLocator;
+import com.google.devtools.mobileharness.api.model.lab.DeviceScheduleUnit;
+import com.google.devtools.mobileharness.api.model.lab.LabScheduleUnit;
+import com.google.devtools.mobileharness.infra.controller.scheduler.AdhocTestbedSchedulingUtil;
+import com.google.devtools.mobileharness.infra.controller.scheduler.Scheduler;
+import com.google.wireless.qa.mobileharness.shared.MobileHarnessException;
+import com.google.wireless.qa.mobileharness.shared.constant.ErrorCode;
+import com.google.wireless.qa.mobileharness.shared.controller.event.AllocationEvent;
+import com.google.wireless.qa.mobileharness.shared.model.job.JobLocator;
+import com.google.wireless.qa.mobileharness.shared.model.job.JobScheduleUnit;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestLocator;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestScheduleUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Event-driven scheduler. Compared with {@link
+ * com.google.devtools.mobileharness.infra.controller.scheduler.simple.SimpleScheduler}, it:
+ *
+ * <ul>
+ *   <li>only wakes up when a test is added, a device is upserted or an allocation is released,
+ *       instead of polling all jobs periodically;
+ *   <li>looks up idle devices from an index keyed by device type, instead of scanning all devices
+ *       of all labs for every new test;
+ *   <li>skips the jobs which failed to get devices until the idle devices change;
+ *   <li>claims tests with atomic map operations instead of a global allocation lock.
+ * </ul>
+ *
+ * <p>Devices are claimed and released under {@link #deviceLock}, which also guards the transitions
+ * of the idle device index, so the index never marks an allocated device idle.
+ *
+ * <p>Like the simple scheduler, it rotately assigns devices to waiting jobs, one test per job per
+ * round, so a huge job won't block the latter jobs.
+ */
+public class IndexedScheduler extends Scheduler implements Runnable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final AdhocTestbedSchedulingUtil adhocTestbedSchedulingUtil =
+      new AdhocTestbedSchedulingUtil();
+
+  /** {Job ID, {@link IndexedJobInfo}} mapping. */
+  private final ConcurrentHashMap<String, IndexedJobInfo> jobs = new ConcurrentHashMap<>();
+
+  /** All devices and the index of the idle ones. */
+  private final IdleDeviceIndex idleDevices = new IdleDeviceIndex();
+
+  /**
+   * Guards the changes of {@link #deviceAllocations} together with the idle state of the devices
+   * in {@link #idleDevices}. Lookups can be done without it.
+   */
+  private final Object deviceLock = new Object();
+
+  /** {{@link DeviceLocator#universalId()}, {@link Allocation}} mapping. */
+  private final ConcurrentHashMap<String, Allocation> deviceAllocations =
+      new ConcurrentHashMap<>();
+
+  /** {TestID, Allocation} mapping. */
+  private final ConcurrentHashMap<String, Allocation> testAllocations = new ConcurrentHashMap<>();
+
+  /** Increased whenever a device becomes idle, to unblock the jobs waiting for devices. */
+  private final AtomicLong deviceGeneration = new AtomicLong();
+
+  /** Released when anything may lead to a new allocation. */
+  private final Semaphore schedulingSignal = new Semaphore(0);
+
+  private final ExecutorService threadPool;
+
+  public IndexedScheduler(ExecutorService threadPool) {
+    this.threadPool = threadPool;
+  }
+
+  @Override
+  public void start() {
+    @SuppressWarnings("unused") // go/futurereturn-lsc
+    Future<?> possiblyIgnoredError = threadPool.submit(this);
+  }
+
+  @Override
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        schedulingSignal.acquire();
+        // Events which arrive during this round will be handled in the same batch.
+        schedulingSignal.drainPermits();
+        int allocationCount = allocateInBatch();
+        if (allocationCount > 0) {
+          logger.atFine().log("Created %d allocations in a batch", allocationCount);
+        }
+      } catch (InterruptedException e) {
+        logger.atWarning().log("Scheduler interrupted.");
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        // Catches all exceptions to keep the scheduler running.
+        logger.atSevere().withCause(e).log("Exception in IndexedScheduler, ignoring");
+      }
+    }
+  }
+
+  @Override
+  public void addJob(JobScheduleUnit jobUnit) throws MobileHarnessException {
+    JobLocator jobLocator = jobUnit.locator();
+    IndexedJobInfo job = new IndexedJobInfo(jobUnit);
+    IndexedJobInfo exJob = jobs.putIfAbsent(jobLocator.getId(), job);
+    if (exJob == null) {
+      logger.atInfo().log("Added job %s", jobLocator);
+    } else {
+      throw new MobileHarnessException(
+          ErrorCode.JOB_DUPLICATED, "Job " + jobLocator.getId() + " already exist");
+    }
+  }
+
+  @Override
+  public void removeJob(String jobId, boolean removeDevices) {
+    IndexedJobInfo job = jobs.remove(jobId);
+    if (job != null) {
+      logger.atInfo().log("Job deleted: %s", jobId);
+      for (String testId : job.getTests().keySet()) {
+        // No need to close test, because the job is removed.
+        unallocate(testAllocations.get(testId), removeDevices, false);
+      }
+    } else {
+      logger.atInfo().log("Job does not exist: %s", jobId);
+    }
+  }
+
+  @Override
+  public void addTest(TestScheduleUnit test) throws MobileHarnessException {
+    TestLocator testLocator = test.locator();
+    IndexedJobInfo job = checkJob(testLocator.getJobLocator().getId());
+    job.addTest(testLocator);
+    logger.atInfo().log("Added test %s", testLocator);
+    schedulingSignal.release();
+  }
+
+  /**
+   * Removes a test. Note this method doesn't take care of the devices assigned to this test. If you
+   * want to release the devices at the same time, use {@link #unallocate(Allocation, boolean,
+   * boolean)} instead.
+   */
+  private void removeTest(String jobId, String testId) {
+    IndexedJobInfo job = jobs.get(jobId);
+    if (job == null) {
+      logger.atInfo().log("Skip removing test %s because job %s not exist", testId, jobId);
+      return;
+    }
+    if (job.removeTest(testId) == null) {
+      logger.atWarning().log("Test %s not found in job %s", testId, jobId);
+    } else {
+      Allocation allocation = testAllocations.get(testId);
+      if (allocation != null) {
+        logger.atSevere().log(
+            "Test %s removed from job %s, but its allocation is not released: %s",
+            testId, jobId, allocation);
+      } else {
+        logger.atInfo().log("Test %s removed from job %s", testId, jobId);
+      }
+    }
+  }
+
+  @Override
+  public void upsertDevice(DeviceScheduleUnit deviceUnit, LabScheduleUnit labUnit) {
+    String deviceId = deviceUnit.locator().universalId();
+    boolean idle;
+    DeviceScheduleUnit exDevice;
+    synchronized (deviceLock) {
+      idle = !deviceAllocations.containsKey(deviceId);
+      exDevice = idleDevices.upsertDevice(deviceUnit, idle);
+    }
+    logger.atInfo().log(
+        "%s device %s", (exDevice == null ? "Added" : "Updated"), deviceUnit.locator());
+    if (idle) {
+      deviceGeneration.incrementAndGet();
+      schedulingSignal.release();
+    }
+  }
+
+  /**
+   * Removes the device from scheduler. Note this method will leave running test of the device
+   * unchanged. If you want to release the allocation at the same time, uses {@link
+   * #unallocate(DeviceLocator, boolean, boolean)} instead.
+   */
+  private void removeDevice(DeviceLocator deviceLocator) {
+    DeviceScheduleUnit device;
+    synchronized (deviceLock) {
+      device = idleDevices.removeDevice(deviceLocator.universalId());
+    }
+    if (device == null) {
+      logger.atInfo().log("Skip removing device %s because device not exist", deviceLocator);
+    } else {
+      Allocation allocation = deviceAllocations.get(deviceLocator.universalId());
+      if (allocation != null) {
+        logger.atSevere().log(
+            "Device %s removed. But its allocation is not release: %s", deviceLocator, allocation);
+      } else {
+        logger.atInfo().log("Device %s removed", deviceLocator);
+      }
+    }
+  }
+
+  @Override
+  public void unallocate(DeviceLocator deviceLocator, boolean removeDevices, boolean closeTest) {
+    Allocation allocation = deviceAllocations.get(deviceLocator.universalId());
+    if (allocation != null) {
+      unallocate(allocation, removeDevices, closeTest);
+    } else if (removeDevices) {
+      removeDevice(deviceLocator);
+    }
+  }
+
+  @Override
+  public void unallocate(
+      @Nullable Allocation allocation, boolean removeDevices, boolean closeTest) {
+    if (allocation == null) {
+      return;
+    }
+    // Makes sure we release all devices related to this allocation. Removing the mappings only if
+    // they still point to this allocation makes concurrent calls release each device only once.
+    boolean unallocated = false;
+    boolean hasIdleDevice = false;
+    for (DeviceLocator deviceLocator : allocation.getAllDevices()) {
+      String deviceId = deviceLocator.universalId();
+      boolean released;
+      synchronized (deviceLock) {
+        released = deviceAllocations.remove(deviceId, allocation);
+        if (released && !removeDevices) {
+          idleDevices.markIdle(deviceId);
+        }
+      }
+      if (released) {
+        unallocated = true;
+        if (removeDevices) {
+          removeDevice(deviceLocator);
+          logger.atInfo().log("Free and remove device %s", deviceLocator);
+        } else {
+          hasIdleDevice = true;
+          logger.atInfo().log("Free device %s", deviceLocator);
+        }
+      } else {
+        Allocation deviceAllocation = deviceAllocations.get(deviceId);
+        if (deviceAllocation == null) {
+          logger.atInfo().log(
+              "Skip unallocate device %s because it is already idle", deviceLocator);
+        } else {
+          logger.atWarning().log(
+              "Skip unallocate device %s because it is assigned to a different test: %s",
+              deviceLocator, deviceAllocation);
+        }
+      }
+    }
+
+    // Closes the test.
+    com.google.devtools.mobileharness.api.model.job.TestLocator testLocator = allocation.getTest();
+    String testId = testLocator.id();
+    boolean hasPendingTest = false;
+    if (testAllocations.remove(testId, allocation)) {
+      unallocated = true;
+      if (closeTest) {
+        logger.atInfo().log("Unassign and remove test %s", testLocator);
+        removeTest(testLocator.jobLocator().id(), testId);
+      } else {
+        logger.atInfo().log("Unassign test %s", testLocator);
+        IndexedJobInfo job = jobs.get(testLocator.jobLocator().id());
+        if (job != null) {
+          job.requeueTest(testId);
+          hasPendingTest = true;
+        }
+      }
+    } else {
+      Allocation testAllocation = testAllocations.get(testId);
+      if (testAllocation == null) {
+        logger.atInfo().log("Skip unallocate test because it is new/closed");
+      } else {
+        // Should not reach here.
+        logger.atSevere().log(
+            "Inconsistent allocation info with test %s, expect %s, got %s",
+            testLocator, allocation, testAllocation);
+      }
+    }
+    if (unallocated) {
+      logger.atInfo().log("Allocation %s released", allocation);
+    }
+    if (hasIdleDevice) {
+      deviceGeneration.incrementAndGet();
+    }
+    if (hasIdleDevice || hasPendingTest) {
+      schedulingSignal.release();
+    }
+  }
+
+  /**
+   * Allocates devices to the waiting tests, one test per job per round, until no more allocation
+   * can be made.
+   *
+   * @return the number of the new allocations
+   */
+  private int allocateInBatch() throws InterruptedException {
+    int total = 0;
+    int allocatedInRound;
+    do {
+      allocatedInRound = 0;
+      for (IndexedJobInfo job : jobs.values()) {
+        if (allocateNextTest(job)) {
+          allocatedInRound++;
+        }
+      }
+      total += allocatedInRound;
+    } while (allocatedInRound > 0 && !Thread.currentThread().isInterrupted());
+    return total;
+  }
+
+  /** Allocates devices to the first waiting test of the job. */
+  private boolean allocateNextTest(IndexedJobInfo job) throws InterruptedException {
+    // Reads the generation before looking up devices, so a device which becomes idle during the
+    // lookup unblocks the job again.
+    long generation = deviceGeneration.get();
+    if (job.isBlocked(generation)) {
+      return false;
+    }
+    TestLocator test = job.peekPendingTest();
+    while (test != null
+        && (!job.containsTest(test.getId()) || testAllocations.containsKey(test.getId()))) {
+      // Skips the removed/allocated tests.
+      job.pollPendingTest();
+      test = job.peekPendingTest();
+    }
+    if (test == null) {
+      return false;
+    }
+
+    JobScheduleUnit jobUnit = job.getScheduleUnit();
+    boolean allocated =
+        jobUnit.subDeviceSpecs().hasMultipleDevices()
+            ? allocateAdhocTestbedJob(jobUnit, test)
+            : allocateSingleDeviceJob(jobUnit, test);
+    if (allocated) {
+      job.pollPendingTest();
+    } else {
+      job.markBlocked(generation);
+    }
+    return allocated;
+  }
+
+  /** Looks up the idle device index to allocate a device for the given single-device test. */
+  private boolean allocateSingleDeviceJob(JobScheduleUnit job, TestLocator test) {
+    for (DeviceScheduleUnit device : idleDevices.getIdleDevices(job.type().getDevice())) {
+      if (!deviceAllocations.containsKey(device.locator().universalId())
+          && ifDeviceSupports(device, job)) {
+        // Found a suitable and idle device for the new test.
+        return allocate(test, ImmutableList.of(device));
+      }
+    }
+    return false;
+  }
+
+  /** Looks up the idle device index to allocate devices for the given adhoc testbed test. */
+  private boolean allocateAdhocTestbedJob(JobScheduleUnit job, TestLocator test)
+      throws InterruptedException {
+    Set<String> types = job.subDeviceSpecs().getAllSubDeviceTypes();
+    for (Map<String, DeviceScheduleUnit> labDevices :
+        idleDevices.getIdleDevicesByLab(types).values()) {
+      List<DeviceScheduleUnit> filteredDevices = new ArrayList<>();
+      for (DeviceScheduleUnit device : labDevices.values()) {
+        if (!deviceAllocations.containsKey(device.locator().universalId())
+            && device.owners().support(job.jobUser().getRunAs())) {
+          filteredDevices.add(device);
+        }
+      }
+      if (!filteredDevices.isEmpty()) {
+        List<DeviceScheduleUnit> deviceList =
+            adhocTestbedSchedulingUtil.findSubDevicesSupportingJob(filteredDevices, job);
+        // The order matters in the allocated list as it needs to match the spec.
+        if (!deviceList.isEmpty()) {
+          return allocate(test, deviceList);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Allocates the given devices to the given test and fires {@link AllocationEvent}.
+   *
+   * <p>The test and the devices are claimed first and the job/test/devices are double checked
+   * afterwards, so a concurrent removal either fails the check here or finds and releases the new
+   * allocation.
+   */
+  private boolean allocate(TestLocator test, List<DeviceScheduleUnit> deviceUnits) {
+    List<DeviceLocator> deviceLocators = new ArrayList<>();
+    for (DeviceScheduleUnit device : deviceUnits) {
+      deviceLocators.add(device.locator());
+    }
+    Allocation allocation = new Allocation(test.toNewTestLocator(), deviceLocators);
+
+    // Claims the test.
+    String testId = test.getId();
+    Allocation exTestAllocation = testAllocations.putIfAbsent(testId, allocation);
+    if (exTestAllocation != null) {
+      logger.atWarning().log(
+          "Test %s has allocation %s. Can not create allocation %s.",
+          testId, exTestAllocation, allocation);
+      return false;
+    }
+
+    // Claims the devices.
+    synchronized (deviceLock) {
+      if (!claimDevices(test, allocation, deviceLocators)) {
+        testAllocations.remove(testId, allocation);
+        return false;
+      }
+    }
+    logger.atInfo().log("Created allocation %s", allocation);
+
+    // After the allocation, we send out event to notify external framework. If the framework can
+    // not accept the event because the test/devices are removed, it will call scheduler to undo the
+    // allocation.
+    postEvent(new AllocationEvent(allocation));
+    return true;
+  }
+
+  /**
+   * Claims the devices for the allocation whose test has been claimed, and marks them busy in the
+   * idle device index. Releases the claimed devices if fails.
+   *
+   * @return whether the devices are claimed
+   */
+  @GuardedBy("deviceLock")
+  private boolean claimDevices(
+      TestLocator test, Allocation allocation, List<DeviceLocator> deviceLocators) {
+    List<String> claimedDeviceIds = new ArrayList<>();
+    for (DeviceLocator deviceLocator : deviceLocators) {
+      String deviceId = deviceLocator.universalId();
+      Allocation exDeviceAllocation = deviceAllocations.putIfAbsent(deviceId, allocation);
+      if (exDeviceAllocation != null) {
+        logger.atWarning().log(
+            "Device %s has allocation %s. Can not create allocation %s.",
+            deviceLocator, exDeviceAllocation, allocation);
+        rollBack(allocation, claimedDeviceIds);
+        return false;
+      }
+      claimedDeviceIds.add(deviceId);
+    }
+
+    // Double checks job and test.
+    String testId = test.getId();
+    String jobId = test.getJobLocator().getId();
+    IndexedJobInfo job = jobs.get(jobId);
+    if (job == null) {
+      logger.atInfo().log("Job %s removed. Can not create allocation %s", jobId, allocation);
+      rollBack(allocation, claimedDeviceIds);
+      return false;
+    }
+    if (!job.containsTest(testId)) {
+      logger.atInfo().log("Test %s removed. Can not create allocation %s", testId, allocation);
+      rollBack(allocation, claimedDeviceIds);
+      return false;
+    }
+
+    // Double checks lab and devices.
+    String labIp = deviceLocators.get(0).labLocator().ip();
+    for (DeviceLocator deviceLocator : deviceLocators) {
+      if (!deviceLocator.labLocator().ip().equals(labIp)) {
+        logger.atInfo().log("Lab locators do not match. Can not create allocation %s", allocation);
+        rollBack(allocation, claimedDeviceIds);
+        return false;
+      }
+      if (idleDevices.getDevice(deviceLocator.universalId()) == null) {
+        logger.atInfo().log(
+            "Device %s removed. Can not create allocation %s", deviceLocator, allocation);
+        rollBack(allocation, claimedDeviceIds);
+        return false;
+      }
+    }
+    claimedDeviceIds.forEach(idleDevices::markBusy);
+    return true;
+  }
+
+  /** Releases the given devices claimed by an allocation which is not created. */
+  @GuardedBy("deviceLock")
+  private void rollBack(Allocation allocation, List<String> claimedDeviceIds) {
+    for (String deviceId : claimedDeviceIds) {
+      deviceAllocations.remove(deviceId, allocation);
+    }
+  }
+
+  /**
+   * Gets the {@link IndexedJobInfo} according to the job id.
+   *
+   * @throws MobileHarnessException if job not found
+   */
+  private IndexedJobInfo checkJob(String jobId) throws MobileHarnessException {
+    IndexedJobInfo jobInfo = jobs.get(jobId);
+    return MobileHarnessException.checkNotNull(
+        jobInfo, ErrorCode.JOB_NOT_FOUND, "Job " + jobId + " not found");
+  }
+}
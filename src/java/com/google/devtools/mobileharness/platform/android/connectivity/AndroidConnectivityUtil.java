@@ -588,7 +588,22 @@ public class AndroidConnectivityUtil {
    * @return the RSSI if the device is connected with WIFI; or null if there is no WIFI connection
    */
   public String getWifiRssi(String serial) throws MobileHarnessException, InterruptedException {
-    String output = adbUtil.dumpSys(serial, DumpSysType.WIFI);
+    String result = parseWifiRssi(adbUtil.dumpSys(serial, DumpSysType.WIFI));
+    if (result != null) {
+      logger.atInfo().log("Device %s WIFI RSSI is:%s", serial, result);
+    } else {
+      logger.atInfo().log("Device %s has no WIFI connection:", serial);
+    }
+    return result;
+  }
+
+  /**
+   * Parses WIFI RSSI from the output of "dumpsys wifi".
+   *
+   * @return the RSSI if the device is connected with WIFI; or null if there is no WIFI connection
+   */
+  @Nullable
+  public static String parseWifiRssi(String dumpSysWifiOutput) {
     // Below is an example of output dumpSys(serial, DumpSysType.WIFI) if there is a wifi
     // connection:
     //
@@ -606,7 +621,7 @@ public class AndroidConnectivityUtil {
     // contain the keyword 'curState=CompletedState'
 
     String result = null;
-    Matcher matcher = PATTERN_WIFI_RSSI.matcher(output);
+    Matcher matcher = PATTERN_WIFI_RSSI.matcher(dumpSysWifiOutput);
     if (matcher.find()) {
       result = matcher.group("result");
     }
@@ -614,11 +629,6 @@ public class AndroidConnectivityUtil {
     if (matcher.find()) {
       result = null;
     }
-    if (result != null) {
-      logger.atInfo().log("Device %s WIFI RSSI is:%s", serial, result);
-    } else {
-      logger.atInfo().log("Device %s has no WIFI connection:", serial);
-    }
     return result;
   }
 
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.file;
+
+import static java.util.stream.Collectors.joining;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.AdbSocketClient.RemoteFileStat;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.AdbSocketClient.ShellResult;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.AdbSocketClient.SyncSession;
+import com.google.devtools.deviceinfra.shared.util.concurrent.ThreadFactoryUtil;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.deviceinfra.shared.util.path.PathUtil;
+import com.google.devtools.deviceinfra.shared.util.shell.ShellUtils;
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.platform.android.shared.constant.Splitters;
+import com.google.devtools.mobileharness.shared.util.file.checksum.ChecksumUtil;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Utility class to transfer files between the host and Android devices through the ADB file sync
+ * protocol.
+ *
+ * <p>Unlike {@link AndroidFileUtil#push} and {@link AndroidFileUtil#pull} which fork an adb process
+ * for each file, all files of a transfer to a device are sent in a single sync session of the ADB
+ * server, and the same files can be pushed to multiple devices concurrently. The total bandwidth of
+ * all the transfers of the host is bounded by "--adb_sync_max_host_bandwidth_mbps".
+ */
+public class AndroidFileTransferUtil {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Max number of the files whose md5 are calculated by a single shell command on device. */
+  private static final int MD5_BATCH_SIZE = 64;
+
+  private static final Pattern MD5SUM_OUTPUT_PATTERN =
+      Pattern.compile("^(?<md5>[0-9a-fA-F]{32})\\s+(?<path>.+)$");
+
+  /** Limiter of the total bandwidth of the transfers of the host, or null if there is no limit. */
+  @Nullable private static final RateLimiter HOST_RATE_LIMITER = createHostRateLimiter();
+
+  /**
+   * Shared by all instances to push files to at most "--adb_sync_max_concurrent_devices" devices of
+   * the host concurrently.
+   */
+  private static final ListeningExecutorService MULTI_DEVICE_PUSH_EXECUTOR =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Math.max(Flags.instance().adbSyncMaxConcurrentDevices.getNonNull(), 1),
+              ThreadFactoryUtil.createThreadFactory("android-file-push", /* daemon= */ true)));
+
+  private final Adb adb;
+
+  private final LocalFileUtil localFileUtil;
+
+  /** Calculates md5 of local files, which is the only digest supported by all devices. */
+  private final ChecksumUtil md5ChecksumUtil;
+
+  private final ListeningExecutorService multiDevicePushExecutor;
+
+  public AndroidFileTransferUtil() {
+    this(new Adb(), new LocalFileUtil());
+  }
+
+  AndroidFileTransferUtil(Adb adb, LocalFileUtil localFileUtil) {
+    this(adb, localFileUtil, new ChecksumUtil(Hashing.md5()), MULTI_DEVICE_PUSH_EXECUTOR);
+  }
+
+  @VisibleForTesting
+  AndroidFileTransferUtil(
+      Adb adb,
+      LocalFileUtil localFileUtil,
+      ChecksumUtil md5ChecksumUtil,
+      ListeningExecutorService multiDevicePushExecutor) {
+    this.adb = adb;
+    this.localFileUtil = localFileUtil;
+    this.md5ChecksumUtil = md5ChecksumUtil;
+    this.multiDevicePushExecutor = multiDevicePushExecutor;
+  }
+
+  /**
+   * Pushes a local file or directory to multiple devices, at most
+   * "--adb_sync_max_concurrent_devices" devices of the host at a time.
+   *
+   * <p>If {@code srcFileOrDirOnHost} is a directory, all files under it are pushed to the same
+   * relative paths under {@code desFileOrDirOnDevice}. Otherwise, {@code desFileOrDirOnDevice} is
+   * the file path on device. See {@link #push(String, Map, Duration)} for details of the push to
+   * each device. The pushes share the bandwidth limit of the host with all the other transfers.
+   *
+   * <p>A failed device does not stop the pushes to the other devices. If the calling thread is
+   * interrupted, the pushes which have not started are cancelled, and the running ones end by their
+   * timeout because blocked socket reads can not be interrupted.
+   *
+   * @param serials serial numbers of the devices
+   * @param srcFileOrDirOnHost source file or directory on host
+   * @param desFileOrDirOnDevice destination file or directory on devices
+   * @param timeout timeout of the push to each device, which starts when the push starts
+   * @return statistics of the push to each device
+   * @throws MobileHarnessException if failed to push to any device, after the pushes to all the
+   *     devices finish. The failures of the other devices are suppressed in it.
+   */
+  public ImmutableMap<String, FileTransferStats> push(
+      Collection<String> serials,
+      String srcFileOrDirOnHost,
+      String desFileOrDirOnDevice,
+      Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    ImmutableMap<Path, String> files = listFilesToPush(srcFileOrDirOnHost, desFileOrDirOnDevice);
+    Map<String, ListenableFuture<FileTransferStats>> futures = new LinkedHashMap<>();
+    ImmutableMap.Builder<String, FileTransferStats> stats = ImmutableMap.builder();
+    MobileHarnessException error = null;
+    try {
+      for (String serial : serials) {
+        futures.put(serial, multiDevicePushExecutor.submit(() -> push(serial, files, timeout)));
+      }
+      for (Map.Entry<String, ListenableFuture<FileTransferStats>> future : futures.entrySet()) {
+        try {
+          stats.put(future.getKey(), future.getValue().get());
+        } catch (ExecutionException e) {
+          MobileHarnessException pushError =
+              e.getCause() instanceof MobileHarnessException
+                  ? (MobileHarnessException) e.getCause()
+                  : new MobileHarnessException(
+                      AndroidErrorId.ANDROID_FILE_UTIL_SYNC_PUSH_ERROR,
+                      String.format(
+                          "Failed to push %s to device %s", srcFileOrDirOnHost, future.getKey()),
+                      e.getCause());
+          if (error == null) {
+            error = pushError;
+          } else {
+            error.addSuppressed(pushError);
+          }
+        }
+      }
+    } finally {
+      // Only cancels the pushes which have not finished, e.g., when the calling thread is
+      // interrupted.
+      futures.values().forEach(future -> future.cancel(/* mayInterruptIfRunning= */ true));
+    }
+    if (error != null) {
+      throw error;
+    }
+    return stats.buildOrThrow();
+  }
+
+  /**
+   * Pushes local files to a device in a single sync session.
+   *
+   * <p>Parent directories of the files on device are created if they don't exist. Files whose size
+   * and md5 on device are the same as the local files are skipped. Like adb push, the permissions
+   * of the local files are kept on device.
+   *
+   * @param serial serial number of the device
+   * @param files map from local files to their paths on device
+   * @param timeout timeout of the whole push
+   * @return statistics of the push
+   */
+  public FileTransferStats push(String serial, Map<Path, String> files, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    Instant startTime = Instant.now();
+    Instant deadline = startTime.plus(timeout);
+    int pushedFileCount = 0;
+    int skippedFileCount = 0;
+    long pushedBytes = 0L;
+    try (SyncSession session = adb.getSocketClient().openSync(serial, timeout)) {
+      session.setRateLimiter(HOST_RATE_LIMITER);
+      Map<Path, String> sameSizeFiles = new LinkedHashMap<>();
+      for (Map.Entry<Path, String> file : files.entrySet()) {
+        RemoteFileStat stat = session.stat(file.getValue());
+        // The sync protocol only reports the lower 32 bits of the file size.
+        if (stat.exists() && stat.size() == (getLocalFileSize(file.getKey()) & 0xFFFFFFFFL)) {
+          sameSizeFiles.put(file.getKey(), file.getValue());
+        }
+      }
+      Set<Path> unchangedFiles = getUnchangedFiles(serial, sameSizeFiles, deadline);
+      for (Map.Entry<Path, String> file : files.entrySet()) {
+        if (unchangedFiles.contains(file.getKey())) {
+          skippedFileCount++;
+          continue;
+        }
+        pushedBytes +=
+            session.push(file.getKey(), file.getValue(), getLocalFileMode(file.getKey()));
+        pushedFileCount++;
+      }
+    } catch (MobileHarnessException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_FILE_UTIL_SYNC_PUSH_ERROR,
+          String.format("Failed to push files to device %s: %s", serial, e.getMessage()),
+          e);
+    }
+    FileTransferStats stats =
+        FileTransferStats.create(
+            serial,
+            pushedFileCount,
+            skippedFileCount,
+            pushedBytes,
+            Duration.between(startTime, Instant.now()));
+    logger.atInfo().log(
+        "Pushed %d files (%d bytes) to device %s in %s (%d KB/s), skipped %d unchanged files",
+        stats.transferredFileCount(),
+        stats.transferredBytes(),
+        serial,
+        stats.duration(),
+        stats.bytesPerSecond() >> 10,
+        stats.skippedFileCount());
+    return stats;
+  }
+
+  /**
+   * Pulls files from a device to the host in a single sync session.
+   *
+   * <p>Parent directories of the local files are created if they don't exist.
+   *
+   * @param serial serial number of the device
+   * @param files map from paths on device to their local files
+   * @param timeout timeout of the whole pull
+   * @return statistics of the pull
+   */
+  public FileTransferStats pull(String serial, Map<String, Path> files, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    Instant startTime = Instant.now();
+    long pulledBytes = 0L;
+    try (SyncSession session = adb.getSocketClient().openSync(serial, timeout)) {
+      session.setRateLimiter(HOST_RATE_LIMITER);
+      for (Map.Entry<String, Path> file : files.entrySet()) {
+        localFileUtil.prepareParentDir(file.getValue());
+        pulledBytes += session.pull(file.getKey(), file.getValue());
+      }
+    } catch (MobileHarnessException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_FILE_UTIL_SYNC_PULL_ERROR,
+          String.format("Failed to pull files from device %s: %s", serial, e.getMessage()),
+          e);
+    }
+    FileTransferStats stats =
+        FileTransferStats.create(
+            serial,
+            files.size(),
+            /* skippedFileCount= */ 0,
+            pulledBytes,
+            Duration.between(startTime, Instant.now()));
+    logger.atInfo().log(
+        "Pulled %d files (%d bytes) from device %s in %s (%d KB/s)",
+        stats.transferredFileCount(),
+        stats.transferredBytes(),
+        serial,
+        stats.duration(),
+        stats.bytesPerSecond() >> 10);
+    return stats;
+  }
+
+  /** Lists the local files to push and their paths on device. */
+  private ImmutableMap<Path, String> listFilesToPush(
+      String srcFileOrDirOnHost, String desFileOrDirOnDevice) throws MobileHarnessException {
+    if (!localFileUtil.isDirExist(srcFileOrDirOnHost)) {
+      return ImmutableMap.of(Paths.get(srcFileOrDirOnHost), desFileOrDirOnDevice);
+    }
+    ImmutableMap.Builder<Path, String> files = ImmutableMap.builder();
+    for (String srcFilePath : localFileUtil.listFilePaths(srcFileOrDirOnHost, true)) {
+      files.put(
+          Paths.get(srcFilePath),
+          PathUtil.join(
+              desFileOrDirOnDevice, PathUtil.makeRelative(srcFileOrDirOnHost, srcFilePath)));
+    }
+    return files.buildOrThrow();
+  }
+
+  /**
+   * Gets the local files whose md5 are the same as the files on device. Files are considered
+   * changed if their md5 on device can not be calculated, e.g., md5sum is not supported.
+   */
+  private Set<Path> getUnchangedFiles(String serial, Map<Path, String> files, Instant deadline)
+      throws MobileHarnessException, InterruptedException {
+    Map<String, Path> localFiles = new HashMap<>();
+    files.forEach((localFile, remotePath) -> localFiles.put(remotePath, localFile));
+    Set<Path> unchangedFiles = new HashSet<>();
+    for (List<String> remotePaths : Iterables.partition(localFiles.keySet(), MD5_BATCH_SIZE)) {
+      String command =
+          "md5sum " + remotePaths.stream().map(ShellUtils::shellEscape).collect(joining(" "));
+      Duration timeout = Duration.between(Instant.now(), deadline);
+      ShellResult result =
+          adb.getSocketClient()
+              .shell(
+                  serial,
+                  command,
+                  timeout.isNegative() ? Duration.ZERO : timeout,
+                  /* lineCallback= */ null,
+                  /* redirectStderr= */ false);
+      for (String line : Splitters.LINE_SPLITTER.trimResults().split(result.stdout())) {
+        Matcher matcher = MD5SUM_OUTPUT_PATTERN.matcher(line);
+        if (!matcher.matches()) {
+          continue;
+        }
+        Path localFile = localFiles.get(matcher.group("path"));
+        if (localFile != null
+            && md5ChecksumUtil.fingerprint(localFile).equalsIgnoreCase(matcher.group("md5"))) {
+          unchangedFiles.add(localFile);
+        }
+      }
+    }
+    return unchangedFiles;
+  }
+
+  private static long getLocalFileSize(Path file) throws MobileHarnessException {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_FILE_UTIL_PUSH_FILE_LOCAL_FILE_ERROR,
+          String.format("Failed to get the size of local file %s", file),
+          e);
+    }
+  }
+
+  /** Gets the permission bits of a local file, e.g., 0644. */
+  private static int getLocalFileMode(Path file) throws MobileHarnessException {
+    Set<PosixFilePermission> permissions;
+    try {
+      permissions = Files.getPosixFilePermissions(file);
+    } catch (UnsupportedOperationException e) {
+      return Files.isExecutable(file) ? 0755 : 0644;
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_FILE_UTIL_PUSH_FILE_LOCAL_FILE_ERROR,
+          String.format("Failed to get the permissions of local file %s", file),
+          e);
+    }
+    int mode = 0;
+    for (PosixFilePermission permission : permissions) {
+      // PosixFilePermission is declared from OWNER_READ (0400) to OTHERS_EXECUTE (0001).
+      mode |= 0400 >> permission.ordinal();
+    }
+    return mode;
+  }
+
+  @Nullable
+  private static RateLimiter createHostRateLimiter() {
+    int maxMbps = Flags.instance().adbSyncMaxHostBandwidthMbps.getNonNull();
+    return maxMbps > 0 ? RateLimiter.create(maxMbps * 1_000_000.0 / 8.0) : null;
+  }
+}
@@ -23,6 +23,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
 import com.google.devtools.deviceinfra.shared.util.path.PathUtil;
 import com.google.devtools.deviceinfra.shared.util.shell.ShellUtils;
 import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
@@ -39,10 +40,13 @@ import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.wireless.qa.mobileharness.shared.util.DeviceUtil;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -94,6 +98,9 @@ public class AndroidFileUtil {
   /** ADB shell command to list file/dir. Should be followed with the path in device. */
   @VisibleForTesting static final String ADB_SHELL_LIST_FILES = "ls";
 
+  /** Default timeout for pushing each file in a sync session, the same as adb commands. */
+  private static final Duration DEFAULT_SYNC_PUSH_FILE_TIMEOUT = Duration.ofMinutes(5L);
+
   /** Indicator for the success of remounting the device. */
   private static final String ADB_REMOUNT_SUCCESS_INDICATOR = "remount succeeded";
 
@@ -181,6 +188,9 @@ public class AndroidFileUtil {
   /** {@code Adb} for running shell command on device. */
   private final Adb adb;
 
+  /** For pushing files of a directory in a single adb sync session. */
+  private final AndroidFileTransferUtil androidFileTransferUtil;
+
   public AndroidFileUtil() {
     this(
         new Adb(),
@@ -198,6 +208,7 @@ public class AndroidFileUtil {
       AndroidSystemSettingUtil androidSystemSettingUtil,
       AndroidSystemSpecUtil androidSystemSpecUtil) {
     this.adb = adb;
+    this.androidFileTransferUtil = new AndroidFileTransferUtil(adb, localFileUtil);
     this.localFileUtil = localFileUtil;
     this.androidUserUtil = androidUserUtil;
     this.androidSystemSettingUtil = androidSystemSettingUtil;
@@ -489,32 +500,48 @@ public class AndroidFileUtil {
    */
   public StorageInfo getStorageInfo(String serial, boolean isExternal)
       throws MobileHarnessException, InterruptedException {
-    AndroidErrorId getStorageInfoErrorId = null;
-    AndroidErrorId invalidStorageInfoErrorId = null;
-    String runCommand = null;
-    String externalOrInternal = null;
-    if (isExternal) {
-      getStorageInfoErrorId = AndroidErrorId.ANDROID_FILE_UTIL_GET_DISK_INFO_ERROR;
-      invalidStorageInfoErrorId = AndroidErrorId.ANDROID_FILE_UTIL_INVALID_DISK_INFO;
-      runCommand = ADB_SHELL_GET_DISK_INFO;
-      externalOrInternal = "EXTERNAL";
-    } else {
-      getStorageInfoErrorId = AndroidErrorId.ANDROID_FILE_UTIL_GET_INTERNAL_STORAGE_INFO_ERROR;
-      invalidStorageInfoErrorId = AndroidErrorId.ANDROID_FILE_UTIL_INVALID_INTERNAL_STORAGE_INFO;
-      runCommand = ADB_SHELL_GET_INTERNAL_STORAGE;
-      externalOrInternal = "INTERNAL";
-    }
-
+    String runCommand = getStorageInfoCommand(isExternal);
     String output = null;
     try {
       output = adb.runShell(serial, runCommand);
     } catch (MobileHarnessException e) {
       throw new MobileHarnessException(
-          getStorageInfoErrorId,
+          isExternal
+              ? AndroidErrorId.ANDROID_FILE_UTIL_GET_DISK_INFO_ERROR
+              : AndroidErrorId.ANDROID_FILE_UTIL_GET_INTERNAL_STORAGE_INFO_ERROR,
           String.format("Failed to run the command [%s]%n%s", runCommand, e.getMessage()),
           e);
     }
     logger.atInfo().log("Disk information:%n%s", output);
+    return parseStorageInfo(output, isExternal);
+  }
+
+  /**
+   * Gets the adb shell command whose output is parsed by {@link #parseStorageInfo(String,
+   * boolean)}.
+   *
+   * @param isExternal whether getting external storage or internal storage info
+   */
+  public static String getStorageInfoCommand(boolean isExternal) {
+    return isExternal ? ADB_SHELL_GET_DISK_INFO : ADB_SHELL_GET_INTERNAL_STORAGE;
+  }
+
+  /**
+   * Parses the device internal or external storage information from the output of {@link
+   * #getStorageInfoCommand(boolean)}.
+   *
+   * @param output output of the command
+   * @param isExternal whether parsing external storage or internal storage info
+   * @throws MobileHarnessException if no valid disk information is found (API Level < 10), or the
+   *     total internal storage space is negative.
+   */
+  public static StorageInfo parseStorageInfo(String output, boolean isExternal)
+      throws MobileHarnessException {
+    AndroidErrorId invalidStorageInfoErrorId =
+        isExternal
+            ? AndroidErrorId.ANDROID_FILE_UTIL_INVALID_DISK_INFO
+            : AndroidErrorId.ANDROID_FILE_UTIL_INVALID_INTERNAL_STORAGE_INFO;
+    String externalOrInternal = isExternal ? "EXTERNAL" : "INTERNAL";
     Long totalSizeBytes = null;
     Long freeSizeBytes = null;
     List<String> items =
@@ -934,6 +961,20 @@ public class AndroidFileUtil {
           e);
     }
 
+    if (Flags.instance().adbUseSocketClient.getNonNull()) {
+      try {
+        return pushFilesBySync(
+            serial, srcFileOrDirOnHost, srcFilePathList, desDirPathOnDevice, pushTimeout, log);
+      } catch (MobileHarnessException e) {
+        // Falls back to pushing each file with retry. Files pushed by the sync session are pushed
+        // again.
+        logger.atWarning().withCause(e).log(
+            "Failed to push dir %s to device %s in a sync session, push each file instead",
+            srcFileOrDirOnHost, serial);
+        log.append("\nFailed to push in a sync session, push each file instead");
+      }
+    }
+
     for (String srcFilePath : srcFilePathList) {
       // Only get the file name into relative path.
       String relativePath = PathUtil.makeRelative(srcFileOrDirOnHost, srcFilePath);
@@ -959,6 +1000,48 @@ public class AndroidFileUtil {
     return log.toString();
   }
 
+  /**
+   * Pushes the files of a directory to device in a single adb sync session instead of forking adb
+   * for each file. Files which are already the same on device are skipped. The push is not retried,
+   * so callers should fall back to {@link Adb#runWithRetry} if it fails.
+   *
+   * @param pushTimeout timeout for pushing each file, or null for the default adb command timeout
+   */
+  private String pushFilesBySync(
+      String serial,
+      String srcDirOnHost,
+      List<String> srcFilePathList,
+      String desDirPathOnDevice,
+      @Nullable Duration pushTimeout,
+      StringBuilder log)
+      throws MobileHarnessException, InterruptedException {
+    Map<Path, String> files = new LinkedHashMap<>();
+    for (String srcFilePath : srcFilePathList) {
+      files.put(
+          Paths.get(srcFilePath),
+          PathUtil.join(desDirPathOnDevice, PathUtil.makeRelative(srcDirOnHost, srcFilePath)));
+    }
+    Duration timeout =
+        (pushTimeout == null ? DEFAULT_SYNC_PUSH_FILE_TIMEOUT : pushTimeout)
+            .multipliedBy(Math.max(1, files.size()));
+    FileTransferStats stats;
+    try {
+      stats = androidFileTransferUtil.push(serial, files, timeout);
+    } catch (MobileHarnessException e) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_FILE_UTIL_PUSH_FILE_ADB_ERROR,
+          String.format(
+              "Failed to push dir %s to device %s:%s%n%s",
+              srcDirOnHost, serial, desDirPathOnDevice, e.getMessage()),
+          e);
+    }
+    return log.append(
+            String.format(
+                "%nPushed %d files (%d bytes) in a sync session, skipped %d unchanged files",
+                stats.transferredFileCount(), stats.transferredBytes(), stats.skippedFileCount()))
+        .toString();
+  }
+
   /**
    * Remounts the /system and /vendor (if present) partitions on the device read-write. This only
    * works if the device has root access and has already become root, and it affects all users.
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.file;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+
+/** Statistics of a transfer of files between the host and an Android device. */
+@AutoValue
+public abstract class FileTransferStats {
+  public static FileTransferStats create(
+      String serial,
+      int transferredFileCount,
+      int skippedFileCount,
+      long transferredBytes,
+      Duration duration) {
+    return new AutoValue_FileTransferStats(
+        serial, transferredFileCount, skippedFileCount, transferredBytes, duration);
+  }
+
+  /** Serial number of the device. */
+  public abstract String serial();
+
+  /** Number of the transferred files. */
+  public abstract int transferredFileCount();
+
+  /** Number of the files which are skipped because they are already the same on the target. */
+  public abstract int skippedFileCount();
+
+  /** Total size of the transferred files in bytes. */
+  public abstract long transferredBytes();
+
+  /** Wall time of the transfer. */
+  public abstract Duration duration();
+
+  /** Throughput of the transfer in bytes per second. */
+  public long bytesPerSecond() {
+    long millis = Math.max(1L, duration().toMillis());
+    return transferredBytes() * 1000L / millis;
+  }
+}
@@ -16,14 +16,25 @@
 
 package com.google.devtools.mobileharness.platform.android.lightning.apkinstaller;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.common.annotations.Beta;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ascii;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.deviceinfra.shared.util.concurrent.ThreadFactoryUtil;
+import com.google.devtools.deviceinfra.shared.util.flags.Flag;
 import com.google.devtools.deviceinfra.shared.util.flags.Flags;
 import com.google.devtools.deviceinfra.shared.util.path.PathUtil;
 import com.google.devtools.deviceinfra.shared.util.time.Sleeper;
@@ -53,8 +64,18 @@ import com.google.wireless.qa.mobileharness.shared.util.DeviceUtil;
 import java.io.File;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.logging.Level;
 import javax.annotation.Nullable;
 
@@ -111,6 +132,28 @@ public class ApkInstaller {
   @VisibleForTesting
   static final String PROPERTY_NAME_CACHED_SCREEN_DENSITY = "cached_screen_density";
 
+  /**
+   * MD5 util shared by the installers of all devices on the host, so that an APK installed to
+   * multiple devices is only hashed once.
+   */
+  private static final ChecksumUtil HOST_MD5_UTIL = new ChecksumUtil(Hashing.md5());
+
+  /**
+   * Aapt shared by the installers of all devices on the host, so that its output is reused. It is
+   * created when the first installer is created, after flags are parsed.
+   */
+  private static final Supplier<Aapt> HOST_AAPT =
+      Suppliers.memoize(() -> new Aapt(/* enableAaptOutputCache= */ true));
+
+  private static final ListeningExecutorService INSTALL_EXECUTOR =
+      MoreExecutors.listeningDecorator(
+          Executors.newCachedThreadPool(
+              ThreadFactoryUtil.createThreadFactory("apk-installer", /* daemon= */ true)));
+
+  /** Locks of the packages on the devices of the host, keyed by "<device_id>:<package_name>". */
+  private static final ConcurrentHashMap<String, ReentrantLock> PACKAGE_INSTALL_LOCKS =
+      new ConcurrentHashMap<>();
+
   /** Util class for generating MD5 of a file or directory. */
   private final ChecksumUtil md5Util;
 
@@ -130,8 +173,8 @@ public class ApkInstaller {
 
   public ApkInstaller() {
     this(
-        new ChecksumUtil(Hashing.md5()),
-        new Aapt(/* enableAaptOutputCache= */ true),
+        HOST_MD5_UTIL,
+        HOST_AAPT.get(),
         new AndroidSystemSpecUtil(),
         new AndroidSystemSettingUtil(),
         new AndroidPackageManagerUtil(),
@@ -281,6 +324,8 @@ public class ApkInstaller {
    * avoid installing the same apk again when flag {@link Flags#instance()}.{@link
    * Flags#cacheInstalledApks cacheInstalledApks} is set to true.
    *
+   * <p>Concurrent installations of the same package to the same device are done one by one.
+   *
    * <p>NOTE: Do NOT use this method and {@link #installApkIfVersionMismatched} both for one APK.
    *
    * @param device the device that the APK is installed to
@@ -290,141 +335,19 @@ public class ApkInstaller {
   @CanIgnoreReturnValue
   public String installApk(Device device, ApkInstallArgs installArgs, @Nullable LogCollector<?> log)
       throws MobileHarnessException, InterruptedException {
-    String apkPath = installArgs.apkPath();
-    String dexMetadataPath = installArgs.dexMetadataPath().orElse(null);
-    boolean clearAppData = installArgs.clearAppData().orElse(false);
-    boolean grantPermissions = installArgs.grantPermissions().orElse(true);
-    boolean skipIfDowngrade = installArgs.skipDowngrade().orElse(false);
-    boolean skipIfCached = installArgs.skipIfCached().orElse(true);
-    boolean skipIfVersionMatch = installArgs.skipIfVersionMatch().orElse(false);
-    boolean forceNoStreaming = installArgs.forceNoStreaming().orElse(DeviceUtil.inSharedLab());
-    boolean forceQueryable = installArgs.forceQueryable().orElse(false);
-    boolean bypassLowTargetSdkBlock = installArgs.bypassLowTargetSdkBlock().orElse(false);
-    List<String> extraArgs = new ArrayList<>();
-
-    String deviceId = device.getDeviceId();
-    int deviceSdkVersion = systemSettingUtil.getDeviceSdkVersion(deviceId);
-    String userId = MULTI_USER_DEFAULT_ID;
-    if (isMultiUserSupported(deviceSdkVersion)) {
-      userId = installArgs.userId().orElse(getCurrentUser(deviceId, deviceSdkVersion).get());
-    }
-
-    // Checks whether the apk has been installed.
-    String packageName = aapt.getApkPackageName(apkPath);
-    String apkName = new File(apkPath).getName();
-    String apkMd5 = md5Util.fingerprint(apkPath);
-    logger.atInfo().log("Md5 for apk %s is: %s", apkPath, apkMd5);
-    if (skipIfCached
-        && checkApkInstalledByMd5(
-            device, deviceSdkVersion, apkMd5, apkName, packageName, userId, log)) {
-      return packageName;
-    }
-
-    // Checks whether the apk can be installed.
-    checkApkMinSdkVersion(deviceSdkVersion, apkPath, log);
-
-    // Check if should skip install apk according to version code.
-    Integer apkVersionCode = null;
+    String packageName = aapt.getApkPackageName(installArgs.apkPath());
+    // Installations of the same package to the same device check and update the same cached device
+    // property, so they are done one by one.
+    ReentrantLock lock =
+        PACKAGE_INSTALL_LOCKS.computeIfAbsent(
+            device.getDeviceId() + DEVICE_PROP_PREFIX_DELIMITER + packageName,
+            k -> new ReentrantLock());
+    lock.lockInterruptibly();
     try {
-      apkVersionCode = aapt.getApkVersionCode(apkPath);
-    } catch (MobileHarnessException e) {
-      // Apks may have empty version code, like
-      // java/com/google/android/apps/common/testing/services/basic_services.apk
-      SharedLogUtil.logMsg(
-          logger,
-          log,
-          "Failed to get a valid version code for apk %s:%n%s",
-          apkPath,
-          e.getMessage());
-    }
-    if (apkVersionCode != null
-        && shouldSkipOnVersionCode(
-            buildUtilArgs(deviceId, userId, deviceSdkVersion),
-            packageName,
-            apkVersionCode,
-            skipIfDowngrade,
-            skipIfVersionMatch,
-            log)) {
-      SharedLogUtil.logMsg(
-          logger,
-          log,
-          "Skip installing apk %s (version:%s) on device %s, skipIfDowngrade = %s,"
-              + " skipIfVersionMatch = %s.",
-          apkName,
-          apkVersionCode,
-          deviceId,
-          skipIfDowngrade,
-          skipIfVersionMatch);
-      return packageName;
-    }
-
-    boolean isGms = PackageConstants.PACKAGE_NAME_GMS.equals(packageName);
-    if (isGms) {
-      String apkVersionName = aapt.getApkVersionName(apkPath);
-      if (!installArgs.skipGmsCompatCheck().orElse(false)) {
-        checkGmsCompatibility(
-            device, deviceSdkVersion, apkPath, apkVersionCode, apkVersionName, log);
-      }
-      if (clearAppData) {
-        SharedLogUtil.logMsg(logger, "Clear GmsCore before installation", log);
-        androidPackageManagerUtil.clearPackage(
-            buildUtilArgs(deviceId, userId, deviceSdkVersion), PackageConstants.PACKAGE_NAME_GMS);
-      }
-    }
-
-    // Actual installation.
-    boolean success = false;
-    try {
-      SharedLogUtil.logMsg(
-          logger,
-          log,
-          "Start to install %s on device %s with user id %s",
-          apkName,
-          deviceId,
-          userId);
-      if (forceQueryable) {
-        extraArgs.add("--force-queryable");
-      }
-      if (bypassLowTargetSdkBlock
-          && deviceSdkVersion > AndroidVersion.ANDROID_13.getEndSdkVersion()) {
-        extraArgs.add("--bypass-low-target-sdk-block");
-      }
-      // If the package name is gms, ignore the grant runtime permissions switch.
-      installApkHelper(
-          buildUtilArgs(deviceId, userId, deviceSdkVersion),
-          packageName,
-          apkPath,
-          dexMetadataPath,
-          isGms || grantPermissions,
-          forceNoStreaming,
-          installArgs.installTimeout().orElse(null),
-          log,
-          extraArgs.toArray(new String[0]));
-      success = true;
-      SharedLogUtil.logMsg(
-          logger, log, "Successfully installed %s on device %s", apkName, deviceId);
+      return installApkUnderLock(device, installArgs, packageName, log);
     } finally {
-      if (Flags.instance().cacheInstalledApks.get()) {
-        device.setProperty(
-            String.format(DEVICE_PROP_INSTALLED_APK_KEY_TEMPLATE, userId) + packageName,
-            success ? apkMd5 : null);
-      }
+      lock.unlock();
     }
-
-    if (isGms) {
-      if (installArgs.sleepAfterInstallGms().isPresent()) {
-        sleeper.sleep(installArgs.sleepAfterInstallGms().get());
-      }
-      updateGmsDimension(device, log);
-    }
-
-    if (clearAppData) {
-      SharedLogUtil.logMsg(logger, log, "Clear app %s after installation", packageName);
-      androidPackageManagerUtil.clearPackage(
-          buildUtilArgs(deviceId, userId, deviceSdkVersion), packageName);
-    }
-
-    return packageName;
   }
 
   /**
@@ -499,6 +422,108 @@ public class ApkInstaller {
         log);
   }
 
+  /**
+   * Installs the APKs to the android device.
+   *
+   * <p>Each APK is installed as {@link #installApk(Device, ApkInstallArgs, LogCollector)}. GMS is
+   * installed first, then the other packages are installed. If "--apk_install_concurrently" is
+   * true, at most "--apk_install_max_concurrent_packages" packages are installed concurrently. APKs
+   * of the same package are always installed one by one in the given order.
+   *
+   * @param device the device that the APKs are installed to
+   * @param installArgsList arguments wrappers for installation of the APKs
+   * @param log log collector for apk installation
+   * @return the package names of the APKs, in the same order as {@code installArgsList}
+   */
+  @CanIgnoreReturnValue
+  public ImmutableList<String> installApks(
+      Device device, List<ApkInstallArgs> installArgsList, @Nullable LogCollector<?> log)
+      throws MobileHarnessException, InterruptedException {
+    ImmutableList.Builder<String> packageNames = ImmutableList.builder();
+    List<ApkInstallArgs> gmsInstallArgsList = new ArrayList<>();
+    Map<String, List<ApkInstallArgs>> nonGmsInstallArgsLists = new LinkedHashMap<>();
+    for (ApkInstallArgs installArgs : installArgsList) {
+      String packageName = aapt.getApkPackageName(installArgs.apkPath());
+      packageNames.add(packageName);
+      if (PackageConstants.PACKAGE_NAME_GMS.equals(packageName)) {
+        gmsInstallArgsList.add(installArgs);
+      } else {
+        nonGmsInstallArgsLists
+            .computeIfAbsent(packageName, k -> new ArrayList<>())
+            .add(installArgs);
+      }
+    }
+
+    // GMS installation updates the device dimensions, so it is done before other packages.
+    for (ApkInstallArgs installArgs : gmsInstallArgsList) {
+      installApk(device, installArgs, log);
+    }
+    runConcurrently(
+        ImmutableList.copyOf(nonGmsInstallArgsLists.entrySet()),
+        getMaxConcurrency(Flags.instance().apkInstallMaxConcurrentPackages),
+        /* stopOnError= */ true,
+        packageInstallArgsList -> {
+          for (ApkInstallArgs installArgs : packageInstallArgsList.getValue()) {
+            installApk(device, installArgs, log);
+          }
+          return packageInstallArgsList.getKey();
+        },
+        packageInstallArgsList ->
+            String.format(
+                "Failed to install package %s on device %s",
+                packageInstallArgsList.getKey(), device.getDeviceId()));
+    return packageNames.build();
+  }
+
+  /**
+   * Installs the same APKs to multiple android devices.
+   *
+   * <p>The MD5 and the package name of each APK are computed once for all the devices. Then each
+   * device is installed as {@link #installApks(Device, List, LogCollector)}. If
+   * "--apk_install_concurrently" is true, at most "--apk_install_max_concurrent_devices" devices
+   * are installed concurrently.
+   *
+   * @param devices the devices that the APKs are installed to. A device listed more than once is
+   *     installed once
+   * @param installArgsList arguments wrappers for installation of the APKs
+   * @param log log collector for apk installation
+   * @return a map from device IDs to the package names of the APKs
+   * @throws MobileHarnessException if failed to install the APKs to any device, after the
+   *     installation to all the devices finishes
+   */
+  @CanIgnoreReturnValue
+  public ImmutableMap<String, ImmutableList<String>> installApks(
+      List<Device> devices, List<ApkInstallArgs> installArgsList, @Nullable LogCollector<?> log)
+      throws MobileHarnessException, InterruptedException {
+    Map<String, Device> distinctDevices = new LinkedHashMap<>();
+    devices.forEach(device -> distinctDevices.putIfAbsent(device.getDeviceId(), device));
+    ImmutableList<Device> deviceList = ImmutableList.copyOf(distinctDevices.values());
+    ImmutableList<String> apkPaths =
+        installArgsList.stream().map(ApkInstallArgs::apkPath).distinct().collect(toImmutableList());
+    runConcurrently(
+        apkPaths,
+        Runtime.getRuntime().availableProcessors(),
+        /* stopOnError= */ true,
+        apkPath -> {
+          md5Util.fingerprint(apkPath);
+          return aapt.getApkPackageName(apkPath);
+        },
+        apkPath -> String.format("Failed to read apk %s", apkPath));
+
+    ImmutableList<ImmutableList<String>> packageNames =
+        runConcurrently(
+            deviceList,
+            getMaxConcurrency(Flags.instance().apkInstallMaxConcurrentDevices),
+            /* stopOnError= */ false,
+            device -> installApks(device, installArgsList, log),
+            device -> String.format("Failed to install apks on device %s", device.getDeviceId()));
+    ImmutableMap.Builder<String, ImmutableList<String>> result = ImmutableMap.builder();
+    for (int i = 0; i < deviceList.size(); i++) {
+      result.put(deviceList.get(i).getDeviceId(), packageNames.get(i));
+    }
+    return result.buildOrThrow();
+  }
+
   /**
    * Installs multiple packages on the device. None of the packages should be GMS since GMS requires
    * additional operations. It doesn't check if the apps are already installed. Only applied to real
@@ -806,6 +831,16 @@ public class ApkInstaller {
     return Optional.of("0");
   }
 
+  /**
+   * Returns the max number of concurrent installations given by the flag, or 1 if
+   * "--apk_install_concurrently" is false.
+   */
+  private static int getMaxConcurrency(Flag<Integer> maxConcurrencyFlag) {
+    return Flags.instance().apkInstallConcurrently.getNonNull()
+        ? Math.max(maxConcurrencyFlag.getNonNull(), 1)
+        : 1;
+  }
+
   /**
    * Helper method for installing apk on device, which includes retry and special cases management.
    */
@@ -878,6 +913,149 @@ public class ApkInstaller {
         extraArgs);
   }
 
+  /**
+   * Installs the APK of the given package to the device, while holding the lock of the package on
+   * the device. See {@link #installApk(Device, ApkInstallArgs, LogCollector)}.
+   */
+  private String installApkUnderLock(
+      Device device, ApkInstallArgs installArgs, String packageName, @Nullable LogCollector<?> log)
+      throws MobileHarnessException, InterruptedException {
+    String apkPath = installArgs.apkPath();
+    String dexMetadataPath = installArgs.dexMetadataPath().orElse(null);
+    boolean clearAppData = installArgs.clearAppData().orElse(false);
+    boolean grantPermissions = installArgs.grantPermissions().orElse(true);
+    boolean skipIfDowngrade = installArgs.skipDowngrade().orElse(false);
+    boolean skipIfCached = installArgs.skipIfCached().orElse(true);
+    boolean skipIfVersionMatch = installArgs.skipIfVersionMatch().orElse(false);
+    boolean forceNoStreaming = installArgs.forceNoStreaming().orElse(DeviceUtil.inSharedLab());
+    boolean forceQueryable = installArgs.forceQueryable().orElse(false);
+    boolean bypassLowTargetSdkBlock = installArgs.bypassLowTargetSdkBlock().orElse(false);
+    List<String> extraArgs = new ArrayList<>();
+
+    String deviceId = device.getDeviceId();
+    int deviceSdkVersion = systemSettingUtil.getDeviceSdkVersion(deviceId);
+    String userId = MULTI_USER_DEFAULT_ID;
+    if (isMultiUserSupported(deviceSdkVersion)) {
+      userId = installArgs.userId().orElse(getCurrentUser(deviceId, deviceSdkVersion).get());
+    }
+
+    // Checks whether the apk has been installed.
+    String apkName = new File(apkPath).getName();
+    String apkMd5 = md5Util.fingerprint(apkPath);
+    logger.atInfo().log("Md5 for apk %s is: %s", apkPath, apkMd5);
+    if (skipIfCached
+        && checkApkInstalledByMd5(
+            device, deviceSdkVersion, apkMd5, apkName, packageName, userId, log)) {
+      return packageName;
+    }
+
+    // Checks whether the apk can be installed.
+    checkApkMinSdkVersion(deviceSdkVersion, apkPath, log);
+
+    // Check if should skip install apk according to version code.
+    Integer apkVersionCode = null;
+    try {
+      apkVersionCode = aapt.getApkVersionCode(apkPath);
+    } catch (MobileHarnessException e) {
+      // Apks may have empty version code, like
+      // java/com/google/android/apps/common/testing/services/basic_services.apk
+      SharedLogUtil.logMsg(
+          logger,
+          log,
+          "Failed to get a valid version code for apk %s:%n%s",
+          apkPath,
+          e.getMessage());
+    }
+    if (apkVersionCode != null
+        && shouldSkipOnVersionCode(
+            buildUtilArgs(deviceId, userId, deviceSdkVersion),
+            packageName,
+            apkVersionCode,
+            skipIfDowngrade,
+            skipIfVersionMatch,
+            log)) {
+      SharedLogUtil.logMsg(
+          logger,
+          log,
+          "Skip installing apk %s (version:%s) on device %s, skipIfDowngrade = %s,"
+              + " skipIfVersionMatch = %s.",
+          apkName,
+          apkVersionCode,
+          deviceId,
+          skipIfDowngrade,
+          skipIfVersionMatch);
+      return packageName;
+    }
+
+    boolean isGms = PackageConstants.PACKAGE_NAME_GMS.equals(packageName);
+    if (isGms) {
+      String apkVersionName = aapt.getApkVersionName(apkPath);
+      if (!installArgs.skipGmsCompatCheck().orElse(false)) {
+        checkGmsCompatibility(
+            device, deviceSdkVersion, apkPath, apkVersionCode, apkVersionName, log);
+      }
+      if (clearAppData) {
+        SharedLogUtil.logMsg(logger, "Clear GmsCore before installation", log);
+        androidPackageManagerUtil.clearPackage(
+            buildUtilArgs(deviceId, userId, deviceSdkVersion), PackageConstants.PACKAGE_NAME_GMS);
+      }
+    }
+
+    // Actual installation.
+    boolean success = false;
+    try {
+      SharedLogUtil.logMsg(
+          logger,
+          log,
+          "Start to install %s on device %s with user id %s",
+          apkName,
+          deviceId,
+          userId);
+      if (forceQueryable) {
+        extraArgs.add("--force-queryable");
+      }
+      if (bypassLowTargetSdkBlock
+          && deviceSdkVersion > AndroidVersion.ANDROID_13.getEndSdkVersion()) {
+        extraArgs.add("--bypass-low-target-sdk-block");
+      }
+      // If the package name is gms, ignore the grant runtime permissions switch.
+      installApkHelper(
+          buildUtilArgs(deviceId, userId, deviceSdkVersion),
+          packageName,
+          apkPath,
+          dexMetadataPath,
+          isGms || grantPermissions,
+          forceNoStreaming,
+          installArgs.installTimeout().orElse(null),
+          log,
+          extraArgs.toArray(new String[0]));
+      success = true;
+      SharedLogUtil.logMsg(
+          logger, log, "Successfully installed %s on device %s", apkName, deviceId);
+    } finally {
+      if (Flags.instance().cacheInstalledApks.get()) {
+        device.setProperty(
+            String.format(DEVICE_PROP_INSTALLED_APK_KEY_TEMPLATE, userId) + packageName,
+            success ? apkMd5 : null);
+      }
+    }
+
+    if (isGms) {
+      if (installArgs.sleepAfterInstallGms().isPresent()) {
+        sleeper.sleep(installArgs.sleepAfterInstallGms().get());
+      }
+      updateGmsDimension(device, log);
+    }
+
+    if (clearAppData) {
+      SharedLogUtil.logMsg(logger, log, "Clear app %s after installation", packageName);
+      androidPackageManagerUtil.clearPackage(
+          buildUtilArgs(deviceId, userId, deviceSdkVersion), packageName);
+    }
+
+    return packageName;
+  }
+
   /** Helper method for installing multiple packages on device. */
   private void installMultiPackageHelper(
       UtilArgs utilArgs,
@@ -916,6 +1094,97 @@ public class ApkInstaller {
     return sdkVersion >= MULTI_USER_START_SDK_VERSION;
   }
 
+  /**
+   * Runs the task on the items, with at most {@code maxConcurrency} items in parallel.
+   *
+   * @param stopOnError whether to stop running the task on the remaining items after it fails on
+   *     any item
+   * @param errorMessage error message of the failure of an item, if the task fails with an
+   *     unexpected exception
+   * @return the results of the items, in the same order as {@code items}
+   * @throws MobileHarnessException if the task fails on any item, with the failures of the other
+   *     items suppressed
+   */
+  private static <T, R> ImmutableList<R> runConcurrently(
+      List<T> items,
+      int maxConcurrency,
+      boolean stopOnError,
+      ItemTask<T, R> task,
+      Function<T, String> errorMessage)
+      throws MobileHarnessException, InterruptedException {
+    Object[] results = new Object[items.size()];
+    MobileHarnessException[] errors = new MobileHarnessException[items.size()];
+    AtomicInteger nextIndex = new AtomicInteger();
+    AtomicBoolean failed = new AtomicBoolean();
+    Callable<Void> worker =
+        () -> {
+          for (int i = nextIndex.getAndIncrement();
+              i < items.size() && !(stopOnError && failed.get());
+              i = nextIndex.getAndIncrement()) {
+            try {
+              results[i] = task.run(items.get(i));
+            } catch (MobileHarnessException e) {
+              errors[i] = e;
+              failed.set(true);
+            } catch (RuntimeException e) {
+              errors[i] =
+                  new MobileHarnessException(
+                      AndroidErrorId.ANDROID_APK_INSTALLER_INSTALL_APKS_ERROR,
+                      errorMessage.apply(items.get(i)),
+                      e);
+              failed.set(true);
+            }
+          }
+          return null;
+        };
+
+    int workerCount = Math.min(maxConcurrency, items.size());
+    if (workerCount <= 1) {
+      try {
+        worker.call();
+      } catch (Exception e) {
+        Throwables.throwIfInstanceOf(e, InterruptedException.class);
+        throw new AssertionError(e);
+      }
+    } else {
+      List<ListenableFuture<Void>> futures = new ArrayList<>();
+      try {
+        for (int i = 0; i < workerCount; i++) {
+          futures.add(INSTALL_EXECUTOR.submit(worker));
+        }
+        for (ListenableFuture<Void> future : futures) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), InterruptedException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new AssertionError(e);
+          }
+        }
+      } finally {
+        futures.forEach(future -> future.cancel(/* mayInterruptIfRunning= */ true));
+      }
+    }
+
+    MobileHarnessException error = null;
+    for (MobileHarnessException itemError : errors) {
+      if (itemError == null) {
+        continue;
+      }
+      if (error == null) {
+        error = itemError;
+      } else {
+        error.addSuppressed(itemError);
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+    @SuppressWarnings("unchecked")
+    ImmutableList<R> resultList = (ImmutableList<R>) ImmutableList.copyOf(results);
+    return resultList;
+  }
+
   /** Check if apk should be skipped for installing according to apk version code. */
   private boolean shouldSkipOnVersionCode(
       UtilArgs utilArgs,
@@ -1004,4 +1273,10 @@ public class ApkInstaller {
 
     return false;
   }
+
+  /** Task to run on an item in {@link #runConcurrently}. */
+  private interface ItemTask<T, R> {
+
+    R run(T item) throws MobileHarnessException, InterruptedException;
+  }
 }
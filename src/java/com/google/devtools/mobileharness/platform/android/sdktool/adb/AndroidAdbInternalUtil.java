@@ -25,6 +25,7 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.AdbConnection;
 import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.platform.android.sdktool.proto.Adb.AdbInfo;
@@ -38,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -78,6 +80,9 @@ public class AndroidAdbInternalUtil {
   /** ADB args for kill the ADB server. */
   private static final String[] ADB_ARGS_KILL_SERVER = new String[] {"kill-server"};
 
+  /** ADB server service which streams the connected devices whenever they change. */
+  private static final String ADB_SERVICE_TRACK_DEVICES = "host:track-devices-l";
+
   /** ADB args for get the ADB verion. */
   private static final String[] ADB_ARGS_GET_VERSION = new String[] {"version"};
 
@@ -104,6 +109,9 @@ public class AndroidAdbInternalUtil {
   /** Short timeout for quick operations. */
   private static final Duration SHORT_COMMAND_TIMEOUT = Duration.ofSeconds(5);
 
+  /** Max time to wait for the next message of the device tracking stream before reopening it. */
+  private static final Duration TRACK_DEVICES_IDLE_TIMEOUT = Duration.ofMinutes(10L);
+
   /** Android SDK ADB command line tools executor. */
   private final Adb adb;
 
@@ -280,8 +288,15 @@ public class AndroidAdbInternalUtil {
    */
   public Map<String, DeviceState> getDeviceSerialsAsMap(@Nullable Duration timeout)
       throws MobileHarnessException, InterruptedException {
+    return parseDeviceLines(listDevices(timeout));
+  }
+
+  /**
+   * Parses lines in the format of "adb devices -l" to a map of Android device serial (or the USB id
+   * of a device with the default serial) to {@link DeviceState}.
+   */
+  private static Map<String, DeviceState> parseDeviceLines(List<String> deviceLines) {
     Map<String, DeviceState> ids = new HashMap<>();
-    ImmutableList<String> deviceLines = listDevices(timeout);
     for (String line : deviceLines) {
       List<String> words = Splitter.onPattern("\\s+").splitToList(line.trim());
       // Should at least have device serial and device state.
@@ -416,6 +431,54 @@ public class AndroidAdbInternalUtil {
         .collect(toImmutableList());
   }
 
+  /**
+   * Tracks the connected Android devices by the long-lived "host:track-devices-l" stream of the ADB
+   * server, instead of polling with "adb devices".
+   *
+   * <p>Calls {@code listener} with all the current devices, in the same format as {@link
+   * #getDeviceSerialsAsMap}, once the stream is opened and whenever the devices change. Blocks
+   * until the ADB server closes the stream, e.g., when the ADB server is killed, or until the
+   * current thread is interrupted. If the devices don't change for {@link
+   * #TRACK_DEVICES_IDLE_TIMEOUT}, the stream is reopened, so a stuck stream can't block forever.
+   *
+   * @throws MobileHarnessException if fails to open or read the stream
+   * @throws InterruptedException if the thread executing the commands is interrupted
+   */
+  public void trackDevices(Consumer<Map<String, DeviceState>> listener)
+      throws MobileHarnessException, InterruptedException {
+    while (true) {
+      boolean receivedDevices = false;
+      try (AdbConnection connection =
+          adb.getSocketClient().openHostStream(ADB_SERVICE_TRACK_DEVICES, SHORT_COMMAND_TIMEOUT)) {
+        String devices;
+        while ((devices = connection.readHexLengthStringOrEof()) != null) {
+          receivedDevices = true;
+          listener.accept(
+              parseDeviceLines(
+                  Splitters.LINE_SPLITTER
+                      .splitToStream(devices)
+                      .filter(line -> !StrUtil.isEmptyOrWhitespace(line))
+                      .collect(toImmutableList())));
+          connection.setTimeout(TRACK_DEVICES_IDLE_TIMEOUT);
+        }
+        break;
+      } catch (MobileHarnessException e) {
+        if (receivedDevices
+            && e.getErrorId() == AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_TIMEOUT) {
+          logger.atInfo().log(
+              "No device change in %s, reopening device tracking stream",
+              TRACK_DEVICES_IDLE_TIMEOUT);
+          continue;
+        }
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_INTERNAL_UTIL_TRACK_DEVICES_ERROR,
+            "Failed to track devices with adb server",
+            e);
+      }
+    }
+    logger.atInfo().log("Device tracking stream is closed by adb server");
+  }
+
   /**
    * Kills the ADB server if it is running.
    *
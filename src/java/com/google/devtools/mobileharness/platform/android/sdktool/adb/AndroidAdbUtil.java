@@ -26,9 +26,11 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
 import com.google.devtools.deviceinfra.shared.util.shell.ShellUtils.TokenizationException;
 import com.google.devtools.deviceinfra.shared.util.time.Sleeper;
 import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
@@ -122,6 +124,9 @@ public class AndroidAdbUtil {
 
   @VisibleForTesting static final Duration DUMPSYS_ALL_TIMEOUT = BUGREPORT_TIMEOUT;
 
+  /** Timeout of getting all the properties of a device. */
+  @VisibleForTesting static final Duration GET_ALL_PROPERTIES_TIMEOUT = Duration.ofSeconds(15);
+
   private static final Splitter LINE_SPLITTER = Splitters.LINE_SPLITTER.omitEmptyStrings();
 
   /** Output of a successful broadcasting. */
@@ -140,14 +145,22 @@ public class AndroidAdbUtil {
 
   private final AndroidAdbInternalUtil androidAdbInternalUtil;
 
+  private final AndroidPropertyCache propertyCache;
+
   public AndroidAdbUtil() {
     this(new Adb());
   }
 
   @VisibleForTesting
   AndroidAdbUtil(Adb adb) {
+    this(adb, AndroidPropertyCache.getInstance());
+  }
+
+  @VisibleForTesting
+  AndroidAdbUtil(Adb adb, AndroidPropertyCache propertyCache) {
     this.adb = adb;
     this.androidAdbInternalUtil = new AndroidAdbInternalUtil(adb);
+    this.propertyCache = propertyCache;
   }
 
   /**
@@ -642,6 +655,15 @@ public class AndroidAdbUtil {
    */
   public String getProperty(String serial, ImmutableList<String> propertyKeys)
       throws MobileHarnessException, InterruptedException {
+    Duration cacheTtl = Flags.instance().adbPropertyCacheTtl.getNonNull();
+    if (!cacheTtl.isZero() && AndroidPropertyCache.isCacheable(propertyKeys)) {
+      try {
+        return propertyCache.getProperty(serial, propertyKeys, cacheTtl, this::getAllProperties);
+      } catch (MobileHarnessException e) {
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_UTIL_GET_DEVICE_PROPERTY_ERROR, e.getMessage(), e);
+      }
+    }
     try {
       for (String key : propertyKeys) {
         String output =
@@ -688,6 +710,17 @@ public class AndroidAdbUtil {
     }
   }
 
+  /**
+   * Drops the cached properties of a device, which should be called when the properties of the
+   * device may change, e.g., after the device reboots. It has no effect if the property cache is
+   * disabled by the flag "--adb_property_cache_ttl".
+   *
+   * @param serial serial number of the device
+   */
+  public void invalidatePropertyCache(String serial) {
+    propertyCache.invalidate(serial);
+  }
+
   /**
    * Whether device is rooted.
    *
@@ -1081,6 +1114,7 @@ public class AndroidAdbUtil {
       output = e.getMessage();
     }
 
+    invalidatePropertyCache(serial);
     if (!Strings.isNullOrEmpty(output)) {
       if (ignoreError) {
         logger.atWarning().log("%s", output);
@@ -1351,4 +1385,11 @@ public class AndroidAdbUtil {
     }
     return tokenizedOptions.toArray(new String[0]);
   }
+
+  /** Gets all the properties of a device by a single "getprop" command. */
+  private ImmutableMap<String, String> getAllProperties(String serial)
+      throws MobileHarnessException, InterruptedException {
+    return AndroidPropertyCache.parseGetpropOutput(
+        adb.runShellWithRetry(serial, ADB_SHELL_GET_PROPERTY, GET_ALL_PROPERTIES_TIMEOUT));
+  }
 }
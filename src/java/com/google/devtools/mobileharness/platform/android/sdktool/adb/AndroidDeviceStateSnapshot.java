@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.sdktool.adb;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.deviceinfra.platform.android.sdk.fastboot.Fastboot;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Host-wide snapshot of the devices listed by "adb devices" and "fastboot devices".
+ *
+ * <p>The per-device checks of all the devices on the host share the snapshot, so each list is
+ * loaded at most once per "--android_device_state_snapshot_interval" instead of once per device.
+ * Concurrent requests for a stale list are coalesced into a single load. The adb device list is
+ * also updated by the adb detector whenever it detects devices.
+ */
+public final class AndroidDeviceStateSnapshot {
+
+  /** Loads a device list. */
+  @FunctionalInterface
+  private interface Loader<T> {
+    T load() throws MobileHarnessException, InterruptedException;
+  }
+
+  private static final AndroidDeviceStateSnapshot INSTANCE =
+      new AndroidDeviceStateSnapshot(
+          new AndroidAdbInternalUtil(),
+          new Fastboot(),
+          Clock.systemUTC(),
+          () -> Flags.instance().androidDeviceStateSnapshotInterval.getNonNull());
+
+  public static AndroidDeviceStateSnapshot getInstance() {
+    return INSTANCE;
+  }
+
+  private final Clock clock;
+
+  private final Supplier<Duration> refreshInterval;
+
+  /** {Device serial, device state} of the devices listed by adb. */
+  private final Entry<ImmutableMap<String, DeviceState>> adbDevices;
+
+  /** Serials of the devices listed by fastboot. */
+  private final Entry<ImmutableSet<String>> fastbootDevices;
+
+  @VisibleForTesting
+  AndroidDeviceStateSnapshot(
+      AndroidAdbInternalUtil adbInternalUtil,
+      Fastboot fastboot,
+      Clock clock,
+      Supplier<Duration> refreshInterval) {
+    this.clock = clock;
+    this.refreshInterval = refreshInterval;
+    this.adbDevices =
+        new Entry<>(() -> ImmutableMap.copyOf(adbInternalUtil.getDeviceSerialsAsMap()));
+    this.fastbootDevices = new Entry<>(() -> ImmutableSet.copyOf(fastboot.getDeviceSerials()));
+  }
+
+  /** Gets the serials of the devices in the given state listed by adb. */
+  public ImmutableSet<String> getAdbDeviceSerials(DeviceState deviceState)
+      throws MobileHarnessException, InterruptedException {
+    return adbDevices.get().entrySet().stream()
+        .filter(entry -> entry.getValue() == deviceState)
+        .map(Map.Entry::getKey)
+        .collect(toImmutableSet());
+  }
+
+  /** Gets the serials of the devices in bootloader or fastbootd mode. */
+  public ImmutableSet<String> getFastbootDeviceSerials()
+      throws MobileHarnessException, InterruptedException {
+    return fastbootDevices.get();
+  }
+
+  /** Drops both device lists, so they are reloaded by the next request. */
+  public void invalidate() {
+    adbDevices.invalidate();
+    fastbootDevices.invalidate();
+  }
+
+  /**
+   * Reloads both device lists now, unless another thread has reloaded them since this method was
+   * called.
+   */
+  @CanIgnoreReturnValue
+  public AndroidDeviceStateSnapshot refresh() throws MobileHarnessException, InterruptedException {
+    adbDevices.reload(adbDevices.snapshot);
+    fastbootDevices.reload(fastbootDevices.snapshot);
+    return this;
+  }
+
+  /** Replaces the adb device list with the given one, e.g., a list detected by the adb detector. */
+  public void updateAdbDevices(Map<String, DeviceState> devices) {
+    adbDevices.update(ImmutableMap.copyOf(devices));
+  }
+
+  private final class Entry<T> {
+
+    private final Loader<T> loader;
+
+    @Nullable private volatile Snapshot<T> snapshot;
+
+    private Entry(Loader<T> loader) {
+      this.loader = loader;
+    }
+
+    private T get() throws MobileHarnessException, InterruptedException {
+      Snapshot<T> snapshot = this.snapshot;
+      if (snapshot != null && isFresh(snapshot)) {
+        return snapshot.value;
+      }
+      return reload(snapshot).value;
+    }
+
+    /** Reloads the list, unless another thread has replaced the stale one in the meantime. */
+    private synchronized Snapshot<T> reload(@Nullable Snapshot<T> staleSnapshot)
+        throws MobileHarnessException, InterruptedException {
+      Snapshot<T> snapshot = this.snapshot;
+      if (snapshot != null && snapshot != staleSnapshot && isFresh(snapshot)) {
+        return snapshot;
+      }
+      Instant loadTime = clock.instant();
+      snapshot = new Snapshot<>(loader.load(), loadTime);
+      this.snapshot = snapshot;
+      return snapshot;
+    }
+
+    private void update(T value) {
+      snapshot = new Snapshot<>(value, clock.instant());
+    }
+
+    private void invalidate() {
+      snapshot = null;
+    }
+
+    private boolean isFresh(Snapshot<T> snapshot) {
+      return snapshot.loadTime.plus(refreshInterval.get()).isAfter(clock.instant());
+    }
+  }
+
+  private static final class Snapshot<T> {
+
+    private final T value;
+
+    private final Instant loadTime;
+
+    private Snapshot(T value, Instant loadTime) {
+      this.value = value;
+      this.loadTime = loadTime;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.sdktool.adb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.platform.android.shared.constant.Splitters;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Per-device snapshots of Android system properties, loaded by a single "getprop" call.
+ *
+ * <p>Read-only properties ("ro.*") can not change until the device reboots, so once loaded they
+ * are served from the snapshot until the device is invalidated. Other properties are served only
+ * if the snapshot is younger than the given TTL. Properties which are polled to detect state
+ * changes (e.g., "sys.boot_completed") are never served from the snapshot.
+ */
+final class AndroidPropertyCache {
+
+  /** Loads all properties of a device. */
+  @FunctionalInterface
+  interface SnapshotLoader {
+    ImmutableMap<String, String> load(String serial)
+        throws MobileHarnessException, InterruptedException;
+  }
+
+  /** Prefix of read-only properties. */
+  private static final String READ_ONLY_PROPERTY_PREFIX = "ro.";
+
+  /** Prefixes of properties which should always be read from device. */
+  private static final ImmutableList<String> UNCACHEABLE_PROPERTY_PREFIXES =
+      ImmutableList.of(
+          "dev.bootcomplete", "init.svc.", "service.bootanim.", "sys.boot_completed", "sys.usb.");
+
+  private static final AndroidPropertyCache INSTANCE = new AndroidPropertyCache(Clock.systemUTC());
+
+  static AndroidPropertyCache getInstance() {
+    return INSTANCE;
+  }
+
+  private final Clock clock;
+
+  /** {Device serial, snapshot holder of the device}. */
+  private final ConcurrentHashMap<String, DeviceEntry> devices = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  AndroidPropertyCache(Clock clock) {
+    this.clock = clock;
+  }
+
+  /** Whether all the given property keys can be served by the cache. */
+  static boolean isCacheable(ImmutableList<String> propertyKeys) {
+    return propertyKeys.stream()
+        .noneMatch(key -> UNCACHEABLE_PROPERTY_PREFIXES.stream().anyMatch(key::startsWith));
+  }
+
+  /**
+   * Gets the value of the first non-empty property of the given keys, or empty if none of them has
+   * a value. Reloads the snapshot of the device if the served properties are older than {@code
+   * ttl}.
+   */
+  String getProperty(
+      String serial, ImmutableList<String> propertyKeys, Duration ttl, SnapshotLoader loader)
+      throws MobileHarnessException, InterruptedException {
+    DeviceEntry entry = devices.computeIfAbsent(serial, DeviceEntry::new);
+    Snapshot snapshot = entry.getOrLoad(loader);
+    String value =
+        lookUp(snapshot, propertyKeys, !snapshot.loadTime.plus(ttl).isBefore(clock.instant()));
+    if (value != null) {
+      return value;
+    }
+    return lookUp(entry.reload(loader, snapshot), propertyKeys, /* fresh= */ true);
+  }
+
+  /** Drops the snapshot of a device, e.g., when the device reboots or a property is set. */
+  void invalidate(String serial) {
+    devices.remove(serial);
+  }
+
+  /**
+   * Parses the output of "getprop", whose lines are in the format of "[key]: [value]". A value may
+   * span multiple lines.
+   */
+  @VisibleForTesting
+  static ImmutableMap<String, String> parseGetpropOutput(String output) {
+    Map<String, String> properties = new LinkedHashMap<>();
+    String key = null;
+    StringBuilder value = new StringBuilder();
+    for (String line : Splitters.LINE_SPLITTER.split(output)) {
+      if (key == null) {
+        int separator = line.indexOf("]: [");
+        if (!line.startsWith("[") || separator < 0) {
+          continue;
+        }
+        key = line.substring(1, separator);
+        value.setLength(0);
+        line = line.substring(separator + 4);
+      } else {
+        value.append('\n');
+      }
+      if (line.endsWith("]")) {
+        value.append(line, 0, line.length() - 1);
+        properties.put(key, value.toString());
+        key = null;
+      } else {
+        value.append(line);
+      }
+    }
+    return ImmutableMap.copyOf(properties);
+  }
+
+  /**
+   * Looks up the first non-empty property, or returns null if the snapshot is stale and no
+   * read-only property can be served from it.
+   */
+  @Nullable
+  private static String lookUp(
+      Snapshot snapshot, ImmutableList<String> propertyKeys, boolean fresh) {
+    for (String key : propertyKeys) {
+      String value = snapshot.properties.getOrDefault(key, "").trim();
+      if (!value.isEmpty() && (fresh || key.startsWith(READ_ONLY_PROPERTY_PREFIX))) {
+        return value;
+      }
+      if (!fresh) {
+        return null;
+      }
+    }
+    return "";
+  }
+
+  private final class DeviceEntry {
+
+    private final String serial;
+
+    @Nullable private volatile Snapshot snapshot;
+
+    private DeviceEntry(String serial) {
+      this.serial = serial;
+    }
+
+    private Snapshot getOrLoad(SnapshotLoader loader)
+        throws MobileHarnessException, InterruptedException {
+      Snapshot snapshot = this.snapshot;
+      return snapshot == null ? reload(loader, /* staleSnapshot= */ null) : snapshot;
+    }
+
+    /** Reloads the snapshot, unless another thread has replaced the stale one in the meantime. */
+    private synchronized Snapshot reload(SnapshotLoader loader, @Nullable Snapshot staleSnapshot)
+        throws MobileHarnessException, InterruptedException {
+      Snapshot snapshot = this.snapshot;
+      if (snapshot != null && snapshot != staleSnapshot) {
+        return snapshot;
+      }
+      Instant loadTime = clock.instant();
+      snapshot = new Snapshot(loader.load(serial), loadTime);
+      this.snapshot = snapshot;
+      return snapshot;
+    }
+  }
+
+  private static final class Snapshot {
+
+    private final ImmutableMap<String, String> properties;
+
+    private final Instant loadTime;
+
+    private Snapshot(ImmutableMap<String, String> properties, Instant loadTime) {
+      this.properties = properties;
+      this.loadTime = loadTime;
+    }
+  }
+}
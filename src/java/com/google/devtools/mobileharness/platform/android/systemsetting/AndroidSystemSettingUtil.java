@@ -874,28 +874,38 @@ public class AndroidSystemSettingUtil {
    * @return battery level: 0~100
    */
   public int getBatteryLevel(String serial) throws MobileHarnessException, InterruptedException {
-    Exception exception = null;
-    String errMsg = "";
-
+    String output;
     try {
-      String output = adbUtil.dumpSys(serial, DumpSysType.BATTERY);
-      Matcher matcher = Pattern.compile(" level: (\\d+)").matcher(output);
-      errMsg = String.format("Failed to parse battery level for device %s:\n%s", serial, output);
-      if (matcher.find()) {
-        String level = matcher.group(1);
-        try {
-          return Integer.parseInt(level);
-        } catch (NumberFormatException e) {
-          exception = e;
-        }
-      }
+      output = adbUtil.dumpSys(serial, DumpSysType.BATTERY);
     } catch (MobileHarnessException e) {
-      exception = e;
-      errMsg = e.getMessage();
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_BATTERY_LEVEL_ERROR, e.getMessage(), e);
     }
+    return parseBatteryLevel(serial, output);
+  }
 
+  /**
+   * Parses the battery level of the device from the output of "dumpsys battery".
+   *
+   * @return battery level: 0~100
+   */
+  public static int parseBatteryLevel(String serial, String dumpSysBatteryOutput)
+      throws MobileHarnessException {
+    Exception exception = null;
+    Matcher matcher = Pattern.compile(" level: (\\d+)").matcher(dumpSysBatteryOutput);
+    if (matcher.find()) {
+      String level = matcher.group(1);
+      try {
+        return Integer.parseInt(level);
+      } catch (NumberFormatException e) {
+        exception = e;
+      }
+    }
     throw new MobileHarnessException(
-        AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_BATTERY_LEVEL_ERROR, errMsg, exception);
+        AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_BATTERY_LEVEL_ERROR,
+        String.format(
+            "Failed to parse battery level for device %s:\n%s", serial, dumpSysBatteryOutput),
+        exception);
   }
 
   /**
@@ -926,9 +936,21 @@ public class AndroidSystemSettingUtil {
           AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_BATTERY_TEMP_ERROR, e.getMessage(), e);
     }
 
-    Matcher matcher = Pattern.compile(" temperature: (\\d+)").matcher(output);
+    return parseBatteryTemperature(serial, output);
+  }
+
+  /**
+   * Parses the battery temperature of the device from the output of "dumpsys battery".
+   *
+   * @return battery temperature in ℃
+   */
+  public static Optional<Integer> parseBatteryTemperature(
+      String serial, String dumpSysBatteryOutput) {
+    Matcher matcher = Pattern.compile(" temperature: (\\d+)").matcher(dumpSysBatteryOutput);
     String errMsg =
-        String.format("Failed to parse battery temperature for device %s:\n%s", serial, output);
+        String.format(
+            "Failed to parse battery temperature for device %s:\n%s",
+            serial, dumpSysBatteryOutput);
     if (matcher.find()) {
       String temperature = matcher.group(1);
       try {
@@ -337,6 +337,7 @@ public class AndroidSystemStateUtil {
       throw new MobileHarnessException(
           AndroidErrorId.ANDROID_SYSTEM_STATE_FACTORY_RESET_VIA_BROADCAST_ERROR, e.getMessage(), e);
     }
+    adbUtil.invalidatePropertyCache(serial);
     // Sleep for command propagation.
     sleeper.sleep(waitTime == null ? FACTORY_RESET_WAIT_TIME : waitTime);
   }
@@ -375,6 +376,7 @@ public class AndroidSystemStateUtil {
               serial, ADB_SHELL_ENABLE_TEST_HARNESS_MODE),
           e);
     }
+    adbUtil.invalidatePropertyCache(serial);
     // Sleep for command propagation.
     sleeper.sleep(waitTime == null ? FACTORY_RESET_WAIT_TIME : waitTime);
   }
@@ -497,6 +499,7 @@ public class AndroidSystemStateUtil {
    * @throws InterruptedException if the thread executing the commands is interrupted
    */
   public void reboot(String serial) throws MobileHarnessException, InterruptedException {
+    adbUtil.invalidatePropertyCache(serial);
     try {
       String unused = adb.run(serial, new String[] {ADB_ARG_REBOOT});
     } catch (MobileHarnessException e) {
@@ -514,6 +517,7 @@ public class AndroidSystemStateUtil {
    */
   public void rebootToBootloader(String serial)
       throws MobileHarnessException, InterruptedException {
+    adbUtil.invalidatePropertyCache(serial);
     try {
       String unused = adb.run(serial, new String[] {ADB_ARG_REBOOT_TO_BOOTLOADER});
     } catch (MobileHarnessException e) {
@@ -530,6 +534,7 @@ public class AndroidSystemStateUtil {
    * @throws InterruptedException if the thread executing the commands is interrupted
    */
   public void rebootToRecovery(String serial) throws MobileHarnessException, InterruptedException {
+    adbUtil.invalidatePropertyCache(serial);
     try {
       String unused = adb.run(serial, ADB_ARGS_REBOOT_TO_RECOVERY);
     } catch (MobileHarnessException e) {
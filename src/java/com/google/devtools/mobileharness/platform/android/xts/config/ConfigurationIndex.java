@@ -0,0 +1,257 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.xts.config;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.platform.android.xts.config.proto.ConfigurationProto.Configuration;
+import com.google.devtools.mobileharness.shared.util.file.local.FileStamp;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Index of parsed xTS configurations of the configuration files under some directories.
+ *
+ * <p>An entry is keyed by the absolute path of a configuration file, and is only served if the size
+ * and the modification time of the file are unchanged. Configuration files which are new or have
+ * changed are parsed in parallel when the index is refreshed.
+ *
+ * <p>The index is kept in memory for the lifetime of the process. If "--xts_config_index_dir" is
+ * specified, it is also saved in a file per list of directories, e.g., per xTS root directory, so
+ * that unchanged configuration files are not parsed again after restarts.
+ */
+final class ConfigurationIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Magic number and version of the index file format. */
+  private static final int INDEX_FILE_HEADER = 0x58434931;
+
+  /** {Absolute paths of the directories, index}. */
+  private static final ConcurrentHashMap<ImmutableList<String>, ConfigurationIndex> INDEXES =
+      new ConcurrentHashMap<>();
+
+  /** Returns the index of the configuration files under the given directories. */
+  static ConfigurationIndex get(List<File> dirs) {
+    ImmutableList<String> dirPaths =
+        dirs.stream().map(File::getAbsolutePath).collect(toImmutableList());
+    return INDEXES.computeIfAbsent(
+        dirPaths, paths -> new ConfigurationIndex(getIndexFile(paths).orElse(null)));
+  }
+
+  /** Returns the index file specified by "--xts_config_index_dir" for the given directories. */
+  private static Optional<Path> getIndexFile(List<String> dirPaths) {
+    String indexDir = Flags.instance().xtsConfigIndexDir.get();
+    if (Strings.isNullOrEmpty(indexDir)) {
+      return Optional.empty();
+    }
+    String indexFileName =
+        Hashing.sha256().hashString(String.join("\n", dirPaths), UTF_8) + ".index";
+    return Optional.of(Paths.get(indexDir, indexFileName).toAbsolutePath());
+  }
+
+  @Nullable private final Path indexFile;
+
+  /** {Absolute path of configuration file, entry}. */
+  @GuardedBy("this")
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  @GuardedBy("this")
+  private boolean loaded;
+
+  @VisibleForTesting
+  ConfigurationIndex(@Nullable Path indexFile) {
+    this.indexFile = indexFile;
+  }
+
+  /**
+   * Returns the configurations of the given configuration files, in the same order.
+   *
+   * <p>Only the files which are new or have changed since they were indexed are parsed. Files which
+   * fail to be parsed are skipped.
+   *
+   * @return a map from absolute paths to the configuration proto
+   */
+  synchronized ImmutableMap<String, Configuration> getConfigs(Collection<File> configFiles) {
+    if (!loaded) {
+      load();
+      loaded = true;
+    }
+
+    Map<String, FileStamp> stamps = new HashMap<>();
+    List<File> changedFiles = new ArrayList<>();
+    for (File configFile : configFiles) {
+      String path = configFile.getAbsolutePath();
+      FileStamp stamp;
+      try {
+        stamp = FileStamp.read(configFile.toPath());
+      } catch (IOException e) {
+        logger.atInfo().withCause(e).log("Failed to read attributes of %s", path);
+        continue;
+      }
+      stamps.put(path, stamp);
+      Entry entry = entries.get(path);
+      if (entry == null || !entry.stamp.equals(stamp)) {
+        changedFiles.add(configFile);
+      }
+    }
+
+    Map<String, Configuration> parsedConfigs = new ConcurrentHashMap<>();
+    changedFiles.parallelStream()
+        .forEach(
+            configFile -> {
+              try {
+                parsedConfigs.put(
+                    configFile.getAbsolutePath(), ConfigurationXmlParser.parse(configFile));
+              } catch (MobileHarnessException e) {
+                logger.atInfo().withCause(e).log(
+                    "Failed to parse %s", configFile.getAbsolutePath());
+              }
+            });
+
+    boolean modified = entries.keySet().retainAll(stamps.keySet());
+    for (File changedFile : changedFiles) {
+      String path = changedFile.getAbsolutePath();
+      Configuration config = parsedConfigs.get(path);
+      if (config == null) {
+        modified |= entries.remove(path) != null;
+      } else {
+        entries.put(path, new Entry(config, stamps.get(path)));
+        modified = true;
+      }
+    }
+    logger.atInfo().log(
+        "Indexed %d configuration files, %d of which are parsed",
+        stamps.size(), changedFiles.size());
+    if (modified) {
+      save();
+    }
+
+    ImmutableMap.Builder<String, Configuration> configs = ImmutableMap.builder();
+    for (File configFile : configFiles) {
+      Entry entry = entries.get(configFile.getAbsolutePath());
+      if (entry != null) {
+        configs.put(configFile.getAbsolutePath(), entry.config);
+      }
+    }
+    return configs.buildOrThrow();
+  }
+
+  @GuardedBy("this")
+  private void load() {
+    if (indexFile == null || !Files.exists(indexFile)) {
+      return;
+    }
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (input.readInt() != INDEX_FILE_HEADER) {
+        logger.atInfo().log("Ignore xTS config index file %s of another version", indexFile);
+        return;
+      }
+      while (true) {
+        String path;
+        try {
+          path = input.readUTF();
+        } catch (EOFException e) {
+          break;
+        }
+        long size = input.readLong();
+        long modifiedTimeNanos = input.readLong();
+        byte[] configBytes = new byte[input.readInt()];
+        input.readFully(configBytes);
+        entries.put(
+            path,
+            new Entry(
+                Configuration.parseFrom(configBytes), FileStamp.of(size, modifiedTimeNanos)));
+      }
+      logger.atInfo().log(
+          "Loaded %d xTS configurations from index file %s", entries.size(), indexFile);
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Failed to read xTS config index file %s", indexFile);
+      entries.clear();
+    }
+  }
+
+  /** Rewrites the index file with all the entries. */
+  @GuardedBy("this")
+  private void save() {
+    if (indexFile == null) {
+      return;
+    }
+    Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(indexFile.getParent());
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+        output.writeInt(INDEX_FILE_HEADER);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          byte[] configBytes = entry.getValue().config.toByteArray();
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue().stamp.size());
+          output.writeLong(entry.getValue().stamp.modifiedTimeNanos());
+          output.writeInt(configBytes.length);
+          output.write(configBytes);
+        }
+      }
+      Files.move(tmpFile, indexFile, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to write xTS config index file %s, keep the index in memory only", indexFile);
+    }
+  }
+
+  private static final class Entry {
+
+    private final Configuration config;
+
+    /** Stamp of the configuration file when it was parsed. */
+    private final FileStamp stamp;
+
+    private Entry(Configuration config, FileStamp stamp) {
+      this.config = config;
+      this.stamp = stamp;
+    }
+  }
+}
@@ -50,20 +50,14 @@ public class ConfigurationUtil {
   /**
    * Gets the test configurations from given directories.
    *
+   * <p>The configurations are cached by {@link ConfigurationIndex}, so only the configuration files
+   * which are new or have changed since the last call are parsed.
+   *
    * @param dirs a list of {@link File} of extra directories to search for test configurations
    * @return a map from absolute paths to the configuration proto
    */
   public ImmutableMap<String, Configuration> getConfigsFromDirs(List<File> dirs) {
-    ImmutableMap.Builder<String, Configuration> configs = ImmutableMap.builder();
-    Set<File> configFiles = getConfigFilesFromDirs(dirs);
-    for (File configFile : configFiles) {
-      try {
-        configs.put(configFile.getAbsolutePath(), ConfigurationXmlParser.parse(configFile));
-      } catch (MobileHarnessException e) {
-        logger.atInfo().withCause(e).log("Failed to parse %s", configFile.getAbsolutePath());
-      }
-    }
-    return configs.buildOrThrow();
+    return ConfigurationIndex.get(dirs).getConfigs(getConfigFilesFromDirs(dirs));
   }
 
   /**
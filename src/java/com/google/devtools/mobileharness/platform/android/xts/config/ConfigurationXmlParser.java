@@ -16,6 +16,8 @@
 
 package com.google.devtools.mobileharness.platform.android.xts.config;
 
+import static com.google.common.base.Strings.nullToEmpty;
+
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.platform.android.xts.config.proto.ConfigurationProto.Configuration;
@@ -24,18 +26,23 @@ import com.google.devtools.mobileharness.platform.android.xts.config.proto.Confi
 import com.google.devtools.mobileharness.platform.android.xts.config.proto.ConfigurationProto.Option;
 import com.google.devtools.mobileharness.platform.android.xts.config.proto.ConfigurationProto.TargetPreparer;
 import com.google.devtools.mobileharness.platform.android.xts.config.proto.ConfigurationProto.Test;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
-
-/** A parser for xts configuration files. */
+import java.io.InputStream;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A parser for xts configuration files.
+ *
+ * <p>Configuration files are parsed as streams, without building the whole document in memory, so
+ * that many of them can be parsed in parallel.
+ */
 public class ConfigurationXmlParser {
   private static final String DESCRIPTION = "description";
   private static final String OPTION = "option";
@@ -47,6 +54,10 @@ public class ConfigurationXmlParser {
   private static final String CLASS = "class";
   private static final String TARGET_PREPARER = "target_preparer";
 
+  /** {@link XMLInputFactory} is not guaranteed to be thread safe. */
+  private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+      ThreadLocal.withInitial(XMLInputFactory::newFactory);
+
   public ConfigurationXmlParser() {}
 
   /**
@@ -55,116 +66,167 @@ public class ConfigurationXmlParser {
    * @throws MobileHarnessException if fail to parse
    */
   public static Configuration parse(File xmlFile) throws MobileHarnessException {
-    FileInputStream fileInputStream;
+    InputStream inputStream;
     try {
-      fileInputStream = new FileInputStream(xmlFile);
+      inputStream = new BufferedInputStream(new FileInputStream(xmlFile));
     } catch (IOException e) {
       throw new MobileHarnessException(
           InfraErrorId.XTS_CONFIG_XML_PARSE_ERROR, "Failed to open configuration xml file", e);
     }
-    DocumentBuilder documentBuilder;
-    Document document;
-    Configuration.Builder configuration = Configuration.newBuilder();
-    try {
-      documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-      document = documentBuilder.parse(fileInputStream);
-    } catch (ParserConfigurationException | SAXException | IOException e) {
+    try (inputStream) {
+      XMLStreamReader reader = XML_INPUT_FACTORY.get().createXMLStreamReader(inputStream);
+      try {
+        return parseConfiguration(reader, xmlFile.getName());
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException | IOException e) {
       throw new MobileHarnessException(
           InfraErrorId.XTS_CONFIG_XML_PARSE_ERROR, "Failed to parse configuration xml file", e);
     }
+  }
 
-    Element root = document.getDocumentElement();
-    String fileName = xmlFile.getName();
+  private static Configuration parseConfiguration(XMLStreamReader reader, String fileName)
+      throws XMLStreamException {
+    Configuration.Builder configuration = Configuration.newBuilder();
+    reader.nextTag();
     String fileNameWithoutExtension = fileName.substring(0, fileName.lastIndexOf('.'));
     configuration.setMetadata(
         ConfigurationMetadata.newBuilder().setXtsModule(fileNameWithoutExtension));
-    configuration.setDescription(root.getAttribute(DESCRIPTION));
+    configuration.setDescription(nullToEmpty(getAttribute(reader, DESCRIPTION)));
 
-    for (int i = 0; i < root.getChildNodes().getLength(); i++) {
-      Node node = root.getChildNodes().item(i);
-      switch (node.getNodeName()) {
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
         case OPTION:
-          configuration.addOptions(parseOption(node));
+          configuration.addOptions(parseOption(reader));
           break;
         case DEVICE:
-          configuration.addDevices(parseDevice(node));
+          configuration.addDevices(parseDevice(reader));
           break;
         case TEST:
-          configuration.setTest(parseTest(node));
+          configuration.setTest(parseTest(reader));
           break;
         default:
+          skipElement(reader);
           break;
       }
     }
+    // Reads the rest of the document so that malformed files are still rejected.
+    while (reader.hasNext()) {
+      reader.next();
+    }
     return configuration.build();
   }
 
-  private static Option parseOption(Node root) {
+  private static Option parseOption(XMLStreamReader reader) throws XMLStreamException {
     Option.Builder option = Option.newBuilder();
-    for (int i = 0; i < root.getAttributes().getLength(); i++) {
-      Node attribute = root.getAttributes().item(i);
-      switch (attribute.getNodeName()) {
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      String value = reader.getAttributeValue(i);
+      switch (reader.getAttributeLocalName(i)) {
         case NAME:
-          option.setName(attribute.getNodeValue());
+          option.setName(value);
           break;
         case KEY:
-          option.setKey(attribute.getNodeValue());
+          option.setKey(value);
           break;
         case VALUE:
-          option.setValue(attribute.getNodeValue());
+          option.setValue(value);
           break;
         default:
           break;
       }
     }
+    skipElement(reader);
     return option.build();
   }
 
-  private static Test parseTest(Node root) {
+  private static Test parseTest(XMLStreamReader reader) throws XMLStreamException {
     Test.Builder test = Test.newBuilder();
-    test.setClazz(((Element) root).getAttribute(CLASS));
-    for (int i = 0; i < root.getChildNodes().getLength(); i++) {
-      Node node = root.getChildNodes().item(i);
-      switch (node.getNodeName()) {
+    test.setClazz(nullToEmpty(getAttribute(reader, CLASS)));
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
         case OPTION:
-          test.addOptions(parseOption(node));
+          test.addOptions(parseOption(reader));
           break;
         default:
+          skipElement(reader);
           break;
       }
     }
     return test.build();
   }
 
-  private static TargetPreparer parseTargetPreparer(Node root) {
+  private static TargetPreparer parseTargetPreparer(XMLStreamReader reader)
+      throws XMLStreamException {
     TargetPreparer.Builder targetPreparer = TargetPreparer.newBuilder();
-    targetPreparer.setClazz(((Element) root).getAttribute(CLASS));
-    for (int i = 0; i < root.getChildNodes().getLength(); i++) {
-      Node node = root.getChildNodes().item(i);
-      switch (node.getNodeName()) {
+    targetPreparer.setClazz(nullToEmpty(getAttribute(reader, CLASS)));
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
         case OPTION:
-          targetPreparer.addOptions(parseOption(node));
+          targetPreparer.addOptions(parseOption(reader));
           break;
         default:
+          skipElement(reader);
           break;
       }
     }
     return targetPreparer.build();
   }
 
-  private static Device parseDevice(Node root) {
+  private static Device parseDevice(XMLStreamReader reader) throws XMLStreamException {
     Device.Builder device = Device.newBuilder();
-    device.setName(((Element) root).getAttribute(NAME));
-    for (int i = 0; i < root.getChildNodes().getLength(); i++) {
-      Node node = root.getChildNodes().item(i);
-      switch (node.getNodeName()) {
+    device.setName(nullToEmpty(getAttribute(reader, NAME)));
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
         case TARGET_PREPARER:
-          device.addTargetPreparers(parseTargetPreparer(node));
+          device.addTargetPreparers(parseTargetPreparer(reader));
           break;
         default:
+          skipElement(reader);
           break;
       }
     }
     return device.build();
   }
+
+  @Nullable
+  private static String getAttribute(XMLStreamReader reader, String name) {
+    return reader.getAttributeValue(/* namespaceURI= */ null, name);
+  }
+
+  /**
+   * Moves the reader to the start of the next child element of the current element.
+   *
+   * @return true if the reader is at the start of a child element, or false if the reader is at the
+   *     end of the current element
+   */
+  private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          return true;
+        case XMLStreamConstants.END_ELEMENT:
+          return false;
+        default:
+          break;
+      }
+    }
+  }
+
+  /** Moves the reader from the start of the current element to the end of it. */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        default:
+          break;
+      }
+    }
+  }
 }
@@ -26,7 +26,9 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.mobileharness.infra.controller.test.TestContext;
 import com.google.devtools.mobileharness.infra.controller.test.TestContext.TestContextRunnable;
+import com.google.devtools.mobileharness.infra.controller.test.TestContext.WithTestContext;
 import com.google.devtools.mobileharness.shared.util.command.LineCallback.Response;
 import com.google.devtools.mobileharness.shared.util.command.history.CommandRecord;
 import com.google.devtools.mobileharness.shared.util.command.history.CommandRecorder;
@@ -46,6 +48,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -146,6 +149,9 @@ public class CommandExecutor {
    */
   private static final boolean DEFAULT_REDIRECT_STDERR = true;
 
+  /** Number of commands started by all command executors which have not finished. */
+  private static final AtomicInteger RUNNING_COMMAND_COUNT = new AtomicInteger();
+
   private final ListeningExecutorService threadPool;
   private final ListeningScheduledExecutorService timer;
   private final com.google.devtools.mobileharness.shared.util.command.backend.CommandExecutor
@@ -345,31 +351,35 @@ public class CommandExecutor {
             command.getStderrLineCallback().orElse(null),
             startTimeoutTaskFuture.orElse(null)));
 
-    // Starts reading outputs.
-    threadPool.execute(
-        new TestContextRunnable(
-            () -> readOutput(stdoutReader, stdoutCollector, commandProcess.command())));
-    threadPool.execute(
-        new TestContextRunnable(
-            () ->
-                readOutput(
-                    stderrReader,
-                    redirectStderr ? stdoutCollector : stderrCollector,
-                    commandProcess.command())));
-
-    // Schedules post run task.
-    threadPool.execute(
-        new TestContextRunnable(
-            () ->
-                postRun(
-                    commandProcess,
-                    timeoutTaskFuture,
-                    startTimeoutTaskFuture.orElse(null),
-                    commandRecord)));
+    // Starts handling output lines, which are handled by the output pumps of the backend process.
+    stdoutReader.start(stdoutCollector);
+    stderrReader.start(redirectStderr ? stdoutCollector : stderrCollector);
+
+    // Schedules post run task, which runs after the backend process and its output pumps finish.
+    RUNNING_COMMAND_COUNT.incrementAndGet();
+    backendProcess
+        .asFuture()
+        .addListener(
+            new TestContextRunnable(
+                () ->
+                    postRun(
+                        commandProcess,
+                        timeoutTaskFuture,
+                        startTimeoutTaskFuture.orElse(null),
+                        commandRecord)),
+            threadPool);
 
     return commandProcess;
   }
 
+  /**
+   * Returns the number of commands which are started by all command executors in the process and
+   * have not finished.
+   */
+  public static int getRunningCommandCount() {
+    return RUNNING_COMMAND_COUNT.get();
+  }
+
   @CanIgnoreReturnValue
   public CommandExecutor setBaseEnvironment(Map<String, String> baseEnvironment) {
     checkNotNull(baseEnvironment);
@@ -479,20 +489,12 @@ public class CommandExecutor {
     }
   }
 
-  private static void readOutput(
-      LineReader lineReader, LineCollector lineCollector, Command command) {
-    try {
-      lineReader.start(lineCollector);
-    } catch (IOException e) {
-      logger.atWarning().withCause(e).log("Failed to read from command [%s]", command);
-    }
-  }
-
   private static void postRun(
       CommandProcess commandProcess,
       Future<?> timeoutTaskFuture,
       @Nullable Future<?> startTimeoutTaskFuture,
       CommandRecord commandRecord) {
+    RUNNING_COMMAND_COUNT.decrementAndGet();
     try {
       CommandResult result;
       try {
@@ -558,6 +560,9 @@ public class CommandExecutor {
     @Nullable private LineCallback lineCallback;
     @Nullable private Future<?> startTimeoutTaskFuture;
 
+    /** Lines are handled by output pump threads, which have no test context. */
+    private final TestContext testContext;
+
     private LineConsumer(
         CommandProcess commandProcess,
         @Nullable LineCallback lineCallback,
@@ -565,10 +570,20 @@ public class CommandExecutor {
       this.commandProcess = commandProcess;
       this.lineCallback = lineCallback;
       this.startTimeoutTaskFuture = startTimeoutTaskFuture;
+      this.testContext = TestContext.get();
     }
 
     @Override
     public boolean test(String line) {
+      if (testContext.equals(TestContext.EMPTY)) {
+        return handleLine(line);
+      }
+      try (WithTestContext context = TestContext.set(testContext)) {
+        return handleLine(line);
+      }
+    }
+
+    private boolean handleLine(String line) {
       if (startTimeoutTaskFuture != null
           && testSuccessStartCondition(commandProcess.command(), line)) {
         startTimeoutTaskFuture.cancel(/* mayInterruptIfRunning= */ false);
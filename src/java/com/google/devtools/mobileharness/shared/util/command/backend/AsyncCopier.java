@@ -23,6 +23,7 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -58,6 +59,7 @@ final class AsyncCopier {
 
   private final CountDownLatch copyStarted = new CountDownLatch(1);
   private final CountDownLatch copyTerminated = new CountDownLatch(1);
+  private final CompletableFuture<Void> copyTerminatedFuture = new CompletableFuture<>();
 
   @VisibleForTesting
   AsyncCopier(
@@ -90,6 +92,7 @@ final class AsyncCopier {
       logger.atSevere().withCause(e).log();
     } finally {
       copyTerminated.countDown();
+      copyTerminatedFuture.complete(null);
     }
   }
 
@@ -98,6 +101,11 @@ final class AsyncCopier {
     copyTerminated.await();
   }
 
+  /** Returns a future which is completed when the asynchronous copy completes. */
+  CompletableFuture<Void> terminated() {
+    return copyTerminatedFuture;
+  }
+
   /** Stops the asynchronous copy and blocks until it terminates. */
   @SuppressWarnings("Interruption")
   void stop() throws InterruptedException {
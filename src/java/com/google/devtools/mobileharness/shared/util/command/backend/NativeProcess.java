@@ -27,6 +27,7 @@ import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
 import java.lang.reflect.Field;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -135,7 +136,8 @@ final class NativeProcess extends CommandProcess {
             process::getErrorStream,
             this::openStderrSinkStream,
             "from stderr");
-    EXECUTOR_SERVICE.execute(this::awaitAndNotify);
+    // Doesn't occupy a thread for waiting for the process.
+    process.onExit().thenAcceptAsync(this::onExit, EXECUTOR_SERVICE);
   }
 
   @Override
@@ -185,34 +187,29 @@ final class NativeProcess extends CommandProcess {
         : Optional.empty();
   }
 
-  /**
-   * This method suppresses some interruptions (similar to {@link
-   * com.google.common.util.concurrent.Uninterruptibles}) to ensure all threads properly terminate.
-   */
-  private void awaitAndNotify() {
-    try {
-      int exitCode = process.waitFor();
-      // The process has ended, so there is no need to wait indefinitely for the stdin pump,
-      // which may in theory be blocked or simply unbounded; just force stop it now.
-      if (stdinPump.isPresent()) {
+  private void onExit(Process exitedProcess) {
+    int exitCode = exitedProcess.exitValue();
+    // The process has ended, so there is no need to wait indefinitely for the stdin pump,
+    // which may in theory be blocked or simply unbounded; just force stop it now.
+    if (stdinPump.isPresent()) {
+      try {
         stdinPump.get().stop();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        // Safe to ignore since this is a daemon
+        logger.atSevere().withCause(e).log("Process stdin pump stopping thread interrupted");
       }
-      // However, wait indefinitely for the stdout and stderr pumps before returning. The
-      // default case of writing to a CapturingOutputStream will never block forever; if the
-      // user provides a custom output stream, the burden is on them that it doesn't either.
-      if (stdoutPump.isPresent()) {
-        stdoutPump.get().await();
-      }
-      if (stderrPump.isPresent()) {
-        stderrPump.get().await();
-      }
-      notifyComplete(exitCode);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      // Safe to ignore since this is a daemon
-      logger.atSevere().withCause(e).log("Process waiting thread interrupted");
-      return;
     }
+    // However, wait indefinitely (without blocking a thread) for the stdout and stderr pumps
+    // before notifying. The default case of writing to a CapturingOutputStream will never block
+    // forever; if the user provides a custom output stream, the burden is on them that it doesn't
+    // either.
+    CompletableFuture.allOf(getTerminated(stdoutPump), getTerminated(stderrPump))
+        .thenRun(() -> notifyComplete(exitCode));
+  }
+
+  private static CompletableFuture<Void> getTerminated(Optional<AsyncCopier> pump) {
+    return pump.map(AsyncCopier::terminated).orElse(CompletableFuture.completedFuture(null));
   }
 
   private final class IOExceptionLogger implements Consumer<IOException> {
@@ -21,19 +21,17 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.mobileharness.shared.util.command.CommandResult;
 import com.google.devtools.mobileharness.shared.util.command.CommandResults;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import javax.annotation.concurrent.GuardedBy;
 
 /**
  * History of {@linkplain com.google.devtools.mobileharness.shared.util.command.CommandExecutor
  * executing} {@linkplain com.google.devtools.mobileharness.shared.util.command.Command commands}.
+ *
+ * <p>Records are saved in a lock-free ring buffer. The oldest records are evicted if the number of
+ * records exceeds the capacity, or if their estimated size exceeds the memory budget.
  */
 public class CommandHistory {
 
@@ -43,31 +41,61 @@ public class CommandHistory {
 
   private static final int DEFAULT_CAPACITY = 100_000;
 
-  private static final CommandHistory INSTANCE = new CommandHistory(DEFAULT_CAPACITY);
+  private static final long DEFAULT_MEMORY_BUDGET_BYTES = 32L * 1024L * 1024L;
+
+  /** Estimated size of a record except its command, e.g., its id, stack trace and timestamps. */
+  private static final long RECORD_BASE_SIZE_BYTES = 512L;
+
+  private static final CommandHistory INSTANCE =
+      new CommandHistory(DEFAULT_CAPACITY, DEFAULT_MEMORY_BUDGET_BYTES);
+
+  private final int capacity;
+
+  private final long memoryBudgetBytes;
 
-  private final Lock recordLock = new ReentrantLock();
+  /** Record of sequence number N is in slot N % capacity, unless it has been evicted. */
+  private final AtomicReferenceArray<CommandRecord> slots;
 
-  @GuardedBy("recordLock")
-  private final Map<String, CommandRecord> records;
+  private final AtomicLong nextSequenceNumber = new AtomicLong();
+
+  /** Records whose sequence numbers are smaller than this are evicted for the memory budget. */
+  private final AtomicLong evictionCursor = new AtomicLong();
+
+  /** Estimated size of the saved records. */
+  private final AtomicLong usedBytes = new AtomicLong();
 
   @VisibleForTesting
   CommandHistory(int capacity) {
-    this.records = new RecordCache(capacity);
+    this(capacity, Long.MAX_VALUE);
+  }
+
+  @VisibleForTesting
+  CommandHistory(int capacity, long memoryBudgetBytes) {
+    this.capacity = capacity;
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.slots = new AtomicReferenceArray<>(capacity);
   }
 
   /** Returns all commands which are still saved. */
   public List<CommandRecord> getAllCommands() {
-    recordLock.lock();
-    try {
-      return ImmutableList.copyOf(records.values());
-    } finally {
-      recordLock.unlock();
-    }
+    return searchCommands(commandRecord -> true);
   }
 
   /** Returns all commands which are still saved and meet the requirements of the filter. */
   public List<CommandRecord> searchCommands(Predicate<CommandRecord> commandRecordFilter) {
-    return getAllCommands().stream().filter(commandRecordFilter).collect(Collectors.toList());
+    // Scans the slots in place from the oldest record rather than copying all records first.
+    long end = nextSequenceNumber.get();
+    long start = Math.max(0L, end - capacity);
+    ImmutableList.Builder<CommandRecord> result = ImmutableList.builder();
+    for (long sequenceNumber = start; sequenceNumber < end; sequenceNumber++) {
+      CommandRecord record = slots.get(getSlot(sequenceNumber));
+      if (record != null
+          && record.sequenceNumber() == sequenceNumber
+          && commandRecordFilter.test(record)) {
+        result.add(record);
+      }
+    }
+    return result.build();
   }
 
   /**
@@ -77,39 +105,78 @@ public class CommandHistory {
    */
   @CanIgnoreReturnValue
   CommandRecord addCommand(List<String> command) {
-    CommandRecord record = CommandRecord.create(command);
-    recordLock.lock();
-    try {
-      records.put(record.id(), record);
-    } finally {
-      recordLock.unlock();
+    long sequenceNumber = nextSequenceNumber.getAndIncrement();
+    CommandRecord record = CommandRecord.create(sequenceNumber, command);
+    int slot = getSlot(sequenceNumber);
+    CommandRecord evictedRecord;
+    do {
+      evictedRecord = slots.get(slot);
+      if (evictedRecord != null && evictedRecord.sequenceNumber() > sequenceNumber) {
+        // A newer record has taken the slot, so this one is already evicted.
+        return record;
+      }
+    } while (!slots.compareAndSet(slot, evictedRecord, record));
+
+    long sizeDelta = getEstimatedSize(record);
+    if (evictedRecord != null) {
+      sizeDelta -= getEstimatedSize(evictedRecord);
+    }
+    if (usedBytes.addAndGet(sizeDelta) > memoryBudgetBytes) {
+      evictForMemoryBudget(sequenceNumber);
     }
     return record;
   }
 
   /** Adds result to a command. */
   void addCommandResult(CommandRecord commandRecord, CommandResult result) {
-    recordLock.lock();
-    try {
-      records.computeIfPresent(
-          commandRecord.id(),
-          (recordId, record) -> record.withResult(CommandResults.withoutOutput(result)));
-    } finally {
-      recordLock.unlock();
-    }
+    CommandResult resultWithoutOutput = CommandResults.withoutOutput(result);
+    int slot = getSlot(commandRecord.sequenceNumber());
+    CommandRecord record;
+    do {
+      record = slots.get(slot);
+      if (record == null || record.sequenceNumber() != commandRecord.sequenceNumber()) {
+        // The record has been evicted.
+        return;
+      }
+    } while (!slots.compareAndSet(slot, record, record.withResult(resultWithoutOutput)));
   }
 
-  private static class RecordCache extends LinkedHashMap<String, CommandRecord> {
-
-    private final int capacity;
-
-    private RecordCache(int capacity) {
-      this.capacity = capacity;
+  /** Evicts the oldest records until the memory budget is met, except the given one. */
+  private void evictForMemoryBudget(long currentSequenceNumber) {
+    while (usedBytes.get() > memoryBudgetBytes) {
+      long cursor = evictionCursor.get();
+      // Records older than this have been overwritten in the ring buffer.
+      long sequenceNumber = Math.max(cursor, currentSequenceNumber - capacity + 1L);
+      if (sequenceNumber >= currentSequenceNumber) {
+        return;
+      }
+      if (!evictionCursor.compareAndSet(cursor, sequenceNumber + 1L)) {
+        continue;
+      }
+      int slot = getSlot(sequenceNumber);
+      CommandRecord record;
+      do {
+        record = slots.get(slot);
+        if (record == null || record.sequenceNumber() != sequenceNumber) {
+          break;
+        }
+      } while (!slots.compareAndSet(slot, record, null));
+      if (record != null && record.sequenceNumber() == sequenceNumber) {
+        usedBytes.addAndGet(-getEstimatedSize(record));
+      }
     }
+  }
+
+  private int getSlot(long sequenceNumber) {
+    return (int) (sequenceNumber % capacity);
+  }
 
-    @Override
-    protected boolean removeEldestEntry(Entry<String, CommandRecord> eldest) {
-      return size() > capacity;
+  /** Returns the estimated size of a record. A result without output doesn't change it. */
+  private static long getEstimatedSize(CommandRecord record) {
+    long size = RECORD_BASE_SIZE_BYTES;
+    for (String argument : record.command()) {
+      size += 2L * argument.length();
     }
+    return size;
   }
 }
@@ -16,13 +16,13 @@
 
 package com.google.devtools.mobileharness.shared.util.command.history;
 
-import static java.lang.Math.min;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.mobileharness.shared.util.command.CommandResult;
+import java.lang.StackWalker.StackFrame;
 import java.time.Instant;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -31,18 +31,30 @@ import java.util.UUID;
 @AutoValue
 public abstract class CommandRecord {
 
-  static CommandRecord create(List<String> command) {
-    StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-    int startPosition = min(2, stackTrace.length);
-    int endPosition = min(startPosition + 3, stackTrace.length);
+  /** Unique in the process and across processes, so a record id only needs a sequence number. */
+  private static final String ID_PREFIX = UUID.randomUUID() + "-";
+
+  private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+  static CommandRecord create(long sequenceNumber, List<String> command) {
+    // Only walks the frames to record rather than capturing the whole stack trace.
+    ImmutableList<StackTraceElement> stackTrace =
+        STACK_WALKER.walk(
+            frames ->
+                frames
+                    .skip(2)
+                    .limit(3)
+                    .map(StackFrame::toStackTraceElement)
+                    .collect(toImmutableList()));
     return new AutoValue_CommandRecord(
-        UUID.randomUUID().toString(),
+        ID_PREFIX + sequenceNumber,
         ImmutableList.copyOf(command),
-        ImmutableList.copyOf(Arrays.asList(stackTrace).subList(startPosition, endPosition)),
+        stackTrace,
         Thread.currentThread().getName(),
         Instant.now(),
         Optional.empty(),
-        Optional.empty());
+        Optional.empty(),
+        sequenceNumber);
   }
 
   CommandRecord withResult(CommandResult result) {
@@ -53,7 +65,8 @@ public abstract class CommandRecord {
         threadName(),
         startTime(),
         Optional.of(result),
-        Optional.of(Instant.now()));
+        Optional.of(Instant.now()),
+        sequenceNumber());
   }
 
   /** Returns the record id */
@@ -72,4 +85,7 @@ public abstract class CommandRecord {
   public abstract Optional<CommandResult> result();
 
   public abstract Optional<Instant> endTime();
+
+  /** Returns the position of the record in {@link CommandHistory}. */
+  abstract long sequenceNumber();
 }
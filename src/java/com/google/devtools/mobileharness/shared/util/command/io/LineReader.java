@@ -16,24 +16,34 @@
 
 package com.google.devtools.mobileharness.shared.util.command.io;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import com.google.common.io.ByteSink;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Reader;
-import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Line reader that implements the line reading algorithm. Line separators are per {@link
  * java.io.BufferedReader}: line feed, carriage return, or carriage return followed immediately by a
  * linefeed.
+ *
+ * <p>Lines are handled by the thread which writes data into the output stream returned by {@link
+ * #openStream()}, so no thread is needed for reading lines. The line handler is called without
+ * holding the lock of the line reader, one line at a time and in order.
  */
-@NotThreadSafe
+@ThreadSafe
 public class LineReader extends ByteSink {
 
   /** Handler for handling a line with line separator. */
@@ -58,28 +68,66 @@ public class LineReader extends ByteSink {
 
   private static final int READ_BUFFER_SIZE = 512;
 
+  private static final int BYTE_BUFFER_SIZE = 8192;
+
+  private final Object lock = new Object();
+
   /** Holds partial line contents. */
+  @GuardedBy("lock")
   private StringBuilder line = new StringBuilder();
 
   /** Whether a line ending with a CR is pending processing. */
+  @GuardedBy("lock")
   private boolean sawReturn;
 
   /** Whether to stop handling new lines. Line reading will not be affected. */
+  @GuardedBy("lock")
   private boolean stopHandling;
 
-  private final PipedOutputStream outputStream;
-  private final Reader reader;
+  /** Null before {@link #start} is called. */
+  @GuardedBy("lock")
+  @Nullable
+  private LineHandler lineHandler;
+
+  /** Data written before {@link #start} is called. */
+  @GuardedBy("lock")
+  @Nullable
+  private ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+
+  @GuardedBy("lock")
+  private boolean closed;
+
+  /** Lines which have been read but not handled, as {line, line separator}. */
+  @GuardedBy("lock")
+  private final Deque<String[]> pendingLines = new ArrayDeque<>();
+
+  /** Whether {@link LineHandler#onSourceClosed()} needs to be called after the pending lines. */
+  @GuardedBy("lock")
+  private boolean pendingSourceClosed;
+
+  /** Whether a thread is calling the line handler. */
+  @GuardedBy("lock")
+  private boolean handlingLines;
+
+  /** Same as {@link java.io.InputStreamReader}, malformed input is replaced. */
+  @GuardedBy("lock")
+  private final CharsetDecoder decoder =
+      StandardCharsets.UTF_8
+          .newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /** Bytes which have not been decoded, in write mode. */
+  @GuardedBy("lock")
+  private final ByteBuffer byteBuffer = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+
+  @GuardedBy("lock")
   private final char[] readBuffer = new char[READ_BUFFER_SIZE];
 
-  public LineReader() {
-    this.outputStream = new PipedOutputStream();
-    try {
-      this.reader =
-          new InputStreamReader(new PipedInputStream(this.outputStream), StandardCharsets.UTF_8);
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
-    }
-  }
+  @GuardedBy("lock")
+  private final CharBuffer charBuffer = CharBuffer.wrap(readBuffer);
+
+  private final OutputStream outputStream = new LineReaderOutputStream();
 
   @Override
   public OutputStream openStream() {
@@ -87,25 +135,142 @@ public class LineReader extends ByteSink {
   }
 
   /**
-   * Starts to read lines from data written into the output stream returned by {@link
-   * #openStream()}.
+   * Starts to handle lines of data written into the output stream returned by {@link
+   * #openStream()}, including data written before this method is called.
    *
-   * <p>This method returns when the output stream is closed and all lines are handled.
+   * <p>This method returns immediately. Lines are handled by the writing thread, and {@link
+   * LineHandler#onSourceClosed()} is called after the output stream is closed and all lines are
+   * handled.
    */
-  public void start(LineHandler lineHandler) throws IOException {
+  public void start(LineHandler lineHandler) {
+    synchronized (lock) {
+      checkState(this.lineHandler == null, "The line reader has been started");
+      this.lineHandler = lineHandler;
+      byte[] bytes = pendingBytes.toByteArray();
+      pendingBytes = null;
+      decode(bytes, 0, bytes.length);
+      if (closed) {
+        finishDecoding();
+      }
+    }
+    handlePendingLines();
+  }
+
+  @GuardedBy("lock")
+  private void write(byte[] bytes, int offset, int length) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (lineHandler == null) {
+      pendingBytes.write(bytes, offset, length);
+    } else {
+      decode(bytes, offset, length);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (lineHandler != null) {
+      finishDecoding();
+    }
+  }
+
+  @GuardedBy("lock")
+  private void decode(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      int count = Math.min(length, byteBuffer.remaining());
+      byteBuffer.put(bytes, offset, count);
+      offset += count;
+      length -= count;
+      byteBuffer.flip();
+      decodeBuffer(/* endOfInput= */ false);
+      byteBuffer.compact();
+    }
+  }
+
+  @GuardedBy("lock")
+  private void finishDecoding() {
     try {
-      int count;
-      while ((count = reader.read(readBuffer)) != -1) {
-        if (!stopHandling) {
-          add(count, lineHandler);
+      byteBuffer.flip();
+      decodeBuffer(/* endOfInput= */ true);
+      while (decoder.flush(charBuffer).isOverflow()) {
+        handleChars();
+      }
+      handleChars();
+      finish();
+    } finally {
+      pendingSourceClosed = true;
+    }
+  }
+
+  /**
+   * Calls the line handler for the pending lines, outside of {@link #lock}. If another thread is
+   * already calling the line handler, returns immediately and leaves the lines to that thread.
+   */
+  private void handlePendingLines() {
+    LineHandler handler;
+    synchronized (lock) {
+      if (handlingLines || lineHandler == null) {
+        return;
+      }
+      handlingLines = true;
+      handler = lineHandler;
+    }
+    boolean drained = false;
+    try {
+      while (true) {
+        String[] pendingLine;
+        synchronized (lock) {
+          pendingLine = pendingLines.poll();
+          if (pendingLine == null) {
+            if (!pendingSourceClosed) {
+              handlingLines = false;
+              drained = true;
+              return;
+            }
+            pendingSourceClosed = false;
+          }
+        }
+        if (pendingLine == null) {
+          handler.onSourceClosed();
+        } else if (handler.handleLine(pendingLine[0], pendingLine[1])) {
+          synchronized (lock) {
+            stopHandling = true;
+            pendingLines.clear();
+          }
         }
       }
-      finish(lineHandler);
     } finally {
-      lineHandler.onSourceClosed();
+      if (!drained) {
+        // The line handler threw, so lets the next writer continue with the remaining lines.
+        synchronized (lock) {
+          handlingLines = false;
+        }
+      }
     }
   }
 
+  @GuardedBy("lock")
+  private void decodeBuffer(boolean endOfInput) {
+    while (decoder.decode(byteBuffer, charBuffer, endOfInput).isOverflow()) {
+      handleChars();
+    }
+    handleChars();
+  }
+
+  @GuardedBy("lock")
+  private void handleChars() {
+    int count = charBuffer.position();
+    if (count > 0 && !stopHandling) {
+      add(count);
+    }
+    charBuffer.clear();
+  }
+
   /**
    * Process additional characters from the stream. When a line separator is found the contents of
    * the line and the line separator itself are passed to the {@link LineHandler#handleLine} method.
@@ -113,11 +278,12 @@ public class LineReader extends ByteSink {
    * @param len the number of characters to process
    * @see #finish
    */
-  private void add(int len, LineHandler lineHandler) {
+  @GuardedBy("lock")
+  private void add(int len) {
     int pos = 0;
     if (sawReturn && len > 0) {
       // Last call to add ended with a CR; we can handle the line now.
-      if (finishLine(readBuffer[pos] == '\n', lineHandler)) {
+      if (finishLine(readBuffer[pos] == '\n')) {
         pos++;
       }
     }
@@ -129,7 +295,7 @@ public class LineReader extends ByteSink {
           line.append(readBuffer, start, pos - start);
           sawReturn = true;
           if (pos + 1 < len) {
-            if (finishLine(readBuffer[pos + 1] == '\n', lineHandler)) {
+            if (finishLine(readBuffer[pos + 1] == '\n')) {
               pos++;
             }
           }
@@ -138,7 +304,7 @@ public class LineReader extends ByteSink {
 
         case '\n':
           line.append(readBuffer, start, pos - start);
-          finishLine(true, lineHandler);
+          finishLine(true);
           start = pos + 1;
           break;
 
@@ -149,12 +315,13 @@ public class LineReader extends ByteSink {
     line.append(readBuffer, start, len - start);
   }
 
-  /** Called when a line is complete. */
+  /** Called when a line is complete. The line is handled later by {@link #handlePendingLines}. */
+  @GuardedBy("lock")
   @CanIgnoreReturnValue
-  private boolean finishLine(boolean sawNewline, LineHandler lineHandler) {
+  private boolean finishLine(boolean sawNewline) {
     String separator = sawReturn ? (sawNewline ? "\r\n" : "\r") : (sawNewline ? "\n" : "");
     if (!stopHandling) {
-      stopHandling = lineHandler.handleLine(line.toString(), separator);
+      pendingLines.add(new String[] {line.toString(), separator});
     }
     line = new StringBuilder();
     sawReturn = false;
@@ -165,9 +332,34 @@ public class LineReader extends ByteSink {
    * Must call this method after finishing character processing, in order to ensure that any
    * unterminated line in the buffer is passed to {@link LineHandler#handleLine}.
    */
-  private void finish(LineHandler lineHandler) {
+  @GuardedBy("lock")
+  private void finish() {
     if (sawReturn || line.length() > 0) {
-      finishLine(false, lineHandler);
+      finishLine(false);
+    }
+  }
+
+  private class LineReaderOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      synchronized (lock) {
+        LineReader.this.write(bytes, offset, length);
+      }
+      handlePendingLines();
+    }
+
+    @Override
+    public void close() {
+      synchronized (lock) {
+        LineReader.this.close();
+      }
+      handlePendingLines();
     }
   }
 }
@@ -16,7 +16,7 @@
 
 package com.google.devtools.mobileharness.shared.util.event;
 
-import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.util.Arrays.stream;
 
 import com.google.auto.value.AutoValue;
@@ -24,9 +24,13 @@ import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /** Backend of MH {@code EventBus} library which enhances Guava {@link EventBus} library. */
 public class EventBusBackend {
@@ -59,16 +63,30 @@ public class EventBusBackend {
     /**
      * Invokes the subscriber method, with the given event.
      *
+     * <p>The event is not checked by {@link #canReceiveEvent(Class)}, so callers should only pass
+     * events which the method can receive, e.g., by {@link
+     * SubscriberMethodSearchResult#subscriberMethods(Class)}.
+     *
+     * @throws ClassCastException if the subscriber method can not receive the event
      * @throws Throwable the original exception thrown from the subscriber method
      */
     public void receiveEvent(Object event) throws Throwable {
-      checkArgument(canReceiveEvent(event.getClass()));
+      invoker().invokeExact(event);
+    }
+
+    /**
+     * Returns a method handle of type {@code (Object)void} which invokes the subscriber method on
+     * the subscriber object, so an event doesn't go through reflective invocation.
+     */
+    @Memoized
+    MethodHandle invoker() {
       try {
-        method().invoke(subscriberObject(), event);
+        return MethodHandles.lookup()
+            .unreflect(method())
+            .bindTo(subscriberObject())
+            .asType(MethodType.methodType(void.class, Object.class));
       } catch (IllegalAccessException e) {
         throw new AssertionError(e); // The method has been set to accessible.
-      } catch (InvocationTargetException e) {
-        throw e.getTargetException();
       }
     }
 
@@ -119,6 +137,26 @@ public class EventBusBackend {
 
     public abstract ImmutableList<InvalidSubscriberMethod> invalidSubscriberMethods();
 
+    /**
+     * Returns the subscriber methods which can receive events of the given class.
+     *
+     * <p>The methods are computed once per event class and the same list is returned afterwards.
+     */
+    public ImmutableList<SubscriberMethod> subscriberMethods(Class<?> eventClass) {
+      return subscriberMethodsByEventClass()
+          .computeIfAbsent(
+              eventClass,
+              key ->
+                  subscriberMethods().stream()
+                      .filter(subscriberMethod -> subscriberMethod.canReceiveEvent(key))
+                      .collect(toImmutableList()));
+    }
+
+    @Memoized
+    ConcurrentMap<Class<?>, ImmutableList<SubscriberMethod>> subscriberMethodsByEventClass() {
+      return new ConcurrentHashMap<>();
+    }
+
     public static SubscriberMethodSearchResult of(
         Object subscriberObject,
         List<SubscriberMethod> subscriberMethods,
@@ -27,16 +27,31 @@ import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.devtools.deviceinfra.shared.util.concurrent.ThreadFactoryUtil;
 import com.google.devtools.mobileharness.api.model.error.BasicErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /** Utility class for generating checksum in order to verify data. */
 public class ChecksumUtil {
@@ -57,10 +72,26 @@ public class ChecksumUtil {
 
   private static final Duration CACHE_EXPIRE_TIME = Duration.ofHours(1);
 
+  /** Files smaller than this are read into a heap buffer rather than being memory-mapped. */
+  private static final long MAPPED_READ_MIN_SIZE = 1024L * 1024L;
+
+  /** Max size of a memory-mapped region of a file. */
+  private static final long MAPPED_REGION_SIZE = 64L * 1024L * 1024L;
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /** Shared by all instances to hash files of directories in parallel. */
+  private static final ExecutorService HASH_FILE_EXECUTOR =
+      Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(),
+          ThreadFactoryUtil.createThreadFactory("checksum-util", /* daemon= */ true));
+
   private final LoadingCache<FileNameWithTime, HashCode> lastFingerprints;
 
   private final HashFunction hashFunction;
 
+  private final Supplier<Optional<FingerprintIndex>> fingerprintIndex;
+
   public ChecksumUtil() {
     this(Hashing.crc32());
   }
@@ -70,7 +101,13 @@ public class ChecksumUtil {
    * secure.
    */
   public ChecksumUtil(HashFunction hashFunction) {
+    this(hashFunction, FingerprintIndex::getDefault);
+  }
+
+  @VisibleForTesting
+  ChecksumUtil(HashFunction hashFunction, Supplier<Optional<FingerprintIndex>> fingerprintIndex) {
     this.hashFunction = hashFunction;
+    this.fingerprintIndex = fingerprintIndex;
     lastFingerprints =
         CacheBuilder.newBuilder()
             .expireAfterAccess(CACHE_EXPIRE_TIME)
@@ -80,19 +117,7 @@ public class ChecksumUtil {
                   public HashCode load(FileNameWithTime fileNameWithTime)
                       throws MobileHarnessException {
                     try {
-                      int bufSize = 16 * 1024;
-                      Hasher hasher = hashFunction.newHasher();
-                      byte[] buf = new byte[bufSize];
-
-                      try (java.io.BufferedInputStream in =
-                          new java.io.BufferedInputStream(
-                              new java.io.FileInputStream(fileNameWithTime.fileName()))) {
-                        int n;
-                        while ((n = in.read(buf, 0, bufSize)) > 0) {
-                          hasher.putBytes(buf, 0, n);
-                        }
-                      }
-                      return hasher.hash();
+                      return loadFileHash(Paths.get(fileNameWithTime.fileName()));
                     } catch (IOException e) {
                       throw new MobileHarnessException(
                           BasicErrorId.FILE_CHECKSUM_ERROR, "Failed to get the file checksum.", e);
@@ -101,13 +126,26 @@ public class ChecksumUtil {
                 });
   }
 
-  /** Returns the fingerprint in hash code for the contents of a file or directory. */
+  /**
+   * Returns the fingerprint in hash code for the contents of a file or directory.
+   *
+   * <p>Files of a directory are hashed in parallel, and unchanged files are not read again if they
+   * are in the cache or in the on-disk index specified by "--checksum_index_file".
+   */
   public HashCode fingerprintHashCode(String fileOrDirPath) throws MobileHarnessException {
     File file = new File(fileOrDirPath);
-    if (file.isDirectory()) {
-      return hashDir(file, file.getPath().length() + 1);
-    } else {
-      return hashFile(file);
+    try {
+      if (file.isDirectory()) {
+        List<File> files = new ArrayList<>();
+        listFilesRecursively(file, files);
+        hashFilesInParallel(files);
+        // All files are in the cache now, so it only combines their hash codes.
+        return hashDir(file, file.getPath().length() + 1);
+      } else {
+        return hashFile(file);
+      }
+    } finally {
+      fingerprintIndex.get().ifPresent(FingerprintIndex::flush);
     }
   }
 
@@ -191,4 +229,84 @@ public class ChecksumUtil {
     }
     return hasher.hash();
   }
+
+  /** Hashes the given files in parallel and puts their hash codes into the cache. */
+  private void hashFilesInParallel(List<File> files) throws MobileHarnessException {
+    if (files.size() < 2) {
+      return;
+    }
+    List<Future<HashCode>> futures = new ArrayList<>(files.size());
+    try {
+      for (File file : files) {
+        futures.add(HASH_FILE_EXECUTOR.submit(() -> hashFile(file)));
+      }
+      for (Future<HashCode> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof MobileHarnessException) {
+        throw (MobileHarnessException) e.getCause();
+      }
+      throw new MobileHarnessException(
+          BasicErrorId.FILE_CHECKSUM_ERROR, "Failed to get the file checksum.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MobileHarnessException(
+          BasicErrorId.FILE_CHECKSUM_ERROR, "Interrupted when getting the file checksum.", e);
+    } finally {
+      futures.forEach(future -> future.cancel(/* mayInterruptIfRunning= */ true));
+    }
+  }
+
+  /** Gets the hash code of a file from the fingerprint index, or by reading the file. */
+  private HashCode loadFileHash(Path file) throws IOException {
+    Optional<FingerprintIndex> index = fingerprintIndex.get();
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    if (index.isPresent()) {
+      HashCode hash = index.get().get(hashFunction, file, attributes);
+      if (hash != null) {
+        return hash;
+      }
+    }
+    HashCode hash = readFileHash(file);
+    index.ifPresent(i -> i.put(hashFunction, file, attributes, hash));
+    return hash;
+  }
+
+  /** Reads and hashes a file. Large files are memory-mapped region by region. */
+  private HashCode readFileHash(Path file) throws IOException {
+    Hasher hasher = hashFunction.newHasher();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < MAPPED_READ_MIN_SIZE) {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+          buffer.flip();
+          hasher.putBytes(buffer);
+          buffer.clear();
+        }
+      } else {
+        for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+          hasher.putBytes(
+              channel.map(
+                  MapMode.READ_ONLY, position, Math.min(MAPPED_REGION_SIZE, size - position)));
+        }
+      }
+    }
+    return hasher.hash();
+  }
+
+  private static void listFilesRecursively(File dir, List<File> result) {
+    File[] contents = dir.listFiles();
+    if (contents == null) {
+      return;
+    }
+    for (File f : contents) {
+      if (f.isDirectory()) {
+        listFilesRecursively(f, result);
+      } else {
+        result.add(f);
+      }
+    }
+  }
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.file.checksum;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * On-disk index of file fingerprints which survives process restarts.
+ *
+ * <p>An entry is keyed by the hash function and the path of a file, and is only served if the
+ * size, the modification time and the file key (device and inode) of the file are unchanged.
+ *
+ * <p>The index file is append-only, one entry per line, and later lines override earlier ones. It
+ * is compacted when it is loaded if most of its lines are overridden. Malformed lines, e.g., lines
+ * interleaved by another process, are ignored.
+ */
+final class FingerprintIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final char SEPARATOR = '\t';
+
+  /** {hash function, hash code, size, modification time in nanoseconds, file key, path}. */
+  private static final Splitter LINE_SPLITTER = Splitter.on(SEPARATOR).limit(6);
+
+  /** The index file is only compacted if it has more lines than this. */
+  private static final int COMPACTION_MIN_LINES = 10_000;
+
+  private static final String NO_FILE_KEY = "-";
+
+  /** {Absolute path of index file, index}. */
+  private static final ConcurrentHashMap<Path, FingerprintIndex> INDEXES =
+      new ConcurrentHashMap<>();
+
+  /** Returns the index specified by "--checksum_index_file", or empty if it is not specified. */
+  static Optional<FingerprintIndex> getDefault() {
+    String indexFile = Flags.instance().checksumIndexFile.get();
+    if (Strings.isNullOrEmpty(indexFile)) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        INDEXES.computeIfAbsent(Paths.get(indexFile).toAbsolutePath(), FingerprintIndex::new));
+  }
+
+  private final Path indexFile;
+
+  /** {Hash function + path, entry}. */
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  @GuardedBy("this")
+  @Nullable
+  private BufferedWriter writer;
+
+  /** Whether the index file failed to be written, in which case the index is only in memory. */
+  @GuardedBy("this")
+  private boolean writeFailed;
+
+  @VisibleForTesting
+  FingerprintIndex(Path indexFile) {
+    this.indexFile = indexFile;
+    int lineCount = load();
+    if (lineCount > COMPACTION_MIN_LINES && lineCount > 2 * entries.size()) {
+      compact();
+    }
+  }
+
+  /**
+   * Returns the indexed hash code of a file, or null if the file is not indexed or has changed
+   * since it was indexed.
+   */
+  @Nullable
+  HashCode get(HashFunction hashFunction, Path file, BasicFileAttributes attributes) {
+    Entry entry = entries.get(getKey(hashFunction, file));
+    return entry != null && entry.matches(attributes) ? entry.hashCode : null;
+  }
+
+  /** Indexes the hash code of a file. Call {@link #flush()} to make it durable. */
+  void put(HashFunction hashFunction, Path file, BasicFileAttributes attributes, HashCode hash) {
+    Entry entry = new Entry(hash, attributes);
+    String key = getKey(hashFunction, file);
+    entries.put(key, entry);
+    String path = file.toString();
+    if (path.indexOf('\n') < 0 && path.indexOf('\r') < 0) {
+      append(key, entry);
+    }
+  }
+
+  /** Writes buffered entries to the index file. */
+  synchronized void flush() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      onWriteFailure(e);
+    }
+  }
+
+  private synchronized void append(String key, Entry entry) {
+    if (writeFailed) {
+      return;
+    }
+    try {
+      if (writer == null) {
+        Path parent = indexFile.getParent();
+        if (parent != null) {
+          Files.createDirectories(parent);
+        }
+        writer = Files.newBufferedWriter(indexFile, UTF_8, CREATE, APPEND);
+      }
+      writer.write(toLine(key, entry));
+      writer.newLine();
+    } catch (IOException e) {
+      onWriteFailure(e);
+    }
+  }
+
+  @GuardedBy("this")
+  private void onWriteFailure(IOException e) {
+    logger.atWarning().withCause(e).log(
+        "Failed to write checksum index file %s, keep the index in memory only", indexFile);
+    writeFailed = true;
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException closeError) {
+        e.addSuppressed(closeError);
+      }
+      writer = null;
+    }
+  }
+
+  /** Loads the index file and returns the number of lines in it. */
+  private int load() {
+    if (!Files.exists(indexFile)) {
+      return 0;
+    }
+    int lineCount = 0;
+    try (BufferedReader reader = Files.newBufferedReader(indexFile, UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineCount++;
+        parseLine(line);
+      }
+    } catch (IOException | UncheckedIOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to read checksum index file %s, only %d lines are loaded", indexFile, lineCount);
+    }
+    logger.atInfo().log(
+        "Loaded %d file fingerprints from checksum index file %s", entries.size(), indexFile);
+    return lineCount;
+  }
+
+  private void parseLine(String line) {
+    List<String> fields = LINE_SPLITTER.splitToList(line);
+    if (fields.size() != 6) {
+      return;
+    }
+    try {
+      entries.put(
+          fields.get(0) + SEPARATOR + fields.get(5),
+          new Entry(
+              HashCode.fromString(fields.get(1)),
+              Long.parseLong(fields.get(2)),
+              Long.parseLong(fields.get(3)),
+              fields.get(4)));
+    } catch (IllegalArgumentException e) {
+      // Ignores malformed lines.
+    }
+  }
+
+  /** Rewrites the index file with the live entries of existing files. */
+  private void compact() {
+    entries.keySet().removeIf(key -> !Files.exists(Paths.get(getPath(key))));
+    Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try {
+      try (BufferedWriter tmpWriter = Files.newBufferedWriter(tmpFile, UTF_8)) {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          tmpWriter.write(toLine(entry.getKey(), entry.getValue()));
+          tmpWriter.newLine();
+        }
+      }
+      Files.move(tmpFile, indexFile, REPLACE_EXISTING, ATOMIC_MOVE);
+      logger.atInfo().log(
+          "Compacted checksum index file %s to %d entries", indexFile, entries.size());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to compact checksum index file %s", indexFile);
+    }
+  }
+
+  private static String getKey(HashFunction hashFunction, Path file) {
+    return hashFunction.toString() + SEPARATOR + file;
+  }
+
+  private static String getPath(String key) {
+    return key.substring(key.indexOf(SEPARATOR) + 1);
+  }
+
+  private static String toLine(String key, Entry entry) {
+    int separatorIndex = key.indexOf(SEPARATOR);
+    return String.join(
+        String.valueOf(SEPARATOR),
+        key.substring(0, separatorIndex),
+        entry.hashCode.toString(),
+        Long.toString(entry.size),
+        Long.toString(entry.modifiedTimeNanos),
+        entry.fileKey,
+        key.substring(separatorIndex + 1));
+  }
+
+  private static final class Entry {
+
+    private final HashCode hashCode;
+
+    private final long size;
+
+    private final long modifiedTimeNanos;
+
+    /** E.g., "(dev=fd01,ino=1234)" on Linux. */
+    private final String fileKey;
+
+    private Entry(HashCode hashCode, BasicFileAttributes attributes) {
+      this(
+          hashCode,
+          attributes.size(),
+          attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+          getFileKey(attributes));
+    }
+
+    private Entry(HashCode hashCode, long size, long modifiedTimeNanos, String fileKey) {
+      this.hashCode = hashCode;
+      this.size = size;
+      this.modifiedTimeNanos = modifiedTimeNanos;
+      this.fileKey = fileKey;
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size()
+          && modifiedTimeNanos == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+          && fileKey.equals(getFileKey(attributes));
+    }
+
+    private static String getFileKey(BasicFileAttributes attributes) {
+      Object fileKey = attributes.fileKey();
+      return fileKey == null ? NO_FILE_KEY : fileKey.toString();
+    }
+  }
+}
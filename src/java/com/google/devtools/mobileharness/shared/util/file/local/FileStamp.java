@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.file.local;
+
+import com.google.auto.value.AutoValue;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and modification time of a file.
+ *
+ * <p>It is used to tell whether a file has changed since some data derived from it was cached: two
+ * stamps of the same path are equal only if the file is very likely unchanged.
+ */
+@AutoValue
+public abstract class FileStamp {
+
+  /** The size of the file in bytes. */
+  public abstract long size();
+
+  /** The last modification time of the file in nanoseconds since the epoch. */
+  public abstract long modifiedTimeNanos();
+
+  public static FileStamp of(long size, long modifiedTimeNanos) {
+    return new AutoValue_FileStamp(size, modifiedTimeNanos);
+  }
+
+  public static FileStamp of(BasicFileAttributes attributes) {
+    return of(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * Reads the stamp of a file.
+   *
+   * @throws IOException if fails to read the attributes of the file, e.g., it doesn't exist
+   */
+  public static FileStamp read(Path file) throws IOException {
+    return of(Files.readAttributes(file, BasicFileAttributes.class));
+  }
+}
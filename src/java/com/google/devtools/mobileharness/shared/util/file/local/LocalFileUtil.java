@@ -30,6 +30,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
 import com.google.devtools.deviceinfra.shared.util.path.PathUtil;
 import com.google.devtools.mobileharness.api.model.error.BasicErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
@@ -111,6 +112,9 @@ public class LocalFileUtil {
   /** Max number of attempts when creating a soft link. */
   private static final int LINK_ATTEMPTS = 100;
 
+  /** Wildcards in file names of the "unzip" command. */
+  private static final Pattern UNZIP_WILDCARD = Pattern.compile("[*?\\[]");
+
   /** Timeout setting for slow commands. */
   private static final Duration SLOW_CMD_TIMEOUT = Duration.ofMinutes(10);
 
@@ -157,8 +161,12 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     checkFileOrDir(fileOrDirPath);
     try {
+      if (useNio()) {
+        NioFileOperations.changeGroupRecursively(Paths.get(fileOrDirPath), group);
+        return "";
+      }
       return cmdExecutor.run(Command.of("chgrp", "-R", group, fileOrDirPath));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_OR_DIR_CHANGE_GROUP_ERROR,
           String.format("Failed to change the file/dir %s to group %s", fileOrDirPath, group),
@@ -171,8 +179,12 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     checkFileOrDir(fileOrDirPath);
     try {
+      if (useNio()) {
+        NioFileOperations.changeOwnerRecursively(Paths.get(fileOrDirPath), user);
+        return "";
+      }
       return cmdExecutor.run(Command.of("chown", "-R", user, fileOrDirPath));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_OR_DIR_CHANGE_OWNER_ERROR,
           String.format("Failed to change the file/dir %s to owner %s", fileOrDirPath, user),
@@ -415,6 +427,9 @@ public class LocalFileUtil {
   public String getFileOrDirHumanReadableSize(String fileOrDirPath)
       throws MobileHarnessException, InterruptedException {
     checkFileOrDir(fileOrDirPath);
+    if (useNio()) {
+      return NioFileOperations.formatHumanReadableSize(getFileOrDirSizeByNio(fileOrDirPath));
+    }
     // This command could be very slow if the folder is too large.
     String output;
     try {
@@ -473,6 +488,9 @@ public class LocalFileUtil {
   public long getFileOrDirSize(String fileOrDirPath)
       throws MobileHarnessException, InterruptedException {
     checkFileOrDir(fileOrDirPath);
+    if (useNio()) {
+      return getFileOrDirSizeByNio(fileOrDirPath);
+    }
     // This command could be very slow if the folder is too large.
     String output;
     try {
@@ -615,9 +633,13 @@ public class LocalFileUtil {
     // Does NOT use AbstractFile.setPermissions(). It does not work on Mac.
     File fileOrDir = checkFileOrDir(fileOrDirPath);
     try {
+      if (useNio()) {
+        NioFileOperations.grantFullAccessRecursively(fileOrDir.toPath());
+        return;
+      }
       // Does not use fileOrDir.setReadable()..., since it cannot take effect recursively.
       cmdExecutor.exec(Command.of("chmod", "-R", "777", fileOrDirPath));
-    } catch (MobileHarnessException e) {
+    } catch (MobileHarnessException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_OR_DIR_GRANT_PERMISSION_RECURSIVELY_ERROR,
           "Fail to grant full access recursively to " + fileOrDir,
@@ -816,8 +838,12 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     checkFileOrDir(targetFileOrDirPath);
     try {
+      if (useNio()) {
+        NioFileOperations.createSymbolicLink(targetFileOrDirPath, Paths.get(linkName));
+        return;
+      }
       cmdExecutor.exec(Command.of("ln", "-sf", targetFileOrDirPath, linkName));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_OR_DIR_LINK_ERROR,
           "Failed to create symbolic link for " + targetFileOrDirPath,
@@ -836,8 +862,12 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     checkFile(targetFilePath);
     try {
+      if (useNio()) {
+        NioFileOperations.createHardLink(Paths.get(targetFilePath), Paths.get(linkName));
+        return;
+      }
       cmdExecutor.exec(Command.of("ln", "-f", targetFilePath, linkName));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_CREATE_HARD_LINK_ERROR,
           "Failed to create hard link for " + targetFilePath,
@@ -855,12 +885,15 @@ public class LocalFileUtil {
   public Set<String> listAllFilesBeenLinked(String dirPath)
       throws MobileHarnessException, InterruptedException {
     try {
+      if (useNio()) {
+        return NioFileOperations.listSymbolicLinkTargets(Paths.get(dirPath));
+      }
       String[] files =
           cmdExecutor
               .run(Command.of("find", dirPath, "-type", "l", "-exec", "readlink", "{}", ";"))
               .split("\n");
       return new HashSet<>(Arrays.asList(files));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_DIR_LIST_LINKS_ERROR,
           "Failed to list the linked files under " + dirPath,
@@ -1204,30 +1237,13 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     checkDir(srcDirPath);
     prepareDir(targetDirPath);
-    // The slash following srcDir is crucial for rsync to sync srcDir with targetDir
-    // instead of creating a subdir under targetDir and sync srcDir with that.
     try {
-      cmdExecutor.exec(
-          Command.of(
-              "rsync",
-              // '-a' is archive mode. explain from 'rsync' manual:
-              //     -a, --archive               archive mode; equals -rlptgoD (no -H,-A,-X)
-              // Explanation of '-rlptgoD':
-              //     -r, --recursive             recurse into directories
-              //     -l, --links                 copy symlinks as symlinks
-              //     -p, --perms                 preserve permissions
-              //     -t, --times                 preserve modification times
-              //     -o, --owner                 preserve owner (super-user only)
-              //     -g, --group                 preserve group
-              //     -D                          same as --devices --specials
-              //         --devices               preserve device files (super-user only)
-              //         --specials              preserve special files
-              "-a",
-              "--no-group",
-              "--no-owner",
-              srcDirPath + "/",
-              targetDirPath + "/"));
-    } catch (CommandException e) {
+      if (useNio()) {
+        NioFileOperations.mergeDir(Paths.get(srcDirPath), Paths.get(targetDirPath));
+      } else {
+        mergeDirByRsync(srcDirPath, targetDirPath);
+      }
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_DIR_MERGE_ERROR,
           String.format("Failed to merge dir %s into dir %s", srcDirPath, targetDirPath),
@@ -1253,8 +1269,13 @@ public class LocalFileUtil {
   public void moveFileOrDir(String srcFileOrDirPath, String desFileOrDirPath)
       throws MobileHarnessException, InterruptedException {
     try {
+      if (useNio()
+          && NioFileOperations.move(Paths.get(srcFileOrDirPath), Paths.get(desFileOrDirPath))) {
+        return;
+      }
+      // Falls back to "mv" which copies the directory across file systems.
       cmdExecutor.exec(Command.of("mv", srcFileOrDirPath, desFileOrDirPath));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_OR_DIR_MOVE_ERROR,
           String.format(
@@ -1424,9 +1445,12 @@ public class LocalFileUtil {
   public String readFileHead(String filePath) throws MobileHarnessException, InterruptedException {
     checkFile(filePath);
     try {
+      if (useNio()) {
+        return NioFileOperations.readHead(Paths.get(filePath));
+      }
       // Enlarge the timeout in case the command is slow.
       return cmdExecutor.run(Command.of("head", filePath).timeout(SLOW_CMD_TIMEOUT));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_READ_HEAD_ERROR,
           "Failed to read the head of file " + filePath,
@@ -1444,10 +1468,13 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     checkFile(filePath);
     try {
+      if (useNio()) {
+        return NioFileOperations.readTail(Paths.get(filePath), line);
+      }
       // Enlarge the timeout in case the command is slow.
       return cmdExecutor.run(
           Command.of("tail", String.format("-%d", line), filePath).timeout(SLOW_CMD_TIMEOUT));
-    } catch (CommandException e) {
+    } catch (CommandException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_READ_TAIL_ERROR,
           "Failed to read the tail of file " + filePath,
@@ -1536,8 +1563,12 @@ public class LocalFileUtil {
     // 3) {@code com.google.common.io.Files#deleteRecursively(File)} is deprecated because it
     //    suffers from poor symbol link detection.
     try {
+      if (useNio()) {
+        NioFileOperations.remove(Paths.get(fileOrDirPath));
+        return;
+      }
       cmdExecutor.exec(Command.of("rm", "-rf", fileOrDirPath).timeout(fixed(SLOW_CMD_TIMEOUT)));
-    } catch (MobileHarnessException e) {
+    } catch (MobileHarnessException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_OR_DIR_REMOVE_ERROR,
           "Failed to remove file/dir " + fileOrDirPath,
@@ -1854,13 +1885,21 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     try {
       prepareDir(targetDirPath);
+      if (useNio()) {
+        ImmutableList<String> unzipped =
+            NioFileOperations.unzip(
+                Paths.get(zipFilePath), Paths.get(targetDirPath), /* fileNames= */ null);
+        if (unzipped != null) {
+          return getUnzipLog(zipFilePath, unzipped);
+        }
+      }
       Command command =
           Command.of("unzip", "-o", zipFilePath).workDir(targetDirPath /*for b/28160125 */);
       if (timeout != null) {
         command = command.timeout(fixed(timeout));
       }
       return cmdExecutor.run(command);
-    } catch (MobileHarnessException e) {
+    } catch (MobileHarnessException | IOException e) {
       throw new MobileHarnessException(
           BasicErrorId.LOCAL_FILE_UNZIP_ERROR,
           String.format("Failed to unzip file %s to dir %s", zipFilePath, targetDirPath),
@@ -1888,6 +1927,24 @@ public class LocalFileUtil {
       throws MobileHarnessException, InterruptedException {
     try {
       prepareDir(targetDirPath);
+      // Wildcards in the file names are only supported by the "unzip" command.
+      if (useNio() && fileNamesToUnzip.stream().noneMatch(UNZIP_WILDCARD.asPredicate())) {
+        ImmutableList<String> unzipped =
+            NioFileOperations.unzip(
+                Paths.get(zipFilePath), Paths.get(targetDirPath), fileNamesToUnzip);
+        if (unzipped != null) {
+          List<String> unmatchedFileNames = new ArrayList<>(fileNamesToUnzip);
+          unmatchedFileNames.removeAll(unzipped);
+          if (!unmatchedFileNames.isEmpty()) {
+            throw new MobileHarnessException(
+                BasicErrorId.LOCAL_FILE_UNZIP_FILENAME_NOT_MATCHED,
+                String.format(
+                    "Failed to unzip file %s from %s because the filename %s is not matched",
+                    fileNamesToUnzip, zipFilePath, unmatchedFileNames));
+          }
+          return getUnzipLog(zipFilePath, unzipped);
+        }
+      }
       ImmutableList<String> cmd =
           new ImmutableList.Builder<String>()
               .add("unzip")
@@ -1897,7 +1954,17 @@ public class LocalFileUtil {
               .build();
       Command command = Command.of(cmd).workDir(targetDirPath /*for b/28160125 */);
       return cmdExecutor.run(command);
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          BasicErrorId.LOCAL_FILE_UNZIP_PARTICULAR_FILES_ERROR,
+          String.format(
+              "Failed to unzip files %s from %s to dir %s",
+              fileNamesToUnzip, zipFilePath, targetDirPath),
+          e);
     } catch (MobileHarnessException e) {
+      if (e.getErrorId() == BasicErrorId.LOCAL_FILE_UNZIP_FILENAME_NOT_MATCHED) {
+        throw e;
+      }
       if (e.getErrorId() == BasicErrorId.COMMAND_EXEC_FAIL
           && e.getMessage().contains("filename not matched")) {
         throw new MobileHarnessException(
@@ -2095,4 +2162,53 @@ public class LocalFileUtil {
       return false;
     }
   }
+
+  private void mergeDirByRsync(String srcDirPath, String targetDirPath)
+      throws CommandException, InterruptedException {
+    // The slash following srcDir is crucial for rsync to sync srcDir with targetDir
+    // instead of creating a subdir under targetDir and sync srcDir with that.
+    cmdExecutor.exec(
+        Command.of(
+            "rsync",
+            // '-a' is archive mode. explain from 'rsync' manual:
+            //     -a, --archive               archive mode; equals -rlptgoD (no -H,-A,-X)
+            // Explanation of '-rlptgoD':
+            //     -r, --recursive             recurse into directories
+            //     -l, --links                 copy symlinks as symlinks
+            //     -p, --perms                 preserve permissions
+            //     -t, --times                 preserve modification times
+            //     -o, --owner                 preserve owner (super-user only)
+            //     -g, --group                 preserve group
+            //     -D                          same as --devices --specials
+            //         --devices               preserve device files (super-user only)
+            //         --specials              preserve special files
+            "-a",
+            "--no-group",
+            "--no-owner",
+            srcDirPath + "/",
+            targetDirPath + "/"));
+  }
+
+  private long getFileOrDirSizeByNio(String fileOrDirPath) throws MobileHarnessException {
+    try {
+      return NioFileOperations.getSize(Paths.get(fileOrDirPath));
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          BasicErrorId.LOCAL_FILE_OR_DIR_GET_SIZE_ERROR,
+          "Failed to check the size of file/dir " + fileOrDirPath,
+          e);
+    }
+  }
+
+  /** Gets a log similar to the output of the "unzip" command. */
+  private static String getUnzipLog(String zipFilePath, List<String> unzippedFileNames) {
+    StringBuilder log = new StringBuilder("Archive:  ").append(zipFilePath).append('\n');
+    unzippedFileNames.forEach(name -> log.append("  inflating: ").append(name).append('\n'));
+    return log.toString();
+  }
+
+  /** Whether to run file operations with Java NIO instead of system commands. */
+  private static boolean useNio() {
+    return Flags.instance().localFileUtilUseNio.getNonNull();
+  }
 }
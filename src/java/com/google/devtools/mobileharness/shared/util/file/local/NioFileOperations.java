@@ -0,0 +1,513 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.file.local;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Pure Java implementations of the file operations which {@link LocalFileUtil} runs with system
+ * commands by default, e.g., "chmod -R", "du -s", "mv", "rm -rf", "tail" and "unzip -o".
+ *
+ * <p>All methods follow the behaviors of the corresponding commands on Linux, except that sizes
+ * are apparent file sizes rather than allocated disk blocks.
+ */
+final class NioFileOperations {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final int DEFAULT_HEAD_LINES = 10;
+
+  /** File type bits of a Unix file mode. */
+  private static final int UNIX_FILE_TYPE_MASK = 0170000;
+
+  /** File type of a symbolic link in a Unix file mode. */
+  private static final int UNIX_SYMLINK_TYPE = 0120000;
+
+  /** Signatures and fixed offsets of the zip central directory. */
+  private static final int ZIP_END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+
+  private static final int ZIP_CENTRAL_DIR_HEADER_SIGNATURE = 0x02014b50;
+
+  private static final int ZIP_END_OF_CENTRAL_DIR_SIZE = 22;
+
+  private static final int ZIP_CENTRAL_DIR_HEADER_SIZE = 46;
+
+  private static final int ZIP_MAX_COMMENT_SIZE = 0xffff;
+
+  /** "Version made by" host of zip entries created on Unix. */
+  private static final int ZIP_HOST_UNIX = 3;
+
+  private NioFileOperations() {}
+
+  /** Same as "chown -R user path". */
+  static void changeOwnerRecursively(Path fileOrDir, String user) throws IOException {
+    UserPrincipal owner =
+        fileOrDir.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(user);
+    walk(
+        fileOrDir,
+        path ->
+            Files.getFileAttributeView(path, PosixFileAttributeView.class, NOFOLLOW_LINKS)
+                .setOwner(owner));
+  }
+
+  /** Same as "chgrp -R group path". */
+  static void changeGroupRecursively(Path fileOrDir, String group) throws IOException {
+    GroupPrincipal groupPrincipal =
+        fileOrDir.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByGroupName(group);
+    walk(
+        fileOrDir,
+        path ->
+            Files.getFileAttributeView(path, PosixFileAttributeView.class, NOFOLLOW_LINKS)
+                .setGroup(groupPrincipal));
+  }
+
+  /** Same as "chmod -R 777 path", which skips symbolic links. */
+  static void grantFullAccessRecursively(Path fileOrDir) throws IOException {
+    Set<PosixFilePermission> fullAccess = EnumSet.allOf(PosixFilePermission.class);
+    walk(
+        fileOrDir,
+        path -> {
+          if (!Files.isSymbolicLink(path)) {
+            Files.setPosixFilePermissions(path, fullAccess);
+          }
+        });
+  }
+
+  /** Gets the total size in bytes of a file, or all the files under a directory. */
+  static long getSize(Path fileOrDir) throws IOException {
+    AtomicLong size = new AtomicLong();
+    Files.walkFileTree(
+        fileOrDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            size.addAndGet(attrs.size());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return size.get();
+  }
+
+  /** Formats a size in bytes in the same way as "du -h", e.g., "4.0K", "286M". */
+  static String formatHumanReadableSize(long bytes) {
+    String units = "KMGTPE";
+    if (bytes < 1024) {
+      return Long.toString(bytes);
+    }
+    double size = bytes;
+    int unit = -1;
+    while (size >= 1024 && unit < units.length() - 1) {
+      size /= 1024;
+      unit++;
+    }
+    // "du -h" rounds up, and keeps one decimal for values less than 10.
+    return size < 10
+        ? String.format("%.1f%c", Math.ceil(size * 10) / 10, units.charAt(unit))
+        : String.format("%d%c", (long) Math.ceil(size), units.charAt(unit));
+  }
+
+  /** Same as "ln -sf target link". */
+  static void createSymbolicLink(String targetFileOrDirPath, Path link) throws IOException {
+    link = resolveIntoDir(link, Path.of(targetFileOrDirPath));
+    Files.deleteIfExists(link);
+    Files.createSymbolicLink(link, Path.of(targetFileOrDirPath));
+  }
+
+  /** Same as "ln -f target link". */
+  static void createHardLink(Path targetFile, Path link) throws IOException {
+    link = resolveIntoDir(link, targetFile);
+    Files.deleteIfExists(link);
+    Files.createLink(link, targetFile);
+  }
+
+  /** Same as "find dir -type l -exec readlink {} ;". */
+  static Set<String> listSymbolicLinkTargets(Path dir) throws IOException {
+    Set<String> targets = new HashSet<>();
+    walk(
+        dir,
+        path -> {
+          if (Files.isSymbolicLink(path)) {
+            targets.add(Files.readSymbolicLink(path).toString());
+          }
+        });
+    return targets;
+  }
+
+  /**
+   * Same as "rsync -a --no-owner --no-group srcDir/ targetDir/", which copies the content of {@code
+   * srcDir} into {@code targetDir} and keeps the file modes, modification times and symbolic links.
+   * {@code srcDir} is left unchanged.
+   */
+  static void mergeDir(Path srcDir, Path targetDir) throws IOException {
+    Files.walkFileTree(
+        srcDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            Path target = targetDir.resolve(srcDir.relativize(dir));
+            if (!Files.isDirectory(target, NOFOLLOW_LINKS)) {
+              Files.deleteIfExists(target);
+              Files.createDirectories(target);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Path target = targetDir.resolve(srcDir.relativize(file));
+            Files.copy(
+                file,
+                target,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES,
+                NOFOLLOW_LINKS);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, @Nullable IOException e)
+              throws IOException {
+            if (e != null) {
+              throw e;
+            }
+            // Like rsync, applies the directory attributes after its content is copied, so a
+            // read-only directory can still be filled.
+            Path target = targetDir.resolve(srcDir.relativize(dir));
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(dir));
+            Files.setLastModifiedTime(target, Files.getLastModifiedTime(dir));
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  /**
+   * Same as "mv src des".
+   *
+   * @return false if {@code src} is a non-empty directory which can't be renamed to {@code des},
+   *     e.g., they are in different file systems
+   */
+  static boolean move(Path srcFileOrDir, Path desFileOrDir) throws IOException {
+    Path target = resolveIntoDir(desFileOrDir, srcFileOrDir);
+    try {
+      Files.move(srcFileOrDir, target, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (DirectoryNotEmptyException e) {
+      if (Files.isDirectory(srcFileOrDir, NOFOLLOW_LINKS)
+          && !Files.exists(target, NOFOLLOW_LINKS)) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /** Same as "rm -rf path". */
+  static void remove(Path fileOrDir) throws IOException {
+    if (Files.isDirectory(fileOrDir, NOFOLLOW_LINKS)) {
+      MoreFiles.deleteRecursively(fileOrDir, RecursiveDeleteOption.ALLOW_INSECURE);
+    } else {
+      Files.deleteIfExists(fileOrDir);
+    }
+  }
+
+  /** Same as "head file". */
+  static String readHead(Path file) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (InputStream input = Files.newInputStream(file)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int lines = 0;
+      int length;
+      while (lines < DEFAULT_HEAD_LINES && (length = input.read(buffer)) > 0) {
+        int end = 0;
+        while (end < length && lines < DEFAULT_HEAD_LINES) {
+          if (buffer[end++] == '\n') {
+            lines++;
+          }
+        }
+        output.write(buffer, 0, end);
+      }
+    }
+    return output.toString(UTF_8);
+  }
+
+  /**
+   * Same as "tail -n file", which reads the file backwards from its end, so the cost doesn't
+   * depend on the file size.
+   */
+  static String readTail(Path file, int lines) throws IOException {
+    if (lines <= 0) {
+      return "";
+    }
+    try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+      long fileLength = input.length();
+      long start = fileLength;
+      // The line terminator at the end of the file doesn't begin a new line.
+      long searchEnd = fileLength;
+      if (fileLength > 0) {
+        input.seek(fileLength - 1);
+        if (input.read() == '\n') {
+          searchEnd--;
+        }
+      }
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int foundLines = 0;
+      long chunkEnd = searchEnd;
+      search:
+      while (chunkEnd > 0) {
+        int chunkLength = (int) Math.min(BUFFER_SIZE, chunkEnd);
+        long chunkStart = chunkEnd - chunkLength;
+        input.seek(chunkStart);
+        input.readFully(buffer, 0, chunkLength);
+        for (int i = chunkLength - 1; i >= 0; i--) {
+          if (buffer[i] == '\n' && ++foundLines == lines) {
+            start = chunkStart + i + 1;
+            break search;
+          }
+        }
+        chunkEnd = chunkStart;
+      }
+      if (foundLines < lines) {
+        start = 0;
+      }
+      byte[] content = new byte[(int) (fileLength - start)];
+      input.seek(start);
+      input.readFully(content);
+      return new String(content, UTF_8);
+    }
+  }
+
+  /**
+   * Same as "unzip -o zipFile [fileNames...]" in {@code targetDir}, which keeps the Unix file modes
+   * and symbolic links of the entries.
+   *
+   * @param fileNames names of the entries to extract, or null to extract all entries
+   * @return names of the extracted entries, or null if the zip file is not supported (e.g., a
+   *     zip64 file), in which case nothing is extracted
+   */
+  @Nullable
+  static ImmutableList<String> unzip(
+      Path zipFile, Path targetDir, @Nullable Collection<String> fileNames) throws IOException {
+    ImmutableMap<String, Integer> unixModes = readUnixModes(zipFile);
+    if (unixModes == null) {
+      return null;
+    }
+    Path normalizedTargetDir = targetDir.toAbsolutePath().normalize();
+    List<String> extracted = new ArrayList<>();
+    // Directory modes are applied after all entries are extracted, because a read-only directory
+    // entry may precede its children in the zip file.
+    Map<Path, Integer> dirModes = new HashMap<>();
+    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (fileNames != null && !fileNames.contains(entry.getName())) {
+          continue;
+        }
+        Path target = normalizedTargetDir.resolve(entry.getName()).normalize();
+        if (!target.startsWith(normalizedTargetDir)) {
+          throw new IOException(
+              String.format("Entry %s is outside of the target dir %s", entry, targetDir));
+        }
+        int mode = unixModes.getOrDefault(entry.getName(), 0);
+        if (entry.isDirectory()) {
+          Files.createDirectories(target);
+          if ((mode & 0777) != 0) {
+            dirModes.put(target, mode);
+          }
+        } else {
+          Files.createDirectories(target.getParent());
+          Files.deleteIfExists(target);
+          try (InputStream input = zip.getInputStream(entry)) {
+            if ((mode & UNIX_FILE_TYPE_MASK) == UNIX_SYMLINK_TYPE) {
+              Files.createSymbolicLink(target, Path.of(new String(input.readAllBytes(), UTF_8)));
+              extracted.add(entry.getName());
+              continue;
+            }
+            Files.copy(input, target);
+          }
+          if ((mode & 0777) != 0) {
+            Files.setPosixFilePermissions(target, toPermissions(mode));
+          }
+        }
+        extracted.add(entry.getName());
+      }
+    }
+    // Deepest directories first, so a parent never loses its write permission before its children
+    // are updated.
+    List<Path> dirs = new ArrayList<>(dirModes.keySet());
+    dirs.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+    for (Path dir : dirs) {
+      Files.setPosixFilePermissions(dir, toPermissions(dirModes.get(dir)));
+    }
+    return ImmutableList.copyOf(extracted);
+  }
+
+  /**
+   * Reads the Unix file modes of the zip entries from the central directory, which {@link ZipFile}
+   * doesn't expose.
+   *
+   * @return {entry name, Unix file mode}, or null if the zip file is a zip64 file
+   */
+  @Nullable
+  private static ImmutableMap<String, Integer> readUnixModes(Path zipFile) throws IOException {
+    try (RandomAccessFile input = new RandomAccessFile(zipFile.toFile(), "r")) {
+      long fileLength = input.length();
+      int tailLength =
+          (int) Math.min(fileLength, ZIP_END_OF_CENTRAL_DIR_SIZE + ZIP_MAX_COMMENT_SIZE);
+      byte[] tail = new byte[tailLength];
+      input.seek(fileLength - tailLength);
+      input.readFully(tail);
+      int eocd = -1;
+      for (int i = tailLength - ZIP_END_OF_CENTRAL_DIR_SIZE; i >= 0; i--) {
+        if (readIntLe(tail, i) == ZIP_END_OF_CENTRAL_DIR_SIGNATURE) {
+          eocd = i;
+          break;
+        }
+      }
+      if (eocd < 0) {
+        throw new IOException("Not a zip file: " + zipFile);
+      }
+      int entryCount = readShortLe(tail, eocd + 10);
+      long centralDirSize = readIntLe(tail, eocd + 12) & 0xffffffffL;
+      long centralDirOffset = readIntLe(tail, eocd + 16) & 0xffffffffL;
+      if (entryCount == 0xffff || centralDirOffset == 0xffffffffL) {
+        return null;
+      }
+      byte[] centralDir = new byte[(int) centralDirSize];
+      input.seek(centralDirOffset);
+      input.readFully(centralDir);
+      Map<String, Integer> modes = new HashMap<>();
+      int offset = 0;
+      while (offset + ZIP_CENTRAL_DIR_HEADER_SIZE <= centralDir.length
+          && readIntLe(centralDir, offset) == ZIP_CENTRAL_DIR_HEADER_SIGNATURE) {
+        int host = (centralDir[offset + 5] & 0xff);
+        int nameLength = readShortLe(centralDir, offset + 28);
+        int extraLength = readShortLe(centralDir, offset + 30);
+        int commentLength = readShortLe(centralDir, offset + 32);
+        int externalAttributes = readIntLe(centralDir, offset + 38);
+        String name =
+            new String(centralDir, offset + ZIP_CENTRAL_DIR_HEADER_SIZE, nameLength, UTF_8);
+        if (host == ZIP_HOST_UNIX) {
+          modes.put(name, externalAttributes >>> 16);
+        }
+        offset += ZIP_CENTRAL_DIR_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+      return ImmutableMap.copyOf(modes);
+    }
+  }
+
+  private static Set<PosixFilePermission> toPermissions(int mode) {
+    Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+    PosixFilePermission[] values = {
+      PosixFilePermission.OTHERS_EXECUTE,
+      PosixFilePermission.OTHERS_WRITE,
+      PosixFilePermission.OTHERS_READ,
+      PosixFilePermission.GROUP_EXECUTE,
+      PosixFilePermission.GROUP_WRITE,
+      PosixFilePermission.GROUP_READ,
+      PosixFilePermission.OWNER_EXECUTE,
+      PosixFilePermission.OWNER_WRITE,
+      PosixFilePermission.OWNER_READ,
+    };
+    for (int i = 0; i < values.length; i++) {
+      if ((mode & (1 << i)) != 0) {
+        permissions.add(values[i]);
+      }
+    }
+    return permissions;
+  }
+
+  /** Resolves {@code des} to {@code des/<name of src>} if {@code des} is an existing directory. */
+  private static Path resolveIntoDir(Path des, Path src) {
+    return Files.isDirectory(des) && src.getFileName() != null
+        ? des.resolve(src.getFileName())
+        : des;
+  }
+
+  /** Visits a file/directory and all its descendants without following symbolic links. */
+  private static void walk(Path fileOrDir, PathVisitor visitor) throws IOException {
+    Files.walkFileTree(
+        fileOrDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            visitor.visit(dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            visitor.visit(file);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static int readShortLe(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+  }
+
+  private static int readIntLe(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff)
+        | (bytes[offset + 1] & 0xff) << 8
+        | (bytes[offset + 2] & 0xff) << 16
+        | (bytes[offset + 3] & 0xff) << 24;
+  }
+
+  @FunctionalInterface
+  private interface PathVisitor {
+    void visit(Path path) throws IOException;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.mobileharness.shared.util.metrics;
+
+import com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.CounterSnapshot;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Lock-free monotonic counter in a {@link MetricRegistry}. */
+public final class Counter {
+
+  private final String name;
+
+  private final String help;
+
+  private final LongAdder value = new LongAdder();
+
+  Counter(String name, String help) {
+    this.name = name;
+    this.help = help;
+  }
+
+  /** Increases the counter by one. */
+  public void increment() {
+    value.increment();
+  }
+
+  /** Increases the counter by the given non-negative amount. */
+  public void add(long amount) {
+    if (amount > 0L) {
+      value.add(amount);
+    }
+  }
+
+  public long get() {
+    return value.sum();
+  }
+
+  CounterSnapshot snapshot() {
+    return CounterSnapshot.newBuilder().setName(name).setHelp(help).setValue(get()).build();
+  }
+
+  void writePrometheusText(StringBuilder output) {
+    MetricRegistry.appendPrometheusHeader(output, name, help, "counter");
+    output.append(name).append(' ').append(get()).append('\n');
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.mobileharness.shared.util.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.HistogramSnapshot;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in a {@link MetricRegistry}.
+ *
+ * <p>Like HdrHistogram, latencies in microseconds are recorded into log-linear buckets: each power
+ * of two is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, so the relative error of a
+ * bucket is at most 1/{@link #SUB_BUCKET_COUNT}, from 1 microsecond to about 12 days.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  @VisibleForTesting static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /** Latencies longer than it are recorded as it. */
+  @VisibleForTesting static final long MAX_TRACKABLE_US = (1L << 40) - 1L;
+
+  private static final int BUCKET_COUNT = getBucketIndex(MAX_TRACKABLE_US) + 1;
+
+  /** Upper bounds in seconds of the buckets in the Prometheus text format. */
+  private static final ImmutableList<Double> PROMETHEUS_BUCKET_BOUNDS_SEC =
+      ImmutableList.of(
+          0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 30.0, 60.0,
+          120.0, 300.0, 600.0, 1800.0, 3600.0);
+
+  private final String name;
+
+  private final String help;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+  private final LongAdder sumUs = new LongAdder();
+
+  private final AtomicLong maxUs = new AtomicLong();
+
+  LatencyHistogram(String name, String help) {
+    this.name = name;
+    this.help = help;
+  }
+
+  /** Records a latency. Negative latencies are recorded as zero. */
+  public void record(Duration latency) {
+    long latencyUs;
+    try {
+      latencyUs = latency.toNanos() / 1000L;
+    } catch (ArithmeticException e) {
+      latencyUs = MAX_TRACKABLE_US;
+    }
+    recordMicros(latencyUs);
+  }
+
+  /** Records a latency in microseconds. Negative latencies are recorded as zero. */
+  public void recordMicros(long latencyUs) {
+    long value = Math.max(0L, Math.min(latencyUs, MAX_TRACKABLE_US));
+    buckets.incrementAndGet(getBucketIndex(value));
+    sumUs.add(value);
+    maxUs.accumulateAndGet(value, Math::max);
+  }
+
+  /** Returns the number of the recorded latencies. */
+  public long getCount() {
+    long count = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  HistogramSnapshot snapshot() {
+    long[] counts = getBucketCounts();
+    long count = 0L;
+    HistogramSnapshot.Builder snapshot =
+        HistogramSnapshot.newBuilder()
+            .setName(name)
+            .setHelp(help)
+            .setSumUs(sumUs.sum())
+            .setMaxUs(maxUs.get());
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      if (counts[i] > 0L) {
+        count += counts[i];
+        snapshot.addBucket(
+            HistogramSnapshot.Bucket.newBuilder()
+                .setUpperBoundUs(getBucketUpperBound(i))
+                .setCount(counts[i]));
+      }
+    }
+    return snapshot
+        .setCount(count)
+        .setP50Us(getPercentile(counts, count, 0.5))
+        .setP90Us(getPercentile(counts, count, 0.9))
+        .setP99Us(getPercentile(counts, count, 0.99))
+        .build();
+  }
+
+  /**
+   * Writes the histogram in the Prometheus text format, whose bucket counts are rounded down to the
+   * precision of the log-linear buckets.
+   */
+  void writePrometheusText(StringBuilder output) {
+    long[] counts = getBucketCounts();
+    MetricRegistry.appendPrometheusHeader(output, name, help, "histogram");
+    int bucketIndex = 0;
+    long cumulativeCount = 0L;
+    for (double boundSec : PROMETHEUS_BUCKET_BOUNDS_SEC) {
+      long boundUs = (long) (boundSec * 1_000_000L);
+      while (bucketIndex < BUCKET_COUNT && getBucketUpperBound(bucketIndex) <= boundUs) {
+        cumulativeCount += counts[bucketIndex++];
+      }
+      output
+          .append(name)
+          .append("_bucket{le=\"")
+          .append(boundSec)
+          .append("\"} ")
+          .append(cumulativeCount)
+          .append('\n');
+    }
+    while (bucketIndex < BUCKET_COUNT) {
+      cumulativeCount += counts[bucketIndex++];
+    }
+    output.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulativeCount).append('\n');
+    output.append(name).append("_sum ").append(sumUs.sum() / 1_000_000.0).append('\n');
+    output.append(name).append("_count ").append(cumulativeCount).append('\n');
+  }
+
+  private long[] getBucketCounts() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  private static long getPercentile(long[] counts, long totalCount, double percentile) {
+    if (totalCount == 0L) {
+      return 0L;
+    }
+    long targetCount = Math.max(1L, (long) Math.ceil(totalCount * percentile));
+    long cumulativeCount = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      cumulativeCount += counts[i];
+      if (cumulativeCount >= targetCount) {
+        return getBucketUpperBound(i);
+      }
+    }
+    return getBucketUpperBound(BUCKET_COUNT - 1);
+  }
+
+  @VisibleForTesting
+  static int getBucketIndex(long valueUs) {
+    if (valueUs < SUB_BUCKET_COUNT) {
+      return (int) valueUs;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(valueUs);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS)
+        + (int) (valueUs >>> shift)
+        - SUB_BUCKET_COUNT;
+  }
+
+  /** Returns the exclusive upper bound in microseconds of a bucket. */
+  @VisibleForTesting
+  static long getBucketUpperBound(int bucketIndex) {
+    if (bucketIndex < SUB_BUCKET_COUNT) {
+      return bucketIndex + 1L;
+    }
+    int shift = (bucketIndex >> SUB_BUCKET_BITS) - 1;
+    long subBucket = bucketIndex & (SUB_BUCKET_COUNT - 1);
+    return (SUB_BUCKET_COUNT + subBucket + 1L) << shift;
+  }
+}
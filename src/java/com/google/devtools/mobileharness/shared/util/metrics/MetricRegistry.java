@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.mobileharness.shared.util.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.GaugeSnapshot;
+import com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.MetricsSnapshot;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the process-local metrics, which can be exported in the Prometheus text format or as
+ * a {@link MetricsSnapshot} proto.
+ *
+ * <p>For example, to record the latency of an operation:
+ *
+ * <pre>
+ * private static final LatencyHistogram LATENCY =
+ *     MetricRegistry.getInstance().histogram("mh_foo_latency_seconds", "Latency of foo.");
+ * ...
+ * LATENCY.record(Duration.between(startTime, clock.instant()));
+ * </pre>
+ *
+ * <p>Getting a metric by the name of an existing one returns the existing one.
+ */
+public final class MetricRegistry {
+
+  private static final MetricRegistry INSTANCE = new MetricRegistry(Clock.systemUTC());
+
+  private static final Pattern METRIC_NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+  public static MetricRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  private final Clock clock;
+
+  /** {Metric name, metric}, sorted by the name. */
+  private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+  @VisibleForTesting
+  public MetricRegistry(Clock clock) {
+    this.clock = clock;
+  }
+
+  /** Gets or creates a counter. */
+  public Counter counter(String name, String help) {
+    return getOrCreate(name, Counter.class, () -> new Counter(name, help));
+  }
+
+  /** Gets or creates a latency histogram. */
+  public LatencyHistogram histogram(String name, String help) {
+    return getOrCreate(name, LatencyHistogram.class, () -> new LatencyHistogram(name, help));
+  }
+
+  /**
+   * Registers a gauge whose value is supplied by the given supplier when the metrics are exported.
+   * Replaces the existing gauge with the same name, if any.
+   */
+  public void gauge(String name, String help, LongSupplier valueSupplier) {
+    checkName(name);
+    metrics.compute(
+        name,
+        (key, existingMetric) -> {
+          checkArgument(
+              existingMetric == null || existingMetric instanceof Gauge,
+              "Metric %s has been registered as another type",
+              name);
+          return new Gauge(name, help, valueSupplier);
+        });
+  }
+
+  /** Returns all the metrics in the Prometheus text exposition format. */
+  public String toPrometheusText() {
+    StringBuilder output = new StringBuilder();
+    for (Object metric : metrics.values()) {
+      if (metric instanceof Counter) {
+        ((Counter) metric).writePrometheusText(output);
+      } else if (metric instanceof LatencyHistogram) {
+        ((LatencyHistogram) metric).writePrometheusText(output);
+      } else {
+        ((Gauge) metric).writePrometheusText(output);
+      }
+    }
+    return output.toString();
+  }
+
+  /** Returns a snapshot of all the metrics. */
+  public MetricsSnapshot snapshot() {
+    MetricsSnapshot.Builder snapshot = MetricsSnapshot.newBuilder().setTimestampMs(clock.millis());
+    for (Object metric : metrics.values()) {
+      if (metric instanceof Counter) {
+        snapshot.addCounter(((Counter) metric).snapshot());
+      } else if (metric instanceof LatencyHistogram) {
+        snapshot.addHistogram(((LatencyHistogram) metric).snapshot());
+      } else {
+        snapshot.addGauge(((Gauge) metric).snapshot());
+      }
+    }
+    return snapshot.build();
+  }
+
+  private <T> T getOrCreate(String name, Class<T> type, Supplier<T> creator) {
+    Object metric = metrics.get(name);
+    if (metric == null) {
+      checkName(name);
+      metric = metrics.computeIfAbsent(name, key -> creator.get());
+    }
+    checkArgument(type.isInstance(metric), "Metric %s has been registered as another type", name);
+    return type.cast(metric);
+  }
+
+  private static void checkName(String name) {
+    checkArgument(METRIC_NAME_PATTERN.matcher(name).matches(), "Invalid metric name: %s", name);
+  }
+
+  static void appendPrometheusHeader(
+      StringBuilder output, String name, String help, String type) {
+    output
+        .append("# HELP ")
+        .append(name)
+        .append(' ')
+        .append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+        .append('\n')
+        .append("# TYPE ")
+        .append(name)
+        .append(' ')
+        .append(type)
+        .append('\n');
+  }
+
+  private static final class Gauge {
+
+    private final String name;
+
+    private final String help;
+
+    private final LongSupplier valueSupplier;
+
+    private Gauge(String name, String help, LongSupplier valueSupplier) {
+      this.name = name;
+      this.help = help;
+      this.valueSupplier = valueSupplier;
+    }
+
+    private GaugeSnapshot snapshot() {
+      return GaugeSnapshot.newBuilder()
+          .setName(name)
+          .setHelp(help)
+          .setValue(valueSupplier.getAsLong())
+          .build();
+    }
+
+    private void writePrometheusText(StringBuilder output) {
+      appendPrometheusHeader(output, name, help, "gauge");
+      output.append(name).append(' ').append(valueSupplier.getAsLong()).append('\n');
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.mobileharness.shared.util.metrics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.deviceinfra.shared.util.concurrent.ThreadFactoryUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP server which exports the metrics of a {@link MetricRegistry}.
+ *
+ * <ul>
+ *   <li>"/metrics": metrics in the Prometheus text exposition format.
+ *   <li>"/metrics/snapshot": {@link
+ *       com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.MetricsSnapshot}
+ *       in the binary proto format.
+ * </ul>
+ */
+public class MetricsHttpServer {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final String PROTO_CONTENT_TYPE = "application/x-protobuf";
+
+  private final MetricRegistry registry;
+
+  private final InetSocketAddress address;
+
+  private HttpServer server;
+
+  /**
+   * Creates a server which listens on the given address, e.g., a loopback address so that the
+   * metrics are only exported to the local host.
+   */
+  public MetricsHttpServer(MetricRegistry registry, InetSocketAddress address) {
+    this.registry = registry;
+    this.address = address;
+  }
+
+  /** Starts the server. Does nothing if it has been started. */
+  public synchronized void start() throws IOException {
+    if (server != null) {
+      return;
+    }
+    server = HttpServer.create(address, /* backlog= */ 0);
+    server.createContext(
+        "/metrics",
+        exchange ->
+            respond(
+                exchange, PROMETHEUS_CONTENT_TYPE, registry.toPrometheusText().getBytes(UTF_8)));
+    server.createContext(
+        "/metrics/snapshot",
+        exchange -> respond(exchange, PROTO_CONTENT_TYPE, registry.snapshot().toByteArray()));
+    server.setExecutor(
+        Executors.newSingleThreadExecutor(
+            ThreadFactoryUtil.createThreadFactory("metrics-http-server", /* daemon= */ true)));
+    server.start();
+    logger.atInfo().log("Metrics HTTP server started, address=%s", server.getAddress());
+  }
+
+  /** Stops the server. */
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(/* delay= */ 0);
+      server = null;
+    }
+  }
+
+  private static void respond(HttpExchange exchange, String contentType, byte[] body)
+      throws IOException {
+    try (exchange) {
+      if (!exchange.getRequestMethod().equals("GET")) {
+        exchange.sendResponseHeaders(/* rCode= */ 405, /* responseLength= */ -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(/* rCode= */ 200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    }
+  }
+}
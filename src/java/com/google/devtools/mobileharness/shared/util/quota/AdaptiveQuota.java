@@ -0,0 +1,308 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.quota;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
+import com.google.common.base.Ticker;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.shared.util.metrics.LatencyHistogram;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
+import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Quota of a key in {@link LocalQuotaManager}.
+ *
+ * <p>Acquirers are queued in FIFO order. If the quota is adaptive, its limit is adjusted once per
+ * interval between 1 and {@link #MAX_LIMIT_FACTOR} times of the configured limit: the limit keeps
+ * moving in the same direction while the throughput (the amount released per second) does not drop,
+ * reverses the direction when the throughput drops, and decreases when the host is overloaded.
+ * Otherwise, the limit is only adjusted when there are queued acquirers. The throughput is only
+ * measured while there are queued acquirers, so idle time does not read as a drop.
+ *
+ * <p>The wait time, the limit and the number of queued acquirers of every quota, adaptive or not,
+ * are exported to the {@link MetricRegistry} of the {@link LocalQuotaManager} as
+ * "mh_local_quota_&lt;key&gt;_*".
+ */
+final class AdaptiveQuota {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** The max limit of an adaptive quota is this factor times the configured limit. */
+  @VisibleForTesting static final int MAX_LIMIT_FACTOR = 2;
+
+  /** The host is overloaded if the system load average per CPU exceeds this value. */
+  @VisibleForTesting static final double OVERLOADED_LOAD_PER_CPU = 1.0;
+
+  /** A throughput lower than this ratio of the previous one is considered a drop. */
+  private static final double THROUGHPUT_DROP_RATIO = 0.95;
+
+  private final QuotaKey key;
+
+  private final ResizableSemaphore semaphore;
+
+  private final int maxLimit;
+
+  private final boolean adaptive;
+
+  private final Supplier<Duration> adjustInterval;
+
+  /** Supplies the system load average per CPU, or a negative value if it is not available. */
+  private final DoubleSupplier loadPerCpuSupplier;
+
+  private final Ticker ticker;
+
+  private final LongAdder acquisitions = new LongAdder();
+
+  private final LongAdder totalWaitNanos = new LongAdder();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  private final LatencyHistogram waitTimeHistogram;
+
+  @GuardedBy("this")
+  private int limit;
+
+  /** 1 if the limit is increasing, -1 if it is decreasing. */
+  @GuardedBy("this")
+  private int direction = 1;
+
+  /**
+   * Whether the queue has been empty since the current window started. An idle window is restarted
+   * when an acquirer is queued.
+   */
+  @GuardedBy("this")
+  private boolean windowIdle = true;
+
+  @GuardedBy("this")
+  private long windowStartNanos;
+
+  @GuardedBy("this")
+  private long windowReleasedAmount;
+
+  /** The throughput of the last non-idle interval, or negative if it is unknown. */
+  @GuardedBy("this")
+  private double lastThroughput = -1;
+
+  /** Creates a quota whose limit is fixed, and exports its metrics to the given registry. */
+  static AdaptiveQuota fixed(QuotaKey key, int limit, MetricRegistry metricRegistry) {
+    return new AdaptiveQuota(
+        key,
+        limit,
+        /* adaptive= */ false,
+        () -> Duration.ZERO,
+        () -> -1,
+        Ticker.systemTicker(),
+        metricRegistry);
+  }
+
+  /**
+   * Creates a quota whose limit adapts to the throughput and the host load, and exports its metrics
+   * to the given registry.
+   */
+  static AdaptiveQuota adaptive(
+      QuotaKey key, int limit, Supplier<Duration> adjustInterval, MetricRegistry metricRegistry) {
+    OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    return new AdaptiveQuota(
+        key,
+        limit,
+        /* adaptive= */ true,
+        adjustInterval,
+        () -> {
+          double loadAverage = osBean.getSystemLoadAverage();
+          return loadAverage < 0 ? -1 : loadAverage / osBean.getAvailableProcessors();
+        },
+        Ticker.systemTicker(),
+        metricRegistry);
+  }
+
+  @VisibleForTesting
+  AdaptiveQuota(
+      QuotaKey key,
+      int limit,
+      boolean adaptive,
+      Supplier<Duration> adjustInterval,
+      DoubleSupplier loadPerCpuSupplier,
+      Ticker ticker,
+      MetricRegistry metricRegistry) {
+    this.key = key;
+    this.semaphore = new ResizableSemaphore(limit);
+    this.limit = limit;
+    this.maxLimit = Math.max(limit, 1) * MAX_LIMIT_FACTOR;
+    this.adaptive = adaptive;
+    this.adjustInterval = adjustInterval;
+    this.loadPerCpuSupplier = loadPerCpuSupplier;
+    this.ticker = ticker;
+    this.windowStartNanos = ticker.read();
+
+    String metricPrefix = "mh_local_quota_" + Ascii.toLowerCase(key.name());
+    this.waitTimeHistogram =
+        metricRegistry.histogram(
+            metricPrefix + "_wait_seconds", "Time waited to acquire the local quota of " + key);
+    metricRegistry.gauge(
+        metricPrefix + "_limit", "Limit of the local quota of " + key, this::getLimit);
+    metricRegistry.gauge(
+        metricPrefix + "_queued_acquirers",
+        "Number of the acquirers queued for the local quota of " + key,
+        semaphore::getQueueLength);
+  }
+
+  void acquire(int amount) throws InterruptedException {
+    long startNanos = ticker.read();
+    // Unlike tryAcquire(int), this honors the fairness.
+    if (!semaphore.tryAcquire(amount, 0L, TimeUnit.NANOSECONDS)) {
+      if (adaptive) {
+        onQueued(startNanos);
+      }
+      semaphore.acquire(amount);
+    }
+    recordWait(ticker.read() - startNanos);
+  }
+
+  boolean tryAcquire(int amount) {
+    if (semaphore.tryAcquire(amount)) {
+      recordWait(0L);
+      return true;
+    }
+    return false;
+  }
+
+  void release(int amount) {
+    boolean queued = semaphore.hasQueuedThreads();
+    semaphore.release(amount);
+    if (adaptive) {
+      synchronized (this) {
+        if (queued) {
+          windowReleasedAmount += amount;
+        } else {
+          windowIdle = true;
+        }
+        maybeAdjust();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getLimit() {
+    return limit;
+  }
+
+  @VisibleForTesting
+  int getQueueLength() {
+    return semaphore.getQueueLength();
+  }
+
+  @VisibleForTesting
+  long getAcquisitions() {
+    return acquisitions.sum();
+  }
+
+  @VisibleForTesting
+  Duration getMaxWaitTime() {
+    return Duration.ofNanos(maxWaitNanos.get());
+  }
+
+  private void recordWait(long waitNanos) {
+    acquisitions.increment();
+    totalWaitNanos.add(waitNanos);
+    maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    waitTimeHistogram.record(Duration.ofNanos(waitNanos));
+  }
+
+  /** Restarts the window if it is idle, so the throughput does not include the idle time. */
+  private synchronized void onQueued(long nowNanos) {
+    if (windowIdle) {
+      windowIdle = false;
+      windowStartNanos = nowNanos;
+      windowReleasedAmount = 0L;
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeAdjust() {
+    long nowNanos = ticker.read();
+    long elapsedNanos = nowNanos - windowStartNanos;
+    if (elapsedNanos < adjustInterval.get().toNanos()) {
+      return;
+    }
+    double throughput = windowReleasedAmount * 1e9 / Math.max(elapsedNanos, 1L);
+    double loadPerCpu = loadPerCpuSupplier.getAsDouble();
+    int newLimit;
+    if (loadPerCpu > OVERLOADED_LOAD_PER_CPU) {
+      direction = -1;
+      newLimit = limit - 1;
+    } else if (!windowIdle) {
+      if (lastThroughput >= 0 && throughput < lastThroughput * THROUGHPUT_DROP_RATIO) {
+        direction = -direction;
+      }
+      newLimit = limit + direction;
+    } else {
+      newLimit = limit;
+    }
+    newLimit = Math.max(1, Math.min(maxLimit, newLimit));
+
+    long acquisitionCount = acquisitions.sum();
+    logger.atInfo().log(
+        "QuotaKey %s: limit=%d->%d, throughput=%.3f/s, load_per_cpu=%.2f, queued=%d,"
+            + " acquisitions=%d, avg_wait=%dms, max_wait=%dms",
+        key,
+        limit,
+        newLimit,
+        throughput,
+        loadPerCpu,
+        semaphore.getQueueLength(),
+        acquisitionCount,
+        acquisitionCount == 0 ? 0L : totalWaitNanos.sum() / acquisitionCount / 1_000_000L,
+        maxWaitNanos.get() / 1_000_000L);
+    if (newLimit > limit) {
+      semaphore.release(newLimit - limit);
+    } else if (newLimit < limit) {
+      semaphore.reducePermits(limit - newLimit);
+    }
+    limit = newLimit;
+    if (!windowIdle) {
+      lastThroughput = throughput;
+    }
+    windowStartNanos = nowNanos;
+    windowReleasedAmount = 0L;
+  }
+
+  /** Fair semaphore whose permits can be reduced below the acquired ones. */
+  private static final class ResizableSemaphore extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    private ResizableSemaphore(int permits) {
+      super(permits, /* fair= */ true);
+    }
+
+    @Override
+    protected void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+}
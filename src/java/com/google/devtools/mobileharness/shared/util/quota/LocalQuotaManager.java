@@ -21,15 +21,24 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
 import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
 import com.google.errorprone.annotations.Keep;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
 import java.util.function.Supplier;
 
-/** Local implementation of {@link QuotaManager}. */
+/**
+ * Local implementation of {@link QuotaManager}.
+ *
+ * <p>The quotas of large file pushing, large file unzipping and device flashing are adaptive if
+ * "--local_quota_adaptive" is true. See {@link AdaptiveQuota}.
+ *
+ * <p>The quota manager singleton exports the metrics of its quotas to {@link
+ * MetricRegistry#getInstance()}.
+ */
 class LocalQuotaManager extends QuotaManager {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -46,43 +55,82 @@ class LocalQuotaManager extends QuotaManager {
 
     @Override
     void actuallyRelease() {
-      semaphoresSupplier.get().get(key).release(amount);
+      quotasSupplier.get().get(key).release(amount);
       logger.atInfo().log("Released amount %d on QuotaKey %s.", amount, key);
     }
   }
 
-  private final Supplier<ImmutableMap<QuotaKey, Semaphore>> semaphoresSupplier;
+  private final Supplier<ImmutableMap<QuotaKey, AdaptiveQuota>> quotasSupplier;
 
   @Keep
   LocalQuotaManager() {
-    this(
-        () ->
-            ImmutableMap.of(
-                QuotaKey.ADB_PUSH_LARGE_FILE,
-                Flags.instance().maxConcurrentAdbPushLargeFile.getNonNull(),
-                QuotaKey.UNZIP_LARGE_FILE,
-                Flags.instance().maxConcurrentUnzipLargeFile.getNonNull(),
-                QuotaKey.FASTBOOT_FLASH_DEVICE,
-                Flags.instance().maxConcurrentFlashDevice.getNonNull(),
-                QuotaKey.TF_CONTAINER_INSTANCE,
-                1));
+    this(MetricRegistry.getInstance());
   }
 
   @VisibleForTesting
-  LocalQuotaManager(Supplier<Map<QuotaKey, Integer>> quotasSupplier) {
-    this.semaphoresSupplier =
+  LocalQuotaManager(MetricRegistry metricRegistry) {
+    this.quotasSupplier =
+        Suppliers.memoize(
+            () -> {
+              boolean adaptive = Flags.instance().localQuotaAdaptive.getNonNull();
+              Supplier<Duration> adjustInterval =
+                  () -> Flags.instance().localQuotaAdaptiveInterval.getNonNull();
+              return ImmutableMap.of(
+                  QuotaKey.ADB_PUSH_LARGE_FILE,
+                  createQuota(
+                      QuotaKey.ADB_PUSH_LARGE_FILE,
+                      Flags.instance().maxConcurrentAdbPushLargeFile.getNonNull(),
+                      adaptive,
+                      adjustInterval,
+                      metricRegistry),
+                  QuotaKey.UNZIP_LARGE_FILE,
+                  createQuota(
+                      QuotaKey.UNZIP_LARGE_FILE,
+                      Flags.instance().maxConcurrentUnzipLargeFile.getNonNull(),
+                      adaptive,
+                      adjustInterval,
+                      metricRegistry),
+                  QuotaKey.FASTBOOT_FLASH_DEVICE,
+                  createQuota(
+                      QuotaKey.FASTBOOT_FLASH_DEVICE,
+                      Flags.instance().maxConcurrentFlashDevice.getNonNull(),
+                      adaptive,
+                      adjustInterval,
+                      metricRegistry),
+                  QuotaKey.TF_CONTAINER_INSTANCE,
+                  AdaptiveQuota.fixed(QuotaKey.TF_CONTAINER_INSTANCE, 1, metricRegistry));
+            });
+  }
+
+  @VisibleForTesting
+  LocalQuotaManager(
+      Supplier<Map<QuotaKey, Integer>> quotasSupplier, MetricRegistry metricRegistry) {
+    this.quotasSupplier =
         Suppliers.memoize(
             () ->
                 quotasSupplier.get().entrySet().stream()
                     .collect(
                         ImmutableMap.toImmutableMap(
-                            Entry::getKey, e -> new Semaphore(e.getValue()))));
+                            Entry::getKey,
+                            e -> AdaptiveQuota.fixed(e.getKey(), e.getValue(), metricRegistry))));
+  }
+
+  private static AdaptiveQuota createQuota(
+      QuotaKey key,
+      int limit,
+      boolean adaptive,
+      Supplier<Duration> adjustInterval,
+      MetricRegistry metricRegistry) {
+    return adaptive
+        ? AdaptiveQuota.adaptive(key, limit, adjustInterval, metricRegistry)
+        : AdaptiveQuota.fixed(key, limit, metricRegistry);
   }
 
   @Override
   public Lease acquire(QuotaKey key, int amount) throws InterruptedException {
-    if (semaphoresSupplier.get().containsKey(key)) {
-      semaphoresSupplier.get().get(key).acquire(amount);
+    AdaptiveQuota quota = quotasSupplier.get().get(key);
+    if (quota != null) {
+      quota.acquire(amount);
       return new LocalLease(key, amount);
     }
     return EMPTY_LEASE;
@@ -90,8 +138,9 @@ class LocalQuotaManager extends QuotaManager {
 
   @Override
   public Optional<Lease> tryAcquire(QuotaKey key, int amount) {
-    if (semaphoresSupplier.get().containsKey(key)) {
-      if (semaphoresSupplier.get().get(key).tryAcquire(amount)) {
+    AdaptiveQuota quota = quotasSupplier.get().get(key);
+    if (quota != null) {
+      if (quota.tryAcquire(amount)) {
         return Optional.of(new LocalLease(key, amount));
       }
       return Optional.empty();
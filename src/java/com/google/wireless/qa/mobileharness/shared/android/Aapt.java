@@ -23,6 +23,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.flogger.FluentLogger;
@@ -36,20 +38,25 @@ import com.google.devtools.mobileharness.shared.util.command.CommandExecutor;
 import com.google.devtools.mobileharness.shared.util.command.CommandStartException;
 import com.google.devtools.mobileharness.shared.util.command.CommandTimeoutException;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import com.google.wireless.qa.mobileharness.shared.android.ApkMetadataReader.ApkMetadata;
 import com.google.wireless.qa.mobileharness.shared.proto.AndroidDeviceSpec.Abi;
 import com.google.wireless.qa.mobileharness.shared.util.ArrayUtil;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
-/** Executor for invoking AAPT command line tools from Android SDK. */
+/**
+ * Executor for invoking AAPT command line tools from Android SDK.
+ *
+ * <p>If "--aapt_parse_apk_in_process" is true, the package name, the version, the min SDK version,
+ * the permissions, the ABIs and the instrumentation target package of APKs are read in process by
+ * {@link ApkMetadataReader}, and AAPT is only run for values it can't read.
+ */
 public class Aapt {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -104,7 +111,16 @@ public class Aapt {
 
   private static final String ALT_NATIVE_CODE_PREFIX = "alt-native-code: ";
 
-  private final Map<String, String> aaptOutputCache = new HashMap<>();
+  private static final int AAPT_OUTPUT_CACHE_SIZE = 100;
+
+  /** {Command + version of APK, output}. */
+  private final Cache<String, String> aaptOutputCache =
+      CacheBuilder.newBuilder().maximumSize(AAPT_OUTPUT_CACHE_SIZE).build();
+
+  /** Whether to read APKs in process. */
+  private final boolean parseApkInProcess;
+
+  private final ApkMetadataReader apkMetadataReader = new ApkMetadataReader();
 
   /**
    * Android SDK lazy initializer. It will do initialization only once before the first {@link Aapt}
@@ -176,6 +192,7 @@ public class Aapt {
     this.aaptPath = aaptPath;
     this.enableAaptOutputCache = enableAaptOutputCache;
     this.cmdExecutor = Preconditions.checkNotNull(cmdExecutor);
+    this.parseApkInProcess = Flags.instance().aaptParseApkInProcess.getNonNull();
   }
 
   /**
@@ -185,7 +202,17 @@ public class Aapt {
    * @return the ABI of the given APK file
    */
   public String getApkAbi(String apkPath) throws MobileHarnessException, InterruptedException {
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
+    Optional<ApkMetadata> apkMetadata = readApkMetadata(apkPath);
+    if (apkMetadata.isPresent()) {
+      return filterAbis(apkMetadata.get().abis()).stream()
+          .findFirst()
+          .orElseThrow(
+              () ->
+                  new MobileHarnessException(
+                      AndroidErrorId.ANDROID_AAPT_GET_APK_ABI_ERROR,
+                      "Failed to find the ABI of " + apkPath + ": no native code"));
+    }
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
     List<String> allAbis = parseNativeCode(output);
     if (!allAbis.isEmpty()) {
       return allAbis.get(0);
@@ -203,12 +230,20 @@ public class Aapt {
    */
   public List<String> listApkAbi(String apkPath)
       throws MobileHarnessException, InterruptedException {
-    return parseNativeCode(run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath)));
+    Optional<ApkMetadata> apkMetadata = readApkMetadata(apkPath);
+    if (apkMetadata.isPresent()) {
+      return filterAbis(apkMetadata.get().abis());
+    }
+    return parseNativeCode(run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath)));
   }
 
   /** Gets the instrumentation target package of the given test apk. */
   public Optional<String> getApkInstrumentationTargetPackage(String apkPath)
       throws MobileHarnessException, InterruptedException {
+    Optional<ApkMetadata> apkMetadata = readApkMetadata(apkPath);
+    if (apkMetadata.isPresent()) {
+      return apkMetadata.get().instrumentationTargetPackage();
+    }
     String output = getAndroidManifest(apkPath);
     List<String> lines = LINE_SPLITTER.trimResults().omitEmptyStrings().splitToList(output);
     List<String> instrumentationEntryAttrs = new ArrayList<>();
@@ -256,7 +291,11 @@ public class Aapt {
 
   /** Gets the version code of the given apk. */
   public int getApkVersionCode(String apkPath) throws MobileHarnessException, InterruptedException {
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
+    Optional<Integer> versionCode = readApkMetadata(apkPath).flatMap(ApkMetadata::versionCode);
+    if (versionCode.isPresent()) {
+      return versionCode.get();
+    }
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
     // Example output:
     // package: name='com.google.android.apps....' versionCode='1000' versionName='1.0.0' ...
     Matcher matcher = Pattern.compile(" versionCode='(\\d+)' versionName=").matcher(output);
@@ -279,7 +318,11 @@ public class Aapt {
   /** Gets the version name of the given apk. */
   public String getApkVersionName(String apkPath)
       throws MobileHarnessException, InterruptedException {
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
+    Optional<String> versionName = readApkMetadata(apkPath).flatMap(ApkMetadata::versionName);
+    if (versionName.isPresent() && !versionName.get().isEmpty()) {
+      return versionName.get();
+    }
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
     // Example output:
     // package: name='com.google.android.apps....' versionCode='1000' versionName='1.0.0' ...
     Matcher matcher = Pattern.compile(" versionName='([^']+)'").matcher(output);
@@ -299,7 +342,12 @@ public class Aapt {
    */
   public int getApkMinSdkVersion(String apkPath)
       throws MobileHarnessException, InterruptedException {
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
+    Optional<Integer> minSdkVersion =
+        readApkMetadata(apkPath).flatMap(ApkMetadata::minSdkVersion);
+    if (minSdkVersion.isPresent()) {
+      return minSdkVersion.get();
+    }
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
     Matcher matcher = Pattern.compile("\\nsdkVersion:'([^']+)'").matcher(output);
     if (matcher.find()) {
       String version = matcher.group(1);
@@ -323,7 +371,11 @@ public class Aapt {
    */
   public String getApkPackageName(String apkPath)
       throws MobileHarnessException, InterruptedException {
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
+    Optional<String> packageName = readApkMetadata(apkPath).flatMap(ApkMetadata::packageName);
+    if (packageName.isPresent() && !packageName.get().isEmpty()) {
+      return packageName.get();
+    }
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
     String prefix = "package: name='";
     int startIdx = prefix.length();
     for (String line : LINE_SPLITTER.split(output)) {
@@ -348,8 +400,12 @@ public class Aapt {
    */
   public Set<String> getApkPermissions(String apkPath)
       throws MobileHarnessException, InterruptedException {
+    Optional<ApkMetadata> apkMetadata = readApkMetadata(apkPath);
+    if (apkMetadata.isPresent()) {
+      return new HashSet<>(apkMetadata.get().permissions());
+    }
     Set<String> permissions = new HashSet<>();
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_PERMISSION, apkPath));
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_PERMISSION, apkPath));
     // Example output:
     // package: com.google.assistant.core
     // uses-permission: name='android.permission.DUMP'
@@ -378,7 +434,7 @@ public class Aapt {
   /** Gets launchable activity with command 'dump badging'. */
   private Optional<String> getApkLaunchableActivityNameWithBadging(String apkPath)
       throws MobileHarnessException, InterruptedException {
-    String output = run(ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
+    String output = run(apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_BADGING, apkPath));
     // The output is like:
     // ...
     // launchable-activity: name='package.name.activity.name'  label='...' icon='...'
@@ -462,26 +518,40 @@ public class Aapt {
    */
   public String getAndroidManifest(String apkPath)
       throws MobileHarnessException, InterruptedException {
-    return run(ArrayUtil.join(AAPT_ARGS_DUMP_XMLTREE, apkPath, FILE_FLAG, ANDROID_MANIFEST));
+    return run(
+        apkPath, ArrayUtil.join(AAPT_ARGS_DUMP_XMLTREE, apkPath, FILE_FLAG, ANDROID_MANIFEST));
+  }
+
+  /** Reads an APK in process, or returns empty if it is disabled or fails. */
+  private Optional<ApkMetadata> readApkMetadata(String apkPath) {
+    return parseApkInProcess ? apkMetadataReader.read(apkPath) : Optional.empty();
   }
 
   /**
    * Runs AAPT command line tools.
    *
+   * @param apkPath path of the APK which the command reads, whose version is part of the cache key
    * @param args AAPT command line arguments
    * @return command output
    * @throws MobileHarnessException if fails to execute the command or timeout
    * @throws InterruptedException if the thread executing the command is interrupted
    */
-  private String run(String[] args) throws MobileHarnessException, InterruptedException {
+  private String run(String apkPath, String[] args)
+      throws MobileHarnessException, InterruptedException {
     checkAapt();
     StringBuilder output = new StringBuilder();
     Command command =
         Command.of(ArrayUtil.join(aaptPath, args))
             .onStdout(does(line -> output.append(line).append('\n')));
-    String commandStr = command.toString();
-    if (enableAaptOutputCache && aaptOutputCache.containsKey(commandStr)) {
-      return aaptOutputCache.get(commandStr);
+    Optional<String> cacheKey =
+        enableAaptOutputCache
+            ? ApkMetadataReader.readFileStamp(apkPath).map(stamp -> command + "\n" + stamp)
+            : Optional.empty();
+    if (cacheKey.isPresent()) {
+      String cachedOutput = aaptOutputCache.getIfPresent(cacheKey.get());
+      if (cachedOutput != null) {
+        return cachedOutput;
+      }
     }
     try {
       cmdExecutor.exec(command);
@@ -503,8 +573,8 @@ public class Aapt {
     if (output.length() == 0) {
       output.append('\n');
     }
-    if (enableAaptOutputCache) {
-      aaptOutputCache.put(commandStr, output.toString());
+    if (cacheKey.isPresent()) {
+      aaptOutputCache.put(cacheKey.get(), output.toString());
     }
     return output.toString();
   }
@@ -540,7 +610,11 @@ public class Aapt {
         }
       }
     }
-    return allNativeCodes.stream().filter(Aapt::isAbi).collect(toImmutableList());
+    return filterAbis(allNativeCodes);
+  }
+
+  private static ImmutableList<String> filterAbis(List<String> abis) {
+    return abis.stream().filter(Aapt::isAbi).collect(toImmutableList());
   }
 
   /** Checks if a string represents a valid abi value. */
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.android;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.shared.util.file.local.FileStamp;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Reads metadata of APK files in process, which is much cheaper than running AAPT.
+ *
+ * <p>It parses the binary AndroidManifest.xml of an APK and lists the native code directories in
+ * its zip central directory. Values which can only be resolved with resources.arsc, e.g., a version
+ * name referring to a string resource, are unknown to it, and callers should fall back to AAPT.
+ *
+ * <p>Metadata is cached by the path, the size and the modification time of an APK, so a rebuilt
+ * APK at the same path is read again.
+ */
+final class ApkMetadataReader {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Metadata of an APK. An empty field means the value is unknown rather than not set. */
+  @AutoValue
+  abstract static class ApkMetadata {
+
+    abstract Optional<String> packageName();
+
+    abstract Optional<Integer> versionCode();
+
+    abstract Optional<String> versionName();
+
+    /** The min SDK version, or 0 if not set, or -1 if it is not a number, like AAPT reports. */
+    abstract Optional<Integer> minSdkVersion();
+
+    abstract ImmutableSet<String> permissions();
+
+    /** The target package of the first instrumentation, or empty if there is no such value. */
+    abstract Optional<String> instrumentationTargetPackage();
+
+    /** ABIs of the native code, in the order of "native-code" and "alt-native-code" of AAPT. */
+    abstract ImmutableList<String> abis();
+
+    private static ApkMetadata create(
+        Optional<String> packageName,
+        Optional<Integer> versionCode,
+        Optional<String> versionName,
+        Optional<Integer> minSdkVersion,
+        ImmutableSet<String> permissions,
+        Optional<String> instrumentationTargetPackage,
+        ImmutableList<String> abis) {
+      return new AutoValue_ApkMetadataReader_ApkMetadata(
+          packageName,
+          versionCode,
+          versionName,
+          minSdkVersion,
+          permissions,
+          instrumentationTargetPackage,
+          abis);
+    }
+  }
+
+  private static final int MAX_CACHE_SIZE = 1000;
+
+  /** {Path + version of APK, metadata or empty if the APK fails to be read}. */
+  private static final Cache<String, Optional<ApkMetadata>> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHE_SIZE).build();
+
+  private static final String ANDROID_MANIFEST = "AndroidManifest.xml";
+  private static final String LIB_DIR_PREFIX = "lib/";
+
+  /** AAPT only reports one of them as "native-code" of a multiArch APK. */
+  private static final ImmutableList<String> MULTI_ARCH_PRIMARY_ABIS =
+      ImmutableList.of("x86_64", "arm64-v8a");
+
+  // Chunk types of binary XML.
+  private static final int RES_STRING_POOL_TYPE = 0x0001;
+  private static final int RES_XML_TYPE = 0x0003;
+  private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+  private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+  private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+
+  private static final int STRING_POOL_UTF8_FLAG = 1 << 8;
+
+  // Types of attribute values.
+  private static final int TYPE_STRING = 0x03;
+  private static final int TYPE_INT_DEC = 0x10;
+  private static final int TYPE_INT_HEX = 0x11;
+  private static final int TYPE_INT_BOOLEAN = 0x12;
+
+  // Resource IDs of framework attributes.
+  private static final int ATTR_NAME = 0x01010003;
+  private static final int ATTR_TARGET_PACKAGE = 0x01010021;
+  private static final int ATTR_MIN_SDK_VERSION = 0x0101020c;
+  private static final int ATTR_VERSION_CODE = 0x0101021b;
+  private static final int ATTR_VERSION_NAME = 0x0101021c;
+  private static final int ATTR_MULTI_ARCH = 0x0101048f;
+
+  /**
+   * Reads the metadata of an APK.
+   *
+   * @return the metadata, or empty if the APK fails to be read or parsed
+   */
+  Optional<ApkMetadata> read(String apkPath) {
+    Optional<FileStamp> apkStamp = readFileStamp(apkPath);
+    if (apkStamp.isEmpty()) {
+      return Optional.empty();
+    }
+    try {
+      return CACHE.get(apkPath + '\n' + apkStamp.get(), () -> load(apkPath));
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e.getCause()).log("Failed to read APK %s", apkPath);
+      return Optional.empty();
+    }
+  }
+
+  /** Returns the stamp of a file, or empty if the file does not exist. */
+  static Optional<FileStamp> readFileStamp(String filePath) {
+    try {
+      return Optional.of(FileStamp.read(Paths.get(filePath)));
+    } catch (IOException | RuntimeException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<ApkMetadata> load(String apkPath) {
+    try (ZipFile zipFile = new ZipFile(apkPath)) {
+      ZipEntry manifestEntry = zipFile.getEntry(ANDROID_MANIFEST);
+      if (manifestEntry == null) {
+        logger.atInfo().log("No %s in APK %s", ANDROID_MANIFEST, apkPath);
+        return Optional.empty();
+      }
+      byte[] manifest;
+      try (InputStream inputStream = zipFile.getInputStream(manifestEntry)) {
+        manifest = inputStream.readAllBytes();
+      }
+      TreeSet<String> abis = new TreeSet<>();
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          entries.hasMoreElements(); ) {
+        String name = entries.nextElement().getName();
+        int abiEnd = name.indexOf('/', LIB_DIR_PREFIX.length());
+        if (name.startsWith(LIB_DIR_PREFIX) && abiEnd > LIB_DIR_PREFIX.length()) {
+          abis.add(name.substring(LIB_DIR_PREFIX.length(), abiEnd));
+        }
+      }
+      return Optional.of(new ManifestParser(manifest).parse(new ArrayList<>(abis)));
+    } catch (IOException | RuntimeException e) {
+      // A malformed manifest may also lead to IndexOutOfBoundsException, etc.
+      logger.atWarning().withCause(e).log(
+          "Failed to parse APK %s in process, fall back to AAPT", apkPath);
+      return Optional.empty();
+    }
+  }
+
+  /** Parser of the binary AndroidManifest.xml of an APK. */
+  private static class ManifestParser {
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+
+    private String[] strings = new String[0];
+
+    /** Resource IDs of attribute names, indexed by the string pool indexes of the names. */
+    private int[] resourceIds = new int[0];
+
+    private Optional<String> packageName = Optional.empty();
+    private Optional<Integer> versionCode = Optional.empty();
+    private Optional<String> versionName = Optional.empty();
+    private Optional<Integer> minSdkVersion = Optional.of(0);
+    private final ImmutableSet.Builder<String> permissions = ImmutableSet.builder();
+    @Nullable private Optional<String> instrumentationTargetPackage;
+    private boolean multiArch;
+
+    private ManifestParser(byte[] bytes) {
+      this.bytes = bytes;
+      this.buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ApkMetadata parse(List<String> abis) throws IOException {
+      if (bytes.length < 8 || getUnsignedShort(0) != RES_XML_TYPE) {
+        throw new IOException("Not a binary XML file");
+      }
+      int end = Math.min(buffer.getInt(4), bytes.length);
+      int depth = 0;
+      for (int offset = getUnsignedShort(2); offset + 8 <= end; ) {
+        int headerSize = getUnsignedShort(offset + 2);
+        int size = buffer.getInt(offset + 4);
+        if (headerSize < 8 || size < headerSize || size > end - offset) {
+          throw new IOException("Invalid chunk at offset " + offset);
+        }
+        switch (getUnsignedShort(offset)) {
+          case RES_STRING_POOL_TYPE:
+            parseStringPool(offset, headerSize);
+            break;
+          case RES_XML_RESOURCE_MAP_TYPE:
+            resourceIds = new int[(size - headerSize) / 4];
+            for (int i = 0; i < resourceIds.length; i++) {
+              resourceIds[i] = buffer.getInt(offset + headerSize + 4 * i);
+            }
+            break;
+          case RES_XML_START_ELEMENT_TYPE:
+            depth++;
+            parseStartElement(offset + headerSize, depth);
+            break;
+          case RES_XML_END_ELEMENT_TYPE:
+            depth--;
+            break;
+          default:
+            break;
+        }
+        offset += size;
+      }
+
+      List<String> nativeCodeAbis = new ArrayList<>(abis);
+      if (multiArch) {
+        for (String abi : MULTI_ARCH_PRIMARY_ABIS) {
+          if (nativeCodeAbis.remove(abi)) {
+            nativeCodeAbis.add(0, abi);
+            break;
+          }
+        }
+      }
+      return ApkMetadata.create(
+          packageName,
+          versionCode,
+          versionName,
+          minSdkVersion,
+          permissions.build(),
+          instrumentationTargetPackage == null ? Optional.empty() : instrumentationTargetPackage,
+          ImmutableList.copyOf(nativeCodeAbis));
+    }
+
+    private void parseStringPool(int offset, int headerSize) {
+      int stringCount = buffer.getInt(offset + 8);
+      boolean utf8 = (buffer.getInt(offset + 16) & STRING_POOL_UTF8_FLAG) != 0;
+      int stringsStart = offset + buffer.getInt(offset + 20);
+      strings = new String[Math.min(stringCount, (bytes.length - offset - headerSize) / 4)];
+      for (int i = 0; i < strings.length; i++) {
+        int position = stringsStart + buffer.getInt(offset + headerSize + 4 * i);
+        strings[i] = utf8 ? readUtf8String(position) : readUtf16String(position);
+      }
+    }
+
+    private String readUtf8String(int position) {
+      // Skips the length in UTF-16 code units, and then reads the length in bytes.
+      position += (bytes[position] & 0x80) == 0 ? 1 : 2;
+      int length = bytes[position] & 0xff;
+      if ((length & 0x80) == 0) {
+        position++;
+      } else {
+        length = ((length & 0x7f) << 8) | (bytes[position + 1] & 0xff);
+        position += 2;
+      }
+      return new String(bytes, position, length, UTF_8);
+    }
+
+    private String readUtf16String(int position) {
+      int length = getUnsignedShort(position);
+      if ((length & 0x8000) == 0) {
+        position += 2;
+      } else {
+        length = ((length & 0x7fff) << 16) | getUnsignedShort(position + 2);
+        position += 4;
+      }
+      return new String(bytes, position, 2 * length, UTF_16LE);
+    }
+
+    /**
+     * Parses the start of an element.
+     *
+     * @param offset offset of the attribute extension of the element
+     * @param depth depth of the element, which is 1 for the root element
+     */
+    private void parseStartElement(int offset, int depth) {
+      String name = getString(buffer.getInt(offset + 4));
+      if (depth == 1 && "manifest".equals(name)) {
+        forEachAttribute(
+            offset,
+            attribute -> {
+              if (isAttribute(attribute, 0, "package")) {
+                packageName = getStringValue(attribute);
+              } else if (isAttribute(attribute, ATTR_VERSION_CODE, "versionCode")) {
+                versionCode = getIntValue(attribute);
+              } else if (isAttribute(attribute, ATTR_VERSION_NAME, "versionName")) {
+                versionName = getStringValue(attribute);
+              }
+            });
+      } else if (depth == 2 && "uses-sdk".equals(name)) {
+        forEachAttribute(
+            offset,
+            attribute -> {
+              if (isAttribute(attribute, ATTR_MIN_SDK_VERSION, "minSdkVersion")) {
+                minSdkVersion = getMinSdkVersion(attribute);
+              }
+            });
+      } else if (depth == 2 && "uses-permission".equals(name)) {
+        forEachAttribute(
+            offset,
+            attribute -> {
+              if (isAttribute(attribute, ATTR_NAME, "name")) {
+                getStringValue(attribute).ifPresent(permissions::add);
+              }
+            });
+      } else if (depth == 2 && "application".equals(name)) {
+        forEachAttribute(
+            offset,
+            attribute -> {
+              if (isAttribute(attribute, ATTR_MULTI_ARCH, "multiArch")) {
+                multiArch = getIntValue(attribute).orElse(0) != 0;
+              }
+            });
+      } else if ("instrumentation".equals(name) && instrumentationTargetPackage == null) {
+        instrumentationTargetPackage = Optional.empty();
+        forEachAttribute(
+            offset,
+            attribute -> {
+              if (isAttribute(attribute, ATTR_TARGET_PACKAGE, "targetPackage")) {
+                instrumentationTargetPackage = getStringValue(attribute);
+              }
+            });
+      }
+    }
+
+    private void forEachAttribute(int offset, IntConsumer attributeConsumer) {
+      int attributeStart = offset + getUnsignedShort(offset + 8);
+      int attributeSize = getUnsignedShort(offset + 10);
+      int attributeCount = getUnsignedShort(offset + 12);
+      for (int i = 0; i < attributeCount; i++) {
+        attributeConsumer.accept(attributeStart + i * attributeSize);
+      }
+    }
+
+    /**
+     * Returns whether the attribute at the given offset has the given resource ID, or has the given
+     * name if its name has no resource ID.
+     */
+    private boolean isAttribute(int attribute, int resourceId, String name) {
+      int nameIndex = buffer.getInt(attribute + 4);
+      if (nameIndex >= 0 && nameIndex < resourceIds.length && resourceIds[nameIndex] != 0) {
+        return resourceIds[nameIndex] == resourceId;
+      }
+      return name.equals(getString(nameIndex));
+    }
+
+    private Optional<String> getStringValue(int attribute) {
+      return getValueType(attribute) == TYPE_STRING
+          ? Optional.ofNullable(getString(buffer.getInt(attribute + 16)))
+          : Optional.empty();
+    }
+
+    private Optional<Integer> getIntValue(int attribute) {
+      switch (getValueType(attribute)) {
+        case TYPE_INT_DEC:
+        case TYPE_INT_HEX:
+        case TYPE_INT_BOOLEAN:
+          return Optional.of(buffer.getInt(attribute + 16));
+        case TYPE_STRING:
+          try {
+            return getStringValue(attribute).map(Integer::parseInt);
+          } catch (NumberFormatException e) {
+            return Optional.empty();
+          }
+        default:
+          return Optional.empty();
+      }
+    }
+
+    private Optional<Integer> getMinSdkVersion(int attribute) {
+      if (getValueType(attribute) == TYPE_STRING) {
+        // E.g., "N" before Android N is released.
+        Optional<Integer> version = getIntValue(attribute);
+        return version.isPresent() ? version : Optional.of(-1);
+      }
+      return getIntValue(attribute);
+    }
+
+    private int getValueType(int attribute) {
+      return bytes[attribute + 15] & 0xff;
+    }
+
+    @Nullable
+    private String getString(int index) {
+      return index >= 0 && index < strings.length ? strings[index] : null;
+    }
+
+    private int getUnsignedShort(int position) {
+      return buffer.getShort(position) & 0xffff;
+    }
+  }
+}
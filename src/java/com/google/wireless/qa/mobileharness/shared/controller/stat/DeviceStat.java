@@ -24,6 +24,7 @@ import com.google.devtools.mobileharness.infra.container.annotation.ProcessIncom
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.ResultCounter;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
@@ -84,6 +85,13 @@ public class DeviceStat {
   /** Last time in milliseconds when the device died. */
   private final AtomicLong lastDieTime = new AtomicLong(-1);
 
+  /** Last time in milliseconds when the device became idle, or negative if it is not idle. */
+  private final AtomicLong lastIdleTime = new AtomicLong(-1);
+
+  /** Time in milliseconds when the running test started, or negative if there is no test. */
+  @GuardedBy("this")
+  private long runningTestStartTime = -1;
+
   /** Latest stable version of the device. */
   private volatile Optional<String> latestVersion;
 
@@ -126,15 +134,22 @@ public class DeviceStat {
 
   public synchronized void addNewTest() {
     ++testNumSinceLastReboot;
+    runningTestStartTime = clock.millis();
   }
 
   /** Saves a finished test to the test history. */
   public synchronized void addFinishedTest(TestResult testResult) {
     ++totalHistoricalTestNum;
-    consecutiveFinishedFail =
-        TestResult.PASS.equals(testResult) || TestResult.SKIP.equals(testResult)
-            ? 0
-            : consecutiveFinishedFail + 1;
+    boolean passing = TestResult.PASS.equals(testResult) || TestResult.SKIP.equals(testResult);
+    consecutiveFinishedFail = passing ? 0 : consecutiveFinishedFail + 1;
+    LabMetrics.FINISHED_TESTS.increment();
+    if (!passing) {
+      LabMetrics.NON_PASSING_TESTS.increment();
+    }
+    if (runningTestStartTime >= 0) {
+      LabMetrics.TEST_RUN_TIME.record(Duration.ofMillis(clock.millis() - runningTestStartTime));
+      runningTestStartTime = -1;
+    }
     testResultCounterBuilder.setTotal(testResultCounterBuilder.getTotal() + 1);
     switch (testResult) {
       case UNKNOWN:
@@ -199,6 +214,29 @@ public class DeviceStat {
     consecutiveSetupFailureTimes.set(0);
   }
 
+  /** Updates the statistic data when the device is set up successfully. */
+  public void onSetUp(Duration setupTime) {
+    LabMetrics.DEVICE_SETUP_TIME.record(setupTime);
+  }
+
+  /** Updates the statistic data when a periodical check of the device finishes. */
+  public void onCheckDevice(Duration checkTime) {
+    LabMetrics.DEVICE_CHECK_TIME.record(checkTime);
+  }
+
+  /** Updates the statistic data when the device becomes idle. */
+  public void onIdle() {
+    lastIdleTime.set(clock.millis());
+  }
+
+  /** Updates the statistic data when the device is allocated to a test. */
+  public void onAllocated() {
+    long idleTime = lastIdleTime.getAndSet(-1);
+    if (idleTime >= 0) {
+      LabMetrics.ALLOCATION_WAIT_TIME.record(Duration.ofMillis(clock.millis() - idleTime));
+    }
+  }
+
   /** Updates the statistic data when the device rebooted. */
   public void onReboot() {
     lastRebootTime.set(clock.millis());
@@ -216,6 +254,7 @@ public class DeviceStat {
   /** Updates the statistic data when the device dies. The device may be rebooted or removed. */
   public void onDie() {
     lastDieTime.set(clock.millis());
+    lastIdleTime.set(-1);
   }
 
   /** Returns number of the setup failures on this device since last success. */
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.controller.stat;
+
+import com.google.devtools.mobileharness.shared.util.metrics.Counter;
+import com.google.devtools.mobileharness.shared.util.metrics.LatencyHistogram;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
+
+/** Time-series metrics of all the devices in the current lab server. See {@link DeviceStat}. */
+final class LabMetrics {
+
+  /** Time of setting up a device successfully, excluding the wait for the device reservation. */
+  static final LatencyHistogram DEVICE_SETUP_TIME =
+      MetricRegistry.getInstance()
+          .histogram(
+              "mh_lab_device_setup_seconds",
+              "Time of setting up a device successfully, in seconds.");
+
+  /** Time of a periodical device check. */
+  static final LatencyHistogram DEVICE_CHECK_TIME =
+      MetricRegistry.getInstance()
+          .histogram(
+              "mh_lab_device_check_seconds", "Time of a periodical device check, in seconds.");
+
+  /** Time from a test starting on a device to finishing. */
+  static final LatencyHistogram TEST_RUN_TIME =
+      MetricRegistry.getInstance()
+          .histogram("mh_lab_test_run_seconds", "Time of running a test on a device, in seconds.");
+
+  /** Time from a device becoming idle to being allocated to a test. */
+  static final LatencyHistogram ALLOCATION_WAIT_TIME =
+      MetricRegistry.getInstance()
+          .histogram(
+              "mh_lab_allocation_wait_seconds",
+              "Time from a device becoming idle to being allocated to a test, in seconds.");
+
+  /** Number of the finished tests. */
+  static final Counter FINISHED_TESTS =
+      MetricRegistry.getInstance()
+          .counter("mh_lab_finished_tests_total", "Number of the finished tests.");
+
+  /** Number of the finished tests which are not passed or skipped. */
+  static final Counter NON_PASSING_TESTS =
+      MetricRegistry.getInstance()
+          .counter(
+              "mh_lab_non_passing_tests_total",
+              "Number of the finished tests which are not passed or skipped.");
+
+  private LabMetrics() {}
+}
@@ -50,6 +50,7 @@ import com.google.wireless.qa.mobileharness.shared.model.job.in.spec.SpecConfiga
 import com.google.wireless.qa.mobileharness.shared.model.job.in.spec.UnionJobSpec;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Errors;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Log;
+import com.google.wireless.qa.mobileharness.shared.model.job.out.LogHeapBudget;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Properties;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.RemoteFiles;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Result;
@@ -173,6 +174,9 @@ public class JobInfo extends JobScheduleUnit {
   /** Job result. */
   private final Result result;
 
+  /** Heap memory budget of the logs of the job and its tests. */
+  private final LogHeapBudget logHeapBudget = LogHeapBudget.fromFlag();
+
   /** Job log. */
   private final Log log;
 
@@ -273,7 +277,7 @@ public class JobInfo extends JobScheduleUnit {
                         PathUtil.join(remoteFileDir, "j_" + locator().getId(), "runfiles")));
     status = new Status(timing());
     result = new Result(timing(), params());
-    log = new Log(timing());
+    log = new Log(timing(), logHeapBudget);
     properties = new Properties(timing());
     errors = new Errors(log, timing());
     spec = new ProtoJobSpec();
@@ -392,6 +396,11 @@ public class JobInfo extends JobScheduleUnit {
     return log;
   }
 
+  /** Heap memory budget of the logs of the job and its tests. */
+  LogHeapBudget logHeapBudget() {
+    return logHeapBudget;
+  }
+
   /** Output properties generated during execution. */
   public Properties properties() {
     return properties;
@@ -136,7 +136,7 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
 
     fileUtil = builder.fileUtil == null ? new LocalFileUtil() : builder.fileUtil;
 
-    log = new Log(timing());
+    log = new Log(timing(), jobInfo.logHeapBudget());
     files = new Files(timing(), fileUtil);
     remoteGenFiles =
         new RemoteFiles(
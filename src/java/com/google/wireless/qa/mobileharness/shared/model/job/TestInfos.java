@@ -20,6 +20,7 @@ import static java.util.Collections.min;
 
 import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
@@ -29,6 +30,7 @@ import com.google.devtools.mobileharness.api.model.proto.Job.Retry;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.wireless.qa.mobileharness.shared.constant.PropertyName.Test;
+import com.google.wireless.qa.mobileharness.shared.model.job.out.Status;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Timing;
 import com.google.wireless.qa.mobileharness.shared.model.job.util.ResultComparator;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
@@ -36,14 +38,37 @@ import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
-/** A set of tests that belongs to the same job. */
+/**
+ * A set of tests that belongs to the same job.
+ *
+ * <p>The tests are also indexed by their statuses, which are kept up to date by listening to the
+ * status changes of the tests, so counting the tests of a status doesn't need to scan all tests.
+ */
 public class TestInfos {
 
+  /**
+   * Listener of the tests. It is called while holding the lock of the tests, so it should return
+   * quickly and should not wait for other threads which may access the tests.
+   */
+  public interface Listener {
+
+    /** Called after a test is added. */
+    default void onTestAdded(TestInfo testInfo) {}
+
+    /** Called after all the tests become {@link TestStatus#DONE}. */
+    default void onAllDone() {}
+  }
+
   /** The job that these tests belongs to. */
   private final JobInfo jobInfo;
 
@@ -56,6 +81,20 @@ public class TestInfos {
   /** All the tests in this job group indexed by test id. */
   private final Map<String, TestInfo> testsById = new HashMap<>();
 
+  /** All the tests in this job indexed by status, in the order they get the statuses. */
+  @GuardedBy("this")
+  private final Map<TestStatus, Set<TestInfo>> testsByStatus = new EnumMap<>(TestStatus.class);
+
+  /** The statuses by which the tests are indexed in {@link #testsByStatus}, indexed by test id. */
+  @GuardedBy("this")
+  private final Map<String, TestStatus> indexedStatuses = new HashMap<>();
+
+  /** Listeners of the statuses of the tests, indexed by test id. */
+  @GuardedBy("this")
+  private final Map<String, Status.Listener> statusListeners = new HashMap<>();
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
   /**
    * Creates a test set. Only visible for this package. API users shouldn't directly create an
    * instance of this.
@@ -158,6 +197,7 @@ public class TestInfos {
 
     testsById.put(testId, testInfo);
     testsByName.put(testLocator.getName(), testInfo);
+    onTestAdded(testInfo);
     jobInfo.timing().touch();
     return this;
   }
@@ -182,13 +222,16 @@ public class TestInfos {
    */
   @CanIgnoreReturnValue
   synchronized TestInfos addAll(List<TestInfo> testInfos) {
-    testInfos.forEach(
-        testInfo -> {
-          TestLocator testLocator = testInfo.locator();
-          String testId = testLocator.getId();
-          testsById.put(testId, testInfo);
-          testsByName.put(testLocator.getName(), testInfo);
-        });
+    for (TestInfo testInfo : testInfos) {
+      TestLocator testLocator = testInfo.locator();
+      String testId = testLocator.getId();
+      TestInfo oldTestInfo = testsById.put(testId, testInfo);
+      if (oldTestInfo != null) {
+        unindex(oldTestInfo);
+      }
+      testsByName.put(testLocator.getName(), testInfo);
+      onTestAdded(testInfo);
+    }
     return this;
   }
 
@@ -209,8 +252,13 @@ public class TestInfos {
         throw new MobileHarnessException(
             BasicErrorId.TEST_REMOVE_RUNNING_TEST_ERROR, "Can not remove a running test " + testId);
       }
+      boolean wasAllDone = allDone();
       testsByName.remove(testInfo.locator().getName(), testInfo);
       testsById.remove(testId);
+      unindex(testInfo);
+      if (!wasAllDone && allDone()) {
+        onAllDone();
+      }
       jobInfo.timing().touch();
     }
     return testInfo;
@@ -218,8 +266,15 @@ public class TestInfos {
 
   /** Remove all the {@link TestInfo} of the current job. */
   public synchronized void clear() {
+    boolean wasAllDone = allDone();
+    for (TestInfo testInfo : testsById.values()) {
+      unindex(testInfo);
+    }
     testsByName.clear();
     testsById.clear();
+    if (!wasAllDone) {
+      onAllDone();
+    }
     jobInfo.timing().touch();
   }
 
@@ -254,34 +309,39 @@ public class TestInfos {
 
   /** Gets the number of the tests which are new, not assigned and not suspended. */
   public synchronized int getNewTestCount() {
-    int count = 0;
-    for (TestInfo testInfo : testsById.values()) {
-      if (testInfo.status().get() == TestStatus.NEW) {
-        count++;
-      }
-    }
-    return count;
+    return getTestCount(TestStatus.NEW);
   }
 
   /** Gets the number of the suspended tests, which are not assigned due to quota issues. */
   public synchronized int getSuspendedTestCount() {
-    int count = 0;
-    for (TestInfo testInfo : testsById.values()) {
-      if (testInfo.status().get() == TestStatus.SUSPENDED) {
-        count++;
-      }
-    }
-    return count;
+    return getTestCount(TestStatus.SUSPENDED);
+  }
+
+  /** Gets the number of the tests with the given status. */
+  public synchronized int getTestCount(TestStatus status) {
+    Set<TestInfo> tests = testsByStatus.get(status);
+    return tests == null ? 0 : tests.size();
+  }
+
+  /** Returns the tests with the given status, in the order they get the status. */
+  public synchronized ImmutableList<TestInfo> getByStatus(TestStatus status) {
+    Set<TestInfo> tests = testsByStatus.get(status);
+    return tests == null ? ImmutableList.of() : ImmutableList.copyOf(tests);
   }
 
   /** Returns whether all the tests in this job are finished. */
   public synchronized boolean allDone() {
-    for (TestInfo testInfo : testsById.values()) {
-      if (testInfo.status().get() != TestStatus.DONE) {
-        return false;
-      }
-    }
-    return true;
+    return getTestCount(TestStatus.DONE) == testsById.size();
+  }
+
+  /** Adds a listener of the tests. */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /** Removes a listener of the tests. No effect if the listener has not been added. */
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
   }
 
   /** Returns all the {@link TestInfo} of the current job. */
@@ -327,6 +387,63 @@ public class TestInfos {
     return finalizedTests;
   }
 
+  @GuardedBy("this")
+  private void onTestAdded(TestInfo testInfo) {
+    String testId = testInfo.locator().getId();
+    Status.Listener statusListener = (oldStatus, newStatus) -> onStatusChanged(testInfo);
+    statusListeners.put(testId, statusListener);
+    // Adds the listener before reading the status, so no status change is missed.
+    testInfo.status().addListener(statusListener);
+    TestStatus status = testInfo.status().get();
+    indexedStatuses.put(testId, status);
+    testsByStatus.computeIfAbsent(status, key -> new LinkedHashSet<>()).add(testInfo);
+    listeners.forEach(listener -> listener.onTestAdded(testInfo));
+  }
+
+  /**
+   * Moves the test to the bucket of its current status. Status listeners are called after the lock
+   * of the status is released, so notifications of concurrent changes may arrive out of order, and
+   * the index always follows the latest status instead of the notified one.
+   */
+  private synchronized void onStatusChanged(TestInfo testInfo) {
+    String testId = testInfo.locator().getId();
+    if (testsById.get(testId) != testInfo) {
+      // The test has been removed.
+      return;
+    }
+    TestStatus newStatus = testInfo.status().get();
+    TestStatus oldStatus = indexedStatuses.put(testId, newStatus);
+    if (oldStatus == newStatus) {
+      return;
+    }
+    boolean wasAllDone = allDone();
+    if (oldStatus != null) {
+      testsByStatus.get(oldStatus).remove(testInfo);
+    }
+    testsByStatus.computeIfAbsent(newStatus, key -> new LinkedHashSet<>()).add(testInfo);
+    if (!wasAllDone && allDone()) {
+      onAllDone();
+    }
+  }
+
+  @GuardedBy("this")
+  private void onAllDone() {
+    listeners.forEach(Listener::onAllDone);
+  }
+
+  @GuardedBy("this")
+  private void unindex(TestInfo testInfo) {
+    String testId = testInfo.locator().getId();
+    Status.Listener statusListener = statusListeners.remove(testId);
+    if (statusListener != null) {
+      testInfo.status().removeListener(statusListener);
+    }
+    TestStatus status = indexedStatuses.remove(testId);
+    if (status != null) {
+      testsByStatus.get(status).remove(testInfo);
+    }
+  }
+
   private ListMultimap<Integer, TestInfo> getTestsByRepeatIndex(List<TestInfo> tests) {
     ListMultimap<Integer, TestInfo> testsByRepeatIndex = LinkedListMultimap.create();
     for (TestInfo test : tests) {
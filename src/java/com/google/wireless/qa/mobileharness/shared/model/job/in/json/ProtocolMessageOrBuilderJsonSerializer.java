@@ -21,6 +21,10 @@ import static com.google.common.io.BaseEncoding.base64;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Converter;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.gson.JsonArray;
@@ -52,6 +56,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 
 /**
  * General serializer for {@link MessageOrBuilder}s (Java proto2 API). This is meant to be
@@ -82,8 +87,40 @@ public class ProtocolMessageOrBuilderJsonSerializer
   private final boolean base64EncodedByteStrings;
   private final boolean accountForUnsignedTypes;
 
-  // Function to transform proto field descriptors to json key names.
-  private Function<FieldDescriptor, String> fieldDescriptorTransformer;
+  /**
+   * Static "newBuilder" methods of message classes.
+   *
+   * <p>It is a {@link ClassValue} so that it doesn't keep message classes loaded by other class
+   * loaders from being unloaded.
+   */
+  private static final ClassValue<Method> NEW_BUILDER_METHODS =
+      new ClassValue<>() {
+        @Override
+        protected Method computeValue(Class<?> messageClass) {
+          return getNewBuilderMethod(messageClass);
+        }
+      };
+
+  /** Precompiled plans of Java enum classes. */
+  private static final ClassValue<EnumPlan> ENUM_PLANS =
+      new ClassValue<>() {
+        @Override
+        protected EnumPlan computeValue(Class<?> enumClass) {
+          return createEnumPlan(enumClass.asSubclass(ProtocolMessageEnum.class));
+        }
+      };
+
+  // Function to transform proto field descriptors to json key names, and the plans of message types
+  // which depend on it. They are replaced together by setFieldNameConverter().
+  private volatile MessagePlans messagePlans;
+
+  // Java classes of message types and enum types. Descriptors and classes are weakly referenced so
+  // that the serializers held by static Gson instances don't keep them alive. Classes which are not
+  // found are not cached.
+  private final Cache<Descriptor, Class<? extends MessageOrBuilder>> messageClasses =
+      CacheBuilder.newBuilder().weakKeys().weakValues().build();
+  private final Cache<EnumDescriptor, Class<? extends ProtocolMessageEnum>> enumClasses =
+      CacheBuilder.newBuilder().weakKeys().weakValues().build();
 
   /** Use {@link ProtocolMessageOrBuilderJsonSerializer#defaultSerializer} */
   @Deprecated
@@ -140,7 +177,7 @@ public class ProtocolMessageOrBuilderJsonSerializer
     this.allowUnknownFields = builder.allowUnknownFields;
     this.partialBuild = builder.partialBuild;
     this.base64EncodedByteStrings = builder.base64EncodedByteStrings;
-    this.fieldDescriptorTransformer = builder.fieldDescriptorTransformer;
+    this.messagePlans = new MessagePlans(builder.fieldDescriptorTransformer);
     this.accountForUnsignedTypes = builder.accountForUnsignedTypes;
   }
 
@@ -239,6 +276,7 @@ public class ProtocolMessageOrBuilderJsonSerializer
   public JsonElement serialize(
       MessageOrBuilder src, Type typeOfSrc, JsonSerializationContext context) {
     JsonObject ret = new JsonObject();
+    MessagePlan plan = messagePlans.get(src.getDescriptorForType());
     Map<Descriptors.FieldDescriptor, Object> fields = src.getAllFields();
 
     for (Map.Entry<Descriptors.FieldDescriptor, Object> fieldPair : fields.entrySet()) {
@@ -252,12 +290,12 @@ public class ProtocolMessageOrBuilderJsonSerializer
           for (Object o : fieldList) {
             array.add(serializeValue(o, desc, context));
           }
-          ret.add(getFieldName(desc), array);
+          ret.add(plan.getFieldName(desc), array);
         }
 
         // Not a repeated field
       } else {
-        ret.add(getFieldName(desc), serializeValue(fieldPair.getValue(), desc, context));
+        ret.add(plan.getFieldName(desc), serializeValue(fieldPair.getValue(), desc, context));
       }
     }
     return ret;
@@ -299,15 +337,42 @@ public class ProtocolMessageOrBuilderJsonSerializer
   }
 
   private String getFieldName(FieldDescriptor fd) {
-    return fieldDescriptorTransformer.apply(fd);
+    return messagePlans.get(fd.getContainingType()).getFieldName(fd);
+  }
+
+  private static EnumPlan createEnumPlan(Class<? extends ProtocolMessageEnum> enumClass) {
+    Method valueOfMethod;
+    try {
+      valueOfMethod = enumClass.getDeclaredMethod("valueOf", Descriptors.EnumValueDescriptor.class);
+    } catch (NoSuchMethodException e) {
+      return new EnumPlan(null, null);
+    }
+
+    ProtocolMessageEnum[] values;
+    try {
+      EnumDescriptor enumDesc =
+          (EnumDescriptor) enumClass.getDeclaredMethod("getDescriptor").invoke(null);
+      List<EnumValueDescriptor> valueDescs = enumDesc.getValues();
+      values = new ProtocolMessageEnum[valueDescs.size()];
+      for (EnumValueDescriptor valueDesc : valueDescs) {
+        values[valueDesc.getIndex()] = enumClass.cast(valueOfMethod.invoke(null, valueDesc));
+      }
+    } catch (NoSuchMethodException
+        | IllegalAccessException
+        | InvocationTargetException
+        | RuntimeException e) {
+      // Looks up the values one by one when serializing them.
+      values = null;
+    }
+    return new EnumPlan(valueOfMethod, values);
   }
 
   @CanIgnoreReturnValue
   @Deprecated
   public ProtocolMessageOrBuilderJsonSerializer setFieldNameConverter(
       Function<FieldDescriptor, String> fieldNameConverter) {
-    this.fieldDescriptorTransformer =
-        Preconditions.checkNotNull(fieldNameConverter, "fieldNameConverter");
+    this.messagePlans =
+        new MessagePlans(Preconditions.checkNotNull(fieldNameConverter, "fieldNameConverter"));
     return this;
   }
 
@@ -323,21 +388,25 @@ public class ProtocolMessageOrBuilderJsonSerializer
       EnumValueDescriptor rawValue, EnumDescriptor enumDesc, JsonSerializationContext context) {
     final Class<? extends ProtocolMessageEnum> enumClass;
     try {
-      enumClass = getProtoEnumClass(enumDesc);
+      enumClass = getEnumClass(enumDesc);
     } catch (ClassNotFoundException e) {
       // No java class could be found for this enum. This can happen when the descriptor is
       // based on a non-compiled descriptor (e.g. DynamicMessage). Directly serialize as a string.
       return context.serialize(rawValue.getName());
     }
 
-    final ProtocolMessageEnum enumValue;
-    try {
-      Method valueOfMethod =
-          enumClass.getDeclaredMethod("valueOf", Descriptors.EnumValueDescriptor.class);
-      enumValue = enumClass.cast(valueOfMethod.invoke(null, rawValue));
-    } catch (IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-      // If we failed, fall back to serializing as a string
-      return context.serialize(rawValue.getName());
+    EnumPlan plan = ENUM_PLANS.get(enumClass);
+    ProtocolMessageEnum enumValue = plan.getValue(rawValue);
+    if (enumValue == null) {
+      if (plan.valueOfMethod == null) {
+        return context.serialize(rawValue.getName());
+      }
+      try {
+        enumValue = enumClass.cast(plan.valueOfMethod.invoke(null, rawValue));
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        // If we failed, fall back to serializing as a string
+        return context.serialize(rawValue.getName());
+      }
     }
 
     return context.serialize(enumValue, enumClass);
@@ -361,11 +430,10 @@ public class ProtocolMessageOrBuilderJsonSerializer
     Message.Builder resultBuilder = getBuilderForType(concreteClass);
 
     Descriptor descriptorForType = resultBuilder.getDescriptorForType();
+    MessagePlan plan = messagePlans.get(descriptorForType);
 
-    Set<String> knownFieldNames = new HashSet<>();
     for (Descriptors.FieldDescriptor desc : descriptorForType.getFields()) {
-      String fieldName = getFieldName(desc);
-      knownFieldNames.add(fieldName);
+      String fieldName = plan.getFieldName(desc);
       if (obj.has(fieldName)) {
         try {
           JsonElement prop = obj.get(fieldName);
@@ -407,7 +475,7 @@ public class ProtocolMessageOrBuilderJsonSerializer
       for (Map.Entry<String, JsonElement> objField : obj.entrySet()) {
         foundFieldNames.add(objField.getKey());
       }
-      Set<String> unknownFieldNames = Sets.difference(foundFieldNames, knownFieldNames);
+      Set<String> unknownFieldNames = Sets.difference(foundFieldNames, plan.knownFieldNames);
       if (!unknownFieldNames.isEmpty()) {
         throw new JsonParseException("Unknown fields " + unknownFieldNames + ": " + json);
       }
@@ -513,7 +581,7 @@ public class ProtocolMessageOrBuilderJsonSerializer
       JsonElement json, EnumDescriptor enumDesc, JsonDeserializationContext context) {
     Class<? extends ProtocolMessageEnum> enumClass;
     try {
-      enumClass = getProtoEnumClass(enumDesc);
+      enumClass = getEnumClass(enumDesc);
     } catch (ClassNotFoundException e) {
       throw new JsonParseException(
           "Cannot instantiate enum class for field " + enumDesc.getName(), e);
@@ -534,11 +602,14 @@ public class ProtocolMessageOrBuilderJsonSerializer
   /** Deserialize a proto message JsonElement. */
   private MessageOrBuilder deserializeMessage(
       JsonElement json, Descriptor messageDesc, JsonDeserializationContext context) {
-    Class<? extends MessageOrBuilder> messageClass;
-    try {
-      messageClass = getMessageClass(messageDesc);
-    } catch (ClassNotFoundException e) {
-      throw new JsonParseException("Message class not found for " + messageDesc.getName(), e);
+    Class<? extends MessageOrBuilder> messageClass = messageClasses.getIfPresent(messageDesc);
+    if (messageClass == null) {
+      try {
+        messageClass = getMessageClass(messageDesc);
+      } catch (ClassNotFoundException e) {
+        throw new JsonParseException("Message class not found for " + messageDesc.getName(), e);
+      }
+      messageClasses.put(messageDesc, messageClass);
     }
 
     return messageClass.cast(context.deserialize(json, messageClass));
@@ -550,6 +621,21 @@ public class ProtocolMessageOrBuilderJsonSerializer
    * @param concreteClass the actual "Message" class that will be built
    */
   private Message.Builder getBuilderForType(Class<?> concreteClass) throws JsonParseException {
+    try {
+      return (Message.Builder) NEW_BUILDER_METHODS.get(concreteClass).invoke(null);
+    } catch (IllegalAccessException e) {
+      throw new JsonParseException("Error Instantiating " + concreteClass.getName(), e);
+    } catch (InvocationTargetException e) {
+      throw new JsonParseException("Error Instantiating " + concreteClass.getName(), e);
+    }
+  }
+
+  /**
+   * Gets the static "newBuilder" method of the concrete class using reflection.
+   *
+   * @param concreteClass the actual "Message" class that will be built
+   */
+  private static Method getNewBuilderMethod(Class<?> concreteClass) throws JsonParseException {
     Method newBuilderMethod;
     try {
       newBuilderMethod = concreteClass.getDeclaredMethod("newBuilder");
@@ -564,14 +650,7 @@ public class ProtocolMessageOrBuilderJsonSerializer
               + concreteClass.getName()
               + " because the \"newBuilder\" method is not static on the class.");
     }
-
-    try {
-      return (Message.Builder) newBuilderMethod.invoke(null);
-    } catch (IllegalAccessException e) {
-      throw new JsonParseException("Error Instantiating " + concreteClass.getName(), e);
-    } catch (InvocationTargetException e) {
-      throw new JsonParseException("Error Instantiating " + concreteClass.getName(), e);
-    }
+    return newBuilderMethod;
   }
 
   /**
@@ -600,6 +679,17 @@ public class ProtocolMessageOrBuilderJsonSerializer
     return result.toString();
   }
 
+  /** Gets a java class from a FieldDescriptor for an enum, which is cached if found. */
+  private Class<? extends ProtocolMessageEnum> getEnumClass(EnumDescriptor enumDesc)
+      throws ClassNotFoundException {
+    Class<? extends ProtocolMessageEnum> enumClass = enumClasses.getIfPresent(enumDesc);
+    if (enumClass == null) {
+      enumClass = getProtoEnumClass(enumDesc);
+      enumClasses.put(enumDesc, enumClass);
+    }
+    return enumClass;
+  }
+
   /**
    * Gets a java class from a FieldDescriptor for an enum.
    *
@@ -705,4 +795,80 @@ public class ProtocolMessageOrBuilderJsonSerializer
       return classNameStr;
     }
   }
+
+  /** Precompiled plans of message types with the same field name transformer. */
+  private static final class MessagePlans {
+
+    private final Function<FieldDescriptor, String> fieldDescriptorTransformer;
+
+    // Plans don't reference descriptors, so the weak keys can be collected with the descriptors of
+    // DynamicMessages.
+    private final Cache<Descriptor, MessagePlan> plans =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private MessagePlans(Function<FieldDescriptor, String> fieldDescriptorTransformer) {
+      this.fieldDescriptorTransformer = fieldDescriptorTransformer;
+    }
+
+    private MessagePlan get(Descriptor messageDesc) {
+      return plans
+          .asMap()
+          .computeIfAbsent(messageDesc, desc -> new MessagePlan(desc, fieldDescriptorTransformer));
+    }
+  }
+
+  /** Precompiled plan of (de)serializing the fields of a message type. */
+  private static final class MessagePlan {
+
+    private final Function<FieldDescriptor, String> fieldDescriptorTransformer;
+
+    /** Json key names of the fields of the message type, indexed by the indexes of the fields. */
+    private final ImmutableList<String> fieldNames;
+
+    private final ImmutableSet<String> knownFieldNames;
+
+    private MessagePlan(
+        Descriptor messageDesc, Function<FieldDescriptor, String> fieldDescriptorTransformer) {
+      this.fieldDescriptorTransformer = fieldDescriptorTransformer;
+      ImmutableList.Builder<String> fieldNames = ImmutableList.builder();
+      for (FieldDescriptor field : messageDesc.getFields()) {
+        fieldNames.add(fieldDescriptorTransformer.apply(field));
+      }
+      this.fieldNames = fieldNames.build();
+      this.knownFieldNames = ImmutableSet.copyOf(this.fieldNames);
+    }
+
+    private String getFieldName(FieldDescriptor field) {
+      // Extensions are not in the plan.
+      return field.isExtension()
+          ? fieldDescriptorTransformer.apply(field)
+          : fieldNames.get(field.getIndex());
+    }
+  }
+
+  /** Precompiled plan of serializing the values of a Java enum class. */
+  private static final class EnumPlan {
+
+    /** The static "valueOf(EnumValueDescriptor)" method of the enum class, or null if absent. */
+    @Nullable private final Method valueOfMethod;
+
+    /** Java enum values indexed by the indexes of their descriptors, or null if unavailable. */
+    @Nullable private final ProtocolMessageEnum[] values;
+
+    private EnumPlan(@Nullable Method valueOfMethod, @Nullable ProtocolMessageEnum[] values) {
+      this.valueOfMethod = valueOfMethod;
+      this.values = values;
+    }
+
+    /** Returns the Java enum value of a value descriptor, or null if it is not in the plan. */
+    @Nullable
+    private ProtocolMessageEnum getValue(EnumValueDescriptor valueDesc) {
+      int index = valueDesc.getIndex();
+      if (values == null || index < 0 || index >= values.length) {
+        return null;
+      }
+      ProtocolMessageEnum value = values[index];
+      return value != null && value.getValueDescriptor() == valueDesc ? value : null;
+    }
+  }
 }
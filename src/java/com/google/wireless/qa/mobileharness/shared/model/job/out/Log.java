@@ -19,6 +19,8 @@ package com.google.wireless.qa.mobileharness.shared.model.job.out;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.errorprone.annotations.CheckReturnValue;
 import com.google.errorprone.annotations.CompileTimeConstant;
@@ -29,14 +31,45 @@ import com.google.wireless.qa.mobileharness.shared.log.LogContext;
 import com.google.wireless.qa.mobileharness.shared.log.LogData;
 import com.google.wireless.qa.mobileharness.shared.log.LoggingApi;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Log.Api;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Output log of the job/test. */
+/**
+ * Output log of the job/test.
+ *
+ * <p>The log is stored as segments. New logs are appended to an in-heap tail, which is sealed into
+ * a segment once it is large enough. When the sealed segments of a job and its tests exceed their
+ * {@link LogHeapBudget}, the oldest ones are spilled to a compressed file in the system temp dir,
+ * which is deleted when the log is garbage collected. Spilling runs in a background thread without
+ * holding the lock of the log, so it doesn't slow down appending. Reading copies the references of
+ * the needed segments under the lock and decompresses the spilled ones outside of it.
+ */
 public class Log implements LogCollector<Api> {
 
   /** See {@link LoggingApi}. */
@@ -105,23 +138,91 @@ public class Log implements LogCollector<Api> {
       DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:SSS z")
           .withZone(TimeZone.getTimeZone("America/Los_Angeles").toZoneId());
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** The tail is sealed into a segment once it has at least this number of chars. */
+  @VisibleForTesting static final int SEGMENT_SIZE = 256 * 1024;
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private static final Executor DEFAULT_SPILL_EXECUTOR =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("log-spiller-%d").build());
+
+  /** Sealed segments of the log, ordered by their offsets. */
+  @GuardedBy("this")
+  private final List<Segment> segments = new ArrayList<>();
+
   /** Output logs will be appended to this buffer while running this job/test. */
-  private final StringBuffer buffer = new StringBuffer();
+  @GuardedBy("this")
+  private StringBuilder tail = new StringBuilder();
+
+  /** Offset of the tail in the whole log. */
+  @GuardedBy("this")
+  private long tailOffset;
+
+  /** Index of the oldest segment which is not spilled. */
+  @GuardedBy("this")
+  private int firstInHeapSegmentIndex;
+
+  /** Size in bytes of the spill file. */
+  @GuardedBy("this")
+  private long spillFileSize;
+
+  /** Whether the log fails to be spilled, in which case all segments are kept in heap. */
+  @GuardedBy("this")
+  private boolean spillFailed;
+
+  /** Whether a spill task of this log has been submitted and not finished. */
+  @GuardedBy("this")
+  private boolean spilling;
+
+  private final SpillState spillState;
+
+  private final Executor spillExecutor;
 
   /** The time records of the job/test. */
   private final Timing timing;
 
   private final LogCollectorBackend<LogData> backend = new LogCollectorBackendImpl();
 
-  /** Creates the output log segment of a job/test. */
+  /** Creates the output log segment of a job/test, which is never spilled. */
   public Log(Timing timing) {
+    this(timing, LogHeapBudget.unlimited());
+  }
+
+  /**
+   * Creates the output log segment of a job/test.
+   *
+   * @param heapBudget the heap memory budget shared with the logs of the same job
+   */
+  public Log(Timing timing, LogHeapBudget heapBudget) {
+    this(timing, heapBudget, DEFAULT_SPILL_EXECUTOR);
+  }
+
+  @VisibleForTesting
+  Log(Timing timing, LogHeapBudget heapBudget, Executor spillExecutor) {
     this.timing = timing;
+    this.spillState = new SpillState(heapBudget);
+    this.spillExecutor = spillExecutor;
+    CLEANER.register(this, spillState);
   }
 
   /** Appends new log. */
   @CanIgnoreReturnValue
   public Log append(String message) {
-    buffer.append(message);
+    boolean startSpilling = false;
+    synchronized (this) {
+      tail.append(message);
+      if (tail.length() >= SEGMENT_SIZE) {
+        sealTail();
+        startSpilling = !spilling && !spillFailed && spillState.heapBudget.isExceeded();
+        spilling |= startSpilling;
+      }
+    }
+    if (startSpilling) {
+      spillExecutor.execute(this::spill);
+    }
     timing.touch();
     return this;
   }
@@ -164,15 +265,46 @@ public class Log implements LogCollector<Api> {
    * the current log length, an empty string is returned.
    */
   public String get(int offset) {
-    if (offset >= buffer.length()) {
-      return "";
+    List<Segment> segmentsToRead;
+    String tailText;
+    synchronized (this) {
+      long size = tailOffset + tail.length();
+      if (offset >= size) {
+        return "";
+      }
+      segmentsToRead = new ArrayList<>(segments.subList(findSegment(offset), segments.size()));
+      tailText = tail.substring((int) Math.max(offset - tailOffset, 0L));
+    }
+    try {
+      StringBuilder result = new StringBuilder();
+      long position = offset;
+      for (Segment segment : segmentsToRead) {
+        try {
+          result.append(getText(segment), (int) (position - segment.offset), segment.length);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Failed to read spilled log");
+          result.append("[Failed to read ").append(segment.length).append(" chars of log]\n");
+        }
+        position = segment.offset + segment.length;
+      }
+      return result.append(tailText).toString();
+    } finally {
+      // Keeps the spill file from being deleted by the cleaner while it is read.
+      Reference.reachabilityFence(this);
     }
-    return buffer.substring(offset);
+  }
+
+  /**
+   * Returns a reader of the log from the given offset, which reads the log without copying the
+   * whole log. The reader reaches its end at the end of the log at the time of reading.
+   */
+  public Reader newReader(int offset) {
+    return new LogReader(offset);
   }
 
   /** Returns the current length of the log. */
-  public int size() {
-    return buffer.length();
+  public synchronized int size() {
+    return Ints.saturatedCast(tailOffset + tail.length());
   }
 
   /**
@@ -186,8 +318,8 @@ public class Log implements LogCollector<Api> {
    * calling this method.
    */
   @CanIgnoreReturnValue
-  public Log shrink() {
-    buffer.trimToSize();
+  public synchronized Log shrink() {
+    tail.trimToSize();
     return this;
   }
 
@@ -200,4 +332,260 @@ public class Log implements LogCollector<Api> {
   public LogCollectorBackend<LogData> getLogCollectorBackend() {
     return backend;
   }
+
+  /** Seals the tail into a segment. */
+  @GuardedBy("this")
+  private void sealTail() {
+    Segment segment = new Segment(tailOffset, tail.toString());
+    segments.add(segment);
+    spillState.acquire(segment.getHeapBytes());
+    tailOffset += segment.length;
+    tail = new StringBuilder();
+  }
+
+  /**
+   * Spills the oldest segments in heap until the budget is not exceeded. Segments are compressed
+   * and written without holding the lock of the log, which is safe because only one spill task of a
+   * log runs at a time and sealed segments are immutable.
+   */
+  private void spill() {
+    try {
+      while (true) {
+        Segment segment;
+        long fileOffset;
+        synchronized (this) {
+          if (spillFailed
+              || firstInHeapSegmentIndex >= segments.size()
+              || !spillState.heapBudget.isExceeded()) {
+            return;
+          }
+          segment = segments.get(firstInHeapSegmentIndex);
+          fileOffset = spillFileSize;
+        }
+        int fileLength;
+        try {
+          fileLength = writeToSpillFile(segment.text);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Failed to spill log, keep it in heap");
+          synchronized (this) {
+            spillFailed = true;
+          }
+          return;
+        }
+        synchronized (this) {
+          segments.set(firstInHeapSegmentIndex, segment.toSpilled(fileOffset, fileLength));
+          spillFileSize += fileLength;
+          firstInHeapSegmentIndex++;
+        }
+        spillState.release(segment.getHeapBytes());
+      }
+    } finally {
+      synchronized (this) {
+        spilling = false;
+      }
+    }
+  }
+
+  /** Appends compressed text to the spill file, and returns the number of the written bytes. */
+  private int writeToSpillFile(String text) throws IOException {
+    if (spillState.file == null) {
+      spillState.file = Files.createTempFile("mh_log_", ".gz");
+    }
+    // Chars are written as they are, so any char sequence is restored exactly.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(bytes))) {
+      output.writeChars(text);
+    }
+    Files.write(spillState.file, bytes.toByteArray(), StandardOpenOption.APPEND);
+    return bytes.size();
+  }
+
+  /** Returns the index of the segment which contains the offset, or the size of the segments. */
+  @GuardedBy("this")
+  private int findSegment(long offset) {
+    int low = 0;
+    int high = segments.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      Segment segment = segments.get(mid);
+      if (offset >= segment.offset + segment.length) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the text of a segment, which is read from the spill file if it is spilled. It doesn't
+   * need the lock of the log since segments are immutable and the spill file is only appended.
+   */
+  private String getText(Segment segment) throws IOException {
+    String text = segment.text;
+    if (text != null) {
+      return text;
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(segment.fileLength);
+    try (FileChannel channel = FileChannel.open(spillState.file, StandardOpenOption.READ)) {
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, segment.fileOffset + bytes.position()) < 0) {
+          throw new IOException("Unexpected end of spilled log file " + spillState.file);
+        }
+      }
+    }
+    char[] chars = new char[segment.length];
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes.array()));
+        DataInputStream dataInput = new DataInputStream(input)) {
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = dataInput.readChar();
+      }
+    }
+    return new String(chars);
+  }
+
+  /** Reader of the log from an offset. */
+  private class LogReader extends Reader {
+
+    private long position;
+
+    /** The last spilled segment read by this reader, and its text. */
+    @Nullable private Segment cachedSegment;
+
+    @Nullable private String cachedText;
+
+    private LogReader(long position) {
+      this.position = position;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      Segment segment;
+      synchronized (Log.this) {
+        if (position >= tailOffset + tail.length()) {
+          return -1;
+        }
+        if (position >= tailOffset) {
+          int start = (int) (position - tailOffset);
+          int end = Math.min(tail.length(), start + length);
+          tail.getChars(start, end, buffer, offset);
+          position += end - start;
+          return end - start;
+        }
+        segment = segments.get(findSegment(position));
+      }
+      String text = segment.text;
+      if (text == null) {
+        if (cachedSegment != segment) {
+          try {
+            cachedText = getText(segment);
+          } finally {
+            Reference.reachabilityFence(Log.this);
+          }
+          cachedSegment = segment;
+        }
+        text = cachedText;
+      }
+      int start = (int) (position - segment.offset);
+      int end = Math.min(segment.length, start + length);
+      text.getChars(start, end, buffer, offset);
+      position += end - start;
+      return end - start;
+    }
+
+    @Override
+    public void close() {
+      cachedSegment = null;
+      cachedText = null;
+    }
+  }
+
+  /**
+   * A sealed part of the log. It is immutable, and is replaced by a spilled copy when its text is
+   * spilled, so it can be read without the lock of the log.
+   */
+  private static class Segment {
+
+    /** Offset of the segment in the whole log. */
+    private final long offset;
+
+    private final int length;
+
+    /** Text of the segment, or null if it is spilled. */
+    @Nullable private final String text;
+
+    /** Offset of the compressed segment in the spill file. */
+    private final long fileOffset;
+
+    /** Length of the compressed segment in the spill file. */
+    private final int fileLength;
+
+    private Segment(long offset, String text) {
+      this(offset, text.length(), text, 0L, 0);
+    }
+
+    private Segment(
+        long offset, int length, @Nullable String text, long fileOffset, int fileLength) {
+      this.offset = offset;
+      this.length = length;
+      this.text = text;
+      this.fileOffset = fileOffset;
+      this.fileLength = fileLength;
+    }
+
+    /** Returns a copy of the segment whose text is spilled to the given range of the spill file. */
+    private Segment toSpilled(long fileOffset, int fileLength) {
+      return new Segment(offset, length, /* text= */ null, fileOffset, fileLength);
+    }
+
+    /** Returns the estimated heap memory in bytes used by the text. */
+    private long getHeapBytes() {
+      return 2L * length;
+    }
+  }
+
+  /**
+   * Heap budget and spill file of a log, which are released when the log is garbage collected.
+   *
+   * <p>It must not refer to the log, so the log can become phantom reachable.
+   */
+  private static class SpillState implements Runnable {
+
+    private final LogHeapBudget heapBudget;
+
+    /** Bytes acquired from the budget by the segments in heap. */
+    private final AtomicLong acquiredBytes = new AtomicLong();
+
+    @Nullable private volatile Path file;
+
+    private SpillState(LogHeapBudget heapBudget) {
+      this.heapBudget = heapBudget;
+    }
+
+    private void acquire(long bytes) {
+      acquiredBytes.addAndGet(bytes);
+      heapBudget.acquire(bytes);
+    }
+
+    private void release(long bytes) {
+      acquiredBytes.addAndGet(-bytes);
+      heapBudget.release(bytes);
+    }
+
+    @Override
+    public void run() {
+      heapBudget.release(acquiredBytes.getAndSet(0L));
+      Path file = this.file;
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Failed to delete spilled log file %s", file);
+        }
+      }
+    }
+  }
 }
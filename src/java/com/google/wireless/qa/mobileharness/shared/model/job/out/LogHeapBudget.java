@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.model.job.out;
+
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap memory budget shared by the {@link Log}s of a job and its tests.
+ *
+ * <p>When the sealed segments of the logs use more heap memory than the budget, the log which is
+ * being appended spills its oldest segments to a compressed file in the system temp dir in the
+ * background.
+ */
+public final class LogHeapBudget {
+
+  /** Creates a budget specified by "--job_log_heap_budget_mb". */
+  public static LogHeapBudget fromFlag() {
+    return new LogHeapBudget(Flags.instance().jobLogHeapBudgetMb.getNonNull() * 1024L * 1024L);
+  }
+
+  /** Creates a budget without limit, so logs are never spilled. */
+  public static LogHeapBudget unlimited() {
+    return new LogHeapBudget(0L);
+  }
+
+  /** Max bytes of the budget, or non-positive if there is no limit. */
+  private final long maxBytes;
+
+  private final AtomicLong usedBytes = new AtomicLong();
+
+  /**
+   * Creates a budget.
+   *
+   * @param maxBytes max heap memory in bytes, or non-positive if there is no limit
+   */
+  public LogHeapBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns the estimated heap memory in bytes used by the sealed log segments. */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  void acquire(long bytes) {
+    usedBytes.addAndGet(bytes);
+  }
+
+  void release(long bytes) {
+    usedBytes.addAndGet(-bytes);
+  }
+
+  boolean isExceeded() {
+    return maxBytes > 0L && usedBytes.get() > maxBytes;
+  }
+}
@@ -19,9 +19,23 @@ package com.google.wireless.qa.mobileharness.shared.model.job.out;
 import com.google.common.flogger.FluentLogger;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /** Status of a job/test. */
 public class Status {
+
+  /** Listener of status changes. */
+  public interface Listener {
+
+    /**
+     * Called after the status is changed, without holding the lock of the status, so listeners can
+     * take other locks. If the status is changed concurrently, the notifications may be out of
+     * order, and listeners should read {@link #get()} for the latest status.
+     */
+    void onStatusChanged(TestStatus oldStatus, TestStatus newStatus);
+  }
+
   // TODO: Rename TestStatus proto to Status.
   /** Status of this job/test. */
   private volatile TestStatus status = TestStatus.NEW;
@@ -32,6 +46,8 @@ public class Status {
   /** The time records of the job/test. */
   private final Timing timing;
 
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
   /** Creates the status of a job/test. */
   public Status(Timing timing) {
     this.timing = timing;
@@ -48,24 +64,31 @@ public class Status {
 
   /** Updates the status with the given value. */
   @CanIgnoreReturnValue
-  public synchronized Status set(TestStatus status) {
-    if (this.status == status) {
-      return this;
-    }
-    if (status == TestStatus.NEW && this.status != TestStatus.SUSPENDED) {
-      logger.atWarning().log(
-          "Prevent overwriting the status back to NEW if the old status is not SUSPENDED");
-      return this;
-    }
+  public Status set(TestStatus status) {
+    TestStatus oldStatus;
+    synchronized (this) {
+      if (this.status == status) {
+        return this;
+      }
+      if (status == TestStatus.NEW && this.status != TestStatus.SUSPENDED) {
+        logger.atWarning().log(
+            "Prevent overwriting the status back to NEW if the old status is not SUSPENDED");
+        return this;
+      }
 
-    logger.atInfo().log("Status %s -> %s", this.status, status);
-    // If the job/test just gets started, records the start time.
-    if (this.status == TestStatus.NEW && timing.start()) {
-      // The timing has been updated. Skips.
-    } else {
-      timing.touch();
+      logger.atInfo().log("Status %s -> %s", this.status, status);
+      // If the job/test just gets started, records the start time.
+      if (this.status == TestStatus.NEW && timing.start()) {
+        // The timing has been updated. Skips.
+      } else {
+        timing.touch();
+      }
+      oldStatus = this.status;
+      this.status = status;
+    }
+    for (Listener listener : listeners) {
+      listener.onStatusChanged(oldStatus, status);
     }
-    this.status = status;
     return this;
   }
 
@@ -73,4 +96,14 @@ public class Status {
   public TestStatus get() {
     return status;
   }
+
+  /** Adds a listener which is notified of the later status changes. */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /** Removes a listener. No effect if the listener has not been added. */
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
 }
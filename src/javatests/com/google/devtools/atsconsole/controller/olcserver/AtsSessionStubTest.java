@@ -21,6 +21,14 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -33,6 +41,7 @@ import com.google.devtools.atsconsole.controller.olcserver.Annotations.ServerStu
 import com.google.devtools.atsconsole.controller.proto.SessionPluginProto.AtsSessionPluginConfig;
 import com.google.devtools.atsconsole.controller.proto.SessionPluginProto.AtsSessionPluginOutput;
 import com.google.devtools.atsconsole.controller.proto.SessionPluginProto.AtsSessionPluginOutput.Failure;
+import com.google.devtools.common.metrics.stability.rpc.grpc.GrpcExceptionUtil;
 import com.google.devtools.common.metrics.stability.rpc.grpc.GrpcExceptionWithErrorId;
 import com.google.devtools.deviceinfra.shared.util.concurrent.ThreadFactoryUtil;
 import com.google.devtools.deviceinfra.shared.util.flags.Flags;
@@ -40,14 +49,27 @@ import com.google.devtools.deviceinfra.shared.util.port.PortProber;
 import com.google.devtools.deviceinfra.shared.util.runfiles.RunfilesUtil;
 import com.google.devtools.deviceinfra.shared.util.time.Sleeper;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionId;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionOutput;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionPluginOutput;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionStatus;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.CreateSessionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetSessionRequest;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetSessionResponse;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.stub.SessionStub;
 import com.google.inject.Guice;
 import com.google.inject.testing.fieldbinder.Bind;
 import com.google.inject.testing.fieldbinder.BoundFieldModule;
+import com.google.protobuf.Any;
+import io.grpc.Status;
 import java.io.PrintStream;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import javax.inject.Inject;
 import org.junit.After;
 import org.junit.Before;
@@ -60,6 +82,26 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class AtsSessionStubTest {
 
+  private static final SessionId SESSION_ID = SessionId.newBuilder().setId("fake_id").build();
+
+  private static final AtsSessionPluginOutput ATS_SESSION_PLUGIN_OUTPUT =
+      AtsSessionPluginOutput.newBuilder()
+          .setFailure(Failure.newBuilder().setErrorMessage("fake_error"))
+          .build();
+
+  private static final SessionDetail FINAL_SESSION_DETAIL =
+      SessionDetail.newBuilder()
+          .setSessionId(SESSION_ID)
+          .setSessionStatus(SessionStatus.SESSION_FINISHED)
+          .setSessionOutput(
+              SessionOutput.newBuilder()
+                  .putSessionPluginOutput(
+                      "AtsSessionPlugin",
+                      SessionPluginOutput.newBuilder()
+                          .setOutput(Any.pack(ATS_SESSION_PLUGIN_OUTPUT))
+                          .build()))
+          .build();
+
   @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
 
   @Bind private ListeningExecutorService threadPool;
@@ -152,4 +194,112 @@ public class AtsSessionStubTest {
                 .setFailure(Failure.newBuilder().setErrorMessage("Unimplemented []"))
                 .build());
   }
+
+  @Test
+  public void runSession_watchSession() throws Exception {
+    SessionStub mockSessionStub = createMockSessionStub();
+    doAnswer(
+            invocation -> {
+              Consumer<WatchSessionResponse> responseConsumer = invocation.getArgument(1);
+              responseConsumer.accept(
+                  WatchSessionResponse.newBuilder()
+                      .setSessionStatus(SessionStatus.SESSION_RUNNING)
+                      .build());
+              responseConsumer.accept(
+                  WatchSessionResponse.newBuilder()
+                      .setSessionStatus(SessionStatus.SESSION_FINISHED)
+                      .setFinalSessionDetail(FINAL_SESSION_DETAIL)
+                      .build());
+              return null;
+            })
+        .when(mockSessionStub)
+        .watchSession(any(), any());
+
+    assertThat(runSession(mockSessionStub)).isEqualTo(ATS_SESSION_PLUGIN_OUTPUT);
+    verify(mockSessionStub, never()).getSession(any());
+  }
+
+  @Test
+  public void runSession_watchSessionUnimplemented_pollsSession() throws Exception {
+    SessionStub mockSessionStub = createMockSessionStub();
+    doThrow(createWatchSessionError(Status.UNIMPLEMENTED))
+        .when(mockSessionStub)
+        .watchSession(any(), any());
+    mockGetSession(mockSessionStub);
+
+    assertThat(runSession(mockSessionStub)).isEqualTo(ATS_SESSION_PLUGIN_OUTPUT);
+    verify(mockSessionStub, times(3)).getSession(any());
+  }
+
+  @Test
+  public void runSession_watchSessionCompletedBeforeFinish_pollsSession() throws Exception {
+    SessionStub mockSessionStub = createMockSessionStub();
+    doAnswer(
+            invocation -> {
+              Consumer<WatchSessionResponse> responseConsumer = invocation.getArgument(1);
+              responseConsumer.accept(
+                  WatchSessionResponse.newBuilder()
+                      .setSessionStatus(SessionStatus.SESSION_RUNNING)
+                      .build());
+              return null;
+            })
+        .when(mockSessionStub)
+        .watchSession(any(), any());
+    mockGetSession(mockSessionStub);
+
+    assertThat(runSession(mockSessionStub)).isEqualTo(ATS_SESSION_PLUGIN_OUTPUT);
+    verify(mockSessionStub, times(3)).getSession(any());
+  }
+
+  @Test
+  public void runSession_watchSessionError() throws Exception {
+    SessionStub mockSessionStub = createMockSessionStub();
+    doThrow(createWatchSessionError(Status.UNAVAILABLE))
+        .when(mockSessionStub)
+        .watchSession(any(), any());
+
+    ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> runSession(mockSessionStub));
+
+    assertThat(exception).hasCauseThat().isInstanceOf(MobileHarnessException.class);
+    assertThat(((MobileHarnessException) exception.getCause()).getErrorId())
+        .isEqualTo(InfraErrorId.ATSC_SESSION_STUB_WATCH_SESSION_ERROR);
+    verify(mockSessionStub, never()).getSession(any());
+  }
+
+  private AtsSessionPluginOutput runSession(SessionStub sessionStub) throws Exception {
+    return new AtsSessionStub(sessionStub, threadPool, mock(Sleeper.class))
+        .runSession("fake_session", AtsSessionPluginConfig.getDefaultInstance())
+        .get(1L, MINUTES);
+  }
+
+  private static SessionStub createMockSessionStub() throws Exception {
+    SessionStub mockSessionStub = mock(SessionStub.class);
+    when(mockSessionStub.createSession(any()))
+        .thenReturn(CreateSessionResponse.newBuilder().setSessionId(SESSION_ID).build());
+    return mockSessionStub;
+  }
+
+  /** Mocks GetSession to return the status twice, and then the final SessionDetail. */
+  private static void mockGetSession(SessionStub mockSessionStub) throws Exception {
+    when(mockSessionStub.getSession(any()))
+        .thenReturn(
+            GetSessionResponse.newBuilder()
+                .setSessionDetail(
+                    SessionDetail.newBuilder().setSessionStatus(SessionStatus.SESSION_RUNNING))
+                .build())
+        .thenReturn(
+            GetSessionResponse.newBuilder()
+                .setSessionDetail(
+                    SessionDetail.newBuilder().setSessionStatus(SessionStatus.SESSION_FINISHED))
+                .build())
+        .thenReturn(GetSessionResponse.newBuilder().setSessionDetail(FINAL_SESSION_DETAIL).build());
+  }
+
+  private static GrpcExceptionWithErrorId createWatchSessionError(Status status) {
+    return GrpcExceptionUtil.toGrpcExceptionWithErrorId(
+        InfraErrorId.OLCS_STUB_WATCH_SESSION_ERROR,
+        "Failed to watch session",
+        status.asRuntimeException());
+  }
 }
@@ -28,13 +28,17 @@ import com.google.devtools.atsconsole.result.proto.ReportProto.Summary;
 import com.google.devtools.atsconsole.result.report.CompatibilityReportMerger.ParseResult;
 import com.google.devtools.atsconsole.result.report.MoblyReportParser.MoblyReportInfo;
 import com.google.devtools.atsconsole.util.TestRunfilesUtil;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.inject.Guice;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
 import javax.inject.Inject;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -72,7 +76,12 @@ public final class CompatibilityReportMergerTest {
   private static final String DEVICE_BUILD_FINGERPRINT =
       "google/bramble/bramble:UpsideDownCake/UP1A.220722.002/8859461:userdebug/dev-keys";
 
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final LocalFileUtil localFileUtil = new LocalFileUtil();
+
   @Inject private CompatibilityReportMerger reportMerger;
+  @Inject private CompatibilityReportCreator reportCreator;
 
   @Before
   public void setUp() {
@@ -154,6 +163,27 @@ public final class CompatibilityReportMergerTest {
     assertThat(module1.getTestCase(1).getTestCount()).isEqualTo(4);
   }
 
+  @Test
+  public void mergeXmlReportsToDir_sameAsMergeXmlReports() throws Exception {
+    ImmutableList<Path> reportXmlFiles =
+        ImmutableList.of(Paths.get(CTS_TEST_RESULT_XML_2), Paths.get(CTS_TEST_RESULT_XML));
+    Result expectedResult = reportMerger.mergeXmlReports(reportXmlFiles).get();
+    Path expectedResultDir = temporaryFolder.newFolder("expected").toPath();
+    reportCreator.createReport(expectedResult, expectedResultDir);
+    Path resultDir = temporaryFolder.newFolder("merged").toPath();
+
+    Optional<Result> res = reportMerger.mergeXmlReportsToDir(reportXmlFiles, resultDir);
+
+    assertThat(res).hasValue(expectedResult.toBuilder().clearModuleInfo().build());
+    assertThat(
+            localFileUtil.readFile(
+                resultDir.resolve(CompatibilityReportCreator.TEST_RESULT_FILE_NAME)))
+        .isEqualTo(
+            localFileUtil.readFile(
+                expectedResultDir.resolve(CompatibilityReportCreator.TEST_RESULT_FILE_NAME)));
+    assertThat(localFileUtil.isFileExist(resultDir.resolve("checksum-suite.data"))).isTrue();
+  }
+
   @Test
   public void parseMoblyReports() throws Exception {
     List<ParseResult> res =
@@ -254,6 +254,18 @@ public final class CompatibilityReportParserTest {
                 .build());
   }
 
+  @Test
+  public void parseSummary_ctsReportXml() throws Exception {
+    Result fullResult = reportParser.parse(Paths.get(CTS_TEST_RESULT_XML)).get();
+    Result.Builder expectedResult = fullResult.toBuilder();
+    expectedResult.getModuleInfoBuilderList().forEach(Module.Builder::clearTestCase);
+
+    Result result = reportParser.parseSummary(Paths.get(CTS_TEST_RESULT_XML)).get();
+
+    assertThat(result).isEqualTo(expectedResult.build());
+    assertThat(result.getModuleInfoCount()).isEqualTo(fullResult.getModuleInfoCount());
+  }
+
   @Test
   public void parse_nonExistentFile() throws Exception {
     reportParser = new CompatibilityReportParser(XMLInputFactory.newInstance(), localFileUtil);
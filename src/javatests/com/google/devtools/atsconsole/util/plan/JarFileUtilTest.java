@@ -17,6 +17,7 @@
 package com.google.devtools.atsconsole.util.plan;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
 
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.atsconsole.util.TestRunfilesUtil;
@@ -24,9 +25,14 @@ import com.google.devtools.atsconsole.util.plan.JarFileUtil.EntryFilter;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.inject.Guice;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import javax.inject.Inject;
 import org.junit.Before;
 import org.junit.Rule;
@@ -93,6 +99,38 @@ public final class JarFileUtilTest {
             testJar);
   }
 
+  @Test
+  public void getEntriesFromJars_jarChanged_returnsNewEntries() throws Exception {
+    Path jar = temporaryFolder.getRoot().toPath().resolve("changed.jar");
+    writeJar(jar, "config/a.xml");
+    assertThat(jarFileUtil.getEntriesFromJars(ImmutableList.of(jar), new TestFilter("config")))
+        .containsExactly("config/a.xml", jar);
+
+    writeJar(jar, "config/b.xml", "config/c.xml");
+
+    assertThat(jarFileUtil.getEntriesFromJars(ImmutableList.of(jar), new TestFilter("config")))
+        .containsExactly("config/b.xml", jar, "config/c.xml", jar);
+  }
+
+  @Test
+  public void getZipEntryInputStream() throws Exception {
+    Optional<InputStream> inputStream =
+        jarFileUtil.getZipEntryInputStream(testJar, "config/util/wifi.xml");
+    assertThat(inputStream).isPresent();
+    inputStream.get().close();
+
+    assertThat(jarFileUtil.getZipEntryInputStream(testJar, "config/not_exist.xml")).isEmpty();
+  }
+
+  private static void writeJar(Path jar, String... entryNames) throws Exception {
+    try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(jar))) {
+      for (String entryName : entryNames) {
+        zipOutputStream.putNextEntry(new ZipEntry(entryName));
+        zipOutputStream.closeEntry();
+      }
+    }
+  }
+
   private void prepareTestJars() throws Exception {
     File tempDir = temporaryFolder.newFolder("temp");
     testJar = tempDir.toPath().resolve("test_app.jar");
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.ext.devicemanagement.device.platform.android.realdevice;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.deviceinfra.ext.devicemanagement.device.platform.android.realdevice.AndroidRealDeviceHealthProbe.Section;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class AndroidRealDeviceHealthProbeTest {
+
+  private static final String SERIAL = "363005dc750400ec";
+
+  private static final String BATTERY_OUTPUT =
+      "Current Battery Service state:\n"
+          + "  AC powered: false\n"
+          + "  USB powered: true\n"
+          + "  level: 100\n"
+          + "  temperature: 250\n";
+
+  private static final String EXTERNAL_STORAGE_OUTPUT =
+      "Filesystem              Size  Used Avail Use% Mounted on\n"
+          + "/dev/fuse                 54G  4.4G   50G   9% /storage/emulated\n";
+
+  private static final String INTERNAL_STORAGE_OUTPUT =
+      "Filesystem              Size  Used Avail Use% Mounted on\n"
+          + "/dev/block/dm-5           54G  4.4G   50G   9% /data\n";
+
+  private static final String WIFI_OUTPUT =
+      "Wi-Fi is enabled\n"
+          + "mWifiInfo SSID: \"GoogleGuest\", RSSI: -54, Link speed: 433Mbps\n";
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private Adb adb;
+
+  private AndroidRealDeviceHealthProbe healthProbe;
+
+  @Before
+  public void setUp() {
+    healthProbe = new AndroidRealDeviceHealthProbe(adb);
+  }
+
+  @Test
+  public void buildCommand_marksEachSectionInOrder() {
+    String command =
+        AndroidRealDeviceHealthProbe.buildCommand(ImmutableList.of(Section.WIFI, Section.BATTERY));
+
+    assertThat(command)
+        .isEqualTo(
+            "echo '<<mh_health_probe_section:WIFI>>'; dumpsys wifi; "
+                + "echo '<<mh_health_probe_section:BATTERY>>'; dumpsys battery");
+  }
+
+  @Test
+  public void parseOutput_allSections() {
+    String output =
+        "<<mh_health_probe_section:BATTERY>>\n"
+            + BATTERY_OUTPUT
+            + "<<mh_health_probe_section:EXTERNAL_STORAGE>>\n"
+            + EXTERNAL_STORAGE_OUTPUT
+            + "<<mh_health_probe_section:INTERNAL_STORAGE>>\n"
+            + INTERNAL_STORAGE_OUTPUT
+            + "<<mh_health_probe_section:WIFI>>\n"
+            + WIFI_OUTPUT;
+
+    assertThat(AndroidRealDeviceHealthProbe.parseOutput(output))
+        .containsExactly(
+            Section.BATTERY, BATTERY_OUTPUT,
+            Section.EXTERNAL_STORAGE, EXTERNAL_STORAGE_OUTPUT,
+            Section.INTERNAL_STORAGE, INTERNAL_STORAGE_OUTPUT,
+            // The last line of the output is followed by an empty line after splitting.
+            Section.WIFI, WIFI_OUTPUT + "\n");
+  }
+
+  @Test
+  public void parseOutput_crlfLineEndings() {
+    String output =
+        ("<<mh_health_probe_section:BATTERY>>\n" + BATTERY_OUTPUT).replace("\n", "\r\n");
+
+    assertThat(AndroidRealDeviceHealthProbe.parseOutput(output))
+        .containsExactly(Section.BATTERY, BATTERY_OUTPUT + "\n");
+  }
+
+  @Test
+  public void parseOutput_missingSections() {
+    // The composite command was cut off after the external storage marker, e.g., because of the
+    // timeout, so neither the internal storage nor the wifi section was printed.
+    String output =
+        "<<mh_health_probe_section:BATTERY>>\n"
+            + BATTERY_OUTPUT
+            + "<<mh_health_probe_section:EXTERNAL_STORAGE>>";
+
+    ImmutableMap<Section, String> sectionOutputs =
+        AndroidRealDeviceHealthProbe.parseOutput(output);
+
+    assertThat(sectionOutputs)
+        .containsExactly(Section.BATTERY, BATTERY_OUTPUT, Section.EXTERNAL_STORAGE, "");
+    assertThat(sectionOutputs).doesNotContainKey(Section.INTERNAL_STORAGE);
+    assertThat(sectionOutputs).doesNotContainKey(Section.WIFI);
+  }
+
+  @Test
+  public void parseOutput_emptyOutput() {
+    assertThat(AndroidRealDeviceHealthProbe.parseOutput("")).isEmpty();
+  }
+
+  @Test
+  public void parseOutput_garbledSections() {
+    String output =
+        "/system/bin/sh: dumpsys: inaccessible or not found\n"
+            + "<<mh_health_probe_section:BATTERY>>\n"
+            + BATTERY_OUTPUT
+            + "<<mh_health_probe_section:NO_SUCH_SECTION>>\n"
+            + "garbage of an unknown section\n"
+            + "<<mh_health_probe_section:WIFI\n"
+            + "<<mh_health_probe_section:INTERNAL_STORAGE>>\n"
+            + "\u0000\uFFFD\uFFFD\n"
+            + "  <<mh_health_probe_section:WIFI>>  \n"
+            + WIFI_OUTPUT;
+
+    assertThat(AndroidRealDeviceHealthProbe.parseOutput(output))
+        .containsExactly(
+            // Lines before the first marker are dropped.
+            Section.BATTERY,
+            BATTERY_OUTPUT,
+            // Lines after an unknown marker, including a truncated marker, are dropped.
+            Section.INTERNAL_STORAGE,
+            "\u0000\uFFFD\uFFFD\n",
+            // Markers are trimmed.
+            Section.WIFI,
+            WIFI_OUTPUT + "\n");
+  }
+
+  @Test
+  public void probe() throws Exception {
+    ImmutableList<Section> sections = ImmutableList.of(Section.BATTERY, Section.WIFI);
+    when(adb.runShell(eq(SERIAL), anyString(), any(Duration.class)))
+        .thenReturn(
+            "<<mh_health_probe_section:BATTERY>>\n"
+                + BATTERY_OUTPUT
+                + "<<mh_health_probe_section:WIFI>>\n"
+                + WIFI_OUTPUT);
+
+    assertThat(healthProbe.probe(SERIAL, sections))
+        .containsExactly(Section.BATTERY, BATTERY_OUTPUT, Section.WIFI, WIFI_OUTPUT + "\n");
+    verify(adb)
+        .runShell(
+            eq(SERIAL),
+            eq(AndroidRealDeviceHealthProbe.buildCommand(sections)),
+            any(Duration.class));
+  }
+
+  @Test
+  public void probe_noSection() throws Exception {
+    assertThat(healthProbe.probe(SERIAL, ImmutableList.of())).isEmpty();
+    verifyNoInteractions(adb);
+  }
+}
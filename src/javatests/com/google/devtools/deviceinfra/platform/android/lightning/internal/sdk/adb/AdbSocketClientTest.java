@@ -0,0 +1,272 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.command.LineCallback;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AdbSocketClient}. */
+@RunWith(JUnit4.class)
+public final class AdbSocketClientTest {
+
+  private static final String SERIAL = "363005dc750400ec";
+  private static final Duration TIMEOUT = Duration.ofSeconds(10L);
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private FakeAdbServer server;
+  private AdbSocketClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeAdbServer();
+    client = new AdbSocketClient("localhost", server.getPort());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void queryHost() throws Exception {
+    server.setHostReply("host:version", "0029");
+
+    assertThat(client.queryHost("host:version", TIMEOUT)).isEqualTo("0029");
+  }
+
+  @Test
+  public void queryHost_rejected() throws Exception {
+    MobileHarnessException e =
+        assertThrows(
+            MobileHarnessException.class, () -> client.queryHost("host:unknown", TIMEOUT));
+
+    assertThat(e.getErrorId()).isEqualTo(AndroidErrorId.ANDROID_ADB_SOCKET_REQUEST_FAILED);
+  }
+
+  @Test
+  public void hostStream() throws Exception {
+    server.setHostStream("host:track-devices-l", ImmutableList.of("message1", "message2"));
+
+    try (AdbConnection connection = client.openHostStream("host:track-devices-l", TIMEOUT)) {
+      assertThat(connection.readHexLengthStringOrEof()).isEqualTo("message1");
+      assertThat(connection.readHexLengthStringOrEof()).isEqualTo("message2");
+
+      connection.setTimeout(Duration.ofMillis(100L));
+      MobileHarnessException e =
+          assertThrows(MobileHarnessException.class, connection::readHexLengthStringOrEof);
+      assertThat(e.getErrorId()).isEqualTo(AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_TIMEOUT);
+    }
+  }
+
+  @Test
+  public void hostStream_interrupted() throws Exception {
+    server.setHostStream("host:track-devices-l", ImmutableList.of());
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread reader =
+        new Thread(
+            () -> {
+              try (AdbConnection connection =
+                  client.openHostStream("host:track-devices-l", Duration.ofMinutes(10L))) {
+                connection.readHexLengthStringOrEof();
+              } catch (MobileHarnessException | InterruptedException e) {
+                error.set(e);
+              }
+            });
+    reader.start();
+
+    reader.interrupt();
+    reader.join(TIMEOUT.toMillis());
+
+    assertThat(reader.isAlive()).isFalse();
+    assertThat(error.get()).isInstanceOf(InterruptedException.class);
+  }
+
+  @Test
+  public void shell_v2() throws Exception {
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("out\n", "err\n", 3));
+
+    AdbSocketClient.ShellResult result =
+        client.shell(
+            SERIAL, "getprop", TIMEOUT, /* lineCallback= */ null, /* redirectStderr= */ false);
+
+    assertThat(result.exitCode()).isEqualTo(3);
+    assertThat(result.stdout()).isEqualTo("out\n");
+    assertThat(result.stderr()).isEqualTo("err\n");
+  }
+
+  @Test
+  public void shell_v2_closeStdin() throws Exception {
+    server.setShellReadsStdin(true);
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("done\n", "", 0));
+
+    AdbSocketClient.ShellResult result =
+        client.shell(
+            SERIAL, "cat", TIMEOUT, /* lineCallback= */ null, /* redirectStderr= */ false);
+
+    assertThat(result.stdout()).isEqualTo("done\n");
+  }
+
+  @Test
+  public void shell_v2_redirectStderr() throws Exception {
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("out\n", "err\n", 0));
+
+    AdbSocketClient.ShellResult result =
+        client.shell(
+            SERIAL, "getprop", TIMEOUT, /* lineCallback= */ null, /* redirectStderr= */ true);
+
+    assertThat(result.stdout()).isEqualTo("out\nerr\n");
+    assertThat(result.stderr()).isEmpty();
+  }
+
+  @Test
+  public void shell_legacy() throws Exception {
+    server.setShellV2(false);
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("echo " + command, "", 1));
+
+    AdbSocketClient.ShellResult result =
+        client.shell(SERIAL, "ls", TIMEOUT, /* lineCallback= */ null, /* redirectStderr= */ true);
+
+    assertThat(result.exitCode()).isEqualTo(0);
+    assertThat(result.stdout()).isEqualTo("echo ls");
+  }
+
+  @Test
+  public void shell_lineCallback() throws Exception {
+    server.setShellHandler(
+        command -> new FakeAdbServer.ShellReply("line1\r\nline2\nline3\n", "", 0));
+    List<String> lines = new ArrayList<>();
+
+    AdbSocketClient.ShellResult result =
+        client.shell(
+            SERIAL,
+            "ls",
+            TIMEOUT,
+            LineCallback.does(lines::add),
+            /* redirectStderr= */ false);
+
+    assertThat(lines).containsExactly("line1", "line2", "line3").inOrder();
+    assertThat(result.isStopped()).isFalse();
+  }
+
+  @Test
+  public void shell_lineCallback_lastLineWithoutTerminator() throws Exception {
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("line1\nline2", "", 0));
+    List<String> lines = new ArrayList<>();
+
+    AdbSocketClient.ShellResult result =
+        client.shell(
+            SERIAL,
+            "ls",
+            TIMEOUT,
+            LineCallback.does(lines::add),
+            /* redirectStderr= */ false);
+
+    assertThat(lines).containsExactly("line1", "line2").inOrder();
+    assertThat(result.stdout()).isEqualTo("line1\nline2");
+  }
+
+  @Test
+  public void shell_legacy_lineCallback_lastLineWithoutTerminator() throws Exception {
+    server.setShellV2(false);
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("line1\nline2", "", 0));
+    List<String> lines = new ArrayList<>();
+
+    client.shell(SERIAL, "ls", TIMEOUT, LineCallback.does(lines::add), /* redirectStderr= */ true);
+
+    assertThat(lines).containsExactly("line1", "line2").inOrder();
+  }
+
+  @Test
+  public void shell_lineCallbackStop() throws Exception {
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("line1\nline2\n", "", 1));
+
+    AdbSocketClient.ShellResult result =
+        client.shell(
+            SERIAL,
+            "ls",
+            TIMEOUT,
+            LineCallback.stopWhen(line -> line.equals("line1")),
+            /* redirectStderr= */ false);
+
+    assertThat(result.isStopped()).isTrue();
+  }
+
+  @Test
+  public void sync_pushStatPull() throws Exception {
+    Path localFile = tmpFolder.newFile("local.txt").toPath();
+    Files.writeString(localFile, "hello adb");
+    Path pulledFile = tmpFolder.getRoot().toPath().resolve("pulled.txt");
+
+    try (AdbSocketClient.SyncSession session = client.openSync(SERIAL, TIMEOUT)) {
+      assertThat(session.stat("/sdcard/remote.txt").exists()).isFalse();
+      assertThat(session.push(localFile, "/sdcard/remote.txt", 0644)).isEqualTo(9L);
+      assertThat(session.stat("/sdcard/remote.txt").size()).isEqualTo(9L);
+      assertThat(session.pull("/sdcard/remote.txt", pulledFile)).isEqualTo(9L);
+    }
+
+    assertThat(new String(server.files.get("/sdcard/remote.txt"), UTF_8)).isEqualTo("hello adb");
+    assertThat(Files.readString(pulledFile)).isEqualTo("hello adb");
+  }
+
+  @Test
+  public void sync_pullNotExist() throws Exception {
+    Path pulledFile = tmpFolder.getRoot().toPath().resolve("pulled.txt");
+
+    try (AdbSocketClient.SyncSession session = client.openSync(SERIAL, TIMEOUT)) {
+      MobileHarnessException e =
+          assertThrows(
+              MobileHarnessException.class, () -> session.pull("/sdcard/none", pulledFile));
+      assertThat(e.getErrorId()).isEqualTo(AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR);
+    }
+  }
+
+  @Test
+  public void sync_pullInvalidPacketLength() throws Exception {
+    server.files.put("/sdcard/remote.txt", "hello adb".getBytes(UTF_8));
+    Path pulledFile = tmpFolder.getRoot().toPath().resolve("pulled.txt");
+
+    for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+      server.setPullDataLength(length);
+      try (AdbSocketClient.SyncSession session = client.openSync(SERIAL, TIMEOUT)) {
+        MobileHarnessException e =
+            assertThrows(
+                MobileHarnessException.class, () -> session.pull("/sdcard/remote.txt", pulledFile));
+        assertThat(e.getErrorId()).isEqualTo(AndroidErrorId.ANDROID_ADB_SOCKET_SYNC_ERROR);
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.platform.android.sdktool.proto.Adb.AdbParam;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Adb}. */
+@RunWith(JUnit4.class)
+public final class AdbTest {
+
+  private static final String SERIAL = "363005dc750400ec";
+
+  private FakeAdbServer server;
+  private Adb adb;
+
+  @Before
+  public void setUp() throws Exception {
+    Flags.parse(new String[] {"--adb_use_socket_client=true"});
+    server = new FakeAdbServer();
+    adb =
+        new Adb(
+            () ->
+                AdbParam.newBuilder()
+                    .setAdbServerHost("localhost")
+                    .setAdbServerPort(server.getPort())
+                    .build(),
+            () -> {
+              throw new AssertionError("Shell commands should not fork adb");
+            });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Flags.resetToDefault();
+    server.close();
+  }
+
+  @Test
+  public void runShell_bySocket_recordsLatency() throws Exception {
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("ok\n", "", 0));
+    long count = Adb.ADB_COMMAND_LATENCY.getCount();
+
+    assertThat(adb.runShell(SERIAL, "getprop ro.build.id")).isEqualTo("ok");
+
+    assertThat(Adb.ADB_COMMAND_LATENCY.getCount()).isEqualTo(count + 1);
+  }
+
+  @Test
+  public void runShell_bySocket_recordsLatencyOfFailedCommand() throws Exception {
+    server.setShellHandler(command -> new FakeAdbServer.ShellReply("", "error\n", 1));
+    long count = Adb.ADB_COMMAND_LATENCY.getCount();
+
+    assertThrows(MobileHarnessException.class, () -> adb.runShell(SERIAL, "false"));
+
+    assertThat(Adb.ADB_COMMAND_LATENCY.getCount()).isEqualTo(count + 1);
+  }
+}
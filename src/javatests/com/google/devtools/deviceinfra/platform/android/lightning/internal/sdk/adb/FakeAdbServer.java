@@ -0,0 +1,307 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A fake ADB server for testing, which supports host queries, shell (v1 and v2) and the sync
+ * protocol against an in-memory file system.
+ */
+public final class FakeAdbServer implements AutoCloseable {
+
+  /** {Host service, reply}. */
+  private final Map<String, String> hostReplies = new ConcurrentHashMap<>();
+
+  /** {Host stream service, messages}. The stream is kept open after the messages are sent. */
+  private final Map<String, List<String>> hostStreams = new ConcurrentHashMap<>();
+
+  /** {Remote path, content}. */
+  public final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+  /** {Remote path, permission bits}. Files without a mode are reported as 0644. */
+  public final Map<String, Integer> fileModes = new ConcurrentHashMap<>();
+
+  /**
+   * {Serial, remote paths pushed to the device in order}. All devices share the same in-memory file
+   * system.
+   */
+  public final Map<String, List<String>> pushedPaths = new ConcurrentHashMap<>();
+
+  /** Serials of the devices which can not be connected. */
+  private final Set<String> offlineSerials = ConcurrentHashMap.newKeySet();
+
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private volatile boolean shellV2 = true;
+  private volatile boolean shellReadsStdin;
+  @Nullable private volatile Integer pullDataLength;
+  private volatile Function<String, ShellReply> shellHandler =
+      command -> new ShellReply(command, "", 0);
+
+  /** Output of a shell command. */
+  public static final class ShellReply {
+    final String stdout;
+    final String stderr;
+    final int exitCode;
+
+    public ShellReply(String stdout, String stderr, int exitCode) {
+      this.stdout = stdout;
+      this.stderr = stderr;
+      this.exitCode = exitCode;
+    }
+  }
+
+  public FakeAdbServer() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    executor.execute(this::acceptLoop);
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public void setHostReply(String service, String reply) {
+    hostReplies.put(service, reply);
+  }
+
+  /**
+   * Sets a host stream service, which sends the given messages and then keeps the connection open
+   * until the client closes it.
+   */
+  public void setHostStream(String service, List<String> messages) {
+    hostStreams.put(service, messages);
+  }
+
+  /** Sets whether shell v2 commands read stdin until the client closes it. */
+  public void setShellReadsStdin(boolean shellReadsStdin) {
+    this.shellReadsStdin = shellReadsStdin;
+  }
+
+  public void setShellV2(boolean shellV2) {
+    this.shellV2 = shellV2;
+  }
+
+  public void setShellHandler(Function<String, ShellReply> shellHandler) {
+    this.shellHandler = shellHandler;
+  }
+
+  /** Makes the transport to the device fail, as if the device is offline. */
+  public void setDeviceOffline(String serial) {
+    offlineSerials.add(serial);
+  }
+
+  /** Overrides the length of DATA packets of pulls, to simulate a broken peer. */
+  public void setPullDataLength(int pullDataLength) {
+    this.pullDataLength = pullDataLength;
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+
+  private void acceptLoop() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        executor.execute(() -> handle(socket));
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private void handle(Socket socket) {
+    try (socket) {
+      DataInputStream input = new DataInputStream(socket.getInputStream());
+      OutputStream output = socket.getOutputStream();
+      String request = readRequest(input);
+      if (request.startsWith("host-serial:") && request.endsWith(":features")) {
+        okay(output);
+        writeHexLengthString(output, shellV2 ? "shell_v2,cmd" : "cmd");
+      } else if (request.startsWith("host:transport:")) {
+        String serial = request.substring("host:transport:".length());
+        if (offlineSerials.contains(serial)) {
+          output.write("FAIL".getBytes(UTF_8));
+          writeHexLengthString(output, String.format("device '%s' not found", serial));
+        } else {
+          okay(output);
+          handleDeviceService(serial, readRequest(input), input, output);
+        }
+      } else if (hostStreams.containsKey(request)) {
+        okay(output);
+        for (String message : hostStreams.get(request)) {
+          writeHexLengthString(output, message);
+        }
+        output.flush();
+        // Keeps the stream open until the client closes it.
+        while (input.read() >= 0) {}
+      } else if (hostReplies.containsKey(request)) {
+        okay(output);
+        writeHexLengthString(output, hostReplies.get(request));
+      } else {
+        output.write("FAIL".getBytes(UTF_8));
+        writeHexLengthString(output, "unknown host service");
+      }
+      output.flush();
+    } catch (IOException e) {
+      // Connection closed by client.
+    }
+  }
+
+  private void handleDeviceService(
+      String serial, String service, DataInputStream input, OutputStream output)
+      throws IOException {
+    if (service.startsWith("shell,v2,raw:")) {
+      okay(output);
+      output.flush();
+      if (shellReadsStdin) {
+        readStdinUntilClosed(input);
+      }
+      ShellReply reply = shellHandler.apply(service.substring("shell,v2,raw:".length()));
+      writeShellPacket(output, 1, reply.stdout.getBytes(UTF_8));
+      writeShellPacket(output, 2, reply.stderr.getBytes(UTF_8));
+      writeShellPacket(output, 3, new byte[] {(byte) reply.exitCode});
+    } else if (service.startsWith("shell:")) {
+      okay(output);
+      ShellReply reply = shellHandler.apply(service.substring("shell:".length()));
+      output.write(reply.stdout.getBytes(UTF_8));
+    } else if (service.equals("sync:")) {
+      okay(output);
+      handleSync(serial, input, output);
+    }
+  }
+
+  private void handleSync(String serial, DataInputStream input, OutputStream output)
+      throws IOException {
+    while (true) {
+      String id = new String(input.readNBytes(4), UTF_8);
+      if (id.isEmpty()) {
+        return;
+      }
+      int length = Integer.reverseBytes(input.readInt());
+      if (id.equals("QUIT")) {
+        return;
+      }
+      String path = new String(input.readNBytes(length), UTF_8);
+      switch (id) {
+        case "STAT":
+          byte[] content = files.get(path);
+          output.write("STAT".getBytes(UTF_8));
+          writeIntLe(output, content == null ? 0 : 0100000 | fileModes.getOrDefault(path, 0644));
+          writeIntLe(output, content == null ? 0 : content.length);
+          writeIntLe(output, 0);
+          break;
+        case "SEND":
+          String remotePath = path.substring(0, path.lastIndexOf(','));
+          int mode = Integer.parseInt(path.substring(path.lastIndexOf(',') + 1));
+          ByteArrayOutputStream data = new ByteArrayOutputStream();
+          while (true) {
+            String dataId = new String(input.readNBytes(4), UTF_8);
+            int dataLength = Integer.reverseBytes(input.readInt());
+            if (dataId.equals("DONE")) {
+              break;
+            }
+            data.write(input.readNBytes(dataLength));
+          }
+          files.put(remotePath, data.toByteArray());
+          fileModes.put(remotePath, mode & 0777);
+          pushedPaths.computeIfAbsent(serial, key -> new CopyOnWriteArrayList<>()).add(remotePath);
+          output.write("OKAY".getBytes(UTF_8));
+          writeIntLe(output, 0);
+          break;
+        case "RECV":
+          byte[] file = files.get(path);
+          if (file == null) {
+            byte[] message = "No such file or directory".getBytes(UTF_8);
+            output.write("FAIL".getBytes(UTF_8));
+            writeIntLe(output, message.length);
+            output.write(message);
+          } else {
+            output.write("DATA".getBytes(UTF_8));
+            Integer dataLength = pullDataLength;
+            writeIntLe(output, dataLength == null ? file.length : dataLength);
+            output.write(file);
+            output.write("DONE".getBytes(UTF_8));
+            writeIntLe(output, 0);
+          }
+          break;
+        default:
+          return;
+      }
+      output.flush();
+    }
+  }
+
+  /** Reads shell v2 packets from the client until it sends CLOSE_STDIN. */
+  private static void readStdinUntilClosed(DataInputStream input) throws IOException {
+    while (true) {
+      int id = input.readUnsignedByte();
+      int length = Integer.reverseBytes(input.readInt());
+      input.readNBytes(length);
+      if (id == 3) {
+        return;
+      }
+    }
+  }
+
+  private static String readRequest(DataInputStream input) throws IOException {
+    int length = Integer.parseInt(new String(input.readNBytes(4), UTF_8), 16);
+    return new String(input.readNBytes(length), UTF_8);
+  }
+
+  private static void okay(OutputStream output) throws IOException {
+    output.write("OKAY".getBytes(UTF_8));
+  }
+
+  private static void writeHexLengthString(OutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    output.write(String.format("%04x", bytes.length).getBytes(UTF_8));
+    output.write(bytes);
+  }
+
+  private static void writeShellPacket(OutputStream output, int id, byte[] payload)
+      throws IOException {
+    output.write(id);
+    writeIntLe(output, payload.length);
+    output.write(payload);
+  }
+
+  private static void writeIntLe(OutputStream output, int value) throws IOException {
+    output.write(
+        new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+  }
+}
@@ -24,6 +24,7 @@ import static com.google.devtools.mobileharness.shared.util.command.LineCallback
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.deviceinfra.shared.util.port.PortProber;
 import com.google.devtools.deviceinfra.shared.util.runfiles.RunfilesUtil;
@@ -49,6 +50,8 @@ import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.S
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetAllSessionsRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetSessionRequest;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.GetSessionResponse;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionRequest;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionServiceProto.WatchSessionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.VersionServiceProto.GetVersionResponse;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.stub.ChannelFactory;
 import com.google.devtools.mobileharness.infra.client.longrunningservice.rpc.stub.ControlStub;
@@ -64,6 +67,7 @@ import com.google.protobuf.FieldMask;
 import io.grpc.ManagedChannel;
 import io.grpc.stub.StreamObserver;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -245,9 +249,20 @@ public class OlcServerIntegrationTest {
           .getSessionStatus()
           .equals(SessionStatus.SESSION_FINISHED));
 
+      // Watches the finished session, which returns its final SessionDetail.
+      List<WatchSessionResponse> watchSessionResponses = new ArrayList<>();
+      sessionStub.watchSession(
+          WatchSessionRequest.newBuilder().setSessionId(sessionId).build(),
+          watchSessionResponses::add);
+      WatchSessionResponse lastWatchSessionResponse = Iterables.getLast(watchSessionResponses);
+      assertThat(lastWatchSessionResponse.getSessionStatus())
+          .isEqualTo(SessionStatus.SESSION_FINISHED);
+
       // Checks the session output.
       getSessionResponse =
           sessionStub.getSession(GetSessionRequest.newBuilder().setSessionId(sessionId).build());
+      assertThat(lastWatchSessionResponse.getFinalSessionDetail())
+          .isEqualTo(getSessionResponse.getSessionDetail());
       assertThat(getSessionResponse)
           .comparingExpectedFieldsOnly()
           .isEqualTo(
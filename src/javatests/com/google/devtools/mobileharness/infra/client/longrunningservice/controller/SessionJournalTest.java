@@ -0,0 +1,323 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.longrunningservice.controller;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionConfig;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionId;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionStatus;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SessionJournalTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Path journalPath;
+
+  @Before
+  public void setUp() {
+    journalPath = tmpFolder.getRoot().toPath().resolve("journal/olc_server_session_journal");
+  }
+
+  @Test
+  public void open_recoversLatestRecords() {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+    assertThat(journal.open(/* recentArchivedSessionCount= */ 10)).isEmpty();
+    journal.append(session("1", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("2", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("3", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("1", SessionStatus.SESSION_RUNNING));
+    journal.append(session("2", SessionStatus.SESSION_RUNNING));
+    journal.append(session("2", SessionStatus.SESSION_FINISHED));
+    journal.append(session("1", SessionStatus.SESSION_FINISHED));
+    journal.append(
+        session("3", SessionStatus.SESSION_FINISHED).toBuilder()
+            .setSessionConfig(SessionConfig.newBuilder().setRemoveAfterFinish(true))
+            .build());
+    journal.append(session("4", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("5", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("5", SessionStatus.SESSION_RUNNING));
+
+    ImmutableList<SessionDetail> sessions =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor())
+            .open(/* recentArchivedSessionCount= */ 10);
+
+    // Unfinished sessions in order of submission, followed by archived ones in order of finish.
+    assertThat(sessions)
+        .containsExactly(
+            session("4", SessionStatus.SESSION_SUBMITTED),
+            session("5", SessionStatus.SESSION_RUNNING),
+            session("2", SessionStatus.SESSION_FINISHED),
+            session("1", SessionStatus.SESSION_FINISHED))
+        .inOrder();
+  }
+
+  @Test
+  public void open_onlyReturnsRecentArchivedSessions() {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    for (int i = 0; i < 5; i++) {
+      journal.append(session(Integer.toString(i), SessionStatus.SESSION_FINISHED));
+    }
+
+    SessionJournal recoveredJournal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+
+    assertThat(getSessionIds(recoveredJournal.open(/* recentArchivedSessionCount= */ 2)))
+        .containsExactly("3", "4")
+        .inOrder();
+    assertThat(recoveredJournal.getArchivedSession("0"))
+        .hasValue(session("0", SessionStatus.SESSION_FINISHED));
+  }
+
+  @Test
+  public void open_dropsTornTail() throws Exception {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    journal.append(session("1", SessionStatus.SESSION_SUBMITTED));
+    long validSize = Files.size(journalPath);
+    journal.append(session("2", SessionStatus.SESSION_SUBMITTED));
+    truncate(journalPath, Files.size(journalPath) - 3L);
+
+    SessionJournal recoveredJournal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+
+    assertThat(recoveredJournal.open(/* recentArchivedSessionCount= */ 10))
+        .containsExactly(session("1", SessionStatus.SESSION_SUBMITTED));
+    assertThat(Files.size(journalPath)).isEqualTo(validSize);
+
+    // New records are appended after the valid ones.
+    recoveredJournal.append(session("3", SessionStatus.SESSION_SUBMITTED));
+    assertThat(
+            getSessionIds(
+                new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor())
+                    .open(/* recentArchivedSessionCount= */ 10)))
+        .containsExactly("1", "3")
+        .inOrder();
+  }
+
+  @Test
+  public void open_dropsRecordWithChecksumMismatch() throws Exception {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    journal.append(session("1", SessionStatus.SESSION_SUBMITTED));
+    long validSize = Files.size(journalPath);
+    journal.append(session("2", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("3", SessionStatus.SESSION_SUBMITTED));
+
+    // Corrupts the last byte of the second record, so it and the records after it are dropped.
+    long secondRecordEnd = validSize + (Files.size(journalPath) - validSize) / 2L;
+    try (RandomAccessFile file = new RandomAccessFile(journalPath.toFile(), "rw")) {
+      file.seek(secondRecordEnd - 1L);
+      int lastByte = file.read();
+      file.seek(secondRecordEnd - 1L);
+      file.write(lastByte ^ 0xFF);
+    }
+
+    assertThat(
+            new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor())
+                .open(/* recentArchivedSessionCount= */ 10))
+        .containsExactly(session("1", SessionStatus.SESSION_SUBMITTED));
+    assertThat(Files.size(journalPath)).isEqualTo(validSize);
+  }
+
+  @Test
+  public void append_compactsStaleRecords() throws Exception {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor());
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    journal.append(session("1", SessionStatus.SESSION_SUBMITTED));
+    for (int i = 0; i < 1000; i++) {
+      journal.append(session("1", SessionStatus.SESSION_RUNNING));
+    }
+
+    // Only the latest record of the session is kept.
+    assertThat(Files.size(journalPath)).isEqualTo(recordSize("1", SessionStatus.SESSION_RUNNING));
+    assertThat(
+            new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor())
+                .open(/* recentArchivedSessionCount= */ 10))
+        .containsExactly(session("1", SessionStatus.SESSION_RUNNING));
+  }
+
+  @Test
+  public void append_compactsOutsideAppend() {
+    List<Runnable> compactionTasks = new ArrayList<>();
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, compactionTasks::add);
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    journal.append(session("1", SessionStatus.SESSION_SUBMITTED));
+    for (int i = 0; i < 1002; i++) {
+      journal.append(session("1", SessionStatus.SESSION_RUNNING));
+    }
+
+    // Only one compaction task is submitted.
+    assertThat(compactionTasks).hasSize(1);
+
+    // Records appended after the compaction is submitted are kept.
+    journal.append(session("2", SessionStatus.SESSION_SUBMITTED));
+    journal.append(session("1", SessionStatus.SESSION_FINISHED));
+    compactionTasks.get(0).run();
+
+    assertThat(journal.getArchivedSession("1"))
+        .hasValue(session("1", SessionStatus.SESSION_FINISHED));
+    assertThat(
+            new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor())
+                .open(/* recentArchivedSessionCount= */ 10))
+        .containsExactly(
+            session("2", SessionStatus.SESSION_SUBMITTED),
+            session("1", SessionStatus.SESSION_FINISHED))
+        .inOrder();
+
+    // A new compaction can be submitted after the last one finishes.
+    for (int i = 0; i < 1000; i++) {
+      journal.append(session("2", SessionStatus.SESSION_SUBMITTED));
+    }
+    assertThat(compactionTasks).hasSize(2);
+  }
+
+  @Test
+  public void append_concurrentCompaction() throws Exception {
+    ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, compactionExecutor);
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    for (int i = 0; i < 20000; i++) {
+      journal.append(session(Integer.toString(i % 10), SessionStatus.SESSION_RUNNING));
+    }
+    for (int i = 0; i < 10; i++) {
+      journal.append(session(Integer.toString(i), SessionStatus.SESSION_FINISHED));
+    }
+    compactionExecutor.shutdown();
+    assertThat(compactionExecutor.awaitTermination(1L, TimeUnit.MINUTES)).isTrue();
+
+    assertThat(
+            getSessionIds(
+                new SessionJournal(journalPath, /* maxArchivedSessions= */ 100, directExecutor())
+                    .open(/* recentArchivedSessionCount= */ 10)))
+        .containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9")
+        .inOrder();
+  }
+
+  @Test
+  public void append_dropsOldestArchivedSessions() {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 3, directExecutor());
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    journal.append(session("pending", SessionStatus.SESSION_SUBMITTED));
+    for (int i = 0; i < 1004; i++) {
+      journal.append(session(Integer.toString(i), SessionStatus.SESSION_SUBMITTED));
+      journal.append(session(Integer.toString(i), SessionStatus.SESSION_FINISHED));
+    }
+
+    // The journal is compacted once archived sessions exceed the limit by 1000.
+    assertThat(getSessionIds(journal.getArchivedSessions(ImmutableSet.of(), name -> true)))
+        .containsExactly("1001", "1002", "1003")
+        .inOrder();
+    assertThat(journal.getArchivedSession("0")).isEmpty();
+    assertThat(
+            getSessionIds(
+                new SessionJournal(journalPath, /* maxArchivedSessions= */ 3, directExecutor())
+                    .open(/* recentArchivedSessionCount= */ 10)))
+        .containsExactly("pending", "1001", "1002", "1003")
+        .inOrder();
+  }
+
+  @Test
+  public void getArchivedSessions_filtersSessions() {
+    SessionJournal journal =
+        new SessionJournal(journalPath, /* maxArchivedSessions= */ 1000, directExecutor());
+    journal.open(/* recentArchivedSessionCount= */ 10);
+    for (int i = 0; i < 250; i++) {
+      journal.append(session(Integer.toString(i), SessionStatus.SESSION_FINISHED));
+    }
+    journal.append(session("pending", SessionStatus.SESSION_SUBMITTED));
+
+    // Reads more sessions than a page.
+    assertThat(journal.getArchivedSessions(ImmutableSet.of(), name -> true)).hasSize(250);
+    assertThat(
+            getSessionIds(
+                journal.getArchivedSessions(
+                    ImmutableSet.of("10", "12"), name -> name.matches("session_1\\d"))))
+        .containsExactly("11", "13", "14", "15", "16", "17", "18", "19")
+        .inOrder();
+    assertThat(journal.getArchivedSession("pending")).isEmpty();
+  }
+
+  @Test
+  public void disabled() {
+    SessionJournal journal =
+        new SessionJournal(
+            /* journalPath= */ null, /* maxArchivedSessions= */ 100, directExecutor());
+
+    assertThat(journal.open(/* recentArchivedSessionCount= */ 10)).isEmpty();
+    journal.append(session("1", SessionStatus.SESSION_FINISHED));
+    assertThat(journal.getArchivedSession("1")).isEmpty();
+    assertThat(journal.getArchivedSessions(ImmutableSet.of(), name -> true)).isEmpty();
+  }
+
+  private static SessionDetail session(String id, SessionStatus status) {
+    return SessionDetail.newBuilder()
+        .setSessionId(SessionId.newBuilder().setId(id))
+        .setSessionStatus(status)
+        .setSessionConfig(SessionConfig.newBuilder().setSessionName("session_" + id))
+        .build();
+  }
+
+  private static long recordSize(String id, SessionStatus status) {
+    // Length and CRC32 of the record, followed by the record.
+    return 8L + session(id, status).getSerializedSize();
+  }
+
+  private static ImmutableList<String> getSessionIds(List<SessionDetail> sessions) {
+    return sessions.stream()
+        .map(sessionDetail -> sessionDetail.getSessionId().getId())
+        .collect(toImmutableList());
+  }
+
+  private static void truncate(Path path, long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(size);
+    }
+  }
+}
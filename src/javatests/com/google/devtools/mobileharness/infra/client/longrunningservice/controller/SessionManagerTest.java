@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.longrunningservice.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.controller.SessionManager.SessionWatcher;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionConfig;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionDetail;
+import com.google.devtools.mobileharness.infra.client.longrunningservice.proto.SessionProto.SessionStatus;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+@RunWith(JUnit4.class)
+public class SessionManagerTest {
+
+  /** Same as the running session capacity of {@link SessionManager}. */
+  private static final int RUNNING_SESSION_CAPACITY = 30;
+
+  /** Session runners created by the session manager, in creation order. */
+  private final List<SessionRunner> sessionRunners = new CopyOnWriteArrayList<>();
+
+  /** Futures which finish the session runners above, in the same order. */
+  private final List<SettableFuture<Void>> sessionRunnerResults = new CopyOnWriteArrayList<>();
+
+  private ListeningExecutorService threadPool;
+  private SessionManager sessionManager;
+
+  @Before
+  public void setUp() {
+    threadPool = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    sessionManager =
+        new SessionManager(
+            new SessionDetailCreator(),
+            this::createSessionRunner,
+            threadPool,
+            new SessionJournal(
+                /* journalPath= */ null, /* maxArchivedSessions= */ 1, directExecutor()));
+  }
+
+  @After
+  public void tearDown() {
+    sessionRunnerResults.forEach(result -> result.set(null));
+    threadPool.shutdownNow();
+  }
+
+  @Test
+  public void watchSession_runningSession() throws Exception {
+    SessionManager.SessionAddingResult session = addSession();
+    String sessionId = session.sessionDetail().getSessionId().getId();
+    SessionWatcher watcher = mock(SessionWatcher.class);
+
+    SessionDetail sessionDetail = sessionManager.watchSession(sessionId, watcher);
+
+    assertThat(sessionDetail.getSessionStatus()).isEqualTo(SessionStatus.SESSION_RUNNING);
+    verify(sessionRunners.get(0)).addSessionPluginOutputListener(watcher);
+
+    sessionRunnerResults.get(0).set(null);
+
+    SessionDetail finalSessionDetail = session.finalResultFuture().get(1L, MINUTES);
+    assertThat(finalSessionDetail.getSessionStatus()).isEqualTo(SessionStatus.SESSION_FINISHED);
+    verify(watcher, timeout(MINUTES.toMillis(1L))).onSessionFinished(finalSessionDetail);
+    verify(watcher, never()).onSessionRunning();
+  }
+
+  @Test
+  public void watchSession_pendingSession() throws Exception {
+    for (int i = 0; i < RUNNING_SESSION_CAPACITY; i++) {
+      addSession();
+    }
+    SessionManager.SessionAddingResult session = addSession();
+    String sessionId = session.sessionDetail().getSessionId().getId();
+    SessionWatcher watcher = mock(SessionWatcher.class);
+
+    SessionDetail sessionDetail = sessionManager.watchSession(sessionId, watcher);
+
+    assertThat(sessionDetail.getSessionStatus()).isEqualTo(SessionStatus.SESSION_SUBMITTED);
+    assertThat(sessionRunners).hasSize(RUNNING_SESSION_CAPACITY);
+    verifyNoInteractions(watcher);
+
+    // Finishes a running session so the pending one starts.
+    sessionRunnerResults.get(0).set(null);
+
+    verify(watcher, timeout(MINUTES.toMillis(1L))).onSessionRunning();
+    assertThat(sessionRunners).hasSize(RUNNING_SESSION_CAPACITY + 1);
+    SessionRunner sessionRunner = sessionRunners.get(RUNNING_SESSION_CAPACITY);
+    verify(sessionRunner).addSessionPluginOutputListener(watcher);
+
+    sessionRunnerResults.get(RUNNING_SESSION_CAPACITY).set(null);
+
+    SessionDetail finalSessionDetail = session.finalResultFuture().get(1L, MINUTES);
+    verify(watcher, timeout(MINUTES.toMillis(1L))).onSessionFinished(finalSessionDetail);
+    InOrder inOrder = inOrder(watcher);
+    inOrder.verify(watcher).onSessionRunning();
+    inOrder.verify(watcher).onSessionFinished(any());
+  }
+
+  @Test
+  public void watchSession_finishedSession() throws Exception {
+    SessionManager.SessionAddingResult session = addSession();
+    sessionRunnerResults.get(0).set(null);
+    SessionDetail finalSessionDetail = session.finalResultFuture().get(1L, MINUTES);
+    SessionWatcher watcher = mock(SessionWatcher.class);
+
+    assertThat(sessionManager.watchSession(finalSessionDetail.getSessionId().getId(), watcher))
+        .isEqualTo(finalSessionDetail);
+    verifyNoInteractions(watcher);
+    verify(sessionRunners.get(0), never()).addSessionPluginOutputListener(any());
+  }
+
+  @Test
+  public void watchSession_sessionNotFound() {
+    MobileHarnessException exception =
+        assertThrows(
+            MobileHarnessException.class,
+            () -> sessionManager.watchSession("fake_id", mock(SessionWatcher.class)));
+
+    assertThat(exception.getErrorId()).isEqualTo(InfraErrorId.OLCS_GET_SESSION_SESSION_NOT_FOUND);
+  }
+
+  @Test
+  public void unwatchSession() throws Exception {
+    SessionManager.SessionAddingResult session = addSession();
+    String sessionId = session.sessionDetail().getSessionId().getId();
+    SessionWatcher watcher = mock(SessionWatcher.class);
+    SessionWatcher otherWatcher = mock(SessionWatcher.class);
+    sessionManager.watchSession(sessionId, watcher);
+    sessionManager.watchSession(sessionId, otherWatcher);
+
+    sessionManager.unwatchSession(sessionId, watcher);
+
+    SessionRunner sessionRunner = sessionRunners.get(0);
+    verify(sessionRunner).removeSessionPluginOutputListener(watcher);
+    verify(sessionRunner, never()).removeSessionPluginOutputListener(otherWatcher);
+
+    sessionRunnerResults.get(0).set(null);
+
+    // Watchers are notified in order, so the removed watcher would have been notified first.
+    verify(otherWatcher, timeout(MINUTES.toMillis(1L))).onSessionFinished(any());
+    verify(watcher, never()).onSessionFinished(any());
+
+    // Unwatching a finished session does nothing.
+    sessionManager.unwatchSession(sessionId, otherWatcher);
+    verify(sessionRunner, never()).removeSessionPluginOutputListener(otherWatcher);
+  }
+
+  private SessionManager.SessionAddingResult addSession() throws MobileHarnessException {
+    return sessionManager.addSession(SessionConfig.newBuilder().setSessionName("session").build());
+  }
+
+  private SessionRunner createSessionRunner(SessionDetail sessionDetail) {
+    SessionRunner sessionRunner = mock(SessionRunner.class);
+    SettableFuture<Void> sessionRunnerResult = SettableFuture.create();
+    when(sessionRunner.getSession(any())).thenReturn(sessionDetail);
+    when(sessionRunner.getSessionConfig()).thenReturn(sessionDetail.getSessionConfig());
+    try {
+      when(sessionRunner.call()).thenAnswer(invocation -> sessionRunnerResult.get());
+    } catch (MobileHarnessException | InterruptedException e) {
+      throw new AssertionError(e);
+    }
+    sessionRunners.add(sessionRunner);
+    sessionRunnerResults.add(sessionRunnerResult);
+    return sessionRunner;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.scheduler.indexed;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.mobileharness.api.model.lab.DeviceLocator;
+import com.google.devtools.mobileharness.api.model.lab.DeviceScheduleUnit;
+import com.google.devtools.mobileharness.api.model.lab.LabLocator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class IdleDeviceIndexTest {
+
+  private static final LabLocator LAB_1 = LabLocator.of("1.1.1.1", "lab1");
+  private static final LabLocator LAB_2 = LabLocator.of("2.2.2.2", "lab2");
+
+  private IdleDeviceIndex index;
+
+  @Before
+  public void setUp() {
+    index = new IdleDeviceIndex();
+  }
+
+  @Test
+  public void upsertDevice_idleOrBusy() {
+    DeviceScheduleUnit device1 = createDevice("device1", LAB_1, "AndroidRealDevice");
+    DeviceScheduleUnit device2 = createDevice("device2", LAB_1, "AndroidRealDevice");
+
+    assertThat(index.upsertDevice(device1, /* idle= */ true)).isNull();
+    assertThat(index.upsertDevice(device2, /* idle= */ false)).isNull();
+
+    assertThat(index.getIdleDevices("AndroidRealDevice")).containsExactly(device1);
+    assertThat(index.getDevice(device2.locator().universalId())).isSameInstanceAs(device2);
+  }
+
+  @Test
+  public void upsertDevice_typesChanged() {
+    DeviceScheduleUnit device = createDevice("device", LAB_1, "AndroidRealDevice");
+    DeviceScheduleUnit newDevice = createDevice("device", LAB_1, "NoOpDevice");
+    index.upsertDevice(device, /* idle= */ true);
+
+    assertThat(index.upsertDevice(newDevice, /* idle= */ true)).isSameInstanceAs(device);
+
+    assertThat(index.getIdleDevices("AndroidRealDevice")).isEmpty();
+    assertThat(index.getIdleDevices("NoOpDevice")).containsExactly(newDevice);
+  }
+
+  @Test
+  public void markBusyAndIdle() {
+    DeviceScheduleUnit device = createDevice("device", LAB_1, "AndroidRealDevice", "AndroidDevice");
+    String deviceId = device.locator().universalId();
+    index.upsertDevice(device, /* idle= */ true);
+
+    index.markBusy(deviceId);
+    assertThat(index.getIdleDevices("AndroidRealDevice")).isEmpty();
+    assertThat(index.getIdleDevices("AndroidDevice")).isEmpty();
+
+    index.markIdle(deviceId);
+    assertThat(index.getIdleDevices("AndroidRealDevice")).containsExactly(device);
+    assertThat(index.getIdleDevices("AndroidDevice")).containsExactly(device);
+  }
+
+  @Test
+  public void removeDevice_notMarkedIdleAgain() {
+    DeviceScheduleUnit device = createDevice("device", LAB_1, "AndroidRealDevice");
+    String deviceId = device.locator().universalId();
+    index.upsertDevice(device, /* idle= */ true);
+
+    assertThat(index.removeDevice(deviceId)).isSameInstanceAs(device);
+    index.markIdle(deviceId);
+
+    assertThat(index.getDevice(deviceId)).isNull();
+    assertThat(index.getIdleDevices("AndroidRealDevice")).isEmpty();
+    assertThat(index.removeDevice(deviceId)).isNull();
+  }
+
+  @Test
+  public void getIdleDevicesByLab() {
+    DeviceScheduleUnit device1 = createDevice("device1", LAB_1, "AndroidRealDevice", "MiscDevice");
+    DeviceScheduleUnit device2 = createDevice("device2", LAB_1, "MiscDevice");
+    DeviceScheduleUnit device3 = createDevice("device3", LAB_2, "AndroidRealDevice");
+    for (DeviceScheduleUnit device : ImmutableList.of(device1, device2, device3)) {
+      index.upsertDevice(device, /* idle= */ true);
+    }
+
+    assertThat(index.getIdleDevicesByLab(ImmutableList.of("AndroidRealDevice", "MiscDevice")))
+        .containsExactly(
+            LAB_1.ip(),
+            ImmutableMap.of(
+                device1.locator().universalId(), device1, device2.locator().universalId(), device2),
+            LAB_2.ip(),
+            ImmutableMap.of(device3.locator().universalId(), device3));
+  }
+
+  private static DeviceScheduleUnit createDevice(String id, LabLocator lab, String... types) {
+    DeviceScheduleUnit device = new DeviceScheduleUnit(DeviceLocator.of(id, lab));
+    device.types().addAll(types);
+    return device;
+  }
+}
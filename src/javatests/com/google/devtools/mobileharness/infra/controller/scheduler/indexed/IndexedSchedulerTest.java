@@ -0,0 +1,210 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.scheduler.indexed;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.mobileharness.api.model.allocation.Allocation;
+import com.google.devtools.mobileharness.api.model.lab.DeviceLocator;
+import com.google.devtools.mobileharness.api.model.lab.DeviceScheduleUnit;
+import com.google.devtools.mobileharness.api.model.lab.LabLocator;
+import com.google.devtools.mobileharness.api.model.lab.LabScheduleUnit;
+import com.google.devtools.mobileharness.api.model.proto.Job.JobUser;
+import com.google.wireless.qa.mobileharness.shared.controller.event.AllocationEvent;
+import com.google.wireless.qa.mobileharness.shared.model.job.JobLocator;
+import com.google.wireless.qa.mobileharness.shared.model.job.JobScheduleUnit;
+import com.google.wireless.qa.mobileharness.shared.model.job.JobSetting;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestLocator;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestScheduleUnit;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.JobType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class IndexedSchedulerTest {
+
+  private static final LabLocator LAB = LabLocator.of("1.1.1.1", "lab");
+  private static final LabScheduleUnit LAB_UNIT = new LabScheduleUnit(LAB);
+  private static final String DEVICE_TYPE = "AndroidRealDevice";
+  private static final String DRIVER = "NoOpDriver";
+
+  /** Receives the allocation events of the scheduler. */
+  private static class AllocationCollector {
+
+    private final LinkedBlockingQueue<Allocation> allocations = new LinkedBlockingQueue<>();
+
+    @Subscribe
+    public void onAllocation(AllocationEvent event) {
+      allocations.add(event.getAllocation());
+    }
+
+    @Nullable
+    private Allocation poll(long timeoutMs) throws InterruptedException {
+      return allocations.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private final AllocationCollector allocationCollector = new AllocationCollector();
+
+  private ExecutorService threadPool;
+  private IndexedScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    threadPool = Executors.newSingleThreadExecutor();
+    scheduler = new IndexedScheduler(threadPool);
+    scheduler.registerEventHandler(allocationCollector);
+    scheduler.start();
+  }
+
+  @After
+  public void tearDown() {
+    threadPool.shutdownNow();
+  }
+
+  @Test
+  public void allocate_singleDeviceTest() throws Exception {
+    DeviceScheduleUnit device = createDevice("device");
+    scheduler.upsertDevice(device, LAB_UNIT);
+    JobScheduleUnit job = createJob("job");
+    scheduler.addJob(job);
+
+    TestLocator test = addTest(job, "test");
+
+    Allocation allocation = allocationCollector.poll(5000L);
+    assertThat(allocation).isNotNull();
+    assertThat(allocation.getTest().id()).isEqualTo(test.getId());
+    assertThat(allocation.getAllDevices()).containsExactly(device.locator());
+  }
+
+  @Test
+  public void allocate_waitForIdleDevice() throws Exception {
+    scheduler.upsertDevice(createDevice("device"), LAB_UNIT);
+    JobScheduleUnit job = createJob("job");
+    scheduler.addJob(job);
+    addTest(job, "test1");
+    Allocation allocation1 = allocationCollector.poll(5000L);
+    assertThat(allocation1).isNotNull();
+
+    TestLocator test2 = addTest(job, "test2");
+    assertThat(allocationCollector.poll(200L)).isNull();
+
+    scheduler.unallocate(allocation1, /* removeDevices= */ false, /* closeTest= */ true);
+    Allocation allocation2 = allocationCollector.poll(5000L);
+    assertThat(allocation2).isNotNull();
+    assertThat(allocation2.getTest().id()).isEqualTo(test2.getId());
+  }
+
+  @Test
+  public void upsertDevice_allocatedDeviceNotMarkedIdle() throws Exception {
+    DeviceScheduleUnit device = createDevice("device");
+    scheduler.upsertDevice(device, LAB_UNIT);
+    JobScheduleUnit job = createJob("job");
+    scheduler.addJob(job);
+    addTest(job, "test1");
+    assertThat(allocationCollector.poll(5000L)).isNotNull();
+
+    // The device is updated by its lab while it is allocated.
+    scheduler.upsertDevice(createDevice("device"), LAB_UNIT);
+    addTest(job, "test2");
+
+    assertThat(allocationCollector.poll(200L)).isNull();
+  }
+
+  @Test
+  public void unallocate_removeDevices() throws Exception {
+    DeviceScheduleUnit device = createDevice("device");
+    scheduler.upsertDevice(device, LAB_UNIT);
+    JobScheduleUnit job = createJob("job");
+    scheduler.addJob(job);
+    addTest(job, "test1");
+    Allocation allocation = allocationCollector.poll(5000L);
+    assertThat(allocation).isNotNull();
+
+    scheduler.unallocate(allocation, /* removeDevices= */ true, /* closeTest= */ true);
+    addTest(job, "test2");
+    assertThat(allocationCollector.poll(200L)).isNull();
+
+    scheduler.upsertDevice(createDevice("device"), LAB_UNIT);
+    assertThat(allocationCollector.poll(5000L)).isNotNull();
+  }
+
+  @Test
+  public void unallocate_requeueTest() throws Exception {
+    scheduler.upsertDevice(createDevice("device"), LAB_UNIT);
+    JobScheduleUnit job = createJob("job");
+    scheduler.addJob(job);
+    TestLocator test = addTest(job, "test");
+    Allocation allocation = allocationCollector.poll(5000L);
+    assertThat(allocation).isNotNull();
+
+    scheduler.unallocate(allocation, /* removeDevices= */ false, /* closeTest= */ false);
+
+    Allocation newAllocation = allocationCollector.poll(5000L);
+    assertThat(newAllocation).isNotNull();
+    assertThat(newAllocation.getTest().id()).isEqualTo(test.getId());
+  }
+
+  @Test
+  public void removeJob_releaseDevices() throws Exception {
+    scheduler.upsertDevice(createDevice("device"), LAB_UNIT);
+    JobScheduleUnit job1 = createJob("job1");
+    scheduler.addJob(job1);
+    addTest(job1, "test1");
+    assertThat(allocationCollector.poll(5000L)).isNotNull();
+    JobScheduleUnit job2 = createJob("job2");
+    scheduler.addJob(job2);
+    TestLocator test2 = addTest(job2, "test2");
+    assertThat(allocationCollector.poll(200L)).isNull();
+
+    scheduler.removeJob(job1.locator().getId(), /* removeDevices= */ false);
+
+    Allocation allocation = allocationCollector.poll(5000L);
+    assertThat(allocation).isNotNull();
+    assertThat(allocation.getTest().id()).isEqualTo(test2.getId());
+  }
+
+  private TestLocator addTest(JobScheduleUnit job, String testId) throws Exception {
+    TestLocator test = new TestLocator(testId, testId, job.locator());
+    scheduler.addTest(new TestScheduleUnit(test));
+    return test;
+  }
+
+  private static DeviceScheduleUnit createDevice(String deviceId) {
+    DeviceScheduleUnit device = new DeviceScheduleUnit(DeviceLocator.of(deviceId, LAB));
+    device.types().add(DEVICE_TYPE);
+    device.drivers().add(DRIVER);
+    return device;
+  }
+
+  private static JobScheduleUnit createJob(String jobId) {
+    return new JobScheduleUnit(
+        new JobLocator(jobId, jobId),
+        JobUser.newBuilder().setRunAs("user").setActualUser("user").build(),
+        JobType.newBuilder().setDevice(DEVICE_TYPE).setDriver(DRIVER).build(),
+        JobSetting.newBuilder().build());
+  }
+}
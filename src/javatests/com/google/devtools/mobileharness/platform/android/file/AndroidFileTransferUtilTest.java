@@ -0,0 +1,274 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.file;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.AdbSocketClient;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.FakeAdbServer;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.FakeAdbServer.ShellReply;
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.file.checksum.ChecksumUtil;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class AndroidFileTransferUtilTest {
+
+  private static final String SERIAL = "363005dc750400ec";
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10L);
+
+  private static final ImmutableList<String> SERIALS =
+      ImmutableList.of("device-1", "device-2", "device-3", "device-4");
+
+  /** Max number of devices pushed to concurrently by {@link #multiDevicePushExecutor}. */
+  private static final int MAX_CONCURRENT_DEVICES = 2;
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Mock private Adb adb;
+
+  private final ListeningExecutorService multiDevicePushExecutor =
+      MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(MAX_CONCURRENT_DEVICES));
+
+  private FakeAdbServer server;
+  private AndroidFileTransferUtil androidFileTransferUtil;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeAdbServer();
+    server.setShellHandler(this::md5sum);
+    when(adb.getSocketClient()).thenReturn(new AdbSocketClient("localhost", server.getPort()));
+    androidFileTransferUtil =
+        new AndroidFileTransferUtil(
+            adb, new LocalFileUtil(), new ChecksumUtil(Hashing.md5()), multiDevicePushExecutor);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    multiDevicePushExecutor.shutdownNow();
+  }
+
+  @Test
+  public void push_keepsLocalFileModes() throws Exception {
+    Path script = createLocalFile("script.sh", "echo hello", "rwxr-x---");
+    Path data = createLocalFile("data.txt", "data", "rw-r-----");
+
+    FileTransferStats stats =
+        androidFileTransferUtil.push(
+            SERIAL,
+            ImmutableMap.of(script, "/data/local/tmp/script.sh", data, "/sdcard/data.txt"),
+            TIMEOUT);
+
+    assertThat(stats.transferredFileCount()).isEqualTo(2);
+    assertThat(stats.skippedFileCount()).isEqualTo(0);
+    assertThat(stats.transferredBytes()).isEqualTo(14L);
+    assertThat(new String(server.files.get("/data/local/tmp/script.sh"), UTF_8))
+        .isEqualTo("echo hello");
+    assertThat(new String(server.files.get("/sdcard/data.txt"), UTF_8)).isEqualTo("data");
+    assertThat(server.fileModes).containsEntry("/data/local/tmp/script.sh", 0750);
+    assertThat(server.fileModes).containsEntry("/sdcard/data.txt", 0640);
+  }
+
+  @Test
+  public void push_skipsUnchangedFiles() throws Exception {
+    Path unchanged = createLocalFile("unchanged.txt", "same", "rw-r--r--");
+    Path changed = createLocalFile("changed.txt", "new content", "rw-r--r--");
+    Path resized = createLocalFile("resized.txt", "longer content", "rw-r--r--");
+    Path added = createLocalFile("added.txt", "added", "rw-r--r--");
+    server.files.put("/sdcard/unchanged.txt", "same".getBytes(UTF_8));
+    server.files.put("/sdcard/changed.txt", "old content".getBytes(UTF_8));
+    server.files.put("/sdcard/resized.txt", "short".getBytes(UTF_8));
+
+    FileTransferStats stats =
+        androidFileTransferUtil.push(
+            SERIAL,
+            ImmutableMap.of(
+                unchanged, "/sdcard/unchanged.txt",
+                changed, "/sdcard/changed.txt",
+                resized, "/sdcard/resized.txt",
+                added, "/sdcard/added.txt"),
+            TIMEOUT);
+
+    assertThat(stats.transferredFileCount()).isEqualTo(3);
+    assertThat(stats.skippedFileCount()).isEqualTo(1);
+    assertThat(new String(server.files.get("/sdcard/changed.txt"), UTF_8)).isEqualTo("new content");
+    assertThat(new String(server.files.get("/sdcard/resized.txt"), UTF_8))
+        .isEqualTo("longer content");
+    assertThat(new String(server.files.get("/sdcard/added.txt"), UTF_8)).isEqualTo("added");
+    // The unchanged file is not sent again.
+    assertThat(server.fileModes).doesNotContainKey("/sdcard/unchanged.txt");
+  }
+
+  @Test
+  public void push_md5sumNotSupported_pushesAllFiles() throws Exception {
+    server.setShellHandler(command -> new ShellReply("", "md5sum: not found", 127));
+    Path file = createLocalFile("file.txt", "same", "rw-r--r--");
+    server.files.put("/sdcard/file.txt", "same".getBytes(UTF_8));
+
+    FileTransferStats stats =
+        androidFileTransferUtil.push(SERIAL, ImmutableMap.of(file, "/sdcard/file.txt"), TIMEOUT);
+
+    assertThat(stats.transferredFileCount()).isEqualTo(1);
+    assertThat(stats.skippedFileCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void push_multipleDevices() throws Exception {
+    Path dir = tmpFolder.newFolder("dir").toPath();
+    Files.writeString(dir.resolve("a.txt"), "content a");
+    Files.createDirectories(dir.resolve("sub"));
+    Files.writeString(dir.resolve("sub/b.txt"), "content b");
+    // Files of the same sizes make every push run md5sum, which tracks the concurrent pushes.
+    server.files.put("/sdcard/dir/a.txt", "content x".getBytes(UTF_8));
+    AtomicInteger runningPushes = new AtomicInteger();
+    AtomicInteger maxRunningPushes = new AtomicInteger();
+    server.setShellHandler(
+        command -> {
+          maxRunningPushes.accumulateAndGet(runningPushes.incrementAndGet(), Math::max);
+          try {
+            Thread.sleep(200L);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            runningPushes.decrementAndGet();
+          }
+          // Reports no md5 so that the files are pushed to every device.
+          return new ShellReply("", "", 0);
+        });
+
+    ImmutableMap<String, FileTransferStats> stats =
+        androidFileTransferUtil.push(SERIALS, dir.toString(), "/sdcard/dir", TIMEOUT);
+
+    assertThat(stats.keySet()).containsExactlyElementsIn(SERIALS).inOrder();
+    for (String serial : SERIALS) {
+      assertThat(stats.get(serial).transferredFileCount()).isEqualTo(2);
+      assertThat(server.pushedPaths.get(serial))
+          .containsExactly("/sdcard/dir/a.txt", "/sdcard/dir/sub/b.txt");
+    }
+    assertThat(new String(server.files.get("/sdcard/dir/a.txt"), UTF_8)).isEqualTo("content a");
+    assertThat(maxRunningPushes.get()).isEqualTo(MAX_CONCURRENT_DEVICES);
+  }
+
+  @Test
+  public void push_multipleDevices_deviceOffline() throws Exception {
+    Path file = createLocalFile("file.txt", "content", "rw-r--r--");
+    server.setDeviceOffline("device-2");
+    server.setDeviceOffline("device-3");
+
+    MobileHarnessException exception =
+        assertThrows(
+            MobileHarnessException.class,
+            () ->
+                androidFileTransferUtil.push(
+                    SERIALS, file.toString(), "/sdcard/file.txt", TIMEOUT));
+
+    assertThat(exception.getErrorId()).isEqualTo(AndroidErrorId.ANDROID_FILE_UTIL_SYNC_PUSH_ERROR);
+    assertThat(exception).hasMessageThat().contains("device-2");
+    assertThat(exception.getSuppressed()).hasLength(1);
+    assertThat(exception.getSuppressed()[0]).hasMessageThat().contains("device-3");
+    // The failed devices do not stop the pushes to the other devices.
+    assertThat(server.pushedPaths.keySet()).containsExactly("device-1", "device-4");
+  }
+
+  @Test
+  public void pull() throws Exception {
+    server.files.put("/sdcard/a.txt", "content a".getBytes(UTF_8));
+    server.files.put("/sdcard/b.txt", "content b".getBytes(UTF_8));
+    Path localDir = tmpFolder.getRoot().toPath().resolve("pulled/dir");
+
+    FileTransferStats stats =
+        androidFileTransferUtil.pull(
+            SERIAL,
+            ImmutableMap.of(
+                "/sdcard/a.txt", localDir.resolve("a.txt"),
+                "/sdcard/b.txt", localDir.resolve("b.txt")),
+            TIMEOUT);
+
+    assertThat(stats.transferredFileCount()).isEqualTo(2);
+    assertThat(stats.transferredBytes()).isEqualTo(18L);
+    assertThat(Files.readString(localDir.resolve("a.txt"))).isEqualTo("content a");
+    assertThat(Files.readString(localDir.resolve("b.txt"))).isEqualTo("content b");
+  }
+
+  @Test
+  public void pull_fileNotFound() {
+    MobileHarnessException exception =
+        assertThrows(
+            MobileHarnessException.class,
+            () ->
+                androidFileTransferUtil.pull(
+                    SERIAL,
+                    ImmutableMap.of(
+                        "/sdcard/missing.txt", tmpFolder.getRoot().toPath().resolve("missing")),
+                    TIMEOUT));
+
+    assertThat(exception.getErrorId()).isEqualTo(AndroidErrorId.ANDROID_FILE_UTIL_SYNC_PULL_ERROR);
+  }
+
+  private Path createLocalFile(String name, String content, String permissions) throws Exception {
+    Path file = tmpFolder.getRoot().toPath().resolve(name);
+    Files.writeString(file, content);
+    Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(permissions));
+    return file;
+  }
+
+  /** Replies md5sum commands with the md5 of the files on the fake device. */
+  private ShellReply md5sum(String command) {
+    StringBuilder stdout = new StringBuilder();
+    for (Map.Entry<String, byte[]> file : server.files.entrySet()) {
+      if (command.startsWith("md5sum ") && command.contains(file.getKey())) {
+        stdout
+            .append(Hashing.md5().hashBytes(file.getValue()))
+            .append("  ")
+            .append(file.getKey())
+            .append('\n');
+      }
+    }
+    return new ShellReply(stdout.toString(), "", 0);
+  }
+}
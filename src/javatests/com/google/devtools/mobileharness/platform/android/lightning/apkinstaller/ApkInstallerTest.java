@@ -0,0 +1,308 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.lightning.apkinstaller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.deviceinfra.shared.util.time.Sleeper;
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.platform.android.file.AndroidFileUtil;
+import com.google.devtools.mobileharness.platform.android.packagemanager.AndroidPackageManagerUtil;
+import com.google.devtools.mobileharness.platform.android.shared.autovalue.UtilArgs;
+import com.google.devtools.mobileharness.platform.android.shared.constant.PackageConstants;
+import com.google.devtools.mobileharness.platform.android.systemsetting.AndroidSystemSettingUtil;
+import com.google.devtools.mobileharness.platform.android.systemspec.AndroidSystemSpecUtil;
+import com.google.devtools.mobileharness.platform.android.user.AndroidUserUtil;
+import com.google.devtools.mobileharness.shared.util.file.checksum.ChecksumUtil;
+import com.google.wireless.qa.mobileharness.shared.android.Aapt;
+import com.google.wireless.qa.mobileharness.shared.api.device.Device;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class ApkInstallerTest {
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+  @Mock private ChecksumUtil md5Util;
+  @Mock private Aapt aapt;
+  @Mock private AndroidSystemSpecUtil systemSpecUtil;
+  @Mock private AndroidSystemSettingUtil systemSettingUtil;
+  @Mock private AndroidPackageManagerUtil androidPackageManagerUtil;
+  @Mock private AndroidFileUtil androidFileUtil;
+  @Mock private AndroidUserUtil androidUserUtil;
+  @Mock private Sleeper sleeper;
+
+  private static final int SDK_VERSION = 30;
+  private static final Duration INSTALL_TIME = Duration.ofMillis(200L);
+
+  /** Installations running now, and the max number of installations which ran at the same time. */
+  private final AtomicInteger runningInstallations = new AtomicInteger();
+
+  private final AtomicInteger maxRunningInstallations = new AtomicInteger();
+
+  /** Installed APKs, as "<device_id>:<apk_path>" in the order that the installations start. */
+  private final List<String> installedApks = new CopyOnWriteArrayList<>();
+
+  private ApkInstaller apkInstaller;
+
+  @Before
+  public void setUp() throws Exception {
+    when(systemSettingUtil.getDeviceSdkVersion(anyString())).thenReturn(SDK_VERSION);
+    when(androidUserUtil.getCurrentUser(anyString(), anyInt())).thenReturn(0);
+    when(aapt.getApkPackageName(anyString()))
+        .thenAnswer(
+            invocation -> {
+              String apkPath = invocation.getArgument(0);
+              return apkPath.startsWith("gms")
+                  ? PackageConstants.PACKAGE_NAME_GMS
+                  : "com.example." + apkPath.substring(0, apkPath.indexOf('_'));
+            });
+    when(md5Util.fingerprint(anyString()))
+        .thenAnswer(invocation -> "md5_" + invocation.getArgument(0));
+    doAnswer(
+            invocation -> {
+              UtilArgs utilArgs = invocation.getArgument(0);
+              installedApks.add(utilArgs.serial() + ":" + invocation.getArgument(1));
+              int running = runningInstallations.incrementAndGet();
+              maxRunningInstallations.accumulateAndGet(running, Math::max);
+              Thread.sleep(INSTALL_TIME.toMillis());
+              runningInstallations.decrementAndGet();
+              return null;
+            })
+        .when(androidPackageManagerUtil)
+        .installApk(
+            any(UtilArgs.class),
+            anyString(),
+            isNull(),
+            anyBoolean(),
+            anyBoolean(),
+            isNull(),
+            any(String[].class));
+
+    apkInstaller =
+        new ApkInstaller(
+            md5Util,
+            aapt,
+            systemSpecUtil,
+            systemSettingUtil,
+            androidPackageManagerUtil,
+            androidFileUtil,
+            androidUserUtil,
+            sleeper);
+  }
+
+  @After
+  public void tearDown() {
+    Flags.resetToDefault();
+  }
+
+  @Test
+  public void installApks_installsGmsFirst() throws Exception {
+    Flags.parse(new String[] {"--apk_install_concurrently=true"});
+    Device device = mockDevice("device");
+
+    ImmutableList<String> packageNames =
+        apkInstaller.installApks(
+            device, ImmutableList.of(apk("a_1.apk"), gmsApk(), apk("b_1.apk")), /* log= */ null);
+
+    assertThat(packageNames)
+        .containsExactly("com.example.a", PackageConstants.PACKAGE_NAME_GMS, "com.example.b")
+        .inOrder();
+    assertThat(installedApks).hasSize(3);
+    assertThat(installedApks.get(0)).isEqualTo("device:gms_1.apk");
+  }
+
+  @Test
+  public void installApks_concurrentPackages() throws Exception {
+    Flags.parse(
+        new String[] {
+          "--apk_install_concurrently=true", "--apk_install_max_concurrent_packages=2"
+        });
+    Device device = mockDevice("device");
+
+    apkInstaller.installApks(
+        device,
+        ImmutableList.of(apk("a_1.apk"), apk("a_2.apk"), apk("b_1.apk"), apk("c_1.apk")),
+        /* log= */ null);
+
+    assertThat(maxRunningInstallations.get()).isEqualTo(2);
+    assertThat(installedApks)
+        .containsExactly("device:a_1.apk", "device:a_2.apk", "device:b_1.apk", "device:c_1.apk");
+    // APKs of the same package are installed in the given order.
+    assertThat(installedApks.indexOf("device:a_1.apk"))
+        .isLessThan(installedApks.indexOf("device:a_2.apk"));
+  }
+
+  @Test
+  public void installApks_notConcurrentByDefault() throws Exception {
+    Device device = mockDevice("device");
+
+    apkInstaller.installApks(
+        ImmutableList.of(device, mockDevice("device2")),
+        ImmutableList.of(apk("a_1.apk"), apk("b_1.apk"), apk("c_1.apk")),
+        /* log= */ null);
+
+    assertThat(maxRunningInstallations.get()).isEqualTo(1);
+    assertThat(installedApks)
+        .containsExactly(
+            "device:a_1.apk",
+            "device:b_1.apk",
+            "device:c_1.apk",
+            "device2:a_1.apk",
+            "device2:b_1.apk",
+            "device2:c_1.apk")
+        .inOrder();
+  }
+
+  @Test
+  public void installApks_multipleDevices() throws Exception {
+    Flags.parse(
+        new String[] {
+          "--apk_install_concurrently=true",
+          "--apk_install_max_concurrent_devices=2",
+          "--apk_install_max_concurrent_packages=1"
+        });
+    Device device1 = mockDevice("device1");
+    Device device2 = mockDevice("device2");
+    Device device3 = mockDevice("device3");
+
+    ImmutableMap<String, ImmutableList<String>> packageNames =
+        apkInstaller.installApks(
+            ImmutableList.of(device1, device2, device3, device1),
+            ImmutableList.of(apk("a_1.apk"), apk("b_1.apk")),
+            /* log= */ null);
+
+    assertThat(packageNames)
+        .containsExactly(
+            "device1", ImmutableList.of("com.example.a", "com.example.b"),
+            "device2", ImmutableList.of("com.example.a", "com.example.b"),
+            "device3", ImmutableList.of("com.example.a", "com.example.b"));
+    assertThat(maxRunningInstallations.get()).isEqualTo(2);
+    // The device listed twice is installed once.
+    assertThat(installedApks)
+        .containsExactly(
+            "device1:a_1.apk",
+            "device1:b_1.apk",
+            "device2:a_1.apk",
+            "device2:b_1.apk",
+            "device3:a_1.apk",
+            "device3:b_1.apk");
+  }
+
+  @Test
+  public void installApks_multipleDevices_deviceFailure() throws Exception {
+    Flags.parse(new String[] {"--apk_install_concurrently=true"});
+    when(systemSettingUtil.getDeviceSdkVersion("device2"))
+        .thenThrow(
+            new MobileHarnessException(
+                AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_DEVICE_SDK_ERROR, "offline"));
+
+    MobileHarnessException exception =
+        assertThrows(
+            MobileHarnessException.class,
+            () ->
+                apkInstaller.installApks(
+                    ImmutableList.of(
+                        mockDevice("device1"), mockDevice("device2"), mockDevice("device3")),
+                    ImmutableList.of(apk("a_1.apk")),
+                    /* log= */ null));
+
+    assertThat(exception.getErrorId())
+        .isEqualTo(AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_DEVICE_SDK_ERROR);
+    // The other devices are still installed.
+    assertThat(installedApks).containsExactly("device1:a_1.apk", "device3:a_1.apk");
+  }
+
+  @Test
+  public void installApk_samePackageOnSameDeviceConcurrently() throws Exception {
+    Device device = mockDevice("device");
+    ExecutorService threadPool = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> result1 =
+          threadPool.submit(() -> apkInstaller.installApk(device, apk("a_1.apk"), null));
+      Future<String> result2 =
+          threadPool.submit(() -> apkInstaller.installApk(device, apk("a_1.apk"), null));
+
+      assertThat(result1.get()).isEqualTo("com.example.a");
+      assertThat(result2.get()).isEqualTo("com.example.a");
+    } finally {
+      threadPool.shutdownNow();
+    }
+
+    // The second installation waits for the first one, and finds the APK in the cached property.
+    assertThat(installedApks).containsExactly("device:a_1.apk");
+    assertThat(
+            device.getProperty(
+                String.format(ApkInstaller.DEVICE_PROP_INSTALLED_APK_KEY_TEMPLATE, "0")
+                    + "com.example.a"))
+        .isEqualTo("md5_a_1.apk");
+  }
+
+  private static ApkInstallArgs apk(String apkPath) {
+    return ApkInstallArgs.builder().setApkPath(apkPath).build();
+  }
+
+  private static ApkInstallArgs gmsApk() {
+    return ApkInstallArgs.builder().setApkPath("gms_1.apk").setSkipGmsCompatCheck(true).build();
+  }
+
+  /** Returns a device whose properties are stored in a map. */
+  private static Device mockDevice(String deviceId) {
+    Device device = mock(Device.class);
+    Map<String, String> properties = new ConcurrentHashMap<>();
+    when(device.getDeviceId()).thenReturn(deviceId);
+    when(device.getProperty(anyString()))
+        .thenAnswer(invocation -> properties.get((String) invocation.getArgument(0)));
+    when(device.setProperty(anyString(), any()))
+        .thenAnswer(
+            invocation -> {
+              String key = invocation.getArgument(0);
+              String value = invocation.getArgument(1);
+              return value == null ? properties.remove(key) : properties.put(key, value);
+            });
+    return device;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.sdktool.adb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.AdbSocketClient;
+import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.FakeAdbServer;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class AndroidAdbInternalUtilTest {
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private Adb adb;
+
+  private FakeAdbServer server;
+  private AndroidAdbInternalUtil adbInternalUtil;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeAdbServer();
+    when(adb.getSocketClient()).thenReturn(new AdbSocketClient("localhost", server.getPort()));
+    adbInternalUtil = new AndroidAdbInternalUtil(adb);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void trackDevices_stopsWhenInterrupted() throws Exception {
+    server.setHostStream(
+        "host:track-devices-l",
+        ImmutableList.of(
+            "serial1\tdevice product:p model:m device:d transport_id:1\n",
+            "serial1\tdevice product:p model:m device:d transport_id:1\n"
+                + "serial2\trecovery transport_id:2\n"));
+    LinkedBlockingQueue<Map<String, DeviceState>> updates = new LinkedBlockingQueue<>();
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread tracker =
+        new Thread(
+            () -> {
+              try {
+                adbInternalUtil.trackDevices(updates::add);
+              } catch (Throwable e) {
+                error.set(e);
+              }
+            });
+    tracker.start();
+
+    assertThat(updates.poll(10L, TimeUnit.SECONDS))
+        .containsExactly("serial1", DeviceState.DEVICE);
+    assertThat(updates.poll(10L, TimeUnit.SECONDS))
+        .isEqualTo(ImmutableMap.of("serial1", DeviceState.DEVICE, "serial2", DeviceState.RECOVERY));
+
+    // The stream is still open, and the tracker stops once it is interrupted.
+    assertThat(tracker.isAlive()).isTrue();
+    tracker.interrupt();
+    tracker.join(10_000L);
+
+    assertThat(tracker.isAlive()).isFalse();
+    assertThat(error.get()).isInstanceOf(InterruptedException.class);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.sdktool.adb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.deviceinfra.platform.android.sdk.fastboot.Fastboot;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class AndroidDeviceStateSnapshotTest {
+
+  private static final Duration INTERVAL = Duration.ofSeconds(5L);
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private AndroidAdbInternalUtil adbInternalUtil;
+  @Mock private Fastboot fastboot;
+
+  private Instant now;
+  private AndroidDeviceStateSnapshot snapshot;
+
+  @Before
+  public void setUp() throws Exception {
+    now = Instant.ofEpochSecond(1000L);
+    when(adbInternalUtil.getDeviceSerialsAsMap())
+        .thenReturn(
+            ImmutableMap.of("serial1", DeviceState.DEVICE, "serial2", DeviceState.RECOVERY));
+    when(fastboot.getDeviceSerials()).thenReturn(ImmutableSet.of("serial3"));
+    snapshot =
+        new AndroidDeviceStateSnapshot(
+            adbInternalUtil,
+            fastboot,
+            new Clock() {
+              @Override
+              public ZoneId getZone() {
+                return ZoneId.systemDefault();
+              }
+
+              @Override
+              public Clock withZone(ZoneId zone) {
+                return this;
+              }
+
+              @Override
+              public Instant instant() {
+                return now;
+              }
+            },
+            () -> INTERVAL);
+  }
+
+  @Test
+  public void getDeviceSerials_withinInterval_loadsOnce() throws Exception {
+    assertThat(snapshot.getAdbDeviceSerials(DeviceState.RECOVERY)).containsExactly("serial2");
+    assertThat(snapshot.getAdbDeviceSerials(DeviceState.DEVICE)).containsExactly("serial1");
+    assertThat(snapshot.getFastbootDeviceSerials()).containsExactly("serial3");
+    now = now.plusSeconds(4L);
+    assertThat(snapshot.getFastbootDeviceSerials()).containsExactly("serial3");
+
+    verify(adbInternalUtil).getDeviceSerialsAsMap();
+    verify(fastboot).getDeviceSerials();
+  }
+
+  @Test
+  public void getDeviceSerials_afterInterval_reloads() throws Exception {
+    assertThat(snapshot.getFastbootDeviceSerials()).containsExactly("serial3");
+    when(fastboot.getDeviceSerials()).thenReturn(ImmutableSet.of());
+    now = now.plus(INTERVAL);
+
+    assertThat(snapshot.getFastbootDeviceSerials()).isEmpty();
+    verify(fastboot, times(2)).getDeviceSerials();
+  }
+
+  @Test
+  public void updateAdbDevices() throws Exception {
+    snapshot.updateAdbDevices(ImmutableMap.of("serial2", DeviceState.DEVICE));
+
+    assertThat(snapshot.getAdbDeviceSerials(DeviceState.RECOVERY)).isEmpty();
+    assertThat(snapshot.getAdbDeviceSerials(DeviceState.DEVICE)).containsExactly("serial2");
+    verify(adbInternalUtil, times(0)).getDeviceSerialsAsMap();
+  }
+
+  @Test
+  public void refreshAndInvalidate_reload() throws Exception {
+    assertThat(snapshot.getAdbDeviceSerials(DeviceState.RECOVERY)).containsExactly("serial2");
+
+    snapshot.refresh();
+    snapshot.invalidate();
+    assertThat(snapshot.getAdbDeviceSerials(DeviceState.RECOVERY)).containsExactly("serial2");
+
+    verify(adbInternalUtil, times(3)).getDeviceSerialsAsMap();
+    verify(fastboot).getDeviceSerials();
+  }
+}
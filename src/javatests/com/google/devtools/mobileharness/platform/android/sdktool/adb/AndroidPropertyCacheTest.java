@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.sdktool.adb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AndroidPropertyCacheTest {
+
+  private static final String SERIAL = "363005dc750400ec";
+  private static final Duration TTL = Duration.ofSeconds(30L);
+
+  private final AtomicInteger loadCount = new AtomicInteger();
+  private Instant now;
+  private ImmutableMap<String, String> deviceProperties;
+  private AndroidPropertyCache cache;
+
+  @Before
+  public void setUp() {
+    now = Instant.ofEpochSecond(1000L);
+    deviceProperties = ImmutableMap.of("ro.build.version.sdk", "30", "persist.sys.locale", "en");
+    cache =
+        new AndroidPropertyCache(
+            new Clock() {
+              @Override
+              public ZoneId getZone() {
+                return ZoneId.systemDefault();
+              }
+
+              @Override
+              public Clock withZone(ZoneId zone) {
+                return this;
+              }
+
+              @Override
+              public Instant instant() {
+                return now;
+              }
+            });
+  }
+
+  @Test
+  public void parseGetpropOutput() {
+    assertThat(
+            AndroidPropertyCache.parseGetpropOutput(
+                "[ro.product.model]: [Pixel 6]\r\n"
+                    + "[ro.empty]: []\n"
+                    + "[persist.multi.line]: [line1\n"
+                    + "line2]\n"
+                    + "garbage\n"))
+        .containsExactly(
+            "ro.product.model", "Pixel 6", "ro.empty", "", "persist.multi.line", "line1\nline2");
+  }
+
+  @Test
+  public void getProperty_loadOnceForMultipleKeys() throws Exception {
+    assertThat(getProperty("ro.build.version.sdk")).isEqualTo("30");
+    assertThat(getProperty("persist.sys.locale")).isEqualTo("en");
+    assertThat(getProperty("ro.not.exist", "ro.build.version.sdk")).isEqualTo("30");
+    assertThat(getProperty("ro.not.exist")).isEmpty();
+
+    assertThat(loadCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void getProperty_readOnlyNeverExpires() throws Exception {
+    assertThat(getProperty("ro.build.version.sdk")).isEqualTo("30");
+    now = now.plus(Duration.ofHours(1L));
+
+    assertThat(getProperty("ro.build.version.sdk")).isEqualTo("30");
+    assertThat(loadCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void getProperty_reloadAfterTtl() throws Exception {
+    assertThat(getProperty("persist.sys.locale")).isEqualTo("en");
+    deviceProperties = ImmutableMap.of("persist.sys.locale", "fr");
+    now = now.plus(TTL).plusSeconds(1L);
+
+    assertThat(getProperty("persist.sys.locale")).isEqualTo("fr");
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void invalidate() throws Exception {
+    assertThat(getProperty("ro.build.version.sdk")).isEqualTo("30");
+    deviceProperties = ImmutableMap.of("ro.build.version.sdk", "31");
+
+    cache.invalidate(SERIAL);
+
+    assertThat(getProperty("ro.build.version.sdk")).isEqualTo("31");
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void isCacheable() {
+    assertThat(AndroidPropertyCache.isCacheable(ImmutableList.of("ro.build.version.sdk")))
+        .isTrue();
+    assertThat(
+            AndroidPropertyCache.isCacheable(
+                ImmutableList.of("ro.build.version.sdk", "sys.boot_completed")))
+        .isFalse();
+  }
+
+  private String getProperty(String... keys) throws Exception {
+    return cache.getProperty(
+        SERIAL,
+        ImmutableList.copyOf(keys),
+        TTL,
+        serial -> {
+          loadCount.incrementAndGet();
+          return deviceProperties;
+        });
+  }
+}
@@ -66,6 +66,24 @@ public class ConfigurationUtilTest {
     assertThat(configs).hasSize(2);
   }
 
+  @Test
+  public void getConfigsFromDirs_configFilesChanged_returnsNewConfigs() throws Exception {
+    Path testcasesDir = Paths.get(tempDirPath.toString(), "testcases");
+    Path newFile1 = testcasesDir.resolve("new_file1.config");
+    Path newFile2 = testcasesDir.resolve("new_file2.config");
+    localFileUtil.writeToFile(newFile1.toString(), "<configuration description=\"a\"/>");
+    localFileUtil.writeToFile(newFile2.toString(), "<configuration description=\"b\"/>");
+    configurationUtil.getConfigsFromDirs(ImmutableList.of(tempDirPath.toFile()));
+
+    localFileUtil.writeToFile(newFile1.toString(), "<configuration description=\"aa\"/>");
+    localFileUtil.removeFileOrDir(newFile2.toString());
+    ImmutableMap<String, Configuration> configs =
+        configurationUtil.getConfigsFromDirs(ImmutableList.of(tempDirPath.toFile()));
+
+    assertThat(configs.keySet()).containsExactly(newFile1.toString());
+    assertThat(configs.get(newFile1.toString()).getDescription()).isEqualTo("aa");
+  }
+
   @Test
   public void getConfigPathsFromDirs_configContent_returnsConfigNames() throws Exception {
     Path testcasesDir = Paths.get(tempDirPath.toString(), "testcases");
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.command.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.mobileharness.shared.util.command.io.LineReader.LineHandler;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LineReaderTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void handleLine_allSeparators() throws Exception {
+    LineReader lineReader = new LineReader();
+    RecordingLineHandler handler = new RecordingLineHandler();
+    lineReader.start(handler);
+
+    try (OutputStream output = lineReader.openStream()) {
+      output.write("a\nb\r\nc\rd".getBytes(UTF_8));
+    }
+
+    assertThat(handler.lines).containsExactly("a|\n", "b|\r\n", "c|\r", "d|").inOrder();
+    assertThat(handler.sourceClosed.getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void handleLine_separatorAndCharacterSplitAcrossWrites() throws Exception {
+    LineReader lineReader = new LineReader();
+    RecordingLineHandler handler = new RecordingLineHandler();
+    lineReader.start(handler);
+    byte[] bytes = "\u00e9\r\nx".getBytes(UTF_8);
+
+    try (OutputStream output = lineReader.openStream()) {
+      for (byte b : bytes) {
+        output.write(b);
+      }
+    }
+
+    assertThat(handler.lines).containsExactly("\u00e9|\r\n", "x|").inOrder();
+  }
+
+  @Test
+  public void start_handlesDataWrittenBefore() throws Exception {
+    LineReader lineReader = new LineReader();
+    RecordingLineHandler handler = new RecordingLineHandler();
+    try (OutputStream output = lineReader.openStream()) {
+      output.write("a\nb\n".getBytes(UTF_8));
+    }
+
+    lineReader.start(handler);
+
+    assertThat(handler.lines).containsExactly("a|\n", "b|\n").inOrder();
+    assertThat(handler.sourceClosed.getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void handleLine_stopHandling() throws Exception {
+    LineReader lineReader = new LineReader();
+    RecordingLineHandler handler = new RecordingLineHandler();
+    handler.stopLine = "b";
+    lineReader.start(handler);
+
+    try (OutputStream output = lineReader.openStream()) {
+      output.write("a\nb\nc\n".getBytes(UTF_8));
+      output.write("d\n".getBytes(UTF_8));
+    }
+
+    assertThat(handler.lines).containsExactly("a|\n", "b|\n").inOrder();
+    assertThat(handler.sourceClosed.getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void handleLine_notHoldingLock() throws Exception {
+    LineReader lineReader = new LineReader();
+    RecordingLineHandler handler = new RecordingLineHandler();
+    handler.blockedLine = "a";
+    lineReader.start(handler);
+    OutputStream output = lineReader.openStream();
+
+    Future<?> firstWrite =
+        executor.submit(
+            () -> {
+              output.write("a\n".getBytes(UTF_8));
+              return null;
+            });
+    assertThat(handler.blockedLineReached.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // Another writer is not blocked by the line handler running in the first writer.
+    executor.submit(
+            () -> {
+              output.write("b\n".getBytes(UTF_8));
+              output.close();
+              return null;
+            })
+        .get(5, TimeUnit.SECONDS);
+    assertThat(handler.lines).containsExactly("a|\n");
+
+    handler.unblock.countDown();
+    firstWrite.get(5, TimeUnit.SECONDS);
+
+    assertThat(handler.sourceClosed.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(handler.lines).containsExactly("a|\n", "b|\n").inOrder();
+  }
+
+  private static class RecordingLineHandler implements LineHandler {
+
+    private final List<String> lines = new ArrayList<>();
+    private final CountDownLatch sourceClosed = new CountDownLatch(1);
+    private final CountDownLatch blockedLineReached = new CountDownLatch(1);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private volatile String stopLine;
+    private volatile String blockedLine;
+
+    @Override
+    public boolean handleLine(String line, String end) {
+      synchronized (lines) {
+        lines.add(line + "|" + end);
+      }
+      if (line.equals(blockedLine)) {
+        blockedLineReached.countDown();
+        try {
+          unblock.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return line.equals(stopLine);
+    }
+
+    @Override
+    public void onSourceClosed() {
+      sourceClosed.countDown();
+    }
+  }
+}
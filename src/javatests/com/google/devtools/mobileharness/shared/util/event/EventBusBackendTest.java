@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.event;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.mobileharness.shared.util.event.EventBusBackend.InvalidSubscriberMethod;
+import com.google.devtools.mobileharness.shared.util.event.EventBusBackend.SubscriberMethod;
+import com.google.devtools.mobileharness.shared.util.event.EventBusBackend.SubscriberMethodSearchResult;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class EventBusBackendTest {
+
+  private static class BaseEvent {}
+
+  private static class DerivedEvent extends BaseEvent {}
+
+  private static class OtherEvent {}
+
+  private static class Subscriber {
+
+    private final List<String> receivedEvents = new ArrayList<>();
+
+    @Subscribe
+    private void onBaseEvent(BaseEvent event) {
+      receivedEvents.add("base:" + event.getClass().getSimpleName());
+    }
+
+    @Subscribe
+    private void onDerivedEvent(DerivedEvent event) {
+      receivedEvents.add("derived:" + event.getClass().getSimpleName());
+    }
+
+    @Subscribe
+    private void onOtherEvent(OtherEvent event) {
+      throw new IllegalStateException("Failed to handle " + event.getClass().getSimpleName());
+    }
+
+    @Subscribe
+    private void onTwoEvents(BaseEvent event1, BaseEvent event2) {}
+
+    @Subscribe
+    private void onPrimitiveEvent(int event) {}
+
+    @SuppressWarnings("unused")
+    private void notSubscriber(BaseEvent event) {}
+  }
+
+  private final EventBusBackend eventBusBackend = new EventBusBackend();
+
+  @Test
+  public void searchSubscriberMethods() {
+    Subscriber subscriber = new Subscriber();
+
+    SubscriberMethodSearchResult result = eventBusBackend.searchSubscriberMethods(subscriber);
+
+    assertThat(result.subscriberObject()).isSameInstanceAs(subscriber);
+    assertThat(getMethodNames(result.subscriberMethods()))
+        .containsExactly("onBaseEvent", "onDerivedEvent", "onOtherEvent");
+    assertThat(
+            result.invalidSubscriberMethods().stream()
+                .map(method -> method.method().getName())
+                .collect(toImmutableList()))
+        .containsExactly("onTwoEvents", "onPrimitiveEvent");
+    for (InvalidSubscriberMethod method : result.invalidSubscriberMethods()) {
+      assertThat(method.clazz()).isEqualTo(Subscriber.class);
+    }
+  }
+
+  @Test
+  public void subscriberMethods_byEventClass() {
+    SubscriberMethodSearchResult result = eventBusBackend.searchSubscriberMethods(new Subscriber());
+
+    assertThat(getMethodNames(result.subscriberMethods(BaseEvent.class)))
+        .containsExactly("onBaseEvent");
+    assertThat(getMethodNames(result.subscriberMethods(DerivedEvent.class)))
+        .containsExactly("onBaseEvent", "onDerivedEvent");
+    assertThat(getMethodNames(result.subscriberMethods(OtherEvent.class)))
+        .containsExactly("onOtherEvent");
+    assertThat(result.subscriberMethods(String.class)).isEmpty();
+  }
+
+  @Test
+  public void subscriberMethods_memoizedByEventClass() {
+    SubscriberMethodSearchResult result = eventBusBackend.searchSubscriberMethods(new Subscriber());
+
+    ImmutableList<SubscriberMethod> methods = result.subscriberMethods(DerivedEvent.class);
+
+    assertThat(result.subscriberMethods(DerivedEvent.class)).isSameInstanceAs(methods);
+    assertThat(result.subscriberMethods(BaseEvent.class)).isNotSameInstanceAs(methods);
+  }
+
+  @Test
+  public void receiveEvent_methodsBoundToEachSubscriber() throws Throwable {
+    Subscriber subscriber1 = new Subscriber();
+    Subscriber subscriber2 = new Subscriber();
+    SubscriberMethodSearchResult result1 = eventBusBackend.searchSubscriberMethods(subscriber1);
+    SubscriberMethodSearchResult result2 = eventBusBackend.searchSubscriberMethods(subscriber2);
+
+    for (SubscriberMethod method : result1.subscriberMethods(DerivedEvent.class)) {
+      method.receiveEvent(new DerivedEvent());
+    }
+    for (SubscriberMethod method : result2.subscriberMethods(DerivedEvent.class)) {
+      assertThat(method.subscriberObject()).isSameInstanceAs(subscriber2);
+      method.receiveEvent(new DerivedEvent());
+    }
+    for (SubscriberMethod method : result2.subscriberMethods(BaseEvent.class)) {
+      method.receiveEvent(new BaseEvent());
+    }
+
+    assertThat(subscriber1.receivedEvents)
+        .containsExactly("base:DerivedEvent", "derived:DerivedEvent");
+    assertThat(subscriber2.receivedEvents)
+        .containsExactly("base:DerivedEvent", "derived:DerivedEvent", "base:BaseEvent");
+  }
+
+  @Test
+  public void receiveEvent_throwsOriginalException() {
+    SubscriberMethod method =
+        eventBusBackend
+            .searchSubscriberMethods(new Subscriber())
+            .subscriberMethods(OtherEvent.class)
+            .get(0);
+
+    IllegalStateException exception =
+        assertThrows(IllegalStateException.class, () -> method.receiveEvent(new OtherEvent()));
+    assertThat(exception).hasMessageThat().isEqualTo("Failed to handle OtherEvent");
+  }
+
+  @Test
+  public void receiveEvent_wrongEvent() {
+    SubscriberMethod method =
+        eventBusBackend
+            .searchSubscriberMethods(new Subscriber())
+            .subscriberMethods(DerivedEvent.class)
+            .stream()
+            .filter(
+                subscriberMethod -> subscriberMethod.method().getName().equals("onDerivedEvent"))
+            .findFirst()
+            .orElseThrow();
+
+    assertThrows(ClassCastException.class, () -> method.receiveEvent(new BaseEvent()));
+  }
+
+  private static ImmutableList<String> getMethodNames(List<SubscriberMethod> methods) {
+    return methods.stream().map(method -> method.method().getName()).collect(toImmutableList());
+  }
+}
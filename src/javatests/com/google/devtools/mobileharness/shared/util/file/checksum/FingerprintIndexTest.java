@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.file.checksum;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FingerprintIndex}. */
+@RunWith(JUnit4.class)
+public final class FingerprintIndexTest {
+
+  private static final HashFunction CRC32 = Hashing.crc32();
+  private static final HashCode FAKE_HASH = HashCode.fromString("01234567");
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Path indexFile;
+  private Path file;
+
+  @Before
+  public void setUp() throws Exception {
+    indexFile = tmpFolder.getRoot().toPath().resolve("index/checksum_index");
+    file = tmpFolder.newFile("file").toPath();
+    Files.writeString(file, "aa");
+  }
+
+  @Test
+  public void get_afterReload() throws Exception {
+    FingerprintIndex index = new FingerprintIndex(indexFile);
+    index.put(CRC32, file, getAttributes(file), FAKE_HASH);
+    index.flush();
+
+    FingerprintIndex reloadedIndex = new FingerprintIndex(indexFile);
+
+    assertThat(reloadedIndex.get(CRC32, file, getAttributes(file))).isEqualTo(FAKE_HASH);
+    assertThat(reloadedIndex.get(Hashing.md5(), file, getAttributes(file))).isNull();
+  }
+
+  @Test
+  public void get_fileModified() throws Exception {
+    FingerprintIndex index = new FingerprintIndex(indexFile);
+    index.put(CRC32, file, getAttributes(file), FAKE_HASH);
+
+    Files.writeString(file, "abc");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0L));
+
+    assertThat(index.get(CRC32, file, getAttributes(file))).isNull();
+  }
+
+  @Test
+  public void get_malformedLinesIgnored() throws Exception {
+    FingerprintIndex index = new FingerprintIndex(indexFile);
+    index.put(CRC32, file, getAttributes(file), FAKE_HASH);
+    index.flush();
+    Files.writeString(indexFile, Files.readString(indexFile) + "garbage\t\n\tzz\n");
+
+    assertThat(new FingerprintIndex(indexFile).get(CRC32, file, getAttributes(file)))
+        .isEqualTo(FAKE_HASH);
+  }
+
+  @Test
+  public void checksumUtil_useIndex() throws Exception {
+    Path dir = tmpFolder.newFolder("dir").toPath();
+    Files.writeString(dir.resolve("a"), "aa");
+    Files.writeString(dir.resolve("b"), "abcädef");
+    FingerprintIndex index = new FingerprintIndex(indexFile);
+    String expectedFingerprint = new ChecksumUtil().fingerprint(dir);
+
+    assertThat(new ChecksumUtil(CRC32, () -> Optional.of(index)).fingerprint(dir))
+        .isEqualTo(expectedFingerprint);
+    assertThat(
+            new FingerprintIndex(indexFile)
+                .get(CRC32, dir.resolve("b"), getAttributes(dir.resolve("b"))))
+        .isEqualTo(HashCode.fromString("5e7b1374"));
+
+    // A new instance reads hash codes of files from the index rather than from the files.
+    index.put(CRC32, dir.resolve("a"), getAttributes(dir.resolve("a")), FAKE_HASH);
+    assertThat(new ChecksumUtil(CRC32, () -> Optional.of(index)).fingerprint(dir))
+        .isNotEqualTo(expectedFingerprint);
+  }
+
+  private static BasicFileAttributes getAttributes(Path path) throws Exception {
+    return Files.readAttributes(path, BasicFileAttributes.class);
+  }
+}
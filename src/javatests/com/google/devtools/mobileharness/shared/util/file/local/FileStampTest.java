@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.file.local;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FileStampTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void read() throws Exception {
+    Path file = tmpFolder.newFile().toPath();
+    Files.writeString(file, "content");
+    Files.setLastModifiedTime(file, FileTime.from(Instant.ofEpochSecond(1000L, 5L)));
+
+    assertThat(FileStamp.read(file)).isEqualTo(FileStamp.of(7L, 1_000_000_000_005L));
+  }
+
+  @Test
+  public void read_fileChanged() throws Exception {
+    Path file = tmpFolder.newFile().toPath();
+    FileTime modifiedTime = FileTime.from(Instant.ofEpochSecond(1000L));
+    Files.writeString(file, "content");
+    Files.setLastModifiedTime(file, modifiedTime);
+    FileStamp stamp = FileStamp.read(file);
+
+    assertThat(FileStamp.read(file)).isEqualTo(stamp);
+
+    Files.writeString(file, "new content");
+    Files.setLastModifiedTime(file, modifiedTime);
+    assertThat(FileStamp.read(file)).isNotEqualTo(stamp);
+
+    Files.writeString(file, "content");
+    Files.setLastModifiedTime(file, FileTime.from(Instant.ofEpochSecond(2000L)));
+    assertThat(FileStamp.read(file)).isNotEqualTo(stamp);
+  }
+
+  @Test
+  public void read_fileNotExist() {
+    assertThrows(
+        IOException.class, () -> FileStamp.read(tmpFolder.getRoot().toPath().resolve("none")));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.file.local;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.testing.junit.testparameterinjector.TestParameter;
+import com.google.testing.junit.testparameterinjector.TestParameterInjector;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Runs the {@link LocalFileUtil} operations with and without "--local_file_util_use_nio". */
+@RunWith(TestParameterInjector.class)
+public final class LocalFileUtilTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @TestParameter private boolean useNio;
+
+  private final LocalFileUtil localFileUtil = new LocalFileUtil();
+
+  @Before
+  public void setUp() {
+    Flags.parse(new String[] {"--local_file_util_use_nio=" + useNio});
+  }
+
+  @After
+  public void tearDown() {
+    Flags.resetToDefault();
+  }
+
+  @Test
+  public void mergeDir() throws Exception {
+    Path srcDir = tmpFolder.newFolder("src").toPath();
+    Path targetDir = tmpFolder.newFolder("target").toPath();
+    Files.createDirectories(srcDir.resolve("a"));
+    Files.createDirectories(srcDir.resolve("empty"));
+    Files.writeString(srcDir.resolve("a/b.txt"), "b");
+    Files.setPosixFilePermissions(
+        srcDir.resolve("a/b.txt"), PosixFilePermissions.fromString("rwxr-x---"));
+    Files.writeString(srcDir.resolve("c.txt"), "new c");
+    Files.createSymbolicLink(srcDir.resolve("link"), Path.of("c.txt"));
+    Files.createDirectories(targetDir.resolve("a"));
+    Files.writeString(targetDir.resolve("a/old.txt"), "old");
+    Files.writeString(targetDir.resolve("c.txt"), "old c");
+
+    localFileUtil.mergeDir(srcDir.toString(), targetDir.toString());
+
+    assertThat(Files.readString(targetDir.resolve("a/b.txt"))).isEqualTo("b");
+    assertThat(permissions(targetDir.resolve("a/b.txt"))).isEqualTo("rwxr-x---");
+    assertThat(Files.readString(targetDir.resolve("a/old.txt"))).isEqualTo("old");
+    assertThat(Files.readString(targetDir.resolve("c.txt"))).isEqualTo("new c");
+    assertThat(Files.readSymbolicLink(targetDir.resolve("link"))).isEqualTo(Path.of("c.txt"));
+    assertThat(Files.isDirectory(targetDir.resolve("empty"))).isTrue();
+    assertThat(Files.exists(srcDir)).isFalse();
+  }
+
+  @Test
+  public void unzipFile() throws Exception {
+    Path zipFile = tmpFolder.getRoot().toPath().resolve("test.zip");
+    Path targetDir = tmpFolder.getRoot().toPath().resolve("unzipped");
+    // The read-only directory precedes its child, so its mode can only be applied afterwards.
+    createZip(
+        zipFile,
+        ImmutableMap.of(
+            "ro/", new ZipFileEntry(040555, ""),
+            "ro/file.txt", new ZipFileEntry(0100640, "file"),
+            "run.sh", new ZipFileEntry(0100755, "echo"),
+            "link", new ZipFileEntry(0120777, "run.sh")));
+
+    try {
+      localFileUtil.unzipFile(zipFile.toString(), targetDir.toString());
+
+      assertThat(Files.readString(targetDir.resolve("ro/file.txt"))).isEqualTo("file");
+      assertThat(permissions(targetDir.resolve("ro"))).isEqualTo("r-xr-xr-x");
+      assertThat(permissions(targetDir.resolve("ro/file.txt"))).isEqualTo("rw-r-----");
+      assertThat(permissions(targetDir.resolve("run.sh"))).isEqualTo("rwxr-xr-x");
+      assertThat(Files.readSymbolicLink(targetDir.resolve("link"))).isEqualTo(Path.of("run.sh"));
+    } finally {
+      localFileUtil.grantFileOrDirFullAccessRecursively(targetDir.toString());
+    }
+  }
+
+  @Test
+  public void readFileHeadAndTail() throws Exception {
+    Path file = tmpFolder.newFile().toPath();
+    Files.writeString(file, lines(15));
+
+    assertThat(localFileUtil.readFileHead(file.toString())).isEqualTo(lines(10));
+    assertThat(localFileUtil.readFileTail(file.toString(), 2)).isEqualTo("line13\nline14\n");
+  }
+
+  @Test
+  public void moveAndRemoveFileOrDir() throws Exception {
+    Path srcDir = tmpFolder.newFolder("src").toPath();
+    Files.writeString(srcDir.resolve("file.txt"), "file");
+    Path desDir = tmpFolder.getRoot().toPath().resolve("des");
+
+    localFileUtil.moveFileOrDir(srcDir.toString(), desDir.toString());
+
+    assertThat(Files.exists(srcDir)).isFalse();
+    assertThat(Files.readString(desDir.resolve("file.txt"))).isEqualTo("file");
+
+    localFileUtil.removeFileOrDir(desDir.toString());
+
+    assertThat(Files.exists(desDir, LinkOption.NOFOLLOW_LINKS)).isFalse();
+  }
+
+  private static String lines(int count) {
+    return IntStream.range(0, count).mapToObj(i -> "line" + i + "\n").collect(Collectors.joining());
+  }
+
+  private static String permissions(Path path) throws IOException {
+    return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+  }
+
+  /**
+   * Creates a zip file whose entries are marked as created on Unix with the given modes, which
+   * {@link ZipOutputStream} doesn't support, by patching the central directory.
+   */
+  private static void createZip(Path zipFile, Map<String, ZipFileEntry> entries)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(output)) {
+      for (Map.Entry<String, ZipFileEntry> entry : entries.entrySet()) {
+        zip.putNextEntry(new ZipEntry(entry.getKey()));
+        zip.write(entry.getValue().content.getBytes(UTF_8));
+        zip.closeEntry();
+      }
+    }
+    byte[] bytes = output.toByteArray();
+    // No archive comment, so the end of central directory record is the last 22 bytes.
+    int offset = readIntLe(bytes, bytes.length - 22 + 16);
+    for (int i = 0; i < entries.size(); i++) {
+      int nameLength = readShortLe(bytes, offset + 28);
+      int extraLength = readShortLe(bytes, offset + 30);
+      int commentLength = readShortLe(bytes, offset + 32);
+      String name = new String(bytes, offset + 46, nameLength, UTF_8);
+      int externalAttributes = entries.get(name).mode << 16;
+      bytes[offset + 5] = 3;
+      for (int j = 0; j < 4; j++) {
+        bytes[offset + 38 + j] = (byte) (externalAttributes >>> (8 * j));
+      }
+      offset += 46 + nameLength + extraLength + commentLength;
+    }
+    Files.write(zipFile, bytes);
+  }
+
+  private static int readShortLe(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+  }
+
+  private static int readIntLe(byte[] bytes, int offset) {
+    return readShortLe(bytes, offset) | readShortLe(bytes, offset + 2) << 16;
+  }
+
+  private static final class ZipFileEntry {
+    private final int mode;
+    private final String content;
+
+    private ZipFileEntry(int mode, String content) {
+      this.mode = mode;
+      this.content = content;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.Range;
+import com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.HistogramSnapshot;
+import com.google.devtools.mobileharness.shared.util.metrics.proto.MetricsProto.MetricsSnapshot;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MetricRegistryTest {
+
+  private MetricRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new MetricRegistry(Clock.fixed(Instant.ofEpochMilli(1234L), ZoneOffset.UTC));
+  }
+
+  @Test
+  public void getBucketIndex_upperBound() {
+    for (long value : new long[] {0L, 1L, 7L, 8L, 15L, 16L, 17L, 1000L, 123_456_789L}) {
+      int index = LatencyHistogram.getBucketIndex(value);
+      assertThat(LatencyHistogram.getBucketUpperBound(index)).isGreaterThan(value);
+      if (index > 0) {
+        assertThat(LatencyHistogram.getBucketUpperBound(index - 1)).isAtMost(value);
+      }
+    }
+    assertThat(
+            LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_TRACKABLE_US)
+                - LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_TRACKABLE_US / 2))
+        .isEqualTo(LatencyHistogram.SUB_BUCKET_COUNT);
+  }
+
+  @Test
+  public void histogram_snapshot() {
+    LatencyHistogram histogram = registry.histogram("foo_seconds", "Foo.");
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(Duration.ofMillis(i));
+    }
+
+    MetricsSnapshot snapshot = registry.snapshot();
+
+    assertThat(snapshot.getTimestampMs()).isEqualTo(1234L);
+    HistogramSnapshot histogramSnapshot = snapshot.getHistogram(0);
+    assertThat(histogramSnapshot.getName()).isEqualTo("foo_seconds");
+    assertThat(histogramSnapshot.getCount()).isEqualTo(100L);
+    assertThat(histogramSnapshot.getSumUs()).isEqualTo(5_050_000L);
+    assertThat(histogramSnapshot.getMaxUs()).isEqualTo(100_000L);
+    assertThat(histogramSnapshot.getP50Us()).isIn(Range.closed(50_000L, 57_000L));
+    assertThat(histogramSnapshot.getP99Us()).isIn(Range.closed(99_000L, 114_000L));
+  }
+
+  @Test
+  public void toPrometheusText() {
+    registry.counter("foo_total", "Foo count.").add(3L);
+    registry.gauge("bar", "Bar.", () -> 7L);
+    LatencyHistogram histogram = registry.histogram("baz_seconds", "Baz.");
+    histogram.record(Duration.ofMillis(2L));
+    histogram.record(Duration.ofSeconds(2L));
+
+    String text = registry.toPrometheusText();
+
+    assertThat(text).contains("# HELP bar Bar.\n# TYPE bar gauge\nbar 7\n");
+    assertThat(text).contains("# TYPE foo_total counter\nfoo_total 3\n");
+    assertThat(text).contains("# TYPE baz_seconds histogram\n");
+    assertThat(text).contains("baz_seconds_bucket{le=\"0.001\"} 0\n");
+    assertThat(text).contains("baz_seconds_bucket{le=\"0.0025\"} 1\n");
+    assertThat(text).contains("baz_seconds_bucket{le=\"2.5\"} 2\n");
+    assertThat(text).contains("baz_seconds_bucket{le=\"+Inf\"} 2\n");
+    assertThat(text).contains("baz_seconds_sum 2.002\nbaz_seconds_count 2\n");
+  }
+
+  @Test
+  public void getExistingMetric() {
+    Counter counter = registry.counter("foo_total", "Foo count.");
+
+    assertThat(registry.counter("foo_total", "Foo count.")).isSameInstanceAs(counter);
+    assertThrows(IllegalArgumentException.class, () -> registry.histogram("foo_total", "Foo."));
+    assertThrows(IllegalArgumentException.class, () -> registry.counter("foo-total", "Foo."));
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
+import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AdaptiveQuotaTest {
+
+  private static final QuotaKey KEY = QuotaKey.ADB_PUSH_LARGE_FILE;
+
+  private static final Duration ADJUST_INTERVAL = Duration.ofSeconds(1L);
+
+  /** Amount of a queued acquirer which is never satisfied, so that the queue is not empty. */
+  private static final int UNSATISFIABLE_AMOUNT = 100;
+
+  private final FakeTicker ticker = new FakeTicker();
+
+  private MetricRegistry metricRegistry;
+
+  private volatile double loadPerCpu;
+
+  @Before
+  public void setUp() {
+    metricRegistry = new MetricRegistry(Clock.systemUTC());
+    loadPerCpu = 0.5;
+  }
+
+  @Test
+  public void release_increasesLimitWhileThroughputDoesNotDrop() throws Exception {
+    AdaptiveQuota quota = createQuota(/* limit= */ 2, /* adaptive= */ true);
+    Thread acquirer = startQueuedAcquirer(quota, UNSATISFIABLE_AMOUNT);
+
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(3);
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(4);
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(2 * AdaptiveQuota.MAX_LIMIT_FACTOR);
+
+    stop(acquirer);
+  }
+
+  @Test
+  public void release_reversesDirectionWhenThroughputDrops() throws Exception {
+    AdaptiveQuota quota = createQuota(/* limit= */ 2, /* adaptive= */ true);
+    Thread acquirer = startQueuedAcquirer(quota, UNSATISFIABLE_AMOUNT);
+
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(3);
+    // The throughput halves.
+    releaseAfter(quota, ADJUST_INTERVAL.multipliedBy(2L));
+    assertThat(quota.getLimit()).isEqualTo(2);
+    releaseAfter(quota, ADJUST_INTERVAL.multipliedBy(2L));
+    assertThat(quota.getLimit()).isEqualTo(1);
+    releaseAfter(quota, ADJUST_INTERVAL.multipliedBy(2L));
+    assertThat(quota.getLimit()).isEqualTo(1);
+
+    stop(acquirer);
+  }
+
+  @Test
+  public void release_decreasesLimitWhenOverloaded() throws Exception {
+    AdaptiveQuota quota = createQuota(/* limit= */ 3, /* adaptive= */ true);
+    loadPerCpu = AdaptiveQuota.OVERLOADED_LOAD_PER_CPU * 2;
+
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(2);
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(1);
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(1);
+
+    // The limit is not adjusted when nothing is queued.
+    loadPerCpu = 0.5;
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(1);
+  }
+
+  @Test
+  public void release_doesNotCountIdleTimeAsThroughputDrop() throws Exception {
+    AdaptiveQuota quota = createQuota(/* limit= */ 2, /* adaptive= */ true);
+    Thread acquirer = startQueuedAcquirer(quota, UNSATISFIABLE_AMOUNT);
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(3);
+    stop(acquirer);
+
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(3);
+    ticker.advance(Duration.ofMinutes(10L));
+
+    acquirer = startQueuedAcquirer(quota, UNSATISFIABLE_AMOUNT);
+    releaseAfter(quota, ADJUST_INTERVAL);
+    assertThat(quota.getLimit()).isEqualTo(4);
+    stop(acquirer);
+  }
+
+  @Test
+  public void release_reducesLimitBelowAcquiredAmount() throws Exception {
+    AdaptiveQuota quota = createQuota(/* limit= */ 3, /* adaptive= */ true);
+    for (int i = 0; i < 3; i++) {
+      assertThat(quota.tryAcquire(1)).isTrue();
+    }
+    Thread acquirer = startQueuedAcquirer(quota, 1);
+    loadPerCpu = AdaptiveQuota.OVERLOADED_LOAD_PER_CPU * 2;
+    ticker.advance(ADJUST_INTERVAL);
+
+    // The queued acquirer may take the released permit before the limit is reduced, in which case
+    // 3 permits are acquired while the limit is 2.
+    quota.release(1);
+    assertThat(quota.getLimit()).isEqualTo(2);
+    quota.release(1);
+    acquirer.join();
+
+    assertThat(quota.tryAcquire(1)).isFalse();
+    quota.release(1);
+    assertThat(quota.tryAcquire(1)).isTrue();
+  }
+
+  @Test
+  public void acquire_exportsMetricsOfFixedQuota() throws Exception {
+    AdaptiveQuota quota = createQuota(/* limit= */ 1, /* adaptive= */ false);
+    assertThat(quota.tryAcquire(1)).isTrue();
+    Thread acquirer = startQueuedAcquirer(quota, 1);
+
+    assertThat(metricRegistry.toPrometheusText())
+        .contains("mh_local_quota_adb_push_large_file_queued_acquirers 1\n");
+    assertThat(metricRegistry.toPrometheusText())
+        .contains("mh_local_quota_adb_push_large_file_limit 1\n");
+
+    ticker.advance(Duration.ofSeconds(3L));
+    quota.release(1);
+    acquirer.join();
+
+    assertThat(quota.getAcquisitions()).isEqualTo(2L);
+    assertThat(quota.getMaxWaitTime()).isEqualTo(Duration.ofSeconds(3L));
+    assertThat(
+            metricRegistry
+                .histogram("mh_local_quota_adb_push_large_file_wait_seconds", /* help= */ "")
+                .getCount())
+        .isEqualTo(2L);
+    assertThat(metricRegistry.toPrometheusText())
+        .contains("mh_local_quota_adb_push_large_file_wait_seconds_sum 3.0\n");
+    assertThat(metricRegistry.toPrometheusText())
+        .contains("mh_local_quota_adb_push_large_file_queued_acquirers 0\n");
+  }
+
+  private AdaptiveQuota createQuota(int limit, boolean adaptive) {
+    return new AdaptiveQuota(
+        KEY, limit, adaptive, () -> ADJUST_INTERVAL, () -> loadPerCpu, ticker, metricRegistry);
+  }
+
+  /** Acquires 1 and releases it after the given time. */
+  private void releaseAfter(AdaptiveQuota quota, Duration holdTime) {
+    assertThat(quota.tryAcquire(1)).isTrue();
+    ticker.advance(holdTime);
+    quota.release(1);
+  }
+
+  /** Starts a thread which acquires the given amount, and waits until it is queued. */
+  private static Thread startQueuedAcquirer(AdaptiveQuota quota, int amount)
+      throws InterruptedException {
+    int queueLength = quota.getQueueLength();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                quota.acquire(amount);
+              } catch (InterruptedException e) {
+                // Stopped by the test.
+              }
+            });
+    thread.start();
+    while (quota.getQueueLength() == queueLength) {
+      Thread.sleep(1L);
+    }
+    return thread;
+  }
+
+  private static void stop(Thread acquirer) throws InterruptedException {
+    acquirer.interrupt();
+    acquirer.join();
+  }
+
+  private static final class FakeTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    private void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
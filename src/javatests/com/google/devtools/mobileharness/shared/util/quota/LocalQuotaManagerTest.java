@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.mobileharness.shared.util.metrics.MetricRegistry;
+import com.google.devtools.mobileharness.shared.util.quota.QuotaManager.Lease;
+import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalQuotaManagerTest {
+
+  private static final QuotaKey KEY = QuotaKey.ADB_PUSH_LARGE_FILE;
+
+  private MetricRegistry metricRegistry;
+  private LocalQuotaManager quotaManager;
+
+  @Before
+  public void setUp() {
+    metricRegistry = new MetricRegistry(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC));
+    quotaManager = new LocalQuotaManager(() -> ImmutableMap.of(KEY, 2), metricRegistry);
+  }
+
+  @Test
+  public void acquire_exportsMetricsToGivenRegistry() throws Exception {
+    Lease lease = quotaManager.acquire(KEY, 1);
+
+    assertThat(metricRegistry.toPrometheusText())
+        .contains("mh_local_quota_adb_push_large_file_limit 2\n");
+    assertThat(
+            metricRegistry
+                .histogram("mh_local_quota_adb_push_large_file_wait_seconds", /* help= */ "")
+                .getCount())
+        .isEqualTo(1L);
+
+    lease.release();
+  }
+
+  @Test
+  public void tryAcquire() throws Exception {
+    Optional<Lease> lease = quotaManager.tryAcquire(KEY, 2);
+
+    assertThat(lease).isPresent();
+    assertThat(quotaManager.tryAcquire(KEY, 1)).isEmpty();
+
+    lease.get().release();
+
+    assertThat(quotaManager.tryAcquire(KEY, 1)).isPresent();
+  }
+
+  @Test
+  public void acquire_keyWithoutQuota() throws Exception {
+    assertThat(quotaManager.acquire(QuotaKey.UNZIP_LARGE_FILE, 100))
+        .isSameInstanceAs(QuotaManager.EMPTY_LEASE);
+    assertThat(metricRegistry.toPrometheusText()).doesNotContain("unzip_large_file");
+  }
+}
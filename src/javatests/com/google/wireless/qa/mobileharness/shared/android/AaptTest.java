@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.android;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_VERSION_NAME;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.TYPE_REFERENCE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Splitter;
+import com.google.devtools.deviceinfra.shared.util.flags.Flags;
+import com.google.devtools.mobileharness.shared.util.command.Command;
+import com.google.devtools.mobileharness.shared.util.command.CommandExecutor;
+import com.google.devtools.mobileharness.shared.util.command.testing.FakeCommandResult;
+import com.google.wireless.qa.mobileharness.shared.android.FakeApk.Attribute;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class AaptTest {
+
+  /** Output of "aapt dump badging" for {@link ApkMetadataReaderTest#createTestApk()}. */
+  private static final String TEST_APK_BADGING =
+      "package: name='com.google.test' versionCode='12' versionName='1.2'"
+          + " platformBuildVersionName=''\n"
+          + "sdkVersion:'21'\n"
+          + "uses-permission: name='android.permission.INTERNET'\n"
+          + "uses-permission: name='android.permission.WAKE_LOCK'\n"
+          + "application: label='' icon=''\n"
+          + "native-code: 'armeabi-v7a' 'x86'\n";
+
+  /** Output of "aapt dump permissions" for {@link ApkMetadataReaderTest#createTestApk()}. */
+  private static final String TEST_APK_PERMISSIONS =
+      "package: com.google.test\n"
+          + "uses-permission: name='android.permission.INTERNET'\n"
+          + "uses-permission: name='android.permission.WAKE_LOCK'\n";
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Mock private CommandExecutor commandExecutor;
+
+  @After
+  public void tearDown() {
+    Flags.resetToDefault();
+  }
+
+  @Test
+  public void parseApkInProcess_sameAsAapt() throws Exception {
+    String apkPath = writeApk(ApkMetadataReaderTest.createTestApk());
+    setAaptOutput(TEST_APK_BADGING, TEST_APK_PERMISSIONS);
+    Aapt aapt = new Aapt("aapt", /* enableAaptOutputCache= */ false, commandExecutor);
+    Flags.parse(new String[] {"--aapt_parse_apk_in_process=true"});
+    Aapt inProcessAapt = new Aapt("aapt", /* enableAaptOutputCache= */ false, commandExecutor);
+
+    assertThat(inProcessAapt.getApkPackageName(apkPath)).isEqualTo(aapt.getApkPackageName(apkPath));
+    assertThat(inProcessAapt.getApkVersionCode(apkPath)).isEqualTo(aapt.getApkVersionCode(apkPath));
+    assertThat(inProcessAapt.getApkVersionName(apkPath)).isEqualTo(aapt.getApkVersionName(apkPath));
+    assertThat(inProcessAapt.getApkMinSdkVersion(apkPath))
+        .isEqualTo(aapt.getApkMinSdkVersion(apkPath));
+    assertThat(inProcessAapt.getApkPermissions(apkPath))
+        .isEqualTo(aapt.getApkPermissions(apkPath));
+    assertThat(inProcessAapt.listApkAbi(apkPath)).isEqualTo(aapt.listApkAbi(apkPath));
+    assertThat(inProcessAapt.getApkAbi(apkPath)).isEqualTo(aapt.getApkAbi(apkPath));
+
+    reset(commandExecutor);
+    inProcessAapt.getApkPackageName(apkPath);
+    inProcessAapt.getApkVersionCode(apkPath);
+    inProcessAapt.getApkPermissions(apkPath);
+    inProcessAapt.listApkAbi(apkPath);
+    verify(commandExecutor, never()).exec(any());
+  }
+
+  @Test
+  public void parseApkInProcess_fallBackToAaptForResourceReference() throws Exception {
+    Flags.parse(new String[] {"--aapt_parse_apk_in_process=true"});
+    String apkPath =
+        writeApk(
+            new FakeApk()
+                .startElement(
+                    "manifest",
+                    Attribute.string("package", 0, "com.google.test"),
+                    Attribute.typed("versionName", ATTR_VERSION_NAME, TYPE_REFERENCE, 0x7f010000))
+                .endElement("manifest"));
+    setAaptOutput(
+        "package: name='com.google.test' versionCode='12' versionName='resolved'\n",
+        /* permissions= */ "");
+    Aapt aapt = new Aapt("aapt", /* enableAaptOutputCache= */ false, commandExecutor);
+
+    assertThat(aapt.getApkPackageName(apkPath)).isEqualTo("com.google.test");
+    verify(commandExecutor, never()).exec(any());
+
+    assertThat(aapt.getApkVersionName(apkPath)).isEqualTo("resolved");
+    assertThat(aapt.getApkVersionCode(apkPath)).isEqualTo(12);
+    verify(commandExecutor, times(2)).exec(any());
+  }
+
+  @Test
+  public void parseApkInProcess_fallBackToAaptForMalformedManifest() throws Exception {
+    Flags.parse(new String[] {"--aapt_parse_apk_in_process=true"});
+    String apkPath =
+        writeApk(new FakeApk().setRawManifest("<manifest/>".getBytes(UTF_8)).addNativeLib("x86"));
+    setAaptOutput(TEST_APK_BADGING, TEST_APK_PERMISSIONS);
+    Aapt aapt = new Aapt("aapt", /* enableAaptOutputCache= */ false, commandExecutor);
+
+    assertThat(aapt.getApkPackageName(apkPath)).isEqualTo("com.google.test");
+    assertThat(aapt.listApkAbi(apkPath)).containsExactly("armeabi-v7a", "x86").inOrder();
+    verify(commandExecutor, times(2)).exec(any());
+  }
+
+  private String writeApk(FakeApk apk) throws Exception {
+    Path apkPath = tmpFolder.getRoot().toPath().resolve("test.apk");
+    apk.writeTo(apkPath);
+    return apkPath.toString();
+  }
+
+  /** Makes the fake AAPT print the given outputs of "dump badging" and "dump permissions". */
+  private void setAaptOutput(String badging, String permissions) throws Exception {
+    when(commandExecutor.exec(any()))
+        .thenAnswer(
+            invocation -> {
+              Command command = invocation.getArgument(0);
+              String output = command.getCommand().contains("permissions") ? permissions : badging;
+              for (String line : Splitter.on('\n').omitEmptyStrings().split(output)) {
+                command.getStdoutLineCallback().orElseThrow().onLine(line);
+              }
+              return FakeCommandResult.of(output, "", 0);
+            });
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.android;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_MIN_SDK_VERSION;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_MULTI_ARCH;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_NAME;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_TARGET_PACKAGE;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_VERSION_CODE;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.ATTR_VERSION_NAME;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.TYPE_INT_BOOLEAN;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.TYPE_INT_DEC;
+import static com.google.wireless.qa.mobileharness.shared.android.FakeApk.TYPE_REFERENCE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.wireless.qa.mobileharness.shared.android.ApkMetadataReader.ApkMetadata;
+import com.google.wireless.qa.mobileharness.shared.android.FakeApk.Attribute;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ApkMetadataReaderTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final ApkMetadataReader reader = new ApkMetadataReader();
+
+  @Test
+  public void read_utf8StringPool() throws Exception {
+    ApkMetadata metadata = read(createTestApk());
+
+    assertTestApkMetadata(metadata);
+  }
+
+  @Test
+  public void read_utf16StringPool() throws Exception {
+    ApkMetadata metadata = read(createTestApk().useUtf16StringPool());
+
+    assertTestApkMetadata(metadata);
+  }
+
+  @Test
+  public void read_nativeCode() throws Exception {
+    ApkMetadata metadata =
+        read(
+            createManifest(new FakeApk())
+                .addNativeLib("x86")
+                .addNativeLib("armeabi-v7a")
+                .addNativeLib("arm64-v8a"));
+
+    // AAPT: native-code: 'arm64-v8a' 'armeabi-v7a' 'x86'
+    assertThat(metadata.abis()).containsExactly("arm64-v8a", "armeabi-v7a", "x86").inOrder();
+  }
+
+  @Test
+  public void read_multiArch() throws Exception {
+    FakeApk apk =
+        createManifest(
+                new FakeApk(),
+                Attribute.typed("multiArch", ATTR_MULTI_ARCH, TYPE_INT_BOOLEAN, /* data= */ -1))
+            .addNativeLib("x86")
+            .addNativeLib("x86_64")
+            .addNativeLib("armeabi-v7a")
+            .addNativeLib("arm64-v8a");
+
+    // AAPT: native-code: 'x86_64'
+    //       alt-native-code: 'arm64-v8a' 'armeabi-v7a' 'x86'
+    assertThat(read(apk).abis())
+        .containsExactly("x86_64", "arm64-v8a", "armeabi-v7a", "x86")
+        .inOrder();
+    assertThat(read(apk.useUtf16StringPool()).abis())
+        .containsExactly("x86_64", "arm64-v8a", "armeabi-v7a", "x86")
+        .inOrder();
+  }
+
+  @Test
+  public void read_multiArchFalse() throws Exception {
+    ApkMetadata metadata =
+        read(
+            createManifest(
+                    new FakeApk(),
+                    Attribute.typed("multiArch", ATTR_MULTI_ARCH, TYPE_INT_BOOLEAN, /* data= */ 0))
+                .addNativeLib("x86")
+                .addNativeLib("x86_64"));
+
+    assertThat(metadata.abis()).containsExactly("x86", "x86_64").inOrder();
+  }
+
+  @Test
+  public void read_valuesNeedingResources() throws Exception {
+    ApkMetadata metadata =
+        read(
+            new FakeApk()
+                .startElement(
+                    "manifest",
+                    Attribute.string("package", 0, "com.google.test"),
+                    Attribute.typed("versionName", ATTR_VERSION_NAME, TYPE_REFERENCE, 0x7f010000))
+                .startElement(
+                    "uses-sdk", Attribute.string("minSdkVersion", ATTR_MIN_SDK_VERSION, "N"))
+                .endElement("uses-sdk")
+                .endElement("manifest"));
+
+    assertThat(metadata.packageName()).hasValue("com.google.test");
+    // AAPT resolves the reference with resources.arsc, so the value is unknown.
+    assertThat(metadata.versionName()).isEmpty();
+    assertThat(metadata.versionCode()).isEmpty();
+    // AAPT: sdkVersion:'N', which Aapt reports as -1.
+    assertThat(metadata.minSdkVersion()).hasValue(-1);
+    assertThat(metadata.instrumentationTargetPackage()).isEmpty();
+  }
+
+  @Test
+  public void read_notBinaryXml() throws Exception {
+    Path apk = tmpFolder.getRoot().toPath().resolve("text_manifest.apk");
+    new FakeApk()
+        .setRawManifest("<manifest package=\"com.google.test\"/>".getBytes(UTF_8))
+        .writeTo(apk);
+
+    assertThat(reader.read(apk.toString())).isEmpty();
+  }
+
+  @Test
+  public void read_missingApk() {
+    assertThat(reader.read(tmpFolder.getRoot().toPath().resolve("missing.apk").toString()))
+        .isEmpty();
+  }
+
+  private ApkMetadata read(FakeApk apk) throws Exception {
+    Path path = Files.createTempFile(tmpFolder.getRoot().toPath(), "test", ".apk");
+    apk.writeTo(path);
+    Optional<ApkMetadata> metadata = reader.read(path.toString());
+    assertThat(metadata).isPresent();
+    return metadata.get();
+  }
+
+  /**
+   * Creates an APK for which AAPT outputs:
+   *
+   * <pre>
+   * package: name='com.google.test' versionCode='12' versionName='1.2'
+   * sdkVersion:'21'
+   * uses-permission: name='android.permission.INTERNET'
+   * uses-permission: name='android.permission.WAKE_LOCK'
+   * native-code: 'armeabi-v7a' 'x86'
+   * </pre>
+   */
+  static FakeApk createTestApk() {
+    return new FakeApk()
+        .startElement(
+            "manifest",
+            Attribute.typed("versionCode", ATTR_VERSION_CODE, TYPE_INT_DEC, 12),
+            Attribute.string("versionName", ATTR_VERSION_NAME, "1.2"),
+            Attribute.string("package", 0, "com.google.test"))
+        .startElement(
+            "uses-sdk", Attribute.typed("minSdkVersion", ATTR_MIN_SDK_VERSION, TYPE_INT_DEC, 21))
+        .endElement("uses-sdk")
+        .startElement(
+            "uses-permission", Attribute.string("name", ATTR_NAME, "android.permission.INTERNET"))
+        .endElement("uses-permission")
+        .startElement(
+            "uses-permission", Attribute.string("name", ATTR_NAME, "android.permission.WAKE_LOCK"))
+        .endElement("uses-permission")
+        .startElement("application")
+        .endElement("application")
+        .startElement(
+            "instrumentation",
+            Attribute.string("name", ATTR_NAME, "androidx.test.runner.AndroidJUnitRunner"),
+            Attribute.string("targetPackage", ATTR_TARGET_PACKAGE, "com.google.target"))
+        .endElement("instrumentation")
+        .endElement("manifest")
+        .addNativeLib("x86")
+        .addNativeLib("armeabi-v7a");
+  }
+
+  private static void assertTestApkMetadata(ApkMetadata metadata) {
+    assertThat(metadata.packageName()).hasValue("com.google.test");
+    assertThat(metadata.versionCode()).hasValue(12);
+    assertThat(metadata.versionName()).hasValue("1.2");
+    assertThat(metadata.minSdkVersion()).hasValue(21);
+    assertThat(metadata.permissions())
+        .containsExactly("android.permission.INTERNET", "android.permission.WAKE_LOCK");
+    assertThat(metadata.instrumentationTargetPackage()).hasValue("com.google.target");
+    assertThat(metadata.abis()).containsExactly("armeabi-v7a", "x86").inOrder();
+  }
+
+  /** Creates a manifest with an application element with the given attributes. */
+  private static FakeApk createManifest(FakeApk apk, Attribute... applicationAttributes) {
+    return apk.startElement("manifest", Attribute.string("package", 0, "com.google.test"))
+        .startElement("application", applicationAttributes)
+        .endElement("application")
+        .endElement("manifest");
+  }
+}
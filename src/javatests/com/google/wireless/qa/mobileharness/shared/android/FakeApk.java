@@ -0,0 +1,262 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.android;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Builds APK files whose AndroidManifest.xml is compiled to binary XML in the same layout as AAPT
+ * does: attribute names with resource IDs come first in the string pool and are covered by the
+ * resource map.
+ */
+final class FakeApk {
+
+  static final int TYPE_REFERENCE = 0x01;
+  static final int TYPE_STRING = 0x03;
+  static final int TYPE_INT_DEC = 0x10;
+  static final int TYPE_INT_BOOLEAN = 0x12;
+
+  static final int ATTR_NAME = 0x01010003;
+  static final int ATTR_TARGET_PACKAGE = 0x01010021;
+  static final int ATTR_MIN_SDK_VERSION = 0x0101020c;
+  static final int ATTR_VERSION_CODE = 0x0101021b;
+  static final int ATTR_VERSION_NAME = 0x0101021c;
+  static final int ATTR_MULTI_ARCH = 0x0101048f;
+
+  /** An attribute of an element. */
+  static final class Attribute {
+    private final String name;
+    private final int resourceId;
+    private final int type;
+    @Nullable private final String stringValue;
+    private final int data;
+
+    private Attribute(
+        String name, int resourceId, int type, @Nullable String stringValue, int data) {
+      this.name = name;
+      this.resourceId = resourceId;
+      this.type = type;
+      this.stringValue = stringValue;
+      this.data = data;
+    }
+
+    static Attribute string(String name, int resourceId, String value) {
+      return new Attribute(name, resourceId, TYPE_STRING, value, 0);
+    }
+
+    static Attribute typed(String name, int resourceId, int type, int data) {
+      return new Attribute(name, resourceId, type, /* stringValue= */ null, data);
+    }
+  }
+
+  /** A start element if attributes is not null, or an end element. */
+  private static final class Node {
+    private final String name;
+    @Nullable private final Attribute[] attributes;
+
+    private Node(String name, @Nullable Attribute[] attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+  }
+
+  private final List<Node> nodes = new ArrayList<>();
+  private final TreeSet<String> nativeLibAbis = new TreeSet<>();
+  private boolean utf8StringPool = true;
+  @Nullable private byte[] rawManifest;
+
+  FakeApk useUtf16StringPool() {
+    utf8StringPool = false;
+    return this;
+  }
+
+  /** Uses the given bytes as AndroidManifest.xml instead of the compiled elements. */
+  FakeApk setRawManifest(byte[] manifest) {
+    rawManifest = manifest;
+    return this;
+  }
+
+  FakeApk startElement(String name, Attribute... attributes) {
+    nodes.add(new Node(name, attributes));
+    return this;
+  }
+
+  FakeApk endElement(String name) {
+    nodes.add(new Node(name, /* attributes= */ null));
+    return this;
+  }
+
+  FakeApk addNativeLib(String abi) {
+    nativeLibAbis.add(abi);
+    return this;
+  }
+
+  void writeTo(Path apk) throws IOException {
+    try (OutputStream output = Files.newOutputStream(apk);
+        ZipOutputStream zip = new ZipOutputStream(output)) {
+      zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+      zip.write(rawManifest == null ? buildManifest() : rawManifest);
+      zip.closeEntry();
+      for (String abi : nativeLibAbis) {
+        zip.putNextEntry(new ZipEntry("lib/" + abi + "/libfake.so"));
+        zip.closeEntry();
+      }
+    }
+  }
+
+  byte[] buildManifest() {
+    // {string, index in the string pool}.
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    List<Integer> resourceIds = new ArrayList<>();
+    for (Node node : nodes) {
+      if (node.attributes != null) {
+        for (Attribute attribute : node.attributes) {
+          if (attribute.resourceId != 0 && !strings.containsKey(attribute.name)) {
+            strings.put(attribute.name, strings.size());
+            resourceIds.add(attribute.resourceId);
+          }
+        }
+      }
+    }
+    for (Node node : nodes) {
+      strings.putIfAbsent(node.name, strings.size());
+      if (node.attributes != null) {
+        for (Attribute attribute : node.attributes) {
+          strings.putIfAbsent(attribute.name, strings.size());
+          if (attribute.stringValue != null) {
+            strings.putIfAbsent(attribute.stringValue, strings.size());
+          }
+        }
+      }
+    }
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    writeStringPool(body, new ArrayList<>(strings.keySet()));
+    writeShort(body, 0x0180);
+    writeShort(body, 8);
+    writeInt(body, 8 + 4 * resourceIds.size());
+    resourceIds.forEach(id -> writeInt(body, id));
+    for (Node node : nodes) {
+      if (node.attributes == null) {
+        writeShort(body, 0x0103);
+        writeShort(body, 16);
+        writeInt(body, 24);
+        writeInt(body, /* lineNumber= */ 1);
+        writeInt(body, /* comment= */ -1);
+        writeInt(body, /* namespace= */ -1);
+        writeInt(body, strings.get(node.name));
+        continue;
+      }
+      writeShort(body, 0x0102);
+      writeShort(body, 16);
+      writeInt(body, 16 + 20 + 20 * node.attributes.length);
+      writeInt(body, /* lineNumber= */ 1);
+      writeInt(body, /* comment= */ -1);
+      writeInt(body, /* namespace= */ -1);
+      writeInt(body, strings.get(node.name));
+      writeShort(body, /* attributeStart= */ 20);
+      writeShort(body, /* attributeSize= */ 20);
+      writeShort(body, node.attributes.length);
+      writeShort(body, /* idIndex= */ 0);
+      writeShort(body, /* classIndex= */ 0);
+      writeShort(body, /* styleIndex= */ 0);
+      for (Attribute attribute : node.attributes) {
+        boolean isString = attribute.stringValue != null;
+        writeInt(body, /* namespace= */ -1);
+        writeInt(body, strings.get(attribute.name));
+        writeInt(body, isString ? strings.get(attribute.stringValue) : -1);
+        writeShort(body, /* size= */ 8);
+        body.write(0);
+        body.write(attribute.type);
+        writeInt(body, isString ? strings.get(attribute.stringValue) : attribute.data);
+      }
+    }
+
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    writeShort(xml, 0x0003);
+    writeShort(xml, 8);
+    writeInt(xml, 8 + body.size());
+    xml.writeBytes(body.toByteArray());
+    return xml.toByteArray();
+  }
+
+  private void writeStringPool(ByteArrayOutputStream output, List<String> strings) {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    List<Integer> offsets = new ArrayList<>();
+    for (String string : strings) {
+      offsets.add(data.size());
+      if (utf8StringPool) {
+        byte[] bytes = string.getBytes(UTF_8);
+        writeUtf8Length(data, string.length());
+        writeUtf8Length(data, bytes.length);
+        data.writeBytes(bytes);
+        data.write(0);
+      } else {
+        writeShort(data, string.length());
+        data.writeBytes(string.getBytes(UTF_16LE));
+        writeShort(data, 0);
+      }
+    }
+    while (data.size() % 4 != 0) {
+      data.write(0);
+    }
+    int headerSize = 28;
+    int stringsStart = headerSize + 4 * strings.size();
+    writeShort(output, 0x0001);
+    writeShort(output, headerSize);
+    writeInt(output, stringsStart + data.size());
+    writeInt(output, strings.size());
+    writeInt(output, /* styleCount= */ 0);
+    writeInt(output, utf8StringPool ? 1 << 8 : 0);
+    writeInt(output, stringsStart);
+    writeInt(output, /* stylesStart= */ 0);
+    offsets.forEach(offset -> writeInt(output, offset));
+    output.writeBytes(data.toByteArray());
+  }
+
+  private static void writeUtf8Length(ByteArrayOutputStream output, int length) {
+    if (length > 0x7f) {
+      output.write(0x80 | (length >> 8));
+    }
+    output.write(length & 0xff);
+  }
+
+  private static void writeShort(ByteArrayOutputStream output, int value) {
+    output.write(value & 0xff);
+    output.write((value >> 8) & 0xff);
+  }
+
+  private static void writeInt(ByteArrayOutputStream output, int value) {
+    writeShort(output, value);
+    writeShort(output, value >>> 16);
+  }
+}
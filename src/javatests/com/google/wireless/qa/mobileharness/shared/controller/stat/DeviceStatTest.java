@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.controller.stat;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.mobileharness.api.model.proto.Test.TestResult;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for the {@link LabMetrics} recorded by {@link DeviceStat}.
+ *
+ * <p>The lab metrics are shared by all the devices in the process, so only their increments are
+ * checked.
+ */
+@RunWith(JUnit4.class)
+public class DeviceStatTest {
+
+  private final FakeClock clock = new FakeClock();
+
+  private DeviceStat deviceStat;
+
+  @Before
+  public void setUp() {
+    deviceStat = new DeviceStat(clock);
+  }
+
+  @Test
+  public void onSetUp_recordsSetupTime() {
+    long setupCount = LabMetrics.DEVICE_SETUP_TIME.getCount();
+
+    deviceStat.onShowUp();
+    clock.advance(Duration.ofMinutes(5L));
+    deviceStat.onReady();
+
+    // The time from showing up to becoming ready, which includes the wait for the device
+    // reservation, is not recorded.
+    assertThat(LabMetrics.DEVICE_SETUP_TIME.getCount()).isEqualTo(setupCount);
+
+    deviceStat.onSetUp(Duration.ofSeconds(20L));
+
+    assertThat(LabMetrics.DEVICE_SETUP_TIME.getCount()).isEqualTo(setupCount + 1);
+  }
+
+  @Test
+  public void onCheckDevice_recordsCheckTime() {
+    long checkCount = LabMetrics.DEVICE_CHECK_TIME.getCount();
+
+    deviceStat.onCheckDevice(Duration.ofSeconds(3L));
+
+    assertThat(LabMetrics.DEVICE_CHECK_TIME.getCount()).isEqualTo(checkCount + 1);
+  }
+
+  @Test
+  public void addFinishedTest_recordsTestRunTimeAndCounters() {
+    long runCount = LabMetrics.TEST_RUN_TIME.getCount();
+    long finishedCount = LabMetrics.FINISHED_TESTS.get();
+    long nonPassingCount = LabMetrics.NON_PASSING_TESTS.get();
+
+    deviceStat.addNewTest();
+    clock.advance(Duration.ofMinutes(1L));
+    deviceStat.addFinishedTest(TestResult.PASS);
+
+    assertThat(LabMetrics.TEST_RUN_TIME.getCount()).isEqualTo(runCount + 1);
+    assertThat(LabMetrics.FINISHED_TESTS.get()).isEqualTo(finishedCount + 1);
+    assertThat(LabMetrics.NON_PASSING_TESTS.get()).isEqualTo(nonPassingCount);
+
+    deviceStat.addNewTest();
+    clock.advance(Duration.ofMinutes(1L));
+    deviceStat.addFinishedTest(TestResult.FAIL);
+
+    assertThat(LabMetrics.TEST_RUN_TIME.getCount()).isEqualTo(runCount + 2);
+    assertThat(LabMetrics.FINISHED_TESTS.get()).isEqualTo(finishedCount + 2);
+    assertThat(LabMetrics.NON_PASSING_TESTS.get()).isEqualTo(nonPassingCount + 1);
+    assertThat(deviceStat.getConsecutiveFinishedFail()).isEqualTo(1);
+  }
+
+  @Test
+  public void addFinishedTest_withoutNewTest_doesNotRecordTestRunTime() {
+    long runCount = LabMetrics.TEST_RUN_TIME.getCount();
+    long finishedCount = LabMetrics.FINISHED_TESTS.get();
+
+    deviceStat.addFinishedTest(TestResult.SKIP);
+
+    assertThat(LabMetrics.TEST_RUN_TIME.getCount()).isEqualTo(runCount);
+    assertThat(LabMetrics.FINISHED_TESTS.get()).isEqualTo(finishedCount + 1);
+  }
+
+  @Test
+  public void onAllocated_recordsWaitSinceIdleOnce() {
+    long waitCount = LabMetrics.ALLOCATION_WAIT_TIME.getCount();
+
+    deviceStat.onIdle();
+    clock.advance(Duration.ofSeconds(30L));
+    deviceStat.onAllocated();
+    deviceStat.onAllocated();
+
+    assertThat(LabMetrics.ALLOCATION_WAIT_TIME.getCount()).isEqualTo(waitCount + 1);
+  }
+
+  @Test
+  public void onAllocated_afterDie_doesNotRecordWait() {
+    long waitCount = LabMetrics.ALLOCATION_WAIT_TIME.getCount();
+
+    deviceStat.onIdle();
+    deviceStat.onDie();
+    deviceStat.onAllocated();
+
+    assertThat(LabMetrics.ALLOCATION_WAIT_TIME.getCount()).isEqualTo(waitCount);
+  }
+
+  private static final class FakeClock extends Clock {
+
+    private Instant now = Instant.ofEpochMilli(1_000_000L);
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+
+    private void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+  }
+}
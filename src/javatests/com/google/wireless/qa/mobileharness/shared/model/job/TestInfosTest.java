@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.model.job;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.wireless.qa.mobileharness.shared.proto.Job.JobType;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestInfosTest {
+
+  private TestInfos tests;
+
+  @Before
+  public void setUp() throws Exception {
+    JobInfo jobInfo =
+        JobInfo.newBuilder()
+            .setLocator(new JobLocator("fake_job_name"))
+            .setType(JobType.newBuilder().setDevice("NoOpDevice").setDriver("NoOpDriver").build())
+            .build();
+    tests = jobInfo.tests();
+  }
+
+  @Test
+  public void getTestCount() throws Exception {
+    TestInfo test1 = tests.add("test1");
+    TestInfo test2 = tests.add("test2");
+    tests.add("test3");
+
+    test1.status().set(TestStatus.ASSIGNED);
+    test2.status().set(TestStatus.SUSPENDED);
+
+    assertThat(tests.getTestCount(TestStatus.NEW)).isEqualTo(1);
+    assertThat(tests.getNewTestCount()).isEqualTo(1);
+    assertThat(tests.getTestCount(TestStatus.ASSIGNED)).isEqualTo(1);
+    assertThat(tests.getSuspendedTestCount()).isEqualTo(1);
+    assertThat(tests.getTestCount(TestStatus.DONE)).isEqualTo(0);
+
+    test2.status().set(TestStatus.NEW);
+
+    assertThat(tests.getNewTestCount()).isEqualTo(2);
+    assertThat(tests.getSuspendedTestCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void getByStatus() throws Exception {
+    TestInfo test1 = tests.add("test1");
+    TestInfo test2 = tests.add("test2");
+    TestInfo test3 = tests.add("test3");
+
+    test2.status().set(TestStatus.RUNNING);
+    test1.status().set(TestStatus.RUNNING);
+
+    assertThat(tests.getByStatus(TestStatus.RUNNING)).containsExactly(test2, test1).inOrder();
+    assertThat(tests.getByStatus(TestStatus.NEW)).containsExactly(test3);
+    assertThat(tests.getByStatus(TestStatus.DONE)).isEmpty();
+
+    tests.remove(test3.locator().getId());
+
+    assertThat(tests.getByStatus(TestStatus.NEW)).isEmpty();
+    assertThat(tests.getTestCount(TestStatus.NEW)).isEqualTo(0);
+  }
+
+  @Test
+  public void allDone() throws Exception {
+    TestInfo test1 = tests.add("test1");
+    TestInfo test2 = tests.add("test2");
+    assertThat(tests.allDone()).isFalse();
+
+    test1.status().set(TestStatus.DONE);
+    assertThat(tests.allDone()).isFalse();
+
+    test2.status().set(TestStatus.DONE);
+    assertThat(tests.allDone()).isTrue();
+
+    tests.add("test3");
+    assertThat(tests.allDone()).isFalse();
+  }
+
+  @Test
+  public void listener() throws Exception {
+    List<String> addedTests = new ArrayList<>();
+    AtomicInteger allDoneCount = new AtomicInteger();
+    TestInfos.Listener listener =
+        new TestInfos.Listener() {
+          @Override
+          public void onTestAdded(TestInfo testInfo) {
+            addedTests.add(testInfo.locator().getName());
+          }
+
+          @Override
+          public void onAllDone() {
+            allDoneCount.incrementAndGet();
+          }
+        };
+    tests.addListener(listener);
+
+    TestInfo test1 = tests.add("test1");
+    TestInfo test2 = tests.add("test2");
+    test1.status().set(TestStatus.DONE);
+    assertThat(allDoneCount.get()).isEqualTo(0);
+
+    test2.status().set(TestStatus.DONE);
+    assertThat(allDoneCount.get()).isEqualTo(1);
+
+    // Removing the only unfinished test also finishes all tests.
+    TestInfo test3 = tests.add("test3");
+    tests.remove(test3.locator().getId());
+    assertThat(allDoneCount.get()).isEqualTo(2);
+    assertThat(addedTests).containsExactly("test1", "test2", "test3").inOrder();
+
+    tests.removeListener(listener);
+    tests.add("test4");
+    assertThat(addedTests).hasSize(3);
+  }
+
+  @Test
+  public void statusListener_calledOutsideOfStatusLock() throws Exception {
+    TestInfo test = tests.add("test");
+    Thread thread;
+    synchronized (tests) {
+      // The status change of the thread is notified after the lock of the status is released, so
+      // it waits for the lock of the tests without blocking the status change below.
+      thread = new Thread(() -> test.status().set(TestStatus.ASSIGNED));
+      thread.start();
+      while (thread.getState() != Thread.State.BLOCKED) {
+        Thread.sleep(1L);
+      }
+      test.status().set(TestStatus.RUNNING);
+    }
+    thread.join();
+
+    // The late notification of ASSIGNED doesn't override the latest status.
+    assertThat(tests.getByStatus(TestStatus.RUNNING)).containsExactly(test);
+    assertThat(tests.getTestCount(TestStatus.ASSIGNED)).isEqualTo(0);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.model.job.in.json;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
+import com.google.wireless.qa.mobileharness.shared.proto.spec.DriverSpec;
+import com.google.wireless.qa.mobileharness.shared.proto.spec.JobSpec;
+import com.google.wireless.qa.mobileharness.shared.proto.spec.driver.NoOpDriverSpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProtocolMessageOrBuilderJsonSerializerTest {
+
+  private static final NoOpDriverSpec NO_OP_DRIVER_SPEC =
+      NoOpDriverSpec.newBuilder()
+          .setSleepTimeSec(5)
+          .setDummyBool(true)
+          .addDummyStringGroup("a")
+          .addDummyStringGroup("b")
+          .setTestResult(TestResult.FAIL)
+          .setTestResultReason("reason")
+          .build();
+
+  private static final JobSpec JOB_SPEC =
+      JobSpec.newBuilder()
+          .setDriverSpec(
+              DriverSpec.newBuilder().setExtension(NoOpDriverSpec.ext, NO_OP_DRIVER_SPEC))
+          .build();
+
+  @Test
+  public void serialize_jobSpecWithExtension() {
+    JsonObject json =
+        createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer())
+            .toJsonTree(JOB_SPEC)
+            .getAsJsonObject();
+
+    assertThat(json)
+        .isEqualTo(
+            JsonParser.parseString(
+                "{\"driverSpec\": {\"ext\": {\"sleepTimeSec\": 5, \"dummyBool\": true,"
+                    + " \"dummyStringGroup\": [\"a\", \"b\"], \"testResult\": \"FAIL\","
+                    + " \"testResultReason\": \"reason\"}}}"));
+  }
+
+  @Test
+  public void roundTrip_extensionWithEnum() {
+    Gson gson = createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer());
+
+    for (TestResult testResult : TestResult.values()) {
+      NoOpDriverSpec spec = NO_OP_DRIVER_SPEC.toBuilder().setTestResult(testResult).build();
+      JsonObject jobSpecJson =
+          gson.toJsonTree(
+                  JOB_SPEC.toBuilder()
+                      .setDriverSpec(DriverSpec.newBuilder().setExtension(NoOpDriverSpec.ext, spec))
+                      .build())
+              .getAsJsonObject();
+
+      assertThat(
+              gson.fromJson(
+                  jobSpecJson.getAsJsonObject("driverSpec").get("ext"), NoOpDriverSpec.class))
+          .isEqualTo(spec);
+    }
+  }
+
+  @Test
+  public void deserialize_jobSpecWithExtension_ignoresExtension() {
+    String json =
+        createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer()).toJson(JOB_SPEC);
+
+    assertThat(
+            createGson(
+                    ProtocolMessageOrBuilderJsonSerializer.newBuilder()
+                        .setAllowUnknownFields(true)
+                        .build())
+                .fromJson(json, JobSpec.class))
+        .isEqualTo(JobSpec.newBuilder().setDriverSpec(DriverSpec.getDefaultInstance()).build());
+
+    JsonParseException exception =
+        assertThrows(
+            JsonParseException.class,
+            () ->
+                createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer())
+                    .fromJson(json, JobSpec.class));
+    assertThat(exception).hasMessageThat().contains("Unknown fields [ext]");
+  }
+
+  @Test
+  public void serialize_unknownProtoFields_ignored() throws Exception {
+    // Parses the extension as an unknown field without an extension registry.
+    JobSpec jobSpec = JobSpec.parseFrom(JOB_SPEC.toByteString());
+    assertThat(jobSpec.getDriverSpec().getUnknownFields().asMap()).isNotEmpty();
+
+    assertThat(
+            createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer()).toJson(jobSpec))
+        .isEqualTo("{\"driverSpec\":{}}");
+  }
+
+  @Test
+  public void deserialize_unknownJsonFields() {
+    String json = "{\"sleepTimeSec\": 5, \"unknownField\": 1}";
+
+    assertThat(
+            createGson(
+                    ProtocolMessageOrBuilderJsonSerializer.newBuilder()
+                        .setAllowUnknownFields(true)
+                        .build())
+                .fromJson(json, NoOpDriverSpec.class))
+        .isEqualTo(NoOpDriverSpec.newBuilder().setSleepTimeSec(5).build());
+
+    JsonParseException exception =
+        assertThrows(
+            JsonParseException.class,
+            () ->
+                createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer())
+                    .fromJson(json, NoOpDriverSpec.class));
+    assertThat(exception).hasMessageThat().contains("Unknown fields [unknownField]");
+  }
+
+  @Test
+  public void deserialize_unrecognizedEnumValue_throwsException() {
+    JsonParseException exception =
+        assertThrows(
+            JsonParseException.class,
+            () ->
+                createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer())
+                    .fromJson("{\"testResult\": \"NOT_A_RESULT\"}", NoOpDriverSpec.class));
+
+    assertThat(exception).hasMessageThat().contains("Unrecognized value [NOT_A_RESULT]");
+  }
+
+  @Test
+  public void serialize_enumWithoutJavaClass_serializedAsName() throws Exception {
+    FileDescriptor file =
+        FileDescriptor.buildFrom(
+            FileDescriptorProto.newBuilder()
+                .setName("dynamic.proto")
+                .setPackage("dynamic")
+                .addEnumType(
+                    EnumDescriptorProto.newBuilder()
+                        .setName("Color")
+                        .addValue(EnumValueDescriptorProto.newBuilder().setName("RED").setNumber(0))
+                        .addValue(
+                            EnumValueDescriptorProto.newBuilder().setName("BLUE").setNumber(1)))
+                .addMessageType(
+                    DescriptorProto.newBuilder()
+                        .setName("Dynamic")
+                        .addField(
+                            FieldDescriptorProto.newBuilder()
+                                .setName("color")
+                                .setNumber(1)
+                                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+                                .setType(FieldDescriptorProto.Type.TYPE_ENUM)
+                                .setTypeName(".dynamic.Color")))
+                .build(),
+            new FileDescriptor[0]);
+    Descriptor descriptor = file.findMessageTypeByName("Dynamic");
+    DynamicMessage message =
+        DynamicMessage.newBuilder(descriptor)
+            .setField(
+                descriptor.findFieldByName("color"),
+                file.findEnumTypeByName("Color").findValueByName("BLUE"))
+            .build();
+    Gson gson = createGson(ProtocolMessageOrBuilderJsonSerializer.defaultSerializer());
+
+    assertThat(gson.toJson(message)).isEqualTo("{\"color\":\"BLUE\"}");
+    assertThat(gson.toJson(message)).isEqualTo("{\"color\":\"BLUE\"}");
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void setFieldNameConverter_replacesFieldNamesInUse() {
+    ProtocolMessageOrBuilderJsonSerializer serializer =
+        ProtocolMessageOrBuilderJsonSerializer.defaultSerializer();
+    Gson gson = createGson(serializer);
+    NoOpDriverSpec spec = NoOpDriverSpec.newBuilder().setSleepTimeSec(5).build();
+    assertThat(gson.toJson(spec)).isEqualTo("{\"sleepTimeSec\":5}");
+
+    serializer.setFieldNameConverter(field -> field.getName());
+
+    assertThat(gson.toJson(spec)).isEqualTo("{\"sleep_time_sec\":5}");
+    assertThat(gson.fromJson("{\"sleep_time_sec\":5}", NoOpDriverSpec.class)).isEqualTo(spec);
+  }
+
+  private static Gson createGson(ProtocolMessageOrBuilderJsonSerializer serializer) {
+    return new GsonBuilder()
+        .registerTypeHierarchyAdapter(MessageOrBuilder.class, serializer)
+        .create();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.model.job.out;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LogTest {
+
+  private static final int SEGMENT_SIZE = Log.SEGMENT_SIZE;
+
+  @Test
+  public void get_acrossSegments() {
+    LogHeapBudget budget = LogHeapBudget.unlimited();
+    Log log = new Log(new Timing(), budget, MoreExecutors.directExecutor());
+    String text = appendSegments(log, 3);
+
+    assertThat(log.size()).isEqualTo(text.length());
+    assertThat(log.get(0)).isEqualTo(text);
+    assertThat(log.get(SEGMENT_SIZE - 1)).isEqualTo(text.substring(SEGMENT_SIZE - 1));
+    assertThat(log.get(SEGMENT_SIZE)).isEqualTo(text.substring(SEGMENT_SIZE));
+    assertThat(log.get(2 * SEGMENT_SIZE + 5)).isEqualTo(text.substring(2 * SEGMENT_SIZE + 5));
+    assertThat(log.get(text.length())).isEmpty();
+    assertThat(log.get(text.length() + 1)).isEmpty();
+    assertThat(budget.getUsedBytes()).isEqualTo(2L * 3 * SEGMENT_SIZE);
+  }
+
+  @Test
+  public void append_spillsWhenBudgetExceeded() {
+    LogHeapBudget budget = new LogHeapBudget(2L * SEGMENT_SIZE);
+    Log log = new Log(new Timing(), budget, MoreExecutors.directExecutor());
+    String text = appendSegments(log, 4);
+
+    assertThat(budget.getUsedBytes()).isAtMost(2L * SEGMENT_SIZE);
+    assertThat(log.size()).isEqualTo(text.length());
+    assertThat(log.get(0)).isEqualTo(text);
+    assertThat(log.get(SEGMENT_SIZE + 3)).isEqualTo(text.substring(SEGMENT_SIZE + 3));
+
+    log.append("more");
+    assertThat(log.get(0)).isEqualTo(text + "more");
+  }
+
+  @Test
+  public void append_spillsOutsideAppend() {
+    LogHeapBudget budget = new LogHeapBudget(1L);
+    List<Runnable> spillTasks = new ArrayList<>();
+    Log log = new Log(new Timing(), budget, spillTasks::add);
+    String text = appendSegments(log, 3);
+
+    // Only one spill task is scheduled, and nothing is spilled until it runs.
+    assertThat(spillTasks).hasSize(1);
+    assertThat(budget.getUsedBytes()).isEqualTo(2L * 3 * SEGMENT_SIZE);
+
+    spillTasks.get(0).run();
+
+    assertThat(budget.getUsedBytes()).isEqualTo(0L);
+    assertThat(log.get(0)).isEqualTo(text);
+
+    log.append(Strings.repeat("a", SEGMENT_SIZE));
+    assertThat(spillTasks).hasSize(2);
+  }
+
+  @Test
+  public void newReader() throws Exception {
+    LogHeapBudget budget = new LogHeapBudget(2L * SEGMENT_SIZE);
+    Log log = new Log(new Timing(), budget, MoreExecutors.directExecutor());
+    String text = appendSegments(log, 4);
+
+    try (Reader reader = log.newReader(0)) {
+      assertThat(CharStreams.toString(reader)).isEqualTo(text);
+    }
+    try (Reader reader = log.newReader(SEGMENT_SIZE + 3)) {
+      assertThat(CharStreams.toString(reader)).isEqualTo(text.substring(SEGMENT_SIZE + 3));
+    }
+    try (Reader reader = log.newReader(text.length())) {
+      assertThat(reader.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void newReader_segmentSpilledWhileReading() throws Exception {
+    LogHeapBudget budget = new LogHeapBudget(1L);
+    List<Runnable> spillTasks = new ArrayList<>();
+    Log log = new Log(new Timing(), budget, spillTasks::add);
+    String text = appendSegments(log, 3);
+    char[] buffer = new char[10];
+
+    try (Reader reader = log.newReader(0)) {
+      assertThat(reader.read(buffer)).isEqualTo(buffer.length);
+      spillTasks.get(0).run();
+      assertThat(String.valueOf(buffer) + CharStreams.toString(reader)).isEqualTo(text);
+    }
+  }
+
+  @Test
+  public void append_sharedBudget() {
+    LogHeapBudget budget = new LogHeapBudget(3L * SEGMENT_SIZE);
+    Log jobLog = new Log(new Timing(), budget, MoreExecutors.directExecutor());
+    Log testLog = new Log(new Timing(), budget, MoreExecutors.directExecutor());
+    String jobText = appendSegments(jobLog, 1);
+    String testText = appendSegments(testLog, 2);
+
+    assertThat(budget.getUsedBytes()).isAtMost(3L * SEGMENT_SIZE);
+    assertThat(jobLog.get(0)).isEqualTo(jobText);
+    assertThat(testLog.get(0)).isEqualTo(testText);
+  }
+
+  /** Appends the given number of full segments and a partial tail, and returns the text. */
+  private static String appendSegments(Log log, int segmentCount) {
+    // Non-ASCII chars and a surrogate pair split by the segment boundaries are restored exactly.
+    String text =
+        Strings.repeat("ab\u00e9\ud83d\ude00\u4e2d line\n", segmentCount * SEGMENT_SIZE / 12 + 2)
+            .substring(0, segmentCount * SEGMENT_SIZE + 10);
+    for (int i = 0; i < segmentCount; i++) {
+      log.append(text.substring(i * SEGMENT_SIZE, (i + 1) * SEGMENT_SIZE));
+    }
+    log.append(text.substring(segmentCount * SEGMENT_SIZE));
+    return text;
+  }
+}